@@ -3,7 +3,6 @@
  */
 package le2lejosev3.pblocks;
 
-import lejos.hardware.Button;
 import lejos.hardware.Keys;
 
 /**
@@ -30,7 +29,7 @@ public class BrickButtons {
 	 */
 	public static int measure() {
 		// get buttons and debounce them, don't play any keyclick sound
-		int bb = Button.keys.getButtons();
+		int bb = Hardware.get().getButtons();
 		if ((bb & Keys.ID_UP) > 0) {
 			return BB_UP;
 		}
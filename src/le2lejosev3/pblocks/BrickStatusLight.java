@@ -6,9 +6,6 @@ package le2lejosev3.pblocks;
 //import java.util.logging.Level;
 //import java.util.logging.Logger;
 
-import lejos.hardware.LED;
-import lejos.hardware.ev3.LocalEV3;
-
 /**
  * Brick Status Light Block
  * 
@@ -29,21 +26,19 @@ public class BrickStatusLight {
 	public static final boolean CONSTANT = false;
 	public static final boolean PULSE = true;
 
-	// the LED instance
-	private static final LED led = LocalEV3.get().getLED();
+	// the hardware backend with the LED
+	private static final IHardware hardware = Hardware.get();
 	static {
-		if (led != null) {
-			// handle resources correctly before exiting
-			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
-				public void run() {
-					// turn the light and any blinking off
-					// if (log.isLoggable(Level.FINEST)) {
-					// log.finest("off");
-					// }
-					led.setPattern(0);
-				}
-			}));
-		}
+		// handle resources correctly before exiting
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				// turn the light and any blinking off
+				// if (log.isLoggable(Level.FINEST)) {
+				// log.finest("off");
+				// }
+				hardware.setLedPattern(0);
+			}
+		}));
 	}
 
 	/**
@@ -55,7 +50,7 @@ public class BrickStatusLight {
 	 *              pattern; false to let it stay on constantly.
 	 */
 	public static void on(int color, boolean pulse) {
-		led.setPattern(calcPattern(color, pulse));
+		hardware.setLedPattern(calcPattern(color, pulse));
 	}
 
 	/**
@@ -65,7 +60,7 @@ public class BrickStatusLight {
 		// if (log.isLoggable(Level.FINEST)) {
 		// log.fine("off");
 		// }
-		led.setPattern(0);
+		hardware.setLedPattern(0);
 	}
 
 	/**
@@ -4,7 +4,6 @@
 package le2lejosev3.pblocks;
 
 import lejos.hardware.port.Port;
-import lejos.hardware.sensor.EV3ColorSensor;
 import lejos.robotics.Color;
 import lejos.robotics.SampleProvider;
 
@@ -28,9 +27,18 @@ public class ColorSensor {
 	public static final int COLOR_BROWN = 7;
 
 	private Port sensorPort = null;
-	private EV3ColorSensor sensor = null;
+	private ISensorDevice sensor = null;
 	private SampleProvider sp = null;
+	private int spMode = -1;
 	private float[] sample = null;
+	private SensorSampler sampler = null;
+	private SensorSnapshot snapshot = null;
+	private int snapshotMode = -1;
+
+	/** the modes of the EV3ColorSensor */
+	private static final int COLOR_ID_MODE = 0;
+	private static final int RED_MODE = 1;
+	private static final int AMBIENT_MODE = 3;
 
 	/**
 	 * Constructor.
@@ -39,7 +47,7 @@ public class ColorSensor {
 	 */
 	public ColorSensor(Port sensorPort) {
 		this.sensorPort = sensorPort;
-		sensor = new EV3ColorSensor(this.sensorPort);
+		sensor = Hardware.get().openColorSensor(this.sensorPort);
 		if (sensor != null) {
 			// handle resources correctly before exiting
 			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
@@ -51,13 +59,55 @@ public class ColorSensor {
 		}
 	}
 
+	/**
+	 * Let the specified background sampler poll the sensor; the measure methods
+	 * then return the latest polled value. The sampler polls the mode of the
+	 * latest measurement (initially the reflected light intensity), so that the
+	 * sensor only switches its mode when the program measures another mode.
+	 * 
+	 * @param sampler the sampler, or null to fetch each sample again.
+	 */
+	public void setSampler(SensorSampler sampler) {
+		synchronized (sensor) {
+			if (snapshot != null) {
+				this.sampler.unregister(snapshot);
+				snapshot = null;
+				snapshotMode = -1;
+			}
+			// the sampler may have switched the mode
+			spMode = -1;
+			this.sampler = sampler;
+			if (sampler != null) {
+				sampled(RED_MODE);
+			}
+		}
+	}
+
+	/**
+	 * Return the snapshot of the sampler for the specified mode; if the sampler
+	 * polls another mode it is moved to the specified one.
+	 * 
+	 * @param mode the sensor mode.
+	 * @return the snapshot holding the latest sample of the mode.
+	 */
+	private SensorSnapshot sampled(int mode) {
+		if (snapshotMode != mode) {
+			if (snapshot != null) {
+				sampler.unregister(snapshot);
+			}
+			snapshot = sampler.register(sensor, sensor.getMode(mode));
+			snapshotMode = mode;
+		}
+		return snapshot;
+	}
+
 	/**
 	 * Fetch and return the color code from the sensor.
 	 * 
 	 * @return the color code, one of COLOR_NONE .. COLOR_BROWN.
 	 */
 	public int measureColor() {
-		return convColorId(sensor.getColorID());
+		return convColorId((int) fetchSample(COLOR_ID_MODE));
 	}
 
 	/**
@@ -93,11 +143,7 @@ public class ColorSensor {
 	 * @return the reflected light intensity (0..100).
 	 */
 	public int measureReflectedLightIntensity() {
-		// switch to reflected light intensity mode
-		sp = sensor.getRedMode();
-		sample = new float[sp.sampleSize()];
-		sp.fetchSample(sample, 0);
-		return Math.round(sample[0] * 100F);
+		return Math.round(measureReflectedLightIntensityF());
 	}
 
 	/**
@@ -106,11 +152,7 @@ public class ColorSensor {
 	 * @return the reflected light intensity (0..100).
 	 */
 	public float measureReflectedLightIntensityF() {
-		// switch to reflected light intensity mode
-		sp = sensor.getRedMode();
-		sample = new float[sp.sampleSize()];
-		sp.fetchSample(sample, 0);
-		return sample[0] * 100F;
+		return fetchSample(RED_MODE) * 100F;
 	}
 
 	/**
@@ -119,11 +161,7 @@ public class ColorSensor {
 	 * @return the ambient light intensity (0..100).
 	 */
 	public int measureAmbientLightIntensity() {
-		// switch to ambient light intensity mode
-		sp = sensor.getAmbientMode();
-		sample = new float[sp.sampleSize()];
-		sp.fetchSample(sample, 0);
-		return Math.round(sample[0] * 100F);
+		return Math.round(fetchSample(AMBIENT_MODE) * 100F);
 	}
 
 	/**
@@ -132,10 +170,34 @@ public class ColorSensor {
 	 * @return the ambient light intensity (0..100).
 	 */
 	public float measureAmbientLightIntensityF() {
-		// switch to ambient light intensity mode
-		sp = sensor.getAmbientMode();
-		sample = new float[sp.sampleSize()];
-		sp.fetchSample(sample, 0);
-		return sample[0] * 100F;
+		return fetchSample(AMBIENT_MODE) * 100F;
+	}
+
+	/**
+	 * Fetch a sample from the sensor in the specified mode, or take the latest one
+	 * of the sampler if one is set.
+	 * Switches the sample provider only if the mode changes; the sample array is
+	 * reused, so that a steady stream of measurements does not allocate any
+	 * memory.
+	 * 
+	 * @param mode the sensor mode.
+	 * @return the first value of the sample.
+	 */
+	private float fetchSample(int mode) {
+		synchronized (sensor) {
+			if (sampler != null) {
+				return sampled(mode).getValue(0);
+			}
+			if ((spMode != mode) || (sp == null)) {
+				// switch to the mode
+				sp = sensor.getMode(mode);
+				spMode = mode;
+				if ((sample == null) || (sample.length < sp.sampleSize())) {
+					sample = new float[sp.sampleSize()];
+				}
+			}
+			sp.fetchSample(sample, 0);
+			return sample[0];
+		}
 	}
 }
@@ -0,0 +1,183 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+/**
+ * The changed rectangles of the LCD since the last refresh.
+ * Overlapping or touching rectangles are merged; when there are more than
+ * MAX_RECTS rectangles the two whose union grows the least are merged.
+ * 
+ * @author Roland Blochberger
+ */
+class DirtyRegion {
+
+	/** the maximum number of rectangles */
+	static final int MAX_RECTS = 4;
+
+	private final int width;
+	private final int height;
+	// x, y, width, height per rectangle; one spare rectangle for the merging
+	private final int[] rects = new int[(MAX_RECTS + 1) * 4];
+	private int count = 0;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param width  the width of the LCD.
+	 * @param height the height of the LCD.
+	 */
+	DirtyRegion(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Add a changed rectangle; it is clipped to the LCD.
+	 * 
+	 * @param x the x-coordinate of the upper left corner.
+	 * @param y the y-coordinate of the upper left corner.
+	 * @param w the width.
+	 * @param h the height.
+	 */
+	void add(int x, int y, int w, int h) {
+		int x1 = Math.max(x, 0);
+		int y1 = Math.max(y, 0);
+		int x2 = Math.min(x + w, width);
+		int y2 = Math.min(y + h, height);
+		if ((x1 >= x2) || (y1 >= y2)) {
+			// nothing visible
+			return;
+		}
+		int i = count * 4;
+		rects[i] = x1;
+		rects[i + 1] = y1;
+		rects[i + 2] = x2 - x1;
+		rects[i + 3] = y2 - y1;
+		count++;
+		// merge the new rectangle with the ones it touches
+		int last = count - 1;
+		for (int j = 0; j < count; j++) {
+			if ((j != last) && touches(j, last)) {
+				union(j, last);
+				remove(last);
+				// the union may touch other rectangles; if it was the final
+				// rectangle it was moved into the freed slot
+				if (j != count) {
+					last = j;
+				}
+				j = -1;
+			}
+		}
+		if (count > MAX_RECTS) {
+			// merge the pair with the least growth
+			int bestA = 0;
+			int bestB = 1;
+			long bestGrowth = Long.MAX_VALUE;
+			for (int a = 0; a < count; a++) {
+				for (int b = a + 1; b < count; b++) {
+					long growth = unionArea(a, b) - area(a) - area(b);
+					if (growth < bestGrowth) {
+						bestGrowth = growth;
+						bestA = a;
+						bestB = b;
+					}
+				}
+			}
+			union(bestA, bestB);
+			remove(bestB);
+		}
+	}
+
+	/**
+	 * Mark the whole LCD as changed.
+	 */
+	void addAll() {
+		count = 0;
+		add(0, 0, width, height);
+	}
+
+	/**
+	 * @return true if nothing changed.
+	 */
+	boolean isEmpty() {
+		return (count == 0);
+	}
+
+	/**
+	 * @return the number of rectangles.
+	 */
+	int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the rectangles; x, y, width, height per rectangle.
+	 */
+	int[] getRects() {
+		return rects;
+	}
+
+	/**
+	 * Remove all rectangles.
+	 */
+	void clear() {
+		count = 0;
+	}
+
+	/**
+	 * @return true if the rectangles overlap or touch.
+	 */
+	private boolean touches(int a, int b) {
+		int ia = a * 4;
+		int ib = b * 4;
+		return (rects[ia] <= rects[ib] + rects[ib + 2]) && (rects[ib] <= rects[ia] + rects[ia + 2])
+				&& (rects[ia + 1] <= rects[ib + 1] + rects[ib + 3]) && (rects[ib + 1] <= rects[ia + 1] + rects[ia + 3]);
+	}
+
+	/**
+	 * @return the area of a rectangle.
+	 */
+	private long area(int a) {
+		return (long) rects[a * 4 + 2] * rects[a * 4 + 3];
+	}
+
+	/**
+	 * @return the area of the union of two rectangles.
+	 */
+	private long unionArea(int a, int b) {
+		int ia = a * 4;
+		int ib = b * 4;
+		int x1 = Math.min(rects[ia], rects[ib]);
+		int y1 = Math.min(rects[ia + 1], rects[ib + 1]);
+		int x2 = Math.max(rects[ia] + rects[ia + 2], rects[ib] + rects[ib + 2]);
+		int y2 = Math.max(rects[ia + 1] + rects[ia + 3], rects[ib + 1] + rects[ib + 3]);
+		return (long) (x2 - x1) * (y2 - y1);
+	}
+
+	/**
+	 * extend rectangle a to the union with rectangle b.
+	 */
+	private void union(int a, int b) {
+		int ia = a * 4;
+		int ib = b * 4;
+		int x1 = Math.min(rects[ia], rects[ib]);
+		int y1 = Math.min(rects[ia + 1], rects[ib + 1]);
+		int x2 = Math.max(rects[ia] + rects[ia + 2], rects[ib] + rects[ib + 2]);
+		int y2 = Math.max(rects[ia + 1] + rects[ia + 3], rects[ib + 1] + rects[ib + 3]);
+		rects[ia] = x1;
+		rects[ia + 1] = y1;
+		rects[ia + 2] = x2 - x1;
+		rects[ia + 3] = y2 - y1;
+	}
+
+	/**
+	 * remove a rectangle by moving the last one into its place.
+	 */
+	private void remove(int a) {
+		count--;
+		if (a != count) {
+			System.arraycopy(rects, count * 4, rects, a * 4, 4);
+		}
+	}
+}
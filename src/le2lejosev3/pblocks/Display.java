@@ -7,10 +7,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import lejos.hardware.ev3.LocalEV3;
 import lejos.hardware.lcd.Font;
 import lejos.hardware.lcd.GraphicsLCD;
 import lejos.hardware.lcd.Image;
@@ -18,6 +19,28 @@ import lejos.hardware.lcd.Image;
 /**
  * Display Block.
  * 
+ * In the immediate mode (default) every block refreshes the LCD. In the batch
+ * mode the blocks only draw into the LCD memory and record the changed
+ * rectangles; commit() then copies the changed rectangles to the screen at
+ * most at the maximum frame rate.
+ * 
+ * Usage of the batch mode:
+ * 
+ * <pre>
+ * Display.setBatchMode(true);
+ * Display.setMaxFrameRate(20F);
+ * while (...) {
+ * 	Display.textGrid(speed, false, 0, 0, Display.COLOR_BLACK, Display.FONT_NORMAL);
+ * 	Display.shapesRectangle(false, 0, 100, power, 10, true, Display.COLOR_BLACK);
+ * 	...
+ * 	Display.commit();
+ * }
+ * </pre>
+ * 
+ * The texts are remembered by their location, so that a text drawn at the
+ * same location again only redraws the characters that changed; numbers are
+ * formatted without creating Strings.
+ * 
  * @author Roland Blochberger
  * @see https://ev3-help-online.api.education.lego.com/Education/en-us/page.html?Path=blocks%2FLEGO%2FDisplay.html
  */
@@ -35,18 +58,49 @@ public class Display {
 	public static final boolean COLOR_BLACK = false;
 	public static final boolean COLOR_WHITE = true;
 
+	/** the size of the LCD in pixels */
+	public static final int LCD_WIDTH = 178;
+	public static final int LCD_HEIGHT = 128;
+
 	// the LCD instance
 	// private static final TextLCD tLcd = BrickFinder.getDefault().getTextLCD();
-	private static final GraphicsLCD gLcd = LocalEV3.get().getGraphicsLCD();
+	private static final ILcdDevice gLcd = Hardware.get().getGraphicsLCD();
 	static {
 		// we do our own refresh
 		gLcd.setAutoRefresh(false);
 	}
 
+	// the changed rectangles in the batch mode; guards the batch mode state
+	private static final DirtyRegion dirty = new DirtyRegion(LCD_WIDTH, LCD_HEIGHT);
+	private static volatile boolean batchMode = false;
+	// the minimum time between two commits in nanoseconds
+	private static volatile long minFrameNanos = 0L;
+	private static long lastCommit = 0L;
+	private static long commitCount = 0L;
+
 	/** the base directory for image files on the EV3 brick. */
 	public static final String IMAGE_DIR = "/home/lejos/lib/";
 	/** the default extension for image files that LeJOS can show */
 	public static final String DEFAULT_EXT = "lni";
+	/** the default size of the image cache in bytes */
+	public static final int DEFAULT_IMAGE_CACHE_SIZE = 65536;
+
+	// the decoded images by file name in the order of use; guards the image
+	// cache state
+	private static final LinkedHashMap<String, Image> images = new LinkedHashMap<String, Image>(16, 0.75F, true);
+	private static int imageCacheSize = DEFAULT_IMAGE_CACHE_SIZE;
+	private static int imageCacheBytes = 0;
+	private static long imageHits = 0L;
+	private static long imageMisses = 0L;
+
+	// the texts drawn on the LCD; guards the text drawing state
+	private static final TextCache texts = new TextCache();
+	// the fonts by font style; loaded on first use
+	private static final Font[] fonts = new Font[4];
+	private static Font currentFont = null;
+	// the buffers for the characters of a text and the digits of a number
+	private static char[] textChars = new char[TextCache.MAX_LENGTH];
+	private static final byte[] digits = new byte[NumberText.MAX_FLOAT_LENGTH];
 
 	/**
 	 * Display a number on the pixel display.
@@ -62,7 +116,9 @@ public class Display {
 	 *               does not support the small font.
 	 */
 	public static void textPixels(int number, boolean clrScr, int x, int y, boolean color, int font) {
-		textPixels(String.valueOf(number), clrScr, x, y, color, font);
+		synchronized (texts) {
+			drawText(toChars(NumberText.format(number, digits, 0)), clrScr, x, y, color, font);
+		}
 	}
 
 	/**
@@ -79,7 +135,9 @@ public class Display {
 	 *               does not support the small font.
 	 */
 	public static void textPixels(float number, boolean clrScr, int x, int y, boolean color, int font) {
-		textPixels(String.valueOf(number), clrScr, x, y, color, font);
+		synchronized (texts) {
+			drawText(toChars(NumberText.format(number, digits, 0)), clrScr, x, y, color, font);
+		}
 	}
 
 	/**
@@ -96,35 +154,14 @@ public class Display {
 	 *               does not support the small font.
 	 */
 	public static void textPixels(String text, boolean clrScr, int x, int y, boolean color, int font) {
-		if (clrScr) {
-			gLcd.clear();
-			//gLcd.refresh();
+		synchronized (texts) {
+			int length = text.length();
+			if (length > textChars.length) {
+				textChars = new char[length];
+			}
+			text.getChars(0, length, textChars, 0);
+			drawText(length, clrScr, x, y, color, font);
 		}
-		// set the font
-		Font fnt = null;
-		switch (font) {
-		case FONT_LARGE:
-			fnt = Font.getLargeFont();
-			break;
-		case FONT_SMALL:
-			fnt = Font.getSmallFont();
-			break;
-		case FONT_NORMAL:
-		case FONT_BOLD:
-		default:
-			fnt = Font.getDefaultFont();
-			break;
-		}
-		gLcd.setFont(fnt);
-		// clear the area where the text will be displayed
-		gLcd.setColor(color == COLOR_BLACK ? GraphicsLCD.WHITE : GraphicsLCD.BLACK);
-		// draw and fill the rectangle
-		gLcd.fillRect(x, y, text.length() * fnt.width, fnt.height);
-		// set text color
-		gLcd.setColor(color == COLOR_BLACK ? GraphicsLCD.BLACK : GraphicsLCD.WHITE);
-		// draw the string
-		gLcd.drawString(text, x, y, GraphicsLCD.LEFT | GraphicsLCD.TOP);
-		gLcd.refresh();
 	}
 
 	/**
@@ -141,7 +178,7 @@ public class Display {
 	 *               does not support the small font.
 	 */
 	public static void textGrid(int number, boolean clrScr, int column, int row, boolean color, int font) {
-		textPixels(String.valueOf(number), clrScr, column * 10, row * 18, color, font);
+		textPixels(number, clrScr, column * 10, row * 18, color, font);
 	}
 
 	/**
@@ -158,7 +195,7 @@ public class Display {
 	 *               does not support the small font.
 	 */
 	public static void textGrid(float number, boolean clrScr, int column, int row, boolean color, int font) {
-		textPixels(String.valueOf(number), clrScr, column * 10, row * 18, color, font);
+		textPixels(number, clrScr, column * 10, row * 18, color, font);
 	}
 
 	/**
@@ -195,14 +232,14 @@ public class Display {
 	 */
 	public static void shapesLine(boolean clrScr, int x1, int y1, int x2, int y2, boolean color) {
 		if (clrScr) {
-			gLcd.clear();
+			clearLcd();
 			//gLcd.refresh();
 		}
 		// set the color
 		gLcd.setColor(color == COLOR_BLACK ? GraphicsLCD.BLACK : GraphicsLCD.WHITE);
 		// draw the line
 		gLcd.drawLine(x1, y1, x2, y2);
-		gLcd.refresh();
+		changed(Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2 - x1) + 1, Math.abs(y2 - y1) + 1);
 	}
 
 	/**
@@ -220,7 +257,7 @@ public class Display {
 	 */
 	public static void shapesCircle(boolean clrScr, int x, int y, int radius, boolean fill, boolean color) {
 		if (clrScr) {
-			gLcd.clear();
+			clearLcd();
 			//gLcd.refresh();
 		}
 		// set the color
@@ -236,7 +273,7 @@ public class Display {
 			// draw the circle outline only
 			gLcd.drawArc(lx, uy, wh, wh, 0, 360);
 		}
-		gLcd.refresh();
+		changed(lx, uy, wh + 1, wh + 1);
 	}
 
 	/**
@@ -256,7 +293,7 @@ public class Display {
 	public static void shapesRectangle(boolean clrScr, int x, int y, int width, int height, boolean fill,
 			boolean color) {
 		if (clrScr) {
-			gLcd.clear();
+			clearLcd();
 			//gLcd.refresh();
 		}
 		// set the color
@@ -268,7 +305,7 @@ public class Display {
 			// draw the rectangle outline only
 			gLcd.drawRect(x, y, width, height);
 		}
-		gLcd.refresh();
+		changed(x, y, width + 1, height + 1);
 	}
 
 	/**
@@ -284,18 +321,20 @@ public class Display {
 	 */
 	public static void shapesPoint(boolean clrScr, int x, int y, boolean color) {
 		if (clrScr) {
-			gLcd.clear();
+			clearLcd();
 			//gLcd.refresh();
 		}
 		// draw the pixel
 		gLcd.setPixel(x, y, color == COLOR_BLACK ? 1 : 0);
-		gLcd.refresh();
+		changed(x, y, 1, 1);
 	}
 
 	/**
 	 * Draw a graphic image file on the pixel display.
 	 * Note: The image file must already reside on the EV3 brick. Please upload it
 	 * (by SCP) to the IMAGE_DIR directory before using this programming block.
+	 * The decoded image is kept in the image cache, so drawing it again does not
+	 * read the file again.
 	 * 
 	 * @param filename the file name only; you can omit the DEFAULT_EXT.
 	 * @param clrScr   set true to clear the screen before drawing; false to leave
@@ -306,10 +345,154 @@ public class Display {
 	 *                 (0..127, 0 = upper edge of the LCD).
 	 */
 	public static void image(String filename, boolean clrScr, int x, int y) {
-		if (filename.lastIndexOf('.') <= 0) {
-			// no extension found: append the default sound file extension
-			filename = filename + '.' + DEFAULT_EXT;
+		Image img = getImage(appendExt(filename));
+		if (img != null) {
+			try {
+				if (clrScr) {
+					clearLcd();
+					//gLcd.refresh();
+				}
+				gLcd.drawImage(img, x, y, GraphicsLCD.LEFT | GraphicsLCD.TOP);
+				imageDrawn(img, x, y);
+
+			} catch (ArrayIndexOutOfBoundsException ie) {
+				// ignore that
+			}
 		}
+	}
+
+	/**
+	 * Load image files into the image cache, e.g. the frames of an animation at
+	 * the program start.
+	 * 
+	 * @param filenames the file names only; you can omit the DEFAULT_EXT.
+	 * @return true if all images were loaded.
+	 */
+	public static boolean preloadImages(String... filenames) {
+		boolean ok = true;
+		for (String filename : filenames) {
+			filename = appendExt(filename);
+			Image img = null;
+			synchronized (images) {
+				img = images.get(filename);
+			}
+			if (img == null) {
+				img = loadImage(filename);
+				if (img == null) {
+					ok = false;
+				} else {
+					cacheImage(filename, img);
+				}
+			}
+		}
+		return ok;
+	}
+
+	/**
+	 * Set the size of the image cache; the least recently drawn images are
+	 * removed from the cache when the decoded images need more memory.
+	 * 
+	 * @param bytes the maximum memory of the decoded images in bytes; or 0 to
+	 *              disable the cache. The default is DEFAULT_IMAGE_CACHE_SIZE.
+	 */
+	public static void setImageCacheSize(int bytes) {
+		if (bytes < 0) {
+			throw new RuntimeException("Invalid image cache size: " + bytes);
+		}
+		synchronized (images) {
+			imageCacheSize = bytes;
+			evictImages();
+		}
+	}
+
+	/**
+	 * Remove all images from the image cache.
+	 */
+	public static void clearImageCache() {
+		synchronized (images) {
+			images.clear();
+			imageCacheBytes = 0;
+		}
+	}
+
+	/**
+	 * @return the number of images drawn from the image cache.
+	 */
+	public static long getImageCacheHitCount() {
+		synchronized (images) {
+			return imageHits;
+		}
+	}
+
+	/**
+	 * @return the number of images read from a file to draw them.
+	 */
+	public static long getImageCacheMissCount() {
+		synchronized (images) {
+			return imageMisses;
+		}
+	}
+
+	/**
+	 * get an image from the image cache; load it if necessary.
+	 * 
+	 * @param filename the file name with extension.
+	 * @return the image; or null if it cannot be loaded.
+	 */
+	private static Image getImage(String filename) {
+		synchronized (images) {
+			Image img = images.get(filename);
+			if (img != null) {
+				imageHits++;
+				return img;
+			}
+			imageMisses++;
+		}
+		Image img = loadImage(filename);
+		if (img != null) {
+			cacheImage(filename, img);
+		}
+		return img;
+	}
+
+	/**
+	 * put an image into the image cache and remove the least recently drawn
+	 * images if necessary.
+	 */
+	private static void cacheImage(String filename, Image img) {
+		int size = ((img.getWidth() + 7) / 8) * img.getHeight();
+		synchronized (images) {
+			if (size <= imageCacheSize) {
+				Image old = images.put(filename, img);
+				if (old != null) {
+					imageCacheBytes -= ((old.getWidth() + 7) / 8) * old.getHeight();
+				}
+				imageCacheBytes += size;
+				evictImages();
+			}
+		}
+	}
+
+	/**
+	 * remove the least recently drawn images until the cache fits its size.
+	 */
+	private static void evictImages() {
+		Iterator<Image> it = images.values().iterator();
+		while ((imageCacheBytes > imageCacheSize) && it.hasNext()) {
+			Image img = it.next();
+			imageCacheBytes -= ((img.getWidth() + 7) / 8) * img.getHeight();
+			it.remove();
+		}
+	}
+
+	/**
+	 * load an image from the resources or the IMAGE_DIR.
+	 * 
+	 * @param filename the file name with extension.
+	 * @return the image; or null if it cannot be loaded.
+	 */
+	private static Image loadImage(String filename) {
+		Image img = null;
 		InputStream in = Display.class.getResourceAsStream("/resources/" + filename);
 		if (in != null) {
 			// resource found:
@@ -317,12 +500,7 @@ public class Display {
 				log.log(Level.FINEST, "file: /resources/{0}", filename);
 			}
 			try {
-				Image img = Image.createImage(in);
-				if (clrScr) {
-					gLcd.clear();
-					//gLcd.refresh();
-				}
-				gLcd.drawImage(img, x, y, GraphicsLCD.LEFT | GraphicsLCD.TOP);
+				img = Image.createImage(in);
 
 			} catch (ArrayIndexOutOfBoundsException ie) {
 				// ignore that
@@ -351,12 +529,7 @@ public class Display {
 					if (log.isLoggable(Level.FINEST)) {
 						log.log(Level.FINEST, "file: {0}", imageFile.getAbsolutePath());
 					}
-					Image img = Image.createImage(fis);
-					if (clrScr) {
-						gLcd.clear();
-						//gLcd.refresh();
-					}
-					gLcd.drawImage(img, x, y, GraphicsLCD.LEFT | GraphicsLCD.TOP);
+					img = Image.createImage(fis);
 
 				} catch (ArrayIndexOutOfBoundsException ie) {
 					// ignore that
@@ -378,6 +551,18 @@ public class Display {
 				log.log(Level.WARNING, "Cannot read image file {0}", imageFile.getAbsolutePath());
 			}
 		}
+		return img;
+	}
+
+	/**
+	 * append the default file extension if necessary.
+	 */
+	private static String appendExt(String filename) {
+		if (filename.lastIndexOf('.') <= 0) {
+			// no extension found: append the default image file extension
+			return filename + '.' + DEFAULT_EXT;
+		}
+		return filename;
 	}
 
 	/**
@@ -385,8 +570,266 @@ public class Display {
 	 * implemented by clear screen.
 	 */
 	public static void resetScreen() {
+		clearLcd();
+		changed(0, 0, LCD_WIDTH, LCD_HEIGHT);
+	}
+
+	/**
+	 * Switch the batch mode on or off. When it is switched off, the changes not
+	 * committed yet are copied to the screen.
+	 * 
+	 * @param batch set true to draw into the LCD memory and copy the changes to
+	 *              the screen by commit(); false to refresh the screen after
+	 *              each block (default).
+	 */
+	public static void setBatchMode(boolean batch) {
+		synchronized (dirty) {
+			if (!batch && batchMode && !dirty.isEmpty()) {
+				push(System.nanoTime());
+			}
+			batchMode = batch;
+		}
+	}
+
+	/**
+	 * @return true in the batch mode.
+	 */
+	public static boolean isBatchMode() {
+		return batchMode;
+	}
+
+	/**
+	 * Set the maximum frame rate of commit() in the batch mode.
+	 * 
+	 * @param fps the maximum number of commits per second; or 0 for no limit
+	 *            (default).
+	 */
+	public static void setMaxFrameRate(float fps) {
+		if (fps < 0F) {
+			throw new RuntimeException("Invalid frame rate: " + fps);
+		}
+		minFrameNanos = (fps > 0F) ? (long) (1000000000.0 / fps) : 0L;
+	}
+
+	/**
+	 * Copy the rectangles changed since the last commit to the screen in the
+	 * batch mode. Nothing is copied if nothing changed or if the last commit is
+	 * more recent than the maximum frame rate allows; the changes are then
+	 * copied by a later commit.
+	 * 
+	 * @return true if the screen was refreshed.
+	 */
+	public static boolean commit() {
+		synchronized (dirty) {
+			if (dirty.isEmpty()) {
+				return false;
+			}
+			long now = System.nanoTime();
+			if ((commitCount > 0L) && ((now - lastCommit) < minFrameNanos)) {
+				// too early
+				return false;
+			}
+			push(now);
+			return true;
+		}
+	}
+
+	/**
+	 * @return the number of commits that refreshed the screen.
+	 */
+	public static long getCommitCount() {
+		synchronized (dirty) {
+			return commitCount;
+		}
+	}
+
+	/**
+	 * draw the characters in the text buffer; only the characters that differ
+	 * from the text drawn at the same location before are drawn, the characters
+	 * of a longer former text are cleared. (call with the text lock held)
+	 */
+	private static void drawText(int length, boolean clrScr, int x, int y, boolean color, int font) {
+		if (clrScr) {
+			clearLcd();
+			//gLcd.refresh();
+		}
+		Font fnt = getFont(font);
+		if (fnt != currentFont) {
+			gLcd.setFont(fnt);
+			currentFont = fnt;
+		}
+		int bg = (color == COLOR_BLACK) ? GraphicsLCD.WHITE : GraphicsLCD.BLACK;
+		int fg = (color == COLOR_BLACK) ? GraphicsLCD.BLACK : GraphicsLCD.WHITE;
+		int cw = fnt.width;
+		// the changed columns
+		int x1 = Integer.MAX_VALUE;
+		int x2 = Integer.MIN_VALUE;
+		int height = fnt.height;
+		// the former text at this location
+		char[] prev = null;
+		int prevLength = 0;
+		int field = texts.find(x, y);
+		if (field >= 0) {
+			if ((texts.getFont(field) == fnt) && (texts.getColor(field) == color)) {
+				prev = texts.getChars(field);
+				prevLength = texts.getLength(field);
+			} else {
+				// another font or color: clear the former text
+				gLcd.setColor(bg);
+				gLcd.fillRect(x, y, texts.getWidth(field), texts.getHeight(field));
+				x1 = x;
+				x2 = x + texts.getWidth(field);
+				height = Math.max(height, texts.getHeight(field));
+			}
+		}
+		// redraw the runs of characters that differ
+		int end = Math.max(length, prevLength);
+		int common = Math.min(length, prevLength);
+		int i = 0;
+		while (i < end) {
+			if ((i < common) && (textChars[i] == prev[i])) {
+				i++;
+				continue;
+			}
+			int start = i;
+			while ((i < end) && !((i < common) && (textChars[i] == prev[i]))) {
+				i++;
+			}
+			// clear the background
+			gLcd.setColor(bg);
+			gLcd.fillRect(x + start * cw, y, (i - start) * cw, fnt.height);
+			if (start < length) {
+				// draw the characters
+				gLcd.setColor(fg);
+				gLcd.drawChars(textChars, start, Math.min(i, length) - start, x + start * cw, y,
+						GraphicsLCD.LEFT | GraphicsLCD.TOP);
+			}
+			x1 = Math.min(x1, x + start * cw);
+			x2 = Math.max(x2, x + i * cw);
+		}
+		// forget the texts drawn over and remember this one
+		texts.invalidate(x, y, length * cw, fnt.height, true);
+		texts.put(x, y, fnt, color, textChars, length);
+		if (x1 < x2) {
+			update(x1, y, x2 - x1, height);
+		}
+	}
+
+	/**
+	 * copy the formatted number to the text buffer.
+	 * 
+	 * @return the number of characters.
+	 */
+	private static int toChars(int length) {
+		for (int i = 0; i < length; i++) {
+			textChars[i] = (char) digits[i];
+		}
+		return length;
+	}
+
+	/**
+	 * @return the font for the font style.
+	 */
+	private static Font getFont(int font) {
+		switch (font) {
+		case FONT_LARGE:
+			if (fonts[FONT_LARGE] == null) {
+				fonts[FONT_LARGE] = Font.getLargeFont();
+			}
+			return fonts[FONT_LARGE];
+		case FONT_SMALL:
+			if (fonts[FONT_SMALL] == null) {
+				fonts[FONT_SMALL] = Font.getSmallFont();
+			}
+			return fonts[FONT_SMALL];
+		case FONT_NORMAL:
+		case FONT_BOLD:
+		default:
+			if (fonts[FONT_NORMAL] == null) {
+				fonts[FONT_NORMAL] = Font.getDefaultFont();
+			}
+			return fonts[FONT_NORMAL];
+		}
+	}
+
+	/**
+	 * clear the LCD memory.
+	 */
+	private static void clearLcd() {
 		gLcd.clear();
-		gLcd.refresh();
+		synchronized (texts) {
+			texts.clear();
+		}
+		if (batchMode) {
+			synchronized (dirty) {
+				// the batch mode may have been switched off meanwhile
+				if (batchMode) {
+					dirty.addAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * refresh the screen in the immediate mode; record the changed rectangle in
+	 * the batch mode.
+	 */
+	private static void changed(int x, int y, int width, int height) {
+		synchronized (texts) {
+			texts.invalidate(x, y, width, height, false);
+		}
+		update(x, y, width, height);
+	}
+
+	/**
+	 * refresh the screen in the immediate mode; record the changed rectangle in
+	 * the batch mode; keeps the texts.
+	 */
+	private static void update(int x, int y, int width, int height) {
+		if (!record(x, y, width, height)) {
+			gLcd.refresh();
+		}
+	}
+
+	/**
+	 * record the rectangle of a drawn image in the batch mode; the immediate
+	 * mode does not refresh the screen after an image.
+	 */
+	private static void imageDrawn(Image img, int x, int y) {
+		synchronized (texts) {
+			texts.invalidate(x, y, img.getWidth(), img.getHeight(), false);
+		}
+		record(x, y, img.getWidth(), img.getHeight());
+	}
+
+	/**
+	 * record a changed rectangle in the batch mode. The mode is checked again
+	 * with the lock held, so that no rectangle is recorded after
+	 * setBatchMode(false) copied the others to the screen.
+	 * 
+	 * @return true if the rectangle was recorded; false in the immediate mode.
+	 */
+	private static boolean record(int x, int y, int width, int height) {
+		if (!batchMode) {
+			return false;
+		}
+		synchronized (dirty) {
+			if (!batchMode) {
+				return false;
+			}
+			dirty.add(x, y, width, height);
+			return true;
+		}
+	}
+
+	/**
+	 * copy the changed rectangles to the screen.
+	 */
+	private static void push(long now) {
+		gLcd.refresh(dirty.getRects(), dirty.getCount());
+		dirty.clear();
+		lastCommit = now;
+		commitCount++;
 	}
 
 }
@@ -2,37 +2,29 @@ package le2lejosev3.pblocks;
 
 
 import java.io.*;
+import java.util.logging.Logger;
 
 import lejos.hardware.Audio;
-import lejos.internal.io.NativeDevice;
-import lejos.internal.io.SystemSettings;
 import lejos.utility.Delay;
 
 /**
  * EV3 sound routines.
  *
  */
-@SuppressWarnings("restriction")
 public class EV3Audio implements Audio
 {
 
-    private static final int RIFF_HDR_SIZE = 44;
-    private static final int RIFF_RIFF_SIG = 0x52494646;
-    private static final int RIFF_WAVE_SIG = 0x57415645;
-    private static final int RIFF_FMT_SIG = 0x666d7420;
-    private static final short RIFF_FMT_PCM = 0x0100;
-    private static final short RIFF_FMT_1CHAN = 0x0100;
-    private static final short RIFF_FMT_8BITS = 0x0800;
-    private static final short RIFF_FMT_16BITS = 0x1000;
-    private static final int RIFF_DATA_SIG = 0x64617461;
-    
+    private static final Logger log = Logger.getLogger(EV3Audio.class.getName());
+
     private static final int PCM_BUFFER_SIZE = 8*1024;
+    // number of read-ahead buffers of the WAV streaming
+    private static final int PCM_BUFFER_COUNT = 4;
     
     public static final String VOL_SETTING = "lejos.volume";
     
     private static int masterVolume = 0;
     
-    private static NativeDevice dev = new NativeDevice("/dev/lms_sound");
+    private static IAudioDevice dev = Hardware.get().getAudioDevice();
     private static final byte OP_BREAK = 0;
     private static final byte OP_TONE = 1;
     private static final byte OP_PLAY = 2;
@@ -41,6 +33,14 @@ public class EV3Audio implements Audio
     private static final EV3Audio singleton = new EV3Audio();
     private int PCMSampleSize = 0;
     private byte[] PCMBuffer;
+    // the read-ahead pipeline of the WAV streaming; created on first use
+    private PCMStream stream;
+    // the write buffer of the clip playback; created on first use
+    private byte[] clipBuffer;
+    // the software mixer; its thread waits until there is something to play
+    private final PCMMixer mixer = new PCMMixer(this);
+    // changed by every start and end of the PCM playback
+    private volatile int PCMGeneration = 0;
     
     /**
      * Static constructor to force loading of system settings
@@ -145,21 +145,6 @@ public class EV3Audio implements Audio
 
 
     
-    /**
-     * Read an LSB format
-     * @param d stream to read from
-     * @return the read int
-     * @throws java.io.IOException
-     */
-    private int readLSBInt(DataInputStream d) throws IOException
-    {
-        int val = d.readByte() & 0xff;
-        val |= (d.readByte() & 0xff) << 8;
-        val |= (d.readByte() & 0xff) << 16;
-        val |= (d.readByte() & 0xff) << 24;
-        return val;
-    }
-
     /**
      * Prepare the sound device to play PCM samples. 
      * @param sampleSize number of bits per sample
@@ -174,6 +159,7 @@ public class EV3Audio implements Audio
             throw new UnsupportedOperationException("Sample rate must be between 8KHz and 48KHz");
         // save sample size for later
         PCMSampleSize = sampleSize;
+        PCMGeneration++;
         PCMBuffer = new byte[PCM_BUFFER_SIZE+1];
         if (vol >= 0)
             vol = (vol*masterVolume)/100;
@@ -199,6 +185,9 @@ public class EV3Audio implements Audio
         if (PCMSampleSize == 0)
             return;
         PCMSampleSize = 0;         
+        PCMGeneration++;
+        // wake up a waiting writer
+        notifyAll();
         byte [] buf = new byte[6];
         buf[0] = OP_BREAK;
         dev.write(buf, 1);
@@ -215,6 +204,7 @@ public class EV3Audio implements Audio
     {
         // check for playback aborted
         if (PCMSampleSize == 0) return -1;
+        int generation = PCMGeneration;
         int offset = 0;
         while (offset < dataLen)
         {
@@ -224,7 +214,18 @@ public class EV3Audio implements Audio
             if (written < 0) return -1;
             if (written < (len + 1))
             {
-                Delay.msDelay(5);
+                // wait for room in the device; releases the lock, so that the
+                // playback can be ended meanwhile
+                try
+                {
+                    wait(5);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+                if (PCMGeneration != generation) return -1;
             }
             offset += written;
         }
@@ -285,86 +286,45 @@ public class EV3Audio implements Audio
      */
     public int playSample(File file, int vol)
     {
-        // First check that we have a wave file. File must be at least 44 bytes
-        // in size to contain a RIFF header.
-        if (file.length() < RIFF_HDR_SIZE)
-            return -9;
-        // Now check for a RIFF header
-        FileInputStream f = null; 
-        DataInputStream d = null;
+        return playWav(file, null, vol);
+    }
+
+
+    /**
+     * Play a wav stream
+     * 
+     * @param in the 8/16-bit PWM (WAV) sample stream
+     * @param vol the volume percentage 0 - 100
+     * @return 0 if the sample has been played or < 0 if there is an error.
+     * @throws FileNotFoundException 
+     */
+    public int playSample(InputStream in, int vol) 
+    {
+        return playWav(null, in, vol);
+    }
+
+
+    /**
+     * Play a wav file or stream
+     * @param file the 8/16-bit PWM (WAV) sample file; or null
+     * @param in the 8/16-bit PWM (WAV) sample stream if there is no file
+     * @param vol the volume percentage 0 - 100
+     * @return 0 if the sample has been played or < 0 if there is an error.
+     */
+    private int playWav(File file, InputStream in, int vol)
+    {
+        WavReader wav = new WavReader();
         boolean playing = false;
         try
         {
-        	f = new FileInputStream(file);
-        	d = new DataInputStream(new BufferedInputStream(f));
-
-            if (d.readInt() != RIFF_RIFF_SIG)
-                return -1;
-            // Skip chunk size
-            d.readInt();
-            // Check we have a wave file
-            if (d.readInt() != RIFF_WAVE_SIG)
-                return -2;
-            if (d.readInt() != RIFF_FMT_SIG)
-                return -3;
-            // Now check that the format is PCM, Mono 8 bits. Note that these
-            // values are stored little endian.
-            int sz = readLSBInt(d);
-            if (d.readShort() != RIFF_FMT_PCM)
-                return -4;
-            if (d.readShort() != RIFF_FMT_1CHAN)
-                return -5;
-            int sampleRate = readLSBInt(d);
-            if (sampleRate > 48000)
-                return -7;
-            d.readInt();
-            d.readShort();
-            short sampleSize = d.readShort();
-            if (sampleSize != RIFF_FMT_16BITS && sampleSize != RIFF_FMT_8BITS)
-                return -6;
+            // check the RIFF header and the format
+            int r = (file != null ? wav.open(file) : wav.open(in));
+            if (r < 0)
+                return r;
             playing = true;
-            // Skip any data in this chunk after the 16 bytes above
-            sz -= 16;
-            while (sz-- > 0)
-                d.readByte();
-            startPCMPlayback(sampleSize == RIFF_FMT_16BITS ? 16 : 8, sampleRate, vol);
-            playing = true;
-            int dataLen;
+            startPCMPlayback(wav.getSampleSize(), wav.getSampleRate(), vol);
             // Skip/process chunks until we  hit eof!
-            for(;;)
-            {
-                int chunk = d.readInt();
-                dataLen = readLSBInt(d); 
-                if (chunk == RIFF_DATA_SIG)
-                {
-                    int read;
-                    if (sampleSize == RIFF_FMT_16BITS)
-                    {
-                        // optimized case for native format
-                        while(dataLen > 0 && (read = d.read(PCMBuffer, 1, (PCMBuffer.length - 1 < dataLen ? PCMBuffer.length -1 : dataLen))) > 0)
-                        {
-                            writePCMBuffer(PCMBuffer, read);
-                            dataLen -= read;
-                        }
-                    }
-                    else
-                    {
-                        // need to handle data conversion
-                        byte[] data = new byte[PCM_BUFFER_SIZE/2];
-                        while(dataLen > 0 && (read = d.read(data, 0, (data.length < dataLen ? data.length : dataLen))) > 0)
-                        {
-                            writePCMSamples(data, 0, read);
-                            dataLen -= read;
-                        }                        
-                    }
-                }
-                else
-                {
-                    // Skip to the start of the next chunk
-                    while(dataLen-- > 0)
-                        d.readByte();
-                }
-            }
+            return streamData(wav);
         }
         catch (EOFException e)
         {
@@ -377,10 +337,7 @@ public class EV3Audio implements Audio
         finally
         {
             try {
-                if (d != null)
-                    d.close();
-                if (f != null)
-                    f.close();
+                wav.close();
                 if (playing)
                     endPCMPlayback();
             }
@@ -393,112 +350,168 @@ public class EV3Audio implements Audio
 
 
     /**
-     * Play a wav stream
-     * 
-     * @param in the 8/16-bit PWM (WAV) sample stream
-     * @param vol the volume percentage 0 - 100
+     * Stream the PCM data to the sound device. A reader thread reads the data
+     * ahead into a ring of buffers while this thread writes them to the device.
+     * @param wav the wav file or stream; its header is parsed already
      * @return 0 if the sample has been played or < 0 if there is an error.
-     * @throws FileNotFoundException 
      */
-    public int playSample(InputStream in, int vol) 
+    private int streamData(WavReader wav)
     {
-        DataInputStream d = null;
-        boolean playing = false;
-        try
+        PCMStream s;
+        synchronized (this)
         {
-        	d = new DataInputStream(new BufferedInputStream(in));
-
-            if (d.readInt() != RIFF_RIFF_SIG)
-                return -1;
-            // Skip chunk size
-            d.readInt();
-            // Check we have a wave file
-            if (d.readInt() != RIFF_WAVE_SIG)
-                return -2;
-            if (d.readInt() != RIFF_FMT_SIG)
-                return -3;
-            // Now check that the format is PCM, Mono 8 bits. Note that these
-            // values are stored little endian.
-            int sz = readLSBInt(d);
-            if (d.readShort() != RIFF_FMT_PCM)
-                return -4;
-            if (d.readShort() != RIFF_FMT_1CHAN)
-                return -5;
-            int sampleRate = readLSBInt(d);
-            if (sampleRate > 48000)
-                return -7;
-            d.readInt();
-            d.readShort();
-            short sampleSize = d.readShort();
-            if (sampleSize != RIFF_FMT_16BITS && sampleSize != RIFF_FMT_8BITS)
-                return -6;
-            playing = true;
-            // Skip any data in this chunk after the 16 bytes above
-            sz -= 16;
-            while (sz-- > 0)
-                d.readByte();
-            startPCMPlayback(sampleSize == RIFF_FMT_16BITS ? 16 : 8, sampleRate, vol);
-            playing = true;
-            int dataLen;
-            // Skip/process chunks until we  hit eof!
-            for(;;)
+            if (stream == null)
+                stream = new PCMStream(PCM_BUFFER_COUNT, PCM_BUFFER_SIZE);
+            s = stream;
+        }
+        int generation = PCMGeneration;
+        // one stream at a time
+        synchronized (s)
+        {
+            s.start(wav);
+            int len;
+            while ((len = s.take()) > 0)
             {
-                int chunk = d.readInt();
-                dataLen = readLSBInt(d); 
-                if (chunk == RIFF_DATA_SIG)
-                {
-                    int read;
-                    if (sampleSize == RIFF_FMT_16BITS)
-                    {
-                        // optimized case for native format
-                        while(dataLen > 0 && (read = d.read(PCMBuffer, 1, (PCMBuffer.length - 1 < dataLen ? PCMBuffer.length -1 : dataLen))) > 0)
-                        {
-                            writePCMBuffer(PCMBuffer, read);
-                            dataLen -= read;
-                        }
-                    }
-                    else
-                    {
-                        // need to handle data conversion
-                        byte[] data = new byte[PCM_BUFFER_SIZE/2];
-                        while(dataLen > 0 && (read = d.read(data, 0, (data.length < dataLen ? data.length : dataLen))) > 0)
-                        {
-                            writePCMSamples(data, 0, read);
-                            dataLen -= read;
-                        }                        
-                    }
-                }
-                else
-                {
-                    // Skip to the start of the next chunk
-                    while(dataLen-- > 0)
-                        d.readByte();
-                }
+                // stop if the playback was ended or restarted meanwhile
+                if (PCMGeneration != generation || writePCMBuffer(s.buffer(), len) < 0)
+                    break;
+                s.release();
             }
+            return s.finish();
         }
-        catch (EOFException e)
+    }
+
+    /**
+     * Play 16-bit PCM samples from memory, e.g. a decoded sound clip. The
+     * playback can be stopped by endPCMPlayback().
+     * @param data the 16-bit PCM samples
+     * @param len the number of bytes to play
+     * @param sampleRate the sample rate
+     * @param vol the volume percentage 0 - 100
+     * @return 0 if the samples have been played or playing was stopped
+     */
+    int playPCM(byte[] data, int len, int sampleRate, int vol)
+    {
+        byte[] buf;
+        synchronized (this)
         {
-            return 0;
+            if (clipBuffer == null)
+                clipBuffer = new byte[PCM_BUFFER_SIZE+1];
+            buf = clipBuffer;
         }
-        catch (IOException e)
+        // one clip at a time
+        synchronized (buf)
         {
+            int generation = startPCMStream(16, sampleRate, vol);
+            int offset = 0;
+            while (offset < len)
+            {
+                int n = len - offset;
+                if (n > PCM_BUFFER_SIZE)
+                    n = PCM_BUFFER_SIZE;
+                System.arraycopy(data, offset, buf, 1, n);
+                if (writePCMStream(buf, n, generation) < 0)
+                    break;
+                offset += n;
+            }
+            endPCMStream(generation);
+        }
+        return 0;
+    }
+
+    /**
+     * Start a PCM playback of 16-bit samples at the master volume.
+     * @param sampleRate the sample rate
+     * @return the playback generation to pass to writePCMStream() and
+     *         endPCMStream()
+     */
+    int startPCMStream(int sampleRate)
+    {
+        return startPCMStream(16, sampleRate, VOL_MAX);
+    }
+
+    /**
+     * Start a PCM playback.
+     * @return the playback generation
+     */
+    private synchronized int startPCMStream(int sampleSize, int sampleRate, int vol)
+    {
+        startPCMPlayback(sampleSize, sampleRate, vol);
+        return PCMGeneration;
+    }
+
+    /**
+     * Write 16-bit samples to a PCM playback started by startPCMStream(). It is
+     * assumed that the buffer contains extra space for the command byte.
+     * @param buf the buffer; the samples start at offset 1
+     * @param len the number of sample bytes
+     * @param generation the playback generation
+     * @return the number of bytes written or < 0 if the playback was ended or
+     *         another playback was started meanwhile
+     */
+    int writePCMStream(byte[] buf, int len, int generation)
+    {
+        if (PCMGeneration != generation)
             return -1;
+        return writePCMBuffer(buf, len);
+    }
+
+    /**
+     * End a PCM playback started by startPCMStream() unless another playback
+     * was started meanwhile.
+     * @param generation the playback generation
+     */
+    synchronized void endPCMStream(int generation)
+    {
+        if (PCMGeneration == generation)
+            endPCMPlayback();
+    }
+
+    /**
+     * @return the playback generation; changed by every start and end of a
+     *         PCM playback
+     */
+    int getPCMGeneration()
+    {
+        return PCMGeneration;
+    }
+
+    /**
+     * @return the software mixer
+     */
+    PCMMixer getMixer()
+    {
+        return mixer;
+    }
+
+    /**
+     * Get the number of times the WAV streaming had to wait for the data to
+     * be read after the playback started.
+     * @return the number of underruns
+     */
+    public long getUnderrunCount()
+    {
+        PCMStream s;
+        synchronized (this)
+        {
+            s = stream;
         }
-        finally
+        return (s == null ? 0 : s.getUnderrunCount());
+    }
+
+    /**
+     * Get the total time the WAV streaming had to wait for the data to be read
+     * after the playback started.
+     * @return the underrun time in milliseconds
+     */
+    public long getUnderrunTime()
+    {
+        PCMStream s;
+        synchronized (this)
         {
-            try {
-                if (d != null)
-                    d.close();
-                if (in != null)
-                    in.close();
-                if (playing)
-                    endPCMPlayback();
-            }
-            catch (IOException e)
-            {
-                return -1;
-            }                
+            s = stream;
         }
+        return (s == null ? 0 : s.getUnderrunNanos() / 1000000L);
     }
 
 
@@ -536,14 +549,6 @@ public class EV3Audio implements Audio
         
 
 
-    private int waitUntil(int t)
-    {
-        int t2;
-        while ((t2 = (int) System.currentTimeMillis()) < t)
-            Thread.yield();
-        return t2;
-    }
-
     /**
      * Play a note with attack, decay, sustain and release shape. This function
      * allows the playing of a more musical sounding note. It uses a set of
@@ -555,95 +560,29 @@ public class EV3Audio implements Audio
      */
     public void playNote(int[] inst, int freq, int len)
     {
-        // Generate an envelope controlled note. The instrument array contains
-        // the shape of the envelope. The attack period, the decay period the
-        // level to decay to and the level to decay to during the sustain part
-        // of the note finally the length of the actual release period. All
-        // periods are given in 2000th of a second units. This is because the
-        // generation of a tone using the playTone function will often take
-        // more than 1ms to execute. This means that the minimum tone segment
-        // that we can reliably generate is 2ms and so we use this unit as the
-        // basis of note generation.
-        int segLen = inst[0];
-        // All volume settings are scaled by 100.
-        int step = 9000 / segLen;
-        int vol = 100;
-        int oldVol = 0;
-        //System.out.println("Start playing");
-        // We do not really have fine grained enough timing so try and keep
-        // things aligned as closely as possible to a tick by waiting here
-        // before we start for the next tick.
-        int t = waitUntil((int) System.currentTimeMillis() + 1);
-        // Generate the attack profile from 20 to full volume
-        playFreq(freq, len+2000, vol / 100);
-        len /= 2;
-        for (int i = 0; i < segLen; i++)
-        {
-            vol += step;
-            if (oldVol != vol/100)
-            {
-                playFreq(freq, 100, vol / 100);
-                oldVol = vol/100;
-            }
-            t = waitUntil(t + 2);
-        }
-        len -= segLen;
-        // Now do the decay
-        segLen = inst[1];
-        if (segLen > 0)
+        // The instrument array contains the shape of the envelope. The attack
+        // period, the decay period the level to decay to and the level to
+        // decay to during the sustain part of the note finally the length of
+        // the actual release period. All periods are given in 2000th of a
+        // second units. The synthesizer renders the note from the wavetable of
+        // the instrument into the PCM stream of the mixer, so the envelope
+        // does not need a tone command every 2ms.
+        PCMMixer m = getMixer();
+        int id = m.add(new Synth.NoteVoice(inst, freq, len, VOL_MAX));
+        if (id < 0)
         {
-            step = inst[2] / segLen;
-            for (int i = 0; i < segLen; i++)
-            {
-                vol -= step;
-                if (oldVol != vol/100)
-                {
-                    playFreq(freq, 100, vol / 100);
-                    oldVol = vol/100;
-                }
-                t = waitUntil(t + 2);
-            }
-            len -= segLen;
+            log.warning("Too many sounds playing");
+            return;
         }
-        segLen = inst[4];
-        len -= segLen;
-        // adjust length of the sustain and possibly the release to match the
-        // requested note length
-        if (len > 0)
+        try
         {
-            step = inst[3] / len;
-            for (int i = 0; i < len; i++)
-            {
-                vol -= step;
-                if (oldVol != vol/100)
-                {
-                    playFreq(freq, 100, vol / 100);
-                    oldVol = vol/100;
-                }
-                t = waitUntil(t + 2);
-            }
+            m.await(id);
         }
-        else
-            segLen += len;
-        // Finally do the release
-        if (segLen > 0)
+        catch (InterruptedException e)
         {
-            //System.out.println("RVol: " +vol);
-            step = (vol - 100) / segLen;
-            for (int i = 0; i < segLen; i++)
-            {
-                vol -= step;
-                if (oldVol != vol/100)
-                {
-                    playFreq(freq, 100, vol / 100);
-                    oldVol = vol/100;
-                }
-                t = waitUntil(t + 2);
-            }
+            m.stop(id);
+            Thread.currentThread().interrupt();
         }
-        byte []cmd = new byte[1];
-        cmd[0] = OP_BREAK;
-        dev.write(cmd, 1);
     }
 
     /**
@@ -673,6 +612,6 @@ public class EV3Audio implements Audio
      */
     public void loadSettings()
     {
-        masterVolume = SystemSettings.getIntSetting(VOL_SETTING, 80);
+        masterVolume = Hardware.get().getIntSetting(VOL_SETTING, 80);
     }
 }
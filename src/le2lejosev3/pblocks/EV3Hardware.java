@@ -0,0 +1,495 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+import lejos.hardware.Button;
+import lejos.hardware.ev3.LocalEV3;
+import lejos.hardware.lcd.Font;
+import lejos.hardware.lcd.GraphicsLCD;
+import lejos.hardware.lcd.Image;
+import lejos.hardware.motor.BaseRegulatedMotor;
+import lejos.hardware.motor.EV3LargeRegulatedMotor;
+import lejos.hardware.motor.EV3MediumRegulatedMotor;
+import lejos.hardware.port.Port;
+import lejos.hardware.sensor.BaseSensor;
+import lejos.hardware.sensor.EV3ColorSensor;
+import lejos.hardware.sensor.EV3GyroSensor;
+import lejos.hardware.sensor.EV3TouchSensor;
+import lejos.hardware.sensor.EV3UltrasonicSensor;
+import lejos.internal.io.NativeDevice;
+import lejos.internal.io.SystemSettings;
+import lejos.robotics.SampleProvider;
+
+/**
+ * EV3 Brick hardware backend.
+ * Binds the devices to the LeJOS EV3 classes.
+ * 
+ * @author Roland Blochberger
+ */
+@SuppressWarnings("restriction")
+public class EV3Hardware implements IHardware {
+
+	// the devices that exist only once
+	private ILcdDevice lcd = null;
+	private IAudioDevice audio = null;
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#openLargeMotor(lejos.hardware.port.Port)
+	 */
+	@Override
+	public IRegulatedMotorDevice openLargeMotor(Port port) {
+		return new RegulatedMotorDevice(new EV3LargeRegulatedMotor(port));
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#openMediumMotor(lejos.hardware.port.Port)
+	 */
+	@Override
+	public IRegulatedMotorDevice openMediumMotor(Port port) {
+		return new RegulatedMotorDevice(new EV3MediumRegulatedMotor(port));
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#openUnregulatedMotor(lejos.hardware.port.Port)
+	 */
+	@Override
+	public IUnregulatedMotorDevice openUnregulatedMotor(Port port) {
+		return new UnregulatedMotorDevice(new lejos.hardware.motor.UnregulatedMotor(port));
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#openColorSensor(lejos.hardware.port.Port)
+	 */
+	@Override
+	public ISensorDevice openColorSensor(Port port) {
+		return new SensorDevice(new EV3ColorSensor(port));
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#openGyroSensor(lejos.hardware.port.Port)
+	 */
+	@Override
+	public ISensorDevice openGyroSensor(Port port) {
+		final EV3GyroSensor gyro = new EV3GyroSensor(port);
+		return new SensorDevice(gyro) {
+			@Override
+			public void reset() {
+				gyro.reset();
+			}
+		};
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#openTouchSensor(lejos.hardware.port.Port)
+	 */
+	@Override
+	public ISensorDevice openTouchSensor(Port port) {
+		return new SensorDevice(new EV3TouchSensor(port));
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#openUltrasonicSensor(lejos.hardware.port.Port)
+	 */
+	@Override
+	public ISensorDevice openUltrasonicSensor(Port port) {
+		final EV3UltrasonicSensor ultrasonic = new EV3UltrasonicSensor(port);
+		return new SensorDevice(ultrasonic) {
+			@Override
+			public SampleProvider getMode(int mode) {
+				if (mode == 0) {
+					// the distance mode needs the sensor enabled
+					ultrasonic.enable();
+				}
+				return super.getMode(mode);
+			}
+
+			@Override
+			public void close() {
+				// switch off the indicator led
+				ultrasonic.disable();
+				super.close();
+			}
+		};
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#openInfraredSensor(lejos.hardware.port.Port)
+	 */
+	@Override
+	public ISensorDevice openInfraredSensor(Port port) {
+		final EV3IRSensor ir = new EV3IRSensor(port);
+		// the remote mode is handled inside of the LeJOS sensor class
+		final SampleProvider remote = new SampleProvider() {
+			private final byte[] cmds = new byte[EV3IRSensor.IR_CHANNELS];
+
+			@Override
+			public int sampleSize() {
+				return EV3IRSensor.IR_CHANNELS;
+			}
+
+			@Override
+			public void fetchSample(float[] sample, int offset) {
+				ir.getRemoteCommands(cmds, 0, cmds.length);
+				for (int i = 0; i < cmds.length; i++) {
+					sample[offset + i] = cmds[i];
+				}
+			}
+		};
+		return new SensorDevice(ir) {
+			@Override
+			public SampleProvider getMode(int mode) {
+				return (mode == 2) ? remote : super.getMode(mode);
+			}
+		};
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#getGraphicsLCD()
+	 */
+	@Override
+	public synchronized ILcdDevice getGraphicsLCD() {
+		if (lcd == null) {
+			lcd = new LcdDevice(LocalEV3.get().getGraphicsLCD());
+		}
+		return lcd;
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#getAudioDevice()
+	 */
+	@Override
+	public synchronized IAudioDevice getAudioDevice() {
+		if (audio == null) {
+			audio = new AudioDevice(new NativeDevice("/dev/lms_sound"));
+		}
+		return audio;
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#getBatteryVoltage()
+	 */
+	@Override
+	public float getBatteryVoltage() {
+		return LocalEV3.ev3.getPower().getVoltage();
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#isEscapeDown()
+	 */
+	@Override
+	public boolean isEscapeDown() {
+		return Button.ESCAPE.isDown();
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#getButtons()
+	 */
+	@Override
+	public int getButtons() {
+		// don't play any keyclick sound
+		return Button.keys.getButtons();
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#getIntSetting(java.lang.String, int)
+	 */
+	@Override
+	public int getIntSetting(String key, int defaultValue) {
+		return SystemSettings.getIntSetting(key, defaultValue);
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#setLedPattern(int)
+	 */
+	@Override
+	public void setLedPattern(int pattern) {
+		LocalEV3.get().getLED().setPattern(pattern);
+	}
+
+	/**
+	 * Regulated motor device using a LeJOS regulated motor.
+	 */
+	private static class RegulatedMotorDevice implements IRegulatedMotorDevice {
+
+		private final BaseRegulatedMotor motor;
+
+		RegulatedMotorDevice(BaseRegulatedMotor motor) {
+			this.motor = motor;
+		}
+
+		@Override
+		public void setAcceleration(int acceleration) {
+			motor.setAcceleration(acceleration);
+		}
+
+		@Override
+		public void setSpeed(float speed) {
+			motor.setSpeed(speed);
+		}
+
+		@Override
+		public int getSpeed() {
+			return motor.getSpeed();
+		}
+
+		@Override
+		public float getMaxSpeed() {
+			return motor.getMaxSpeed();
+		}
+
+		@Override
+		public int getRotationSpeed() {
+			return motor.getRotationSpeed();
+		}
+
+		@Override
+		public void forward() {
+			motor.forward();
+		}
+
+		@Override
+		public void backward() {
+			motor.backward();
+		}
+
+		@Override
+		public void stop() {
+			motor.stop();
+		}
+
+		@Override
+		public void stop(boolean immediateReturn) {
+			motor.stop(immediateReturn);
+		}
+
+		@Override
+		public void flt(boolean immediateReturn) {
+			motor.flt(immediateReturn);
+		}
+
+		@Override
+		public void rotate(int angle) {
+			motor.rotate(angle);
+		}
+
+		@Override
+		public void rotate(int angle, boolean immediateReturn) {
+			motor.rotate(angle, immediateReturn);
+		}
+
+		@Override
+		public int getTachoCount() {
+			return motor.getTachoCount();
+		}
+
+		@Override
+		public void resetTachoCount() {
+			motor.resetTachoCount();
+		}
+
+		@Override
+		public void close() {
+			motor.close();
+		}
+	}
+
+	/**
+	 * Unregulated motor device using the LeJOS unregulated motor.
+	 */
+	private static class UnregulatedMotorDevice implements IUnregulatedMotorDevice {
+
+		private final lejos.hardware.motor.UnregulatedMotor motor;
+
+		UnregulatedMotorDevice(lejos.hardware.motor.UnregulatedMotor motor) {
+			this.motor = motor;
+		}
+
+		@Override
+		public void setPower(int power) {
+			motor.setPower(power);
+		}
+
+		@Override
+		public int getPower() {
+			return motor.getPower();
+		}
+
+		@Override
+		public void forward() {
+			motor.forward();
+		}
+
+		@Override
+		public void backward() {
+			motor.backward();
+		}
+
+		@Override
+		public void stop() {
+			motor.stop();
+		}
+
+		@Override
+		public void flt() {
+			motor.flt();
+		}
+
+		@Override
+		public int getTachoCount() {
+			return motor.getTachoCount();
+		}
+
+		@Override
+		public void resetTachoCount() {
+			motor.resetTachoCount();
+		}
+
+		@Override
+		public void close() {
+			motor.close();
+		}
+	}
+
+	/**
+	 * Sensor device using a LeJOS sensor.
+	 */
+	private static class SensorDevice implements ISensorDevice {
+
+		private final BaseSensor sensor;
+
+		SensorDevice(BaseSensor sensor) {
+			this.sensor = sensor;
+		}
+
+		@Override
+		public int getCurrentMode() {
+			return sensor.getCurrentMode();
+		}
+
+		@Override
+		public SampleProvider getMode(int mode) {
+			return sensor.getMode(mode);
+		}
+
+		@Override
+		public void reset() {
+			// nothing to reset
+		}
+
+		@Override
+		public void close() {
+			sensor.close();
+		}
+	}
+
+	/**
+	 * LCD device using the LeJOS graphics LCD.
+	 */
+	private static class LcdDevice implements ILcdDevice {
+
+		private final GraphicsLCD gLcd;
+
+		LcdDevice(GraphicsLCD gLcd) {
+			this.gLcd = gLcd;
+		}
+
+		@Override
+		public void setAutoRefresh(boolean on) {
+			gLcd.setAutoRefresh(on);
+		}
+
+		@Override
+		public void refresh() {
+			gLcd.refresh();
+		}
+
+		@Override
+		public void refresh(int[] regions, int count) {
+			// the LeJOS LCD always copies the whole screen
+			gLcd.refresh();
+		}
+
+		@Override
+		public void clear() {
+			gLcd.clear();
+		}
+
+		@Override
+		public void setFont(Font font) {
+			gLcd.setFont(font);
+		}
+
+		@Override
+		public void setColor(int color) {
+			gLcd.setColor(color);
+		}
+
+		@Override
+		public void setPixel(int x, int y, int color) {
+			gLcd.setPixel(x, y, color);
+		}
+
+		@Override
+		public void drawLine(int x1, int y1, int x2, int y2) {
+			gLcd.drawLine(x1, y1, x2, y2);
+		}
+
+		@Override
+		public void drawRect(int x, int y, int width, int height) {
+			gLcd.drawRect(x, y, width, height);
+		}
+
+		@Override
+		public void fillRect(int x, int y, int width, int height) {
+			gLcd.fillRect(x, y, width, height);
+		}
+
+		@Override
+		public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+			gLcd.drawArc(x, y, width, height, startAngle, arcAngle);
+		}
+
+		@Override
+		public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+			gLcd.fillArc(x, y, width, height, startAngle, arcAngle);
+		}
+
+		@Override
+		public void drawString(String str, int x, int y, int anchor) {
+			gLcd.drawString(str, x, y, anchor);
+		}
+
+		@Override
+		public void drawChars(char[] data, int offset, int length, int x, int y, int anchor) {
+			gLcd.drawChars(data, offset, length, x, y, anchor);
+		}
+
+		@Override
+		public void drawImage(Image img, int x, int y, int anchor) {
+			gLcd.drawImage(img, x, y, anchor);
+		}
+	}
+
+	/**
+	 * Audio device using the LeJOS sound device driver.
+	 */
+	private static class AudioDevice implements IAudioDevice {
+
+		private final NativeDevice dev;
+
+		AudioDevice(NativeDevice dev) {
+			this.dev = dev;
+		}
+
+		@Override
+		public int write(byte[] buf, int len) {
+			return dev.write(buf, len);
+		}
+
+		@Override
+		public int write(byte[] buf, int offset, int len) {
+			return dev.write(buf, offset, len);
+		}
+	}
+}
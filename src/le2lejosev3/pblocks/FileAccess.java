@@ -4,20 +4,45 @@
 package le2lejosev3.pblocks;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Hashtable;
-import java.util.Iterator;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * FileAccess Block.
  * 
+ * The lines are appended through a FileChannel; numbers are formatted without
+ * creating Strings. The append mode and the flush policy apply to the files
+ * opened for writing afterwards.
+ * 
+ * Each open file has its own lock, so parallel tasks can read and write
+ * different files without blocking each other, and the lines that parallel
+ * tasks append to the same file are never mixed up.
+ * 
+ * In the async mode the write methods only queue the lines, and a background
+ * thread appends them to the files in batches. Reading, flushing, closing,
+ * or deleting a file waits until the lines queued before are written.
+ * 
+ * The indexed read methods read any line of a file, e.g. of a lookup table,
+ * without reading the lines before it: the line offsets are indexed when a
+ * file is first read this way, and lines appended later are added to the
+ * index.
+ * 
+ * The indexed readInt() and readNumeric() can keep the parsed numbers in a
+ * cache (see setValueCache()); the cached numbers of a file are invalidated
+ * when it is written or deleted through FileAccess, or when its modification
+ * time or size changes.
+ * 
  * @author Roland Blochberger
  * @see https://ev3-help-online.api.education.lego.com/Education/en-us/page.html?Path=blocks%2FLEGO%2FFileAccess.html
  */
@@ -30,20 +55,68 @@ public class FileAccess {
 	/** the default extension for the text files */
 	public static final String DEFAULT_EXT = "txt";
 
-	// the map of open file descriptions
-	private static Hashtable<String, FileDesc> openfiles = new Hashtable<String, FileDesc>();
+	/** append mode: collect the lines in a buffer and write it to the file */
+	public static final int MODE_CHANNEL = 0;
+	/**
+	 * append mode: write the lines straight into memory-mapped regions of the
+	 * file; the file ends with the unused rest of the region (NUL bytes) until it
+	 * is closed. If the program ends without closing it (e.g. on a crash), the NUL
+	 * bytes stay; the read methods stop at them and the next open for writing in
+	 * MODE_MAPPED removes them. Use MODE_CHANNEL for files that must be complete after a
+	 * crash.
+	 */
+	public static final int MODE_MAPPED = 1;
+
+	/** flush policy: flush only when the buffer is full and on close */
+	public static final int FLUSH_BUFFER = 0;
+	/** flush policy: flush after each line */
+	public static final int FLUSH_LINE = 1;
+	/** flush policy: flush after a line if the flush period has elapsed */
+	public static final int FLUSH_PERIODIC = 2;
+
+	/** async mode backpressure: wait until there is room in the queue */
+	public static final int QUEUE_BLOCK = 0;
+	/** async mode backpressure: drop the oldest queued line */
+	public static final int QUEUE_DROP_OLDEST = 1;
+	/** async mode backpressure: drop the new line */
+	public static final int QUEUE_DROP_NEWEST = 2;
+
+	/** the default period to check the cached files for changes in milliseconds */
+	public static final long DEFAULT_CACHE_CHECK_PERIOD = 1000L;
+
+	// the maximum time to write the queued lines at program end in milliseconds
+	private static final long SHUTDOWN_DRAIN_TIMEOUT = 2000L;
+
+	// the directory of the text files
+	private static volatile File filesDir = new File(FILES_DIR);
+	// the append mode and flush policy for the files opened for writing
+	private static volatile int appendMode = MODE_CHANNEL;
+	private static volatile int flushPolicy = FLUSH_BUFFER;
+	private static volatile long flushPeriod = 0L;
+	// the queue of the async mode; or null in the synchronous mode
+	private static volatile FileWriteQueue queue = null;
+	// true when the files are closed at program end; they are not opened again
+	private static volatile boolean exiting = false;
+	// the cache of the parsed numbers; or null if disabled
+	private static volatile ValueCache valueCache = null;
+
+	// the map of open file descriptions; the lookup does not lock
+	private static final ConcurrentMap<String, FileDesc> openfiles = new ConcurrentHashMap<String, FileDesc>();
 	static {
 		// handle resources correctly before exiting
 		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
 			public void run() {
-				// close any open files at program end
-				Iterator<?> ofIterator = openfiles.entrySet().iterator();
-				while (ofIterator.hasNext()) {
-					@SuppressWarnings("unchecked")
-					Map.Entry<String, FileDesc> ofElement = (Map.Entry<String, FileDesc>) ofIterator.next();
-					if (doClose((FileDesc) ofElement.getValue())) {
-						ofIterator.remove();
-					}
+				// write the queued lines and close any open files at program end
+				long deadline = System.currentTimeMillis() + SHUTDOWN_DRAIN_TIMEOUT;
+				FileWriteQueue q = queue;
+				if (q != null) {
+					q.stop(SHUTDOWN_DRAIN_TIMEOUT);
+				}
+				// a background thread that did not finish in time must not open the
+				// files again once they are closed
+				exiting = true;
+				for (Map.Entry<String, FileDesc> entry : openfiles.entrySet()) {
+					closeAtExit(entry.getKey(), entry.getValue(), deadline);
 				}
 			}
 		}));
@@ -88,45 +161,160 @@ public class FileAccess {
 	 */
 	public static String read(String filename) {
 		String text = null;
-		// get associated open file data if they exist
-		FileDesc fd = openfiles.get(filename);
-		if ((fd == null) || (fd.fr == null) || (fd.br == null)) {
-			// file is not open:
-			File file = new File(FILES_DIR, appendExt(filename));
-			// log.finest("open (read) " + file.getAbsolutePath());
-			// create the reader objects
-			FileReader fr = null;
-			BufferedReader br = null;
-			try {
-				fr = new FileReader(file);
-				br = new BufferedReader(fr);
-				if (br != null) {
-					// store open file data in map
-					fd = new FileDesc(file, fr, br);
-					openfiles.put(filename, fd);
-					// log.finest("store FileDesc");
-				}
-
-			} catch (IOException ex) {
-				log.log(Level.WARNING, "Cannot open file: " + file.getAbsolutePath() + ": " + ex.toString(), ex);
+		awaitQueue();
+		FileDesc fd = lock(filename);
+		try {
+			if (fd.out != null) {
+				// the file is also open for writing: let the reader see the lines
+				fd.out.flush();
 			}
+			if (fd.br == null) {
+				// file is not open for reading:
+				// log.finest("open (read) " + fd.file.getAbsolutePath());
+				fd.fr = new FileContentStream(fd.file);
+				fd.br = new BufferedReader(new InputStreamReader(fd.fr));
+			}
+			// do not read behind the lines written so far, e.g. into the unused
+			// rest of a mapped region; the lines written later are read then
+			fd.fr.limit = (fd.out != null) ? fd.out.length() : Long.MAX_VALUE;
+
+		} catch (IOException ex) {
+			log.log(Level.WARNING, "Cannot open file: " + fd.file.getAbsolutePath() + ": " + ex.toString(), ex);
 		}
-		if ((fd != null) && (fd.file != null) && (fd.br != null)) {
-			// read next line from the file; or null if end of file
-			try {
+		try {
+			if (fd.br != null) {
+				// read next line from the file; or null if end of file
 				text = fd.br.readLine();
-				// log.finest("read \"" + text + "\" from " + fd.file.getAbsolutePath());
-				if ((text != null) && !text.isEmpty()) {
-					text.concat(System.lineSeparator());
+				if (text != null) {
+					// the unused rest of a mapped region ends the content
+					int nul = text.indexOf('\0');
+					if (nul == 0) {
+						text = null;
+					} else if (nul > 0) {
+						text = text.substring(0, nul);
+					}
 				}
+				// log.finest("read \"" + text + "\" from " + fd.file.getAbsolutePath());
+			}
 
-			} catch (IOException ex) {
-				log.log(Level.WARNING, "Cannot read file: " + fd.file.getAbsolutePath() + ": " + ex.toString(), ex);
+		} catch (IOException ex) {
+			log.log(Level.WARNING, "Cannot read file: " + fd.file.getAbsolutePath() + ": " + ex.toString(), ex);
+
+		} finally {
+			unlock(filename, fd);
+		}
+		return text;
+	}
+
+	/**
+	 * Read a line from the file with the specified name.
+	 * 
+	 * @param filename the file name only; you can omit the DEFAULT_EXT.
+	 * @param line     the line number; 0 is the first line.
+	 * @return the contents of the line as a number; or 0 if the file has not so
+	 *         many lines.
+	 */
+	public static int readInt(String filename, int line) {
+		ValueCache c = valueCache;
+		int fileId = 0;
+		if (c != null) {
+			fileId = c.check(filename, filesDir);
+			long cached = c.get(fileId, line, ValueCache.KIND_INT);
+			if (cached != ValueCache.MISS) {
+				return (int) cached;
+			}
+		}
+		String text = readLine(filename, line);
+		if (text == null) {
+			return 0;
+		}
+		int number = text.isEmpty() ? 0 : Integer.parseInt(text);
+		if (c != null) {
+			c.put(fileId, line, ValueCache.KIND_INT, number);
+		}
+		return number;
+	}
+
+	/**
+	 * Read a line from the file with the specified name.
+	 * 
+	 * @param filename the file name only; you can omit the DEFAULT_EXT.
+	 * @param line     the line number; 0 is the first line.
+	 * @return the contents of the line as a number; or 0 if the file has not so
+	 *         many lines.
+	 */
+	public static float readNumeric(String filename, int line) {
+		ValueCache c = valueCache;
+		int fileId = 0;
+		if (c != null) {
+			fileId = c.check(filename, filesDir);
+			long cached = c.get(fileId, line, ValueCache.KIND_FLOAT);
+			if (cached != ValueCache.MISS) {
+				return Float.intBitsToFloat((int) cached);
 			}
 		}
+		String text = readLine(filename, line);
+		if (text == null) {
+			return 0F;
+		}
+		float number = text.isEmpty() ? 0F : Float.parseFloat(text);
+		if (c != null) {
+			c.put(fileId, line, ValueCache.KIND_FLOAT, Float.floatToRawIntBits(number));
+		}
+		return number;
+	}
+
+	/**
+	 * Read a line from the file with the specified name. This does not change
+	 * the next line returned by read().
+	 * 
+	 * @param filename the file name only; you can omit the DEFAULT_EXT.
+	 * @param line     the line number; 0 is the first line.
+	 * @return the contents of the line as a text string; or null if the file has
+	 *         not so many lines.
+	 */
+	public static String readLine(String filename, int line) {
+		String text = null;
+		awaitQueue();
+		FileDesc fd = lock(filename);
+		try {
+			if (openIndex(fd)) {
+				text = fd.index.readLine(line);
+			}
+
+		} catch (IOException ex) {
+			log.log(Level.WARNING, "Cannot read file: " + fd.file.getAbsolutePath() + ": " + ex.toString(), ex);
+
+		} finally {
+			unlock(filename, fd);
+		}
 		return text;
 	}
 
+	/**
+	 * Count the lines of the file with the specified name.
+	 * 
+	 * @param filename the file name only; you can omit the DEFAULT_EXT.
+	 * @return the number of lines; or 0 if the file cannot be read.
+	 */
+	public static int getLineCount(String filename) {
+		int count = 0;
+		awaitQueue();
+		FileDesc fd = lock(filename);
+		try {
+			if (openIndex(fd)) {
+				count = fd.index.getLineCount();
+			}
+
+		} catch (IOException ex) {
+			log.log(Level.WARNING, "Cannot read file: " + fd.file.getAbsolutePath() + ": " + ex.toString(), ex);
+
+		} finally {
+			unlock(filename, fd);
+		}
+		return count;
+	}
+
 	/**
 	 * Write to the file with the specified name.
 	 * 
@@ -134,7 +322,7 @@ public class FileAccess {
 	 * @param number   the number to append to the file in a new line.
 	 */
 	public static void write(String filename, int number) {
-		write(filename, String.valueOf(number));
+		append(filename, FileWriteQueue.KIND_INT, number, null);
 	}
 
 	/**
@@ -144,7 +332,7 @@ public class FileAccess {
 	 * @param number   the number to append to the file in a new line.
 	 */
 	public static void write(String filename, float number) {
-		write(filename, String.valueOf(number));
+		append(filename, FileWriteQueue.KIND_FLOAT, Float.floatToRawIntBits(number), null);
 	}
 
 	/**
@@ -154,38 +342,30 @@ public class FileAccess {
 	 * @param text     the text to append to the filein a new line.
 	 */
 	public static void write(String filename, String text) {
+		append(filename, FileWriteQueue.KIND_TEXT, 0, text);
+	}
+
+	/**
+	 * Flush the lines written to the file with the specified name so far.
+	 * 
+	 * @param filename the file name only; you can omit the DEFAULT_EXT.
+	 */
+	public static void flush(String filename) {
+		awaitQueue();
 		// get associated open file data if they exist
 		FileDesc fd = openfiles.get(filename);
-		if ((fd == null) || (fd.fw == null) || (fd.bw == null)) {
-			// file is not open:
-			File file = new File(FILES_DIR, appendExt(filename));
-			// log.finest("open (write) " + file.getAbsolutePath());
-			// create the writer objects
-			FileWriter fw = null;
-			BufferedWriter bw = null;
+		if (fd != null) {
+			fd.lock.lock();
 			try {
-				fw = new FileWriter(file, true);
-				bw = new BufferedWriter(fw);
-				if (bw != null) {
-					// store open file data in map
-					fd = new FileDesc(file, fw, bw);
-					openfiles.put(filename, fd);
-					// log.finest("store FileDesc");
+				if (fd.out != null) {
+					fd.out.flush();
 				}
 
-			} catch (IOException ex) {
-				log.log(Level.WARNING, "Cannot open file: " + file.getAbsolutePath() + ": " + ex.toString(), ex);
-			}
-		}
-		if ((fd != null) && (fd.file != null) && (fd.bw != null)) {
-			// append the text to the file
-			try {
-				fd.bw.append(text);
-				fd.bw.newLine();
-				// log.finest("appended \"" + text + "\" to " + fd.file.getAbsolutePath());
-
 			} catch (IOException ex) {
 				log.log(Level.WARNING, "Cannot write file: " + fd.file.getAbsolutePath() + ": " + ex.toString(), ex);
+
+			} finally {
+				fd.lock.unlock();
 			}
 		}
 	}
@@ -196,10 +376,20 @@ public class FileAccess {
 	 * @param filename the file name only; you can omit the DEFAULT_EXT.
 	 */
 	public static void close(String filename) {
+		awaitQueue();
 		// get associated open file data if they exist
 		FileDesc fd = openfiles.get(filename);
-		if (doClose(fd)) {
-			openfiles.remove(filename);
+		if (fd != null) {
+			fd.lock.lock();
+			try {
+				if (!fd.closed) {
+					doClose(fd);
+					openfiles.remove(filename, fd);
+				}
+
+			} finally {
+				fd.lock.unlock();
+			}
 		}
 	}
 
@@ -211,8 +401,9 @@ public class FileAccess {
 	public static void delete(String filename) {
 		// close file if it is in the open file data map
 		close(filename);
+		invalidateCache(filename);
 		// delete the file if it exists
-		File file = new File(FILES_DIR, appendExt(filename));
+		File file = new File(filesDir, appendExt(filename));
 		// log.finest("delete " + file.getAbsolutePath());
 		if (file.canWrite()) {
 			// file exists and is writable
@@ -225,6 +416,157 @@ public class FileAccess {
 		}
 	}
 
+	/**
+	 * Set the directory of the text files, e.g. a temporary directory when running
+	 * a program against the simulated hardware. Files that are already open are
+	 * not affected.
+	 * 
+	 * @param dir the directory; or null to use the FILES_DIR again.
+	 */
+	public static void setFilesDir(File dir) {
+		filesDir = (dir != null) ? dir : new File(FILES_DIR);
+	}
+
+	/**
+	 * @return the directory of the text files; FILES_DIR by default.
+	 */
+	public static File getFilesDir() {
+		return filesDir;
+	}
+
+	/**
+	 * Set the append mode for the files opened for writing afterwards.
+	 * 
+	 * @param mode the append mode; MODE_CHANNEL (default) or MODE_MAPPED.
+	 */
+	public static void setAppendMode(int mode) {
+		if ((mode == MODE_CHANNEL) || (mode == MODE_MAPPED)) {
+			appendMode = mode;
+		} else {
+			throw new RuntimeException("Invalid append mode: " + mode);
+		}
+	}
+
+	/**
+	 * Set the flush policy for the files opened for writing afterwards. In
+	 * MODE_MAPPED the lines are visible to readers right away; flushing forces
+	 * them to the storage device.
+	 * 
+	 * @param policy the flush policy; one of FLUSH_BUFFER (default), FLUSH_LINE,
+	 *               or FLUSH_PERIODIC.
+	 * @param period the flush period in milliseconds for FLUSH_PERIODIC; the
+	 *               period is checked when a line is written.
+	 */
+	public static void setFlushPolicy(int policy, long period) {
+		if ((policy == FLUSH_BUFFER) || (policy == FLUSH_LINE) || (policy == FLUSH_PERIODIC)) {
+			flushPeriod = Math.max(0L, period);
+			flushPolicy = policy;
+		} else {
+			throw new RuntimeException("Invalid flush policy: " + policy);
+		}
+	}
+
+	/**
+	 * Switch to the async mode: the write methods queue the lines and a
+	 * background thread appends them to the files; or switch back to the
+	 * synchronous mode. The lines queued so far are written before the mode
+	 * changes.
+	 * 
+	 * @param capacity     the maximum number of queued lines; or 0 for the
+	 *                     synchronous mode (default).
+	 * @param backpressure what to do when the queue is full; one of QUEUE_BLOCK,
+	 *                     QUEUE_DROP_OLDEST, or QUEUE_DROP_NEWEST.
+	 */
+	public static synchronized void setAsyncMode(int capacity, int backpressure) {
+		if (capacity < 0) {
+			throw new RuntimeException("Invalid queue capacity: " + capacity);
+		}
+		if ((backpressure != QUEUE_BLOCK) && (backpressure != QUEUE_DROP_OLDEST)
+				&& (backpressure != QUEUE_DROP_NEWEST)) {
+			throw new RuntimeException("Invalid backpressure: " + backpressure);
+		}
+		FileWriteQueue q = queue;
+		if (q != null) {
+			// lines written by other tasks meanwhile are written synchronously
+			q.stop(0L);
+		}
+		queue = (capacity > 0) ? new FileWriteQueue(capacity, backpressure) : null;
+	}
+
+	/**
+	 * @return the number of lines queued in the async mode; including the lines
+	 *         dropped from the queue.
+	 */
+	public static long getQueuedCount() {
+		FileWriteQueue q = queue;
+		return (q != null) ? q.getQueuedCount() : 0L;
+	}
+
+	/**
+	 * @return the number of lines dropped in the async mode because the queue
+	 *         was full.
+	 */
+	public static long getDroppedCount() {
+		FileWriteQueue q = queue;
+		return (q != null) ? q.getDroppedCount() : 0L;
+	}
+
+	/**
+	 * @return the number of lines waiting in the queue of the async mode.
+	 */
+	public static int getPendingCount() {
+		FileWriteQueue q = queue;
+		return (q != null) ? q.getPendingCount() : 0;
+	}
+
+	/**
+	 * Enable or disable the cache of the numbers parsed by the indexed
+	 * readInt() and readNumeric(). When the cache is full the least recently
+	 * used number is evicted. Changes of the files by other programs are
+	 * detected within the DEFAULT_CACHE_CHECK_PERIOD.
+	 * 
+	 * @param capacity the maximum number of cached numbers; or 0 to disable the
+	 *                 cache (default).
+	 */
+	public static void setValueCache(int capacity) {
+		setValueCache(capacity, DEFAULT_CACHE_CHECK_PERIOD);
+	}
+
+	/**
+	 * Enable or disable the cache of the numbers parsed by the indexed
+	 * readInt() and readNumeric(). When the cache is full the least recently
+	 * used number is evicted.
+	 * 
+	 * @param capacity    the maximum number of cached numbers; or 0 to disable
+	 *                    the cache (default).
+	 * @param checkPeriod the period in milliseconds to check whether other
+	 *                    programs changed a file; or 0 to check on every read.
+	 */
+	public static synchronized void setValueCache(int capacity, long checkPeriod) {
+		if (capacity < 0) {
+			throw new RuntimeException("Invalid cache capacity: " + capacity);
+		}
+		valueCache = (capacity > 0) ? new ValueCache(capacity, Math.max(0L, checkPeriod)) : null;
+	}
+
+	/**
+	 * @return the number of cached numbers found by the indexed readInt() and
+	 *         readNumeric().
+	 */
+	public static long getCacheHitCount() {
+		ValueCache c = valueCache;
+		return (c != null) ? c.getHitCount() : 0L;
+	}
+
+	/**
+	 * @return the number of numbers not found in the cache by the indexed
+	 *         readInt() and readNumeric().
+	 */
+	public static long getCacheMissCount() {
+		ValueCache c = valueCache;
+		return (c != null) ? c.getMissCount() : 0L;
+	}
+
 	/**
 	 * append the default file extension if necessary.
 	 * 
@@ -232,77 +574,379 @@ public class FileAccess {
 	 * @return the filename with extension.
 	 */
 	static String appendExt(String filename) {
+		return appendExt(filename, DEFAULT_EXT);
+	}
+
+	/**
+	 * append the specified file extension if necessary.
+	 * 
+	 * @param filename the file name only; you can omit the extension.
+	 * @param ext      the default extension.
+	 * @return the filename with extension.
+	 */
+	static String appendExt(String filename, String ext) {
 		if (filename.lastIndexOf('.') <= 0) {
 			// no extension found: append the default file extension
-			return filename + '.' + DEFAULT_EXT;
+			return filename + '.' + ext;
 		}
 		return filename;
 	}
 
 	/**
-	 * close the file with the specified file data.
+	 * queue a line in the async mode; or append it to the file.
 	 * 
-	 * @param fd the file data.
+	 * @param filename the file name only; you can omit the DEFAULT_EXT.
+	 * @param kind     the kind of the line; FileWriteQueue.KIND_INT, KIND_FLOAT,
+	 *                 or KIND_TEXT.
+	 * @param value    the int value or the float bits.
+	 * @param text     the text; or null.
 	 */
-	static boolean doClose(FileDesc fd) {
-		if ((fd != null) && (fd.file != null)) {
+	private static void append(String filename, int kind, int value, String text) {
+		invalidateCache(filename);
+		FileWriteQueue q = queue;
+		if ((q != null) && q.put(filename, kind, value, text)) {
+			return;
+		}
+		FileDesc fd = lock(filename);
+		try {
+			if (openWrite(fd)) {
+				writeLine(fd.out, kind, value, text);
+				// log.finest("appended line to " + fd.file.getAbsolutePath());
+			}
+
+		} catch (IOException ex) {
+			log.log(Level.WARNING, "Cannot write file: " + fd.file.getAbsolutePath() + ": " + ex.toString(), ex);
+
+		} finally {
+			unlock(filename, fd);
+		}
+	}
+
+	/**
+	 * append a batch of queued lines to the files; the lines of the same file
+	 * are written under one lock.
+	 * 
+	 * @param filenames the file names.
+	 * @param kinds     the kinds of the lines.
+	 * @param values    the int values or float bits.
+	 * @param texts     the texts.
+	 * @param count     the number of lines.
+	 */
+	static void writeBatch(String[] filenames, int[] kinds, int[] values, String[] texts, int count) {
+		int n = 0;
+		while (n < count) {
+			String filename = filenames[n];
+			FileDesc fd = lock(filename);
 			try {
-				if (fd.bw != null) {
-					fd.bw.flush();
-					fd.bw.close();
-					// this logging will probably not be written in the shutdown hook
-					// log.finest("closed (write) " + fd.file.getAbsolutePath());
+				if (openWrite(fd)) {
+					do {
+						writeLine(fd.out, kinds[n], values[n], texts[n]);
+						n++;
+					} while ((n < count) && filename.equals(filenames[n]));
+				} else {
+					n++;
 				}
-				if (fd.br != null) {
-					fd.br.close();
-					// this logging will probably not be written in the shutdown hook
-					// log.finest("closed (read) " + fd.file.getAbsolutePath());
+
+			} catch (IOException ex) {
+				log.log(Level.WARNING, "Cannot write file: " + fd.file.getAbsolutePath() + ": " + ex.toString(), ex);
+				n++;
+
+			} finally {
+				unlock(filename, fd);
+			}
+		}
+	}
+
+	/**
+	 * append a line of the specified kind.
+	 */
+	private static void writeLine(FileAppender out, int kind, int value, String text) throws IOException {
+		switch (kind) {
+		case FileWriteQueue.KIND_INT:
+			out.writeLine(value);
+			break;
+		case FileWriteQueue.KIND_FLOAT:
+			out.writeLine(Float.intBitsToFloat(value));
+			break;
+		default:
+			out.writeLine(text);
+			break;
+		}
+	}
+
+	/**
+	 * invalidate the cached numbers of the file.
+	 * 
+	 * @param filename the file name only; you can omit the DEFAULT_EXT.
+	 */
+	private static void invalidateCache(String filename) {
+		ValueCache c = valueCache;
+		if (c != null) {
+			c.invalidate(filename);
+		}
+	}
+
+	/**
+	 * wait until the lines queued in the async mode are written; does not wait
+	 * for a stopped queue, whose background thread wrote the lines or was given
+	 * up on. Returns as well if the background thread dies meanwhile.
+	 */
+	private static void awaitQueue() {
+		FileWriteQueue q = queue;
+		if ((q != null) && !q.isStopped()) {
+			q.awaitDrained(0L);
+		}
+	}
+
+	/**
+	 * close an open file at program end; gives up at the deadline if the file
+	 * stays locked, e.g. by a stalled write of the background thread.
+	 * 
+	 * @param filename the file name only; you can omit the DEFAULT_EXT.
+	 * @param fd       the open file data.
+	 * @param deadline the time to give up (System.currentTimeMillis()).
+	 */
+	private static void closeAtExit(String filename, FileDesc fd, long deadline) {
+		try {
+			if (!fd.lock.tryLock(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+				log.warning("Cannot close file: " + fd.file.getAbsolutePath() + ": still being written");
+				return;
+			}
+		} catch (InterruptedException e) {
+			// keep the interrupted state
+			Thread.currentThread().interrupt();
+			return;
+		}
+		try {
+			if (!fd.closed) {
+				doClose(fd);
+				openfiles.remove(filename, fd);
+			}
+
+		} finally {
+			fd.lock.unlock();
+		}
+	}
+
+	/**
+	 * get the open file data and lock them; create them if necessary.
+	 * 
+	 * @param filename the file name only; you can omit the DEFAULT_EXT.
+	 * @return the locked open file data.
+	 */
+	private static FileDesc lock(String filename) {
+		for (;;) {
+			// get associated open file data if they exist
+			FileDesc fd = openfiles.get(filename);
+			if (fd == null) {
+				// file is not open:
+				fd = new FileDesc(new File(filesDir, appendExt(filename)));
+				FileDesc other = openfiles.putIfAbsent(filename, fd);
+				if (other != null) {
+					// opened by another task meanwhile
+					fd = other;
 				}
+			}
+			fd.lock.lock();
+			if (!fd.closed) {
+				return fd;
+			}
+			// closed by another task meanwhile: try again
+			fd.lock.unlock();
+		}
+	}
+
+	/**
+	 * unlock the open file data; remove them if the file could not be opened.
+	 * 
+	 * @param filename the file name only; you can omit the DEFAULT_EXT.
+	 * @param fd       the locked open file data.
+	 */
+	private static void unlock(String filename, FileDesc fd) {
+		try {
+			if ((fd.out == null) && (fd.br == null) && (fd.index == null)) {
+				fd.closed = true;
+				openfiles.remove(filename, fd);
+			}
+		} finally {
+			fd.lock.unlock();
+		}
+	}
+
+	/**
+	 * open the line index of the locked file if necessary and bring it up to
+	 * date with the lines written so far.
+	 * 
+	 * @param fd the locked open file data.
+	 * @return true if the line index is open.
+	 * @throws IOException on read or write errors.
+	 */
+	private static boolean openIndex(FileDesc fd) throws IOException {
+		if (fd.index == null) {
+			// log.finest("open (index) " + fd.file.getAbsolutePath());
+			try {
+				fd.index = new LineIndex(fd.file);
 
 			} catch (IOException ex) {
+				log.log(Level.WARNING, "Cannot open file: " + fd.file.getAbsolutePath() + ": " + ex.toString(), ex);
+				return false;
+			}
+		}
+		if (fd.out != null) {
+			// the file is also open for writing: index the lines written so far
+			fd.out.flush();
+			fd.index.update(fd.out.length());
+		} else {
+			fd.index.update(fd.index.fileSize());
+		}
+		return true;
+	}
+
+	/**
+	 * open the locked file for writing if necessary.
+	 * 
+	 * @param fd the locked open file data.
+	 * @return true if the file is open for writing.
+	 */
+	private static boolean openWrite(FileDesc fd) {
+		if (fd.out == null) {
+			if (exiting) {
+				// the files were closed at program end
+				return false;
+			}
+			// log.finest("open (write) " + fd.file.getAbsolutePath());
+			try {
+				fd.out = new FileAppender(fd.file, appendMode, flushPolicy, flushPeriod);
+
+			} catch (IOException ex) {
+				log.log(Level.WARNING, "Cannot open file: " + fd.file.getAbsolutePath() + ": " + ex.toString(), ex);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * close the file with the specified file data.
+	 * 
+	 * @param fd the locked file data.
+	 */
+	static void doClose(FileDesc fd) {
+		fd.closed = true;
+		// close each one even if closing another one failed
+		if (fd.out != null) {
+			try {
+				fd.out.close();
 				// this logging will probably not be written in the shutdown hook
-				log.log(Level.WARNING, "Cannot close file: " + fd.file.getAbsolutePath() + ": " + ex.toString(), ex);
+				// log.finest("closed (write) " + fd.file.getAbsolutePath());
+			} catch (IOException ex) {
+				logCloseError(fd, ex);
 			}
-			return true;
 		}
-		return false;
+		if (fd.br != null) {
+			try {
+				fd.br.close();
+				// this logging will probably not be written in the shutdown hook
+				// log.finest("closed (read) " + fd.file.getAbsolutePath());
+			} catch (IOException ex) {
+				logCloseError(fd, ex);
+			}
+		}
+		if (fd.index != null) {
+			try {
+				fd.index.close();
+			} catch (IOException ex) {
+				logCloseError(fd, ex);
+			}
+		}
+	}
+
+	/**
+	 * log an error while closing a file.
+	 * 
+	 * @param fd the locked file data.
+	 * @param ex the error.
+	 */
+	private static void logCloseError(FileDesc fd, IOException ex) {
+		// this logging will probably not be written in the shutdown hook
+		log.log(Level.WARNING, "Cannot close file: " + fd.file.getAbsolutePath() + ": " + ex.toString(), ex);
 	}
 }
 
 /**
  * Data holder for file related references.
+ * The references are guarded by the lock.
  */
 class FileDesc {
 
-	File file = null;
-	FileReader fr = null;
+	final ReentrantLock lock = new ReentrantLock();
+	final File file;
+	FileContentStream fr = null;
 	BufferedReader br = null;
-	FileWriter fw = null;
-	BufferedWriter bw = null;
+	FileAppender out = null;
+	LineIndex index = null;
+	// true when the file was closed and the data were removed from the map
+	boolean closed = false;
 
 	/**
 	 * Constructor.
 	 * 
 	 * @param file
-	 * @param fw
-	 * @param bw
 	 */
-	public FileDesc(File file, FileWriter fw, BufferedWriter bw) {
+	public FileDesc(File file) {
 		this.file = file;
-		this.fw = fw;
-		this.bw = bw;
 	}
+}
+
+/**
+ * Input stream of a text file that ends at a limit.
+ * Reading goes on from the same position when the limit was raised or the
+ * file has grown.
+ */
+class FileContentStream extends InputStream {
+
+	private final FileInputStream in;
+	// the position in the file
+	private long pos = 0L;
+	// the end of the content to read
+	long limit = Long.MAX_VALUE;
 
 	/**
 	 * Constructor.
 	 * 
-	 * @param file
-	 * @param fr
-	 * @param br
+	 * @param file the text file.
+	 * @throws FileNotFoundException if the file cannot be opened.
 	 */
-	public FileDesc(File file, FileReader fr, BufferedReader br) {
-		this.file = file;
-		this.fr = fr;
-		this.br = br;
+	FileContentStream(File file) throws FileNotFoundException {
+		in = new FileInputStream(file);
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (pos >= limit) {
+			return -1;
+		}
+		int b = in.read();
+		if (b >= 0) {
+			pos++;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (pos >= limit) {
+			return -1;
+		}
+		int n = in.read(b, off, (int) Math.min(len, limit - pos));
+		if (n > 0) {
+			pos += n;
+		}
+		return n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
 	}
 }
@@ -0,0 +1,278 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends lines to a text file through a FileChannel.
+ * The lines are collected in a preallocated direct buffer (MODE_CHANNEL) or
+ * written straight into a memory-mapped region behind the end of the file
+ * (MODE_MAPPED); numbers are formatted into the buffer without creating
+ * Strings. A mapped file is truncated to its real length when it is closed;
+ * until then it ends with the unused rest of the mapped region (NUL bytes).
+ * The NUL bytes left by a program that ended without closing the file are
+ * removed when the file is opened again in MODE_MAPPED.
+ *
+ * @author Roland Blochberger
+ */
+class FileAppender {
+
+	/** the size of the write buffer */
+	static final int BUFFER_SIZE = 8192;
+	/** the size of a mapped region */
+	static final int REGION_SIZE = 65536;
+
+	// the line separator
+	private static final byte[] LINE_SEP = System.lineSeparator().getBytes();
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final boolean mapped;
+	private final int flushPolicy;
+	private final long flushPeriodNs;
+	// the write buffer or the current mapped region
+	private ByteBuffer buf;
+	// the file position of the current mapped region
+	private long regionPos = 0L;
+	// the time of the last flush
+	private long lastFlush;
+	// the scratch array for the number formatting
+	private final byte[] scratch = new byte[32];
+
+	/**
+	 * Constructor.
+	 * Opens the file for appending.
+	 *
+	 * @param file        the file.
+	 * @param mode        the append mode; FileAccess.MODE_CHANNEL or
+	 *                    FileAccess.MODE_MAPPED.
+	 * @param flushPolicy the flush policy; one of FileAccess.FLUSH_BUFFER,
+	 *                    FLUSH_LINE, or FLUSH_PERIODIC.
+	 * @param flushPeriod the flush period in milliseconds for FLUSH_PERIODIC.
+	 * @throws IOException if the file cannot be opened.
+	 */
+	FileAppender(File file, int mode, int flushPolicy, long flushPeriod) throws IOException {
+		this.file = file;
+		this.mapped = (mode == FileAccess.MODE_MAPPED);
+		this.flushPolicy = flushPolicy;
+		this.flushPeriodNs = flushPeriod * 1000000L;
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		long size = channel.size();
+		if (mapped) {
+			// remove the unused rest of a region left by a program that ended
+			// without closing the file
+			size = contentLength();
+			if (size < channel.size()) {
+				channel.truncate(size);
+			}
+			regionPos = size;
+			buf = channel.map(FileChannel.MapMode.READ_WRITE, regionPos, REGION_SIZE);
+		} else {
+			channel.position(size);
+			buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+		lastFlush = System.nanoTime();
+	}
+
+	/**
+	 * @return the file.
+	 */
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the length of the file content including the buffered lines; a
+	 *         mapped file may be longer until it is closed.
+	 * @throws IOException on errors.
+	 */
+	long length() throws IOException {
+		return (mapped ? regionPos : channel.position()) + buf.position();
+	}
+
+	/**
+	 * Append a number in a new line.
+	 *
+	 * @param number the number.
+	 * @throws IOException on write errors.
+	 */
+	void writeLine(int number) throws IOException {
+		put(scratch, 0, NumberText.format(number, scratch, 0));
+		endLine();
+	}
+
+	/**
+	 * Append a number in a new line.
+	 *
+	 * @param number the number.
+	 * @throws IOException on write errors.
+	 */
+	void writeLine(long number) throws IOException {
+		put(scratch, 0, NumberText.format(number, scratch, 0));
+		endLine();
+	}
+
+	/**
+	 * Append a number in a new line.
+	 *
+	 * @param number the number.
+	 * @throws IOException on write errors.
+	 */
+	void writeLine(float number) throws IOException {
+		put(scratch, 0, NumberText.format(number, scratch, 0));
+		endLine();
+	}
+
+	/**
+	 * Append a text in a new line.
+	 *
+	 * @param text the text.
+	 * @throws IOException on write errors.
+	 */
+	void writeLine(String text) throws IOException {
+		int len = text.length();
+		boolean ascii = true;
+		for (int i = 0; i < len; i++) {
+			if (text.charAt(i) >= 0x80) {
+				ascii = false;
+				break;
+			}
+		}
+		if (ascii) {
+			// copy the characters in chunks of the scratch array
+			for (int i = 0; i < len;) {
+				int n = Math.min(scratch.length, len - i);
+				for (int j = 0; j < n; j++) {
+					scratch[j] = (byte) text.charAt(i + j);
+				}
+				put(scratch, 0, n);
+				i += n;
+			}
+		} else {
+			// encode with the default charset like a FileWriter
+			byte[] bytes = text.getBytes();
+			put(bytes, 0, bytes.length);
+		}
+		endLine();
+	}
+
+	/**
+	 * Write the buffered lines to the file (MODE_CHANNEL) or force the mapped
+	 * region to the storage device (MODE_MAPPED).
+	 *
+	 * @throws IOException on write errors.
+	 */
+	void flush() throws IOException {
+		if (mapped) {
+			((MappedByteBuffer) buf).force();
+		} else {
+			drain();
+		}
+		lastFlush = System.nanoTime();
+	}
+
+	/**
+	 * Flush and close the file.
+	 *
+	 * @throws IOException on write errors.
+	 */
+	void close() throws IOException {
+		try {
+			if (mapped) {
+				// cut off the unused rest of the mapped region
+				channel.truncate(regionPos + buf.position());
+			} else {
+				drain();
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * finish the line and flush according to the flush policy.
+	 */
+	private void endLine() throws IOException {
+		put(LINE_SEP, 0, LINE_SEP.length);
+		if (flushPolicy == FileAccess.FLUSH_LINE) {
+			flush();
+		} else if ((flushPolicy == FileAccess.FLUSH_PERIODIC) && ((System.nanoTime() - lastFlush) >= flushPeriodNs)) {
+			flush();
+		}
+	}
+
+	/**
+	 * put bytes into the buffer and make room as necessary.
+	 */
+	private void put(byte[] src, int off, int len) throws IOException {
+		while (len > 0) {
+			if (!buf.hasRemaining()) {
+				if (mapped) {
+					nextRegion();
+				} else {
+					drain();
+				}
+			}
+			int n = Math.min(len, buf.remaining());
+			buf.put(src, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * write the buffer to the channel.
+	 */
+	private void drain() throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+		buf.clear();
+	}
+
+	/**
+	 * @return the length of the file without the NUL bytes at its end; at most
+	 *         the size of a mapped region is checked.
+	 */
+	private long contentLength() throws IOException {
+		long size = channel.size();
+		ByteBuffer tail = ByteBuffer.allocate(BUFFER_SIZE);
+		long end = size;
+		while ((end > 0L) && (size - end < REGION_SIZE)) {
+			int n = (int) Math.min(BUFFER_SIZE, end);
+			tail.clear().limit(n);
+			while (tail.hasRemaining()) {
+				if (channel.read(tail, end - n + tail.position()) < 0) {
+					return size;
+				}
+			}
+			int i = n;
+			while ((i > 0) && (tail.get(i - 1) == 0)) {
+				i--;
+			}
+			end -= n - i;
+			if (i > 0) {
+				break;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * map the next region behind the current one.
+	 */
+	private void nextRegion() throws IOException {
+		regionPos += buf.position();
+		buf = channel.map(FileChannel.MapMode.READ_WRITE, regionPos, REGION_SIZE);
+	}
+}
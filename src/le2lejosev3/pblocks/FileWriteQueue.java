@@ -0,0 +1,345 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded ring buffer of the lines to write in the FileAccess async mode.
+ * The callers put the lines into preallocated slots; a background thread
+ * takes them in batches and appends them to the files, so a slow storage
+ * device does not stall the callers.
+ * 
+ * @author Roland Blochberger
+ */
+class FileWriteQueue implements Runnable {
+
+	private static final Logger log = Logger.getLogger(FileWriteQueue.class.getName());
+
+	/** the kinds of the lines */
+	static final int KIND_INT = 0;
+	static final int KIND_FLOAT = 1;
+	static final int KIND_TEXT = 2;
+
+	/** the maximum number of lines the background thread takes at once */
+	static final int BATCH_SIZE = 256;
+
+	private final int capacity;
+	private final int backpressure;
+	// the slots of the ring buffer
+	private final String[] names;
+	private final int[] kinds;
+	private final int[] values;
+	private final String[] texts;
+	// the batch of the background thread
+	private final String[] batchNames;
+	private final int[] batchKinds;
+	private final int[] batchValues;
+	private final String[] batchTexts;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	private final Condition drained = lock.newCondition();
+	// the sequence numbers of the first and behind the last queued line
+	private long head = 0L;
+	private long tail = 0L;
+	// the sequence number of the first line of the batch being written
+	private long batchStart = 0L;
+	private boolean writing = false;
+	private boolean stopped = false;
+	// the counters
+	private long dropped = 0L;
+
+	private final Thread thread;
+
+	/**
+	 * Constructor.
+	 * Starts the background thread.
+	 * 
+	 * @param capacity     the maximum number of queued lines.
+	 * @param backpressure what to do when the queue is full;
+	 *                     FileAccess.QUEUE_BLOCK, QUEUE_DROP_OLDEST, or
+	 *                     QUEUE_DROP_NEWEST.
+	 */
+	FileWriteQueue(int capacity, int backpressure) {
+		this.capacity = capacity;
+		this.backpressure = backpressure;
+		names = new String[capacity];
+		kinds = new int[capacity];
+		values = new int[capacity];
+		texts = new String[capacity];
+		int batch = Math.min(capacity, BATCH_SIZE);
+		batchNames = new String[batch];
+		batchKinds = new int[batch];
+		batchValues = new int[batch];
+		batchTexts = new String[batch];
+		thread = new Thread(this, "FileAccess-Writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queue a line.
+	 * 
+	 * @param filename the file name only; you can omit the DEFAULT_EXT.
+	 * @param kind     the kind of the line; KIND_INT, KIND_FLOAT, or KIND_TEXT.
+	 * @param value    the int value or the float bits.
+	 * @param text     the text; or null.
+	 * @return false if the queue is stopped; the caller has to write the line
+	 *         itself.
+	 */
+	boolean put(String filename, int kind, int value, String text) {
+		lock.lock();
+		try {
+			while (!stopped && ((tail - head) >= capacity)) {
+				if (backpressure == FileAccess.QUEUE_DROP_NEWEST) {
+					dropped++;
+					return true;
+
+				} else if (backpressure == FileAccess.QUEUE_DROP_OLDEST) {
+					clear(index(head));
+					head++;
+					dropped++;
+
+				} else {
+					try {
+						notFull.await();
+					} catch (InterruptedException e) {
+						// keep the interrupted state and lose the line
+						Thread.currentThread().interrupt();
+						dropped++;
+						return true;
+					}
+				}
+			}
+			if (stopped) {
+				return false;
+			}
+			int i = index(tail);
+			names[i] = filename;
+			kinds[i] = kind;
+			values[i] = value;
+			texts[i] = text;
+			tail++;
+			notEmpty.signal();
+			return true;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wait until the lines queued so far are written to the files (or dropped).
+	 * 
+	 * @param timeout the maximum time to wait in milliseconds; or 0 to wait
+	 *                without limit.
+	 * @return true if the lines are written (or dropped because the background
+	 *         thread died); false on timeout or interruption.
+	 */
+	boolean awaitDrained(long timeout) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		lock.lock();
+		try {
+			long target = tail;
+			while ((head < target) || (writing && (batchStart < target))) {
+				if (timeout <= 0L) {
+					drained.await();
+				} else {
+					long nanos = deadline - System.nanoTime();
+					if (nanos <= 0L) {
+						return false;
+					}
+					drained.awaitNanos(nanos);
+				}
+			}
+			return true;
+
+		} catch (InterruptedException e) {
+			// keep the interrupted state
+			Thread.currentThread().interrupt();
+			return false;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stop accepting lines and wait until the background thread has written the
+	 * queued lines.
+	 * 
+	 * @param timeout the maximum time to wait in milliseconds; or 0 to wait
+	 *                without limit.
+	 */
+	void stop(long timeout) {
+		lock.lock();
+		try {
+			stopped = true;
+			notEmpty.signal();
+			// let blocked callers write their lines themselves
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			thread.join(timeout);
+		} catch (InterruptedException e) {
+			// keep the interrupted state
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return true if the queue was stopped.
+	 */
+	boolean isStopped() {
+		lock.lock();
+		try {
+			return stopped;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of lines queued so far (including the dropped oldest
+	 *         ones).
+	 */
+	long getQueuedCount() {
+		lock.lock();
+		try {
+			return tail;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of lines dropped because the queue was full.
+	 */
+	long getDroppedCount() {
+		lock.lock();
+		try {
+			return dropped;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of lines waiting in the queue.
+	 */
+	int getPendingCount() {
+		lock.lock();
+		try {
+			return (int) (tail - head);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The background thread: write the queued lines in batches. If the thread
+	 * dies (e.g. of an Error) the queue is stopped and the lines still queued are
+	 * dropped, so that no caller waits for them forever.
+	 */
+	@Override
+	public void run() {
+		try {
+			writeLoop();
+
+		} finally {
+			lock.lock();
+			try {
+				if (head != tail) {
+					log.severe("Writer thread died: " + (tail - head) + " lines dropped");
+					dropped += tail - head;
+					while (head < tail) {
+						clear(index(head++));
+					}
+				}
+				stopped = true;
+				writing = false;
+				drained.signalAll();
+				// let blocked callers write their lines themselves
+				notFull.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * write the queued lines in batches until the queue is stopped and drained.
+	 */
+	private void writeLoop() {
+		for (;;) {
+			int count = 0;
+			lock.lock();
+			try {
+				while ((head == tail) && !stopped) {
+					notEmpty.awaitUninterruptibly();
+				}
+				if (head == tail) {
+					// stopped and drained
+					break;
+				}
+				// take a batch
+				count = (int) Math.min(tail - head, batchNames.length);
+				batchStart = head;
+				for (int n = 0; n < count; n++) {
+					int i = index(head++);
+					batchNames[n] = names[i];
+					batchKinds[n] = kinds[i];
+					batchValues[n] = values[i];
+					batchTexts[n] = texts[i];
+					clear(i);
+				}
+				writing = true;
+				notFull.signalAll();
+			} finally {
+				lock.unlock();
+			}
+
+			try {
+				FileAccess.writeBatch(batchNames, batchKinds, batchValues, batchTexts, count);
+			} catch (RuntimeException ex) {
+				log.log(Level.WARNING, "Cannot write lines: " + ex.toString(), ex);
+			}
+
+			lock.lock();
+			try {
+				for (int n = 0; n < count; n++) {
+					batchNames[n] = null;
+					batchTexts[n] = null;
+				}
+				writing = false;
+				drained.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * @return the slot index of the sequence number.
+	 */
+	private int index(long seq) {
+		return (int) (seq % capacity);
+	}
+
+	/**
+	 * release the references of a slot.
+	 */
+	private void clear(int i) {
+		names[i] = null;
+		texts[i] = null;
+	}
+}
@@ -4,7 +4,6 @@
 package le2lejosev3.pblocks;
 
 import lejos.hardware.port.Port;
-import lejos.hardware.sensor.EV3GyroSensor;
 import lejos.robotics.SampleProvider;
 
 /**
@@ -17,7 +16,7 @@ import lejos.robotics.SampleProvider;
 public class GyroSensor {
 
 	private Port sensorPort = null;
-	private EV3GyroSensor sensor = null;
+	private ISensorDevice sensor = null;
 	private SampleProvider sp = null;
 	private float[] sample = null;
 
@@ -36,7 +35,7 @@ public class GyroSensor {
 	 */
 	public GyroSensor(Port sensorPort) {
 		this.sensorPort = sensorPort;
-		sensor = new EV3GyroSensor(this.sensorPort);
+		sensor = Hardware.get().openGyroSensor(this.sensorPort);
 		if (sensor != null) {
 			// handle resources correctly before exiting
 			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
@@ -56,7 +55,7 @@ public class GyroSensor {
 	public float measureRate() {
 		if ((sensor.getCurrentMode() != RATE_MODE) || (sp == null)) {
 			// switch to rate mode
-			sp = sensor.getRateMode();
+			sp = sensor.getMode(RATE_MODE);
 			sample = new float[sp.sampleSize()];
 			// wait a little bit
 			// Thread.sleep(SWITCHDELAY);
@@ -74,7 +73,7 @@ public class GyroSensor {
 	public float measureAngle() {
 		if ((sensor.getCurrentMode() != ANGLE_MODE) || (sp == null)) {
 			// switch to angle mode
-			sp = sensor.getAngleMode();
+			sp = sensor.getMode(ANGLE_MODE);
 			sample = new float[sp.sampleSize()];
 			// wait a little bit
 			// Thread.sleep(SWITCHDELAY);
@@ -93,7 +92,7 @@ public class GyroSensor {
 	public float[] measureAngleRate() {
 		if ((sensor.getCurrentMode() != ANGLE_RATE_MODE) || (sp == null)) {
 			// switch to angle and rate mode
-			sp = sensor.getAngleAndRateMode();
+			sp = sensor.getMode(ANGLE_RATE_MODE);
 			sample = new float[sp.sampleSize()];
 			// wait a little bit
 			// Thread.sleep(SWITCHDELAY);
@@ -0,0 +1,39 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+/**
+ * Holder of the hardware backend used by the programming blocks.
+ * The EV3Hardware is used by default. To run a program against another
+ * backend (e.g. SimHardware) set it at the very beginning of the program,
+ * before any programming block is used.
+ * 
+ * @author Roland Blochberger
+ */
+public class Hardware {
+
+	// the current hardware backend
+	private static IHardware hardware = null;
+
+	/**
+	 * @return the hardware backend; the EV3Hardware if none was set.
+	 */
+	public static synchronized IHardware get() {
+		if (hardware == null) {
+			hardware = new EV3Hardware();
+		}
+		return hardware;
+	}
+
+	/**
+	 * set the hardware backend.
+	 * Note: the Display and EV3Audio classes obtain their devices only once when
+	 * they are loaded.
+	 * 
+	 * @param hardware the hardware backend to use.
+	 */
+	public static synchronized void set(IHardware hardware) {
+		Hardware.hardware = hardware;
+	}
+}
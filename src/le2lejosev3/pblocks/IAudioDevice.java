@@ -0,0 +1,35 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+/**
+ * Sound device of a hardware backend.
+ * Receives the command and PCM data packets of the EV3Audio class. (for
+ * internal use only)
+ * 
+ * @author Roland Blochberger
+ * @see IHardware
+ */
+public interface IAudioDevice {
+
+	/**
+	 * write a packet to the sound device.
+	 * 
+	 * @param buf the packet; the first byte is the command code.
+	 * @param len the packet length.
+	 * @return the number of bytes accepted; or < 0 on error.
+	 */
+	public int write(byte[] buf, int len);
+
+	/**
+	 * write a packet to the sound device.
+	 * 
+	 * @param buf    the buffer.
+	 * @param offset the offset of the packet in the buffer; the byte at the offset
+	 *               is the command code.
+	 * @param len    the packet length.
+	 * @return the number of bytes accepted; or < 0 on error.
+	 */
+	public int write(byte[] buf, int offset, int len);
+}
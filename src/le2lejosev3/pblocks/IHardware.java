@@ -0,0 +1,109 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+import lejos.hardware.port.Port;
+
+/**
+ * Hardware backend.
+ * Creates the devices the programming blocks work with. EV3Hardware binds them
+ * to the EV3 brick; SimHardware simulates them in-process so that programs can
+ * run (and be measured) on an ordinary computer.
+ * 
+ * @author Roland Blochberger
+ * @see Hardware
+ */
+public interface IHardware {
+
+	/**
+	 * @param port the motor port.
+	 * @return a new EV3 large regulated motor device.
+	 */
+	public IRegulatedMotorDevice openLargeMotor(Port port);
+
+	/**
+	 * @param port the motor port.
+	 * @return a new EV3 medium regulated motor device.
+	 */
+	public IRegulatedMotorDevice openMediumMotor(Port port);
+
+	/**
+	 * @param port the motor port.
+	 * @return a new unregulated motor device.
+	 */
+	public IUnregulatedMotorDevice openUnregulatedMotor(Port port);
+
+	/**
+	 * @param port the sensor port.
+	 * @return a new EV3 color sensor device.
+	 */
+	public ISensorDevice openColorSensor(Port port);
+
+	/**
+	 * @param port the sensor port.
+	 * @return a new EV3 gyro sensor device.
+	 */
+	public ISensorDevice openGyroSensor(Port port);
+
+	/**
+	 * @param port the sensor port.
+	 * @return a new EV3 touch sensor device.
+	 */
+	public ISensorDevice openTouchSensor(Port port);
+
+	/**
+	 * The distance mode enables the sensor; closing disables it again.
+	 * 
+	 * @param port the sensor port.
+	 * @return a new EV3 ultrasonic sensor device.
+	 */
+	public ISensorDevice openUltrasonicSensor(Port port);
+
+	/**
+	 * Besides the distance (0) and seek (1) modes the device has the remote mode
+	 * (2) with the remote control button code of each of the 4 channels.
+	 * 
+	 * @param port the sensor port.
+	 * @return a new EV3 infrared sensor device.
+	 */
+	public ISensorDevice openInfraredSensor(Port port);
+
+	/**
+	 * @return the graphics LCD device.
+	 */
+	public ILcdDevice getGraphicsLCD();
+
+	/**
+	 * @return the sound device.
+	 */
+	public IAudioDevice getAudioDevice();
+
+	/**
+	 * @return the battery voltage in volts.
+	 */
+	public float getBatteryVoltage();
+
+	/**
+	 * @return true if the Escape button of the brick is pressed down.
+	 */
+	public boolean isEscapeDown();
+
+	/**
+	 * @return the brick buttons currently pressed down as a bit mask of the
+	 *         lejos.hardware.Keys ids.
+	 */
+	public int getButtons();
+
+	/**
+	 * @param key          the name of the system setting.
+	 * @param defaultValue the value if the setting does not exist.
+	 * @return the value of an integer system setting of the brick.
+	 */
+	public int getIntSetting(String key, int defaultValue);
+
+	/**
+	 * @param pattern the pattern of the brick status light; 0 = off.
+	 */
+	public void setLedPattern(int pattern);
+}
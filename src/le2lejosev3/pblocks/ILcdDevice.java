@@ -0,0 +1,100 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+import lejos.hardware.lcd.Font;
+import lejos.hardware.lcd.Image;
+
+/**
+ * Graphics LCD device of a hardware backend.
+ * (the subset of the LeJOS GraphicsLCD methods used by the Display class - for
+ * internal use only)
+ * The colors and anchors are the constants of lejos.hardware.lcd.GraphicsLCD.
+ * 
+ * @author Roland Blochberger
+ * @see IHardware
+ */
+public interface ILcdDevice {
+
+	/**
+	 * @param on set true to refresh the LCD periodically; false to refresh it
+	 *           explicitly only.
+	 */
+	public void setAutoRefresh(boolean on);
+
+	/**
+	 * copy the LCD memory to the screen.
+	 */
+	public void refresh();
+
+	/**
+	 * copy regions of the LCD memory to the screen.
+	 * 
+	 * @param regions the regions; x, y, width, height per region.
+	 * @param count   the number of regions.
+	 */
+	public void refresh(int[] regions, int count);
+
+	/**
+	 * clear the LCD memory.
+	 */
+	public void clear();
+
+	/**
+	 * @param font the font used by drawString and drawChars.
+	 */
+	public void setFont(Font font);
+
+	/**
+	 * @param color the drawing color; GraphicsLCD.BLACK or GraphicsLCD.WHITE.
+	 */
+	public void setColor(int color);
+
+	/**
+	 * @param x     the x-coordinate.
+	 * @param y     the y-coordinate.
+	 * @param color 1 for black; 0 for white.
+	 */
+	public void setPixel(int x, int y, int color);
+
+	/**
+	 * draw a line in the current color.
+	 */
+	public void drawLine(int x1, int y1, int x2, int y2);
+
+	/**
+	 * draw a rectangle outline in the current color.
+	 */
+	public void drawRect(int x, int y, int width, int height);
+
+	/**
+	 * draw a filled rectangle in the current color.
+	 */
+	public void fillRect(int x, int y, int width, int height);
+
+	/**
+	 * draw an arc outline in the current color.
+	 */
+	public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle);
+
+	/**
+	 * draw a filled arc in the current color.
+	 */
+	public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle);
+
+	/**
+	 * draw a string in the current font and color.
+	 */
+	public void drawString(String str, int x, int y, int anchor);
+
+	/**
+	 * draw characters in the current font and color.
+	 */
+	public void drawChars(char[] data, int offset, int length, int x, int y, int anchor);
+
+	/**
+	 * draw an image.
+	 */
+	public void drawImage(Image img, int x, int y, int anchor);
+}
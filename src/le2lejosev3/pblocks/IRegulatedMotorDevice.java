@@ -0,0 +1,100 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+/**
+ * Regulated motor device of a hardware backend.
+ * (the subset of the LeJOS BaseRegulatedMotor methods used by the RegulatedMotor
+ * class - for internal use only)
+ * 
+ * @author Roland Blochberger
+ * @see IHardware
+ */
+public interface IRegulatedMotorDevice {
+
+	/**
+	 * @param acceleration the acceleration in degrees/second/second.
+	 */
+	public void setAcceleration(int acceleration);
+
+	/**
+	 * @param speed the speed in degrees/second (the absolute value is used).
+	 */
+	public void setSpeed(float speed);
+
+	/**
+	 * @return the current speed setting in degrees/second.
+	 */
+	public int getSpeed();
+
+	/**
+	 * @return the maximum speed the motor can reach in degrees/second.
+	 */
+	public float getMaxSpeed();
+
+	/**
+	 * @return the actual rotation speed in degrees/second.
+	 */
+	public int getRotationSpeed();
+
+	/**
+	 * start the motor forward.
+	 */
+	public void forward();
+
+	/**
+	 * start the motor backward.
+	 */
+	public void backward();
+
+	/**
+	 * brake the motor and wait until it stopped.
+	 */
+	public void stop();
+
+	/**
+	 * brake the motor.
+	 * 
+	 * @param immediateReturn true means don't wait for motor stop; false otherwise.
+	 */
+	public void stop(boolean immediateReturn);
+
+	/**
+	 * remove the power from the motor but do not brake.
+	 * 
+	 * @param immediateReturn true means don't wait for motor stop; false otherwise.
+	 */
+	public void flt(boolean immediateReturn);
+
+	/**
+	 * rotate the motor by the specified angle and wait until done.
+	 * 
+	 * @param angle the angle in degrees; + forward; - backward.
+	 */
+	public void rotate(int angle);
+
+	/**
+	 * rotate the motor by the specified angle.
+	 * 
+	 * @param angle           the angle in degrees; + forward; - backward.
+	 * @param immediateReturn true means don't wait for the end of the rotation;
+	 *                        false otherwise.
+	 */
+	public void rotate(int angle, boolean immediateReturn);
+
+	/**
+	 * @return the tacho count in degrees.
+	 */
+	public int getTachoCount();
+
+	/**
+	 * reset the tacho count to zero.
+	 */
+	public void resetTachoCount();
+
+	/**
+	 * close the motor resources.
+	 */
+	public void close();
+}
@@ -0,0 +1,20 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+/**
+ * Condition a thread waits for with SensorSampler.await().
+ * 
+ * @author Roland Blochberger
+ */
+public interface ISensorCondition {
+
+	/**
+	 * Evaluate the condition; called by the waiting thread each time a polled
+	 * sample changed.
+	 * 
+	 * @return true if the condition is met and the wait ends; false otherwise.
+	 */
+	public boolean matches();
+}
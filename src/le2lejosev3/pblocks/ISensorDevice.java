@@ -0,0 +1,42 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+import lejos.robotics.SampleProvider;
+
+/**
+ * Sensor device of a hardware backend.
+ * The mode numbers are the ones of the respective LeJOS sensor class, e.g. 1 is
+ * the red mode of the EV3ColorSensor. (for internal use only)
+ * 
+ * @author Roland Blochberger
+ * @see IHardware
+ */
+public interface ISensorDevice {
+
+	/**
+	 * @return the number of the currently selected sensor mode.
+	 */
+	public int getCurrentMode();
+
+	/**
+	 * get the sample provider of the specified sensor mode; fetching a sample
+	 * from it switches the sensor to that mode.
+	 * 
+	 * @param mode the mode number.
+	 * @return the sample provider.
+	 */
+	public SampleProvider getMode(int mode);
+
+	/**
+	 * reset the sensor (e.g. the angle of the gyro sensor); does nothing if the
+	 * sensor does not support it.
+	 */
+	public void reset();
+
+	/**
+	 * close the sensor resources.
+	 */
+	public void close();
+}
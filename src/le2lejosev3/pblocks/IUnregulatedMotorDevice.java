@@ -0,0 +1,60 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+/**
+ * Unregulated motor device of a hardware backend.
+ * (the subset of the LeJOS UnregulatedMotor methods used by the UnregulatedMotor
+ * class - for internal use only)
+ * 
+ * @author Roland Blochberger
+ * @see IHardware
+ */
+public interface IUnregulatedMotorDevice {
+
+	/**
+	 * @param power the power percentage (-100..100); + forward; - backward.
+	 */
+	public void setPower(int power);
+
+	/**
+	 * @return the current power percentage.
+	 */
+	public int getPower();
+
+	/**
+	 * start the motor forward.
+	 */
+	public void forward();
+
+	/**
+	 * start the motor backward.
+	 */
+	public void backward();
+
+	/**
+	 * brake the motor.
+	 */
+	public void stop();
+
+	/**
+	 * remove the power from the motor but do not brake.
+	 */
+	public void flt();
+
+	/**
+	 * @return the tacho count in degrees.
+	 */
+	public int getTachoCount();
+
+	/**
+	 * reset the tacho count to zero.
+	 */
+	public void resetTachoCount();
+
+	/**
+	 * close the motor resources.
+	 */
+	public void close();
+}
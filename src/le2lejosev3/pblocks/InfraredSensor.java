@@ -6,7 +6,6 @@ package le2lejosev3.pblocks;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import lejos.hardware.Button;
 import lejos.hardware.port.Port;
 import lejos.robotics.SampleProvider;
 
@@ -50,17 +49,22 @@ public class InfraredSensor implements Change {
 	 */
 
 	private Port sensorPort = null;
-	private EV3IRSensor sensor = null;
+	private ISensorDevice sensor = null;
 	private SampleProvider sp = null;
 	private float[] sample = null;
 	private int[] seek = null;
 	private float[] seekF = null;
+	private SampleProvider remoteSp = null;
+	private float[] remote = null;
 	private boolean isRemote = false;
+	private SensorSampler sampler = null;
+	private SensorSnapshot snapshot = null;
+	private int snapshotMode = -1;
 
-	/** the modes of the EV3GyroSensor */
+	/** the modes of the EV3IRSensor */
 	private static final int PROXIMITY_MODE = 0;
 	private static final int BEACON_MODE = 1;
-	// private static final int REMOTE_MODE = 2; // handled inside of LeJOS
+	private static final int REMOTE_MODE = 2; // handled inside of LeJOS
 
 	// the switch delay of the EV3GyroSensor is not used
 	// private static final int SWITCHDELAY = 250;
@@ -72,7 +76,7 @@ public class InfraredSensor implements Change {
 	 */
 	public InfraredSensor(Port sensorPort) {
 		this.sensorPort = sensorPort;
-		sensor = new EV3IRSensor(this.sensorPort);
+		sensor = Hardware.get().openInfraredSensor(this.sensorPort);
 		if (sensor != null) {
 			// handle resources correctly before exiting
 			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
@@ -84,21 +88,82 @@ public class InfraredSensor implements Change {
 		}
 	}
 
+	/**
+	 * Let the specified background sampler poll the sensor; the measure methods
+	 * then return the latest polled values. The sampler polls the mode of the
+	 * latest measurement (initially the proximity), so that the sensor only
+	 * switches its mode when the program measures another mode.
+	 * 
+	 * @param sampler the sampler, or null to fetch each sample again.
+	 */
+	public void setSampler(SensorSampler sampler) {
+		synchronized (sensor) {
+			if (snapshot != null) {
+				this.sampler.unregister(snapshot);
+				snapshot = null;
+				snapshotMode = -1;
+			}
+			// the sampler may have switched the mode
+			sp = null;
+			this.sampler = sampler;
+			if (sampler != null) {
+				sampled(PROXIMITY_MODE);
+			}
+		}
+	}
+
+	/**
+	 * Return the snapshot of the sampler for the specified mode; if the sampler
+	 * polls another mode it is moved to the specified one.
+	 * 
+	 * @param mode the sensor mode.
+	 * @return the snapshot holding the latest sample of the mode.
+	 */
+	private SensorSnapshot sampled(int mode) {
+		if (snapshotMode != mode) {
+			if (snapshot != null) {
+				sampler.unregister(snapshot);
+			}
+			snapshot = sampler.register(sensor, sensor.getMode(mode));
+			snapshotMode = mode;
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Copy the latest sample of the specified mode from the sampler into the
+	 * sample array.
+	 * 
+	 * @param mode the sensor mode.
+	 */
+	private void copySampled(int mode) {
+		SensorSnapshot snap = sampled(mode);
+		if ((sample == null) || (sample.length < snap.sampleSize())) {
+			sample = new float[snap.sampleSize()];
+		}
+		snap.getSample(sample);
+	}
+
 	/**
 	 * Fetch and return the proximity distance from the sensor.
 	 * 
 	 * @return the the approximate distance (0..100).
 	 */
 	public float measureProximity() {
-		if ((sensor.getCurrentMode() != PROXIMITY_MODE) || (sp == null) || isRemote) {
-			// switch to proximity mode
-			isRemote = false;
-			sp = sensor.getDistanceMode();
-			sample = new float[sp.sampleSize()];
-			// wait a little bit
-			// Thread.sleep(SWITCHDELAY);
+		synchronized (sensor) {
+			if (sampler != null) {
+				return sampled(PROXIMITY_MODE).getValue(0);
+			}
+			if ((sensor.getCurrentMode() != PROXIMITY_MODE) || (sp == null) || isRemote) {
+				// switch to proximity mode
+				isRemote = false;
+				sp = sensor.getMode(PROXIMITY_MODE);
+				sample = new float[sp.sampleSize()];
+				// wait a little bit
+				// Thread.sleep(SWITCHDELAY);
+			}
+			sp.fetchSample(sample, 0);
 		}
-		sp.fetchSample(sample, 0);
 		return sample[0];
 	}
 
@@ -112,16 +177,25 @@ public class InfraredSensor implements Change {
 	 */
 	public int[] measureBeacon(int channel) {
 		if ((channel > 0) && (channel <= EV3IRSensor.IR_CHANNELS)) {
-			if ((sensor.getCurrentMode() != BEACON_MODE) || (sp == null) || isRemote) {
-				// switch to beacon mode
-				isRemote = false;
-				sp = sensor.getSeekMode();
-				sample = new float[sp.sampleSize()];
-				seek = new int[3];
-				// wait a little bit
-				// Thread.sleep(SWITCHDELAY);
+			synchronized (sensor) {
+				if (sampler != null) {
+					copySampled(BEACON_MODE);
+					if (seek == null) {
+						seek = new int[3];
+					}
+				} else {
+					if ((sensor.getCurrentMode() != BEACON_MODE) || (sp == null) || isRemote) {
+						// switch to beacon mode
+						isRemote = false;
+						sp = sensor.getMode(BEACON_MODE);
+						sample = new float[sp.sampleSize()];
+						seek = new int[3];
+						// wait a little bit
+						// Thread.sleep(SWITCHDELAY);
+					}
+					sp.fetchSample(sample, 0);
+				}
 			}
-			sp.fetchSample(sample, 0);
 			int ix = (channel - 1) * 2;
 			// heading
 			seek[0] = (int) sample[ix++];
@@ -149,16 +223,25 @@ public class InfraredSensor implements Change {
 	 */
 	public float[] measureBeaconF(int channel) {
 		if ((channel > 0) && (channel <= EV3IRSensor.IR_CHANNELS)) {
-			if ((sensor.getCurrentMode() != BEACON_MODE) || (sp == null) || isRemote) {
-				// switch to beacon mode
-				isRemote = false;
-				sp = sensor.getSeekMode();
-				sample = new float[sp.sampleSize()];
-				seekF = new float[3];
-				// wait a little bit
-				// Thread.sleep(SWITCHDELAY);
+			synchronized (sensor) {
+				if (sampler != null) {
+					copySampled(BEACON_MODE);
+					if (seekF == null) {
+						seekF = new float[3];
+					}
+				} else {
+					if ((sensor.getCurrentMode() != BEACON_MODE) || (sp == null) || isRemote) {
+						// switch to beacon mode
+						isRemote = false;
+						sp = sensor.getMode(BEACON_MODE);
+						sample = new float[sp.sampleSize()];
+						seekF = new float[3];
+						// wait a little bit
+						// Thread.sleep(SWITCHDELAY);
+					}
+					sp.fetchSample(sample, 0);
+				}
 			}
-			sp.fetchSample(sample, 0);
 			int ix = (channel - 1) * 2;
 			// heading
 			seekF[0] = sample[ix++];
@@ -184,8 +267,18 @@ public class InfraredSensor implements Change {
 	 */
 	public int measureRemote(int channel) {
 		if ((channel > 0) && (channel <= EV3IRSensor.IR_CHANNELS)) {
-			isRemote = true;
-			return sensor.getRemoteCommand(channel - 1);
+			synchronized (sensor) {
+				if (sampler != null) {
+					return (int) sampled(REMOTE_MODE).getValue(channel - 1);
+				}
+				isRemote = true;
+				if (remoteSp == null) {
+					remoteSp = sensor.getMode(REMOTE_MODE);
+					remote = new float[remoteSp.sampleSize()];
+				}
+				remoteSp.fetchSample(remote, 0);
+				return (int) remote[channel - 1];
+			}
 
 		} else {
 			throw new RuntimeException("Invalid Channel number: " + channel);
@@ -194,52 +287,65 @@ public class InfraredSensor implements Change {
 
 	/**
 	 * Wait for Change of Infrared Proximity.
+	 * The waiting thread sleeps until the sampler (the one set with setSampler()
+	 * or the default one) reports a change of the proximity or of the Escape
+	 * button.
 	 * 
 	 * @param direction the change direction, one of CHANGE_INCREASE,
 	 *                  CHANGE_DECREASE, CHANGE_ANY.
 	 * @param amount    the amount of change (> 0).
 	 * @return the current proximity value after the change.
 	 */
-	public float waitChangeProximity(int direction, float amount) {
+	public float waitChangeProximity(final int direction, final float amount) {
 		if ((direction == CHANGE_INCREASE) || (direction == CHANGE_DECREASE) || (direction == CHANGE_ANY)) {
 			// get initial proximity
-			float iniVal = measureProximity();
+			final float iniVal = measureProximity();
 			if (log.isLoggable(Level.FINEST)) {
 				log.log(Level.FINEST, "iniVal: {0}", iniVal);
 			}
-			float curVal = iniVal;
-			boolean change = false;
-			while (Button.ESCAPE.isUp()) {
-				// short delay until next sample
-				try {
-					Thread.sleep(1L);
-				} catch (InterruptedException e) {
-					// leave loop
-					break;
-				}
-				// get current state of sensor
-				curVal = measureProximity();
-				// compare
-				switch (direction) {
-				case CHANGE_INCREASE:
-					change = (curVal >= (iniVal + amount));
-					break;
-				case CHANGE_DECREASE:
-					change = (curVal <= (iniVal - amount));
-					break;
-				case CHANGE_ANY:
-					change = ((curVal >= (iniVal + amount)) || (curVal <= (iniVal - amount)));
-					break;
-				}
-				if (log.isLoggable(Level.FINEST)) {
-					log.log(Level.FINEST, "curVal: " + curVal + ", change: " + change);
-				}
-				// leave wait loop if change occurred
-				if (change) {
-					break;
+			final float[] curVal = new float[] { iniVal };
+			// use the own sampler or register with the default one while waiting
+			final SensorSampler waitSampler;
+			final SensorSnapshot waitSnapshot;
+			final boolean own;
+			synchronized (sensor) {
+				own = (sampler != null);
+				waitSampler = own ? sampler : SensorSampler.getDefault();
+				waitSnapshot = own ? sampled(PROXIMITY_MODE)
+						: waitSampler.register(sensor, sensor.getMode(PROXIMITY_MODE));
+			}
+			try {
+				// sleep until the proximity changed
+				waitSampler.await(new ISensorCondition() {
+					@Override
+					public boolean matches() {
+						boolean change = false;
+						// get current state of sensor
+						curVal[0] = waitSnapshot.getValue(0);
+						// compare
+						switch (direction) {
+						case CHANGE_INCREASE:
+							change = (curVal[0] >= (iniVal + amount));
+							break;
+						case CHANGE_DECREASE:
+							change = (curVal[0] <= (iniVal - amount));
+							break;
+						case CHANGE_ANY:
+							change = ((curVal[0] >= (iniVal + amount)) || (curVal[0] <= (iniVal - amount)));
+							break;
+						}
+						if (log.isLoggable(Level.FINEST)) {
+							log.log(Level.FINEST, "curVal: " + curVal[0] + ", change: " + change);
+						}
+						return change;
+					}
+				});
+			} finally {
+				if (!own) {
+					waitSampler.unregister(waitSnapshot);
 				}
 			}
-			return curVal;
+			return curVal[0];
 
 		} else {
 			throw new RuntimeException("Invalid Change direction: " + direction);
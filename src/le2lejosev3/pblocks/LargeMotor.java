@@ -3,7 +3,6 @@
  */
 package le2lejosev3.pblocks;
 
-import lejos.hardware.motor.EV3LargeRegulatedMotor;
 import lejos.hardware.port.Port;
 
 /**
@@ -22,6 +21,6 @@ public class LargeMotor extends RegulatedMotor implements IMotor {
 	 * @param motorPort
 	 */
 	public LargeMotor(Port motorPort) {
-		super(motorPort, new EV3LargeRegulatedMotor(motorPort));
+		super(motorPort, Hardware.get().openLargeMotor(motorPort));
 	}
 }
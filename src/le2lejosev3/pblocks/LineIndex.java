@@ -0,0 +1,178 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Index of the line offsets of a text file.
+ * The file is scanned once; then any line is read with a positional read of
+ * the FileChannel. When the file grows only the new part is scanned; when it
+ * shrinks the index is rebuilt. The lines end with "\n" or "\r\n". The content
+ * ends at the first NUL byte, i.e. the unused rest of a mapped region that was
+ * not truncated.
+ * 
+ * @author Roland Blochberger
+ */
+class LineIndex {
+
+	// the size of the scan buffer
+	private static final int BUFFER_SIZE = 8192;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	// the start offsets of the lines; offsets[count] is the end of the last
+	// complete line
+	private long[] offsets = new long[256];
+	// the number of complete lines
+	private int count = 0;
+	// the size of the indexed file
+	private long size = 0L;
+	// the scan buffer; allocated when needed
+	private ByteBuffer scanBuf = null;
+	// the line buffer; grows with the longest line read
+	private ByteBuffer lineBuf = ByteBuffer.allocate(64);
+
+	/**
+	 * Constructor.
+	 * Opens the file; call update() to scan it.
+	 * 
+	 * @param file the text file.
+	 * @throws IOException if the file cannot be opened.
+	 */
+	LineIndex(File file) throws IOException {
+		this.file = file;
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+	}
+
+	/**
+	 * @return the file.
+	 */
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the current size of the file.
+	 * @throws IOException on read errors.
+	 */
+	long fileSize() throws IOException {
+		return channel.size();
+	}
+
+	/**
+	 * Bring the index up to date with the file size.
+	 * 
+	 * @param fileSize the size of the file content.
+	 * @throws IOException on read errors.
+	 */
+	void update(long fileSize) throws IOException {
+		if (fileSize < size) {
+			// the file shrank: rebuild the index
+			count = 0;
+			size = 0L;
+		}
+		if (fileSize > size) {
+			scan(fileSize);
+		}
+	}
+
+	/**
+	 * @return the number of lines; including an incomplete last line.
+	 */
+	int getLineCount() {
+		return (size > offsets[count]) ? (count + 1) : count;
+	}
+
+	/**
+	 * Read a line.
+	 * 
+	 * @param line the line number; 0 is the first line.
+	 * @return the line without the line separator; or null if the file has not
+	 *         so many lines.
+	 * @throws IOException on read errors.
+	 */
+	String readLine(int line) throws IOException {
+		if ((line < 0) || (line >= getLineCount())) {
+			return null;
+		}
+		long start = offsets[line];
+		long end = (line < count) ? offsets[line + 1] : size;
+		int len = (int) (end - start);
+		if (len > lineBuf.capacity()) {
+			lineBuf = ByteBuffer.allocate(Math.max(len, lineBuf.capacity() * 2));
+		}
+		lineBuf.clear().limit(len);
+		while (lineBuf.hasRemaining()) {
+			if (channel.read(lineBuf, start + lineBuf.position()) < 0) {
+				// the file was truncated meanwhile
+				break;
+			}
+		}
+		byte[] bytes = lineBuf.array();
+		len = lineBuf.position();
+		// strip the line separator
+		if ((len > 0) && (bytes[len - 1] == '\n')) {
+			len--;
+			if ((len > 0) && (bytes[len - 1] == '\r')) {
+				len--;
+			}
+		}
+		// decode with the default charset like a FileReader
+		return new String(bytes, 0, len);
+	}
+
+	/**
+	 * Close the file.
+	 * 
+	 * @throws IOException on errors.
+	 */
+	void close() throws IOException {
+		raf.close();
+	}
+
+	/**
+	 * scan the file from the end of the last complete line.
+	 */
+	private void scan(long fileSize) throws IOException {
+		if (scanBuf == null) {
+			scanBuf = ByteBuffer.allocate(BUFFER_SIZE);
+		}
+		byte[] bytes = scanBuf.array();
+		long pos = offsets[count];
+		while (pos < fileSize) {
+			scanBuf.clear();
+			if (fileSize - pos < BUFFER_SIZE) {
+				scanBuf.limit((int) (fileSize - pos));
+			}
+			int n = channel.read(scanBuf, pos);
+			if (n <= 0) {
+				break;
+			}
+			for (int i = 0; i < n; i++) {
+				if (bytes[i] == 0) {
+					// the end of the content
+					size = pos + i;
+					return;
+				}
+				if (bytes[i] == '\n') {
+					if (count + 1 == offsets.length) {
+						long[] grown = new long[offsets.length * 2];
+						System.arraycopy(offsets, 0, grown, 0, offsets.length);
+						offsets = grown;
+					}
+					offsets[++count] = pos + i + 1;
+				}
+			}
+			pos += n;
+		}
+		size = pos;
+	}
+}
@@ -3,7 +3,6 @@
  */
 package le2lejosev3.pblocks;
 
-import lejos.hardware.motor.EV3MediumRegulatedMotor;
 import lejos.hardware.port.Port;
 
 /**
@@ -22,6 +21,6 @@ public class MediumMotor extends RegulatedMotor implements IMotor {
 	 * @param motorPort
 	 */
 	public MediumMotor(Port motorPort) {
-		super(motorPort, new EV3MediumRegulatedMotor(motorPort));
+		super(motorPort, Hardware.get().openMediumMotor(motorPort));
 	}
 }
@@ -6,7 +6,6 @@ package le2lejosev3.pblocks;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import lejos.hardware.Button;
 import lejos.hardware.port.Port;
 
 /**
@@ -293,7 +292,8 @@ public class MoveBaseUnregulated implements IMoveRotation {
 		int rmtc = 0; // newest sample
 		int pdg = degrs; // pending degrees
 
-		while (Button.ESCAPE.isUp()) {
+		IHardware hardware = Hardware.get();
+		while (!hardware.isEscapeDown()) {
 			if (lal) {
 				// get current degrees
 				lmtc = leftMotor.measureDegrees();
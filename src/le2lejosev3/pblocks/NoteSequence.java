@@ -0,0 +1,116 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+import java.util.HashMap;
+
+/**
+ * A sequence of notes compiled by Sound.compileSequence() to be played by
+ * Sound.playSequence() or Sound.queueSequence().
+ *
+ * Each note is compiled into one int code holding its note number (MIDI), its
+ * instrument or a rest, and its duration in samples of the software mixer; the
+ * envelopes of the notes are computed once as well. The note names are not
+ * looked up again while playing. Each note starts at the sample rounded from
+ * the sum of the durations before it, so that a long sequence does not drift.
+ *
+ * @author Roland Blochberger
+ */
+public class NoteSequence {
+
+	// the code of a note: the note number in the lowest 7 bits, the instrument
+	// (or REST) in the next 2 bits, the duration in samples in the upper bits
+	static final int NOTE_MASK = 0x7f;
+	static final int INSTRUMENT_SHIFT = 7;
+	static final int INSTRUMENT_MASK = 0x3;
+	static final int REST = 3;
+	static final int LENGTH_SHIFT = 9;
+	// the maximum duration of a note in samples
+	private static final int MAX_LENGTH = (1 << (32 - LENGTH_SHIFT)) - 1;
+
+	/** the note codes */
+	final int[] codes;
+	/** the envelope of each note; null for a rest */
+	final int[][] envelopes;
+	// the total duration in samples
+	private final int samples;
+
+	/**
+	 * Constructor; compiles the notes.
+	 *
+	 * @param instruments the 'LeJOS instrument' of each note; one of Sound.PIANO,
+	 *                    FLUTE, XYLOPHONE.
+	 * @param notes       the note names or Sound.REST.
+	 * @param durations   the duration of each note in seconds.
+	 */
+	NoteSequence(int[] instruments, String[] notes, float[] durations) {
+		if ((instruments.length != notes.length) || (durations.length != notes.length)) {
+			throw new RuntimeException("Invalid sequence length: " + notes.length + " notes, " + instruments.length
+					+ " instruments, " + durations.length + " durations");
+		}
+		codes = new int[notes.length];
+		envelopes = new int[notes.length][];
+		// the envelopes by instrument and duration
+		HashMap<Long, int[]> shapes = new HashMap<Long, int[]>();
+		double time = 0.0;
+		long start = 0L;
+		for (int i = 0; i < notes.length; i++) {
+			if (!(durations[i] >= 0.0F)) {
+				throw new RuntimeException("Invalid duration: " + durations[i]);
+			}
+			time += durations[i];
+			long end = Math.round(time * PCMMixer.SAMPLE_RATE);
+			if (end - start > MAX_LENGTH) {
+				throw new RuntimeException("Invalid duration: " + durations[i]);
+			}
+			int length = (int) (end - start);
+			start = end;
+			if (Sound.REST.equalsIgnoreCase(notes[i])) {
+				codes[i] = (length << LENGTH_SHIFT) | (REST << INSTRUMENT_SHIFT);
+				continue;
+			}
+			int inst = instruments[i];
+			if ((inst < 0) || (inst >= Synth.INSTRUMENTS.length)) {
+				throw new RuntimeException("Invalid instrument value: " + inst);
+			}
+			int note = Synth.noteNumber(notes[i]);
+			if (note < 0) {
+				throw new RuntimeException("Invalid note: " + notes[i]);
+			}
+			codes[i] = (length << LENGTH_SHIFT) | (inst << INSTRUMENT_SHIFT) | note;
+			Long key = Long.valueOf(((long) length << 2) | inst);
+			int[] levels = shapes.get(key);
+			if (levels == null) {
+				levels = Synth.envelope(Synth.INSTRUMENTS[inst], (int) ((length * 1000L) / PCMMixer.SAMPLE_RATE));
+				shapes.put(key, levels);
+			}
+			envelopes[i] = levels;
+		}
+		if (start > Integer.MAX_VALUE) {
+			throw new RuntimeException("Invalid sequence duration: " + time);
+		}
+		samples = (int) start;
+	}
+
+	/**
+	 * @return the number of notes and rests.
+	 */
+	public int size() {
+		return codes.length;
+	}
+
+	/**
+	 * @return the duration of the sequence in seconds.
+	 */
+	public float getDuration() {
+		return (float) samples / PCMMixer.SAMPLE_RATE;
+	}
+
+	/**
+	 * @return the duration of the sequence in samples of the mixer.
+	 */
+	int getSamples() {
+		return samples;
+	}
+}
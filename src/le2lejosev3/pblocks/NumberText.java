@@ -0,0 +1,245 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+/**
+ * Allocation-free conversion of numbers to text.
+ * The numbers are formatted as ASCII bytes into a caller supplied array, so
+ * that high-rate logging does not create a String for every value. Floats are
+ * written with the fewest digits that read back as the same float, in the
+ * format of Float.toString().
+ *
+ * @author Roland Blochberger
+ */
+final class NumberText {
+
+	/** the maximum number of bytes of a formatted int */
+	static final int MAX_INT_LENGTH = 11;
+	/** the maximum number of bytes of a formatted long */
+	static final int MAX_LONG_LENGTH = 20;
+	/** the maximum number of bytes of a formatted float */
+	static final int MAX_FLOAT_LENGTH = 16;
+
+	// log10(2) to estimate the decimal exponent
+	private static final double LOG10_2 = 0.30102999566398120;
+	// the powers of ten
+	private static final double[] POW10 = new double[64];
+	static {
+		double p = 1.0;
+		for (int i = 0; i < POW10.length; i++) {
+			POW10[i] = p;
+			p *= 10.0;
+		}
+	}
+	private static final byte[] NAN = { 'N', 'a', 'N' };
+	private static final byte[] INFINITY = { 'I', 'n', 'f', 'i', 'n', 'i', 't', 'y' };
+
+	/**
+	 * Format an int value.
+	 *
+	 * @param value the value.
+	 * @param dst   the destination array (at least MAX_INT_LENGTH bytes from off).
+	 * @param off   the offset in the destination array.
+	 * @return the offset after the formatted value.
+	 */
+	static int format(int value, byte[] dst, int off) {
+		if (value == Integer.MIN_VALUE) {
+			return format((long) value, dst, off);
+		}
+		if (value < 0) {
+			dst[off++] = '-';
+			value = -value;
+		}
+		// count the digits
+		int len = 1;
+		for (int v = value; v >= 10; v /= 10) {
+			len++;
+		}
+		int pos = off + len;
+		do {
+			dst[--pos] = (byte) ('0' + (value % 10));
+			value /= 10;
+		} while (value > 0);
+		return off + len;
+	}
+
+	/**
+	 * Format a float value like Float.toString() does.
+	 *
+	 * @param value the value.
+	 * @param dst   the destination array (at least MAX_FLOAT_LENGTH bytes from
+	 *              off).
+	 * @param off   the offset in the destination array.
+	 * @return the offset after the formatted value.
+	 */
+	static int format(float value, byte[] dst, int off) {
+		if (value != value) {
+			return copy(NAN, dst, off);
+		}
+		if ((Float.floatToRawIntBits(value) & 0x80000000) != 0) {
+			dst[off++] = '-';
+			value = -value;
+		}
+		if (value == Float.POSITIVE_INFINITY) {
+			return copy(INFINITY, dst, off);
+		}
+		if (value == 0F) {
+			dst[off++] = '0';
+			dst[off++] = '.';
+			dst[off++] = '0';
+			return off;
+		}
+		// the decimal exponent: estimate from the binary one and correct it
+		int exp = (int) Math.floor(Math.getExponent(value) * LOG10_2);
+		while (scale10(1.0, exp + 1) <= value) {
+			exp++;
+		}
+		while (scale10(1.0, exp) > value) {
+			exp--;
+		}
+		// binary search for the fewest digits that read back as the same float
+		int lo = 1;
+		int hi = 9;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int scale = mid - 1 - exp;
+			if ((float) scale10(Math.round(scale10(value, scale)), -scale) == value) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		int prec = hi;
+		int scale = prec - 1 - exp;
+		long digits = Math.round(scale10(value, scale));
+		if ((float) scale10(digits, -scale) != value) {
+			// not representable by the conversion above: use the slow path
+			String text = Float.toString(value);
+			for (int i = 0; i < text.length(); i++) {
+				dst[off++] = (byte) text.charAt(i);
+			}
+			return off;
+		}
+		if (digits >= (long) POW10[prec]) {
+			// rounded up to the next power of ten
+			digits /= 10L;
+			exp++;
+		}
+		// remove the trailing zeros
+		while ((prec > 1) && ((digits % 10L) == 0L)) {
+			digits /= 10L;
+			prec--;
+		}
+		if ((value >= 1e-3F) && (value < 1e7F)) {
+			// plain notation
+			if (exp < 0) {
+				// 0.000ddd
+				dst[off++] = '0';
+				dst[off++] = '.';
+				for (int i = -1; i > exp; i--) {
+					dst[off++] = '0';
+				}
+				off = putDigits(digits, prec, dst, off);
+			} else if (prec > exp + 1) {
+				// ddd.ddd
+				int point = off + exp + 1;
+				off = putDigits(digits, prec, dst, off);
+				System.arraycopy(dst, point, dst, point + 1, off - point);
+				dst[point] = '.';
+				off++;
+			} else {
+				// ddd000.0
+				off = putDigits(digits, prec, dst, off);
+				for (int i = prec; i <= exp; i++) {
+					dst[off++] = '0';
+				}
+				dst[off++] = '.';
+				dst[off++] = '0';
+			}
+		} else {
+			// computerized scientific notation d.dddE-xx
+			int start = off;
+			off = putDigits(digits, prec, dst, off);
+			System.arraycopy(dst, start + 1, dst, start + 2, prec - 1);
+			dst[start + 1] = '.';
+			off++;
+			if (prec == 1) {
+				dst[off++] = '0';
+			}
+			dst[off++] = 'E';
+			off = format(exp, dst, off);
+		}
+		return off;
+	}
+
+	/**
+	 * @return the value multiplied by 10 to the power of scale.
+	 */
+	private static double scale10(double value, int scale) {
+		if (scale >= 0) {
+			return (scale < POW10.length) ? (value * POW10[scale]) : (value * Math.pow(10.0, scale));
+		}
+		return (-scale < POW10.length) ? (value / POW10[-scale]) : (value / Math.pow(10.0, -scale));
+	}
+
+	/**
+	 * put the specified number of digits.
+	 */
+	private static int putDigits(long digits, int count, byte[] dst, int off) {
+		int pos = off + count;
+		for (int i = 0; i < count; i++) {
+			dst[--pos] = (byte) ('0' + (digits % 10L));
+			digits /= 10L;
+		}
+		return off + count;
+	}
+
+	/**
+	 * Format a long value.
+	 *
+	 * @param value the value.
+	 * @param dst   the destination array (at least MAX_LONG_LENGTH bytes from
+	 *              off).
+	 * @param off   the offset in the destination array.
+	 * @return the offset after the formatted value.
+	 */
+	static int format(long value, byte[] dst, int off) {
+		if (value == Long.MIN_VALUE) {
+			// cannot be negated
+			String text = Long.toString(value);
+			for (int i = 0; i < text.length(); i++) {
+				dst[off++] = (byte) text.charAt(i);
+			}
+			return off;
+		}
+		if (value < 0L) {
+			dst[off++] = '-';
+			value = -value;
+		}
+		int len = 1;
+		for (long v = value; v >= 10L; v /= 10L) {
+			len++;
+		}
+		int pos = off + len;
+		do {
+			dst[--pos] = (byte) ('0' + (value % 10L));
+			value /= 10L;
+		} while (value > 0L);
+		return off + len;
+	}
+
+	/**
+	 * copy the bytes.
+	 */
+	private static int copy(byte[] src, byte[] dst, int off) {
+		System.arraycopy(src, 0, dst, off, src.length);
+		return off + src.length;
+	}
+
+	/**
+	 * Utility class.
+	 */
+	private NumberText() {
+	}
+}
@@ -0,0 +1,626 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Software mixer in front of the sound device.
+ * A background mixer thread sums the samples of up to MAX_VOICES voices
+ * (decoded sound clips, synthesized tones and notes) block by block into one
+ * 16-bit stream, applies the volume of each voice, saturates the sum to the
+ * 16-bit range, and writes the blocks to the sound device. The device stream
+ * stays open while voices are added and removed; it is ended after IDLE_BLOCKS
+ * blocks of silence. All mix buffers are allocated once.
+ * Starting another PCM playback on the device (e.g. a streamed WAV file) or
+ * ending the playback stops all voices.
+ * Voices can also be scheduled with a start time and a priority by any thread
+ * without blocking: they go through a bounded lock-free queue to the mixer
+ * thread, which starts them with the first block after their start time (in
+ * the order they were scheduled if the start times are equal). A starting
+ * voice stops the playing voices of a lower priority; it is dropped if a voice
+ * of a higher priority is playing. Without the mix mode of the Sound block it
+ * also stops the sound playing in the background, or is dropped (see
+ * Sound.preempt()).
+ *
+ * @author Roland Blochberger
+ */
+class PCMMixer implements Runnable {
+
+	/** the sample rate of the mixed stream */
+	static final int SAMPLE_RATE = 16000;
+	/** the maximum number of voices */
+	static final int MAX_VOICES = 8;
+	// the number of samples per mixed block (16ms)
+	private static final int BLOCK_SIZE = 256;
+	// the number of silent blocks before the device stream is ended
+	private static final int IDLE_BLOCKS = 32;
+	/** the maximum number of scheduled voices that have not started yet */
+	static final int MAX_SCHEDULED = 64;
+
+	private final EV3Audio audio;
+	// the mix buffers
+	private final int[] mix = new int[BLOCK_SIZE];
+	private final byte[] out = new byte[BLOCK_SIZE * 2 + 1];
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition removed = lock.newCondition();
+	// the voices
+	private final Voice[] voices = new Voice[MAX_VOICES];
+	private int count = 0;
+	private int nextId = 1;
+	// the voices of the block being mixed and the ones that ended in it; used
+	// by the mixer thread only
+	private final Voice[] active = new Voice[MAX_VOICES];
+	private final Voice[] ended = new Voice[MAX_VOICES];
+	private final Thread thread;
+
+	// the scheduled voices on their way to the mixer thread
+	private final SoundQueue queue = new SoundQueue(MAX_SCHEDULED);
+	// the scheduled voices taken from the queue ordered by their start time and
+	// sequence number (a binary heap); used by the mixer thread only
+	private final Voice[] pending = new Voice[MAX_SCHEDULED];
+	private int pendingCount = 0;
+	// the number of scheduled voices that have not started yet
+	private final AtomicInteger scheduled = new AtomicInteger(0);
+	private final AtomicLong sequence = new AtomicLong(0L);
+	// changed by every clearSchedule(); the mixer thread drops the voices
+	// scheduled before
+	private final AtomicInteger clearings = new AtomicInteger(0);
+	private int cleared = 0;
+
+	/**
+	 * A source of samples.
+	 */
+	abstract static class Voice {
+		private int id = 0;
+		// the volume factor (256 = 100%)
+		private volatile int gain = 256;
+		// the schedule: the start time (System.nanoTime()), the sequence number,
+		// the clearing it belongs to
+		private long start = 0L;
+		private long seq = 0L;
+		private int clearing = 0;
+		private int priority = 0;
+		// the playback generation of the sound device when the voice started
+		private int generation = 0;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param volume the volume (0..100).
+		 */
+		Voice(int volume) {
+			setVolume(volume);
+		}
+
+		/**
+		 * @param volume the volume (0..100).
+		 */
+		void setVolume(int volume) {
+			gain = (Math.max(0, Math.min(100, volume)) * 256) / 100;
+		}
+
+		/**
+		 * @return the volume factor (256 = 100%).
+		 */
+		int getGain() {
+			return gain;
+		}
+
+		/**
+		 * Add the next samples of the voice to the mix buffer; called by the mixer
+		 * thread only.
+		 *
+		 * @param mix  the mix buffer.
+		 * @param len  the number of samples.
+		 * @param gain the volume factor (256 = 100%).
+		 * @return false if the voice has ended.
+		 */
+		abstract boolean mix(int[] mix, int len, int gain);
+	}
+
+	/**
+	 * A decoded sound clip; resampled to the SAMPLE_RATE with linear
+	 * interpolation.
+	 */
+	static class ClipVoice extends Voice {
+		private final byte[] data;
+		private final int samples;
+		private final boolean repeat;
+		// the position in the clip in 1/65536 samples and its step per sample
+		private long pos = 0L;
+		private final long step;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param clip   the decoded sound.
+		 * @param volume the volume (0..100).
+		 * @param repeat set true to play the clip again and again.
+		 */
+		ClipVoice(SoundClip clip, int volume, boolean repeat) {
+			super(volume);
+			this.data = clip.getData();
+			this.samples = clip.getLength() / 2;
+			this.repeat = repeat;
+			this.step = ((long) clip.getSampleRate() << 16) / SAMPLE_RATE;
+		}
+
+		@Override
+		boolean mix(int[] mix, int len, int gain) {
+			long end = (long) samples << 16;
+			for (int i = 0; i < len; i++) {
+				if (pos >= end) {
+					if (!repeat || (samples == 0)) {
+						return false;
+					}
+					pos -= end;
+				}
+				int k = (int) (pos >> 16);
+				int s0 = sample(k);
+				int s1 = (k + 1 < samples) ? sample(k + 1) : (repeat ? sample(0) : 0);
+				int frac = (int) (pos & 0xffff);
+				int s = s0 + (((s1 - s0) * (frac >> 1)) >> 15);
+				mix[i] += (s * gain) >> 8;
+				pos += step;
+			}
+			return repeat || (pos < end);
+		}
+
+		/**
+		 * @return the 16-bit sample.
+		 */
+		private int sample(int k) {
+			return (data[k * 2] & 0xff) | (data[k * 2 + 1] << 8);
+		}
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param audio the sound device.
+	 */
+	PCMMixer(EV3Audio audio) {
+		this.audio = audio;
+		thread = new Thread(this, "EV3Audio-Mixer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Add a voice; the mixer starts playing it with the next block.
+	 *
+	 * @param voice the voice.
+	 * @return the voice id; or -1 if there are MAX_VOICES voices already.
+	 */
+	int add(Voice voice) {
+		lock.lock();
+		try {
+			if (count == MAX_VOICES) {
+				return -1;
+			}
+			voice.id = nextId++;
+			if (nextId <= 0) {
+				nextId = 1;
+			}
+			voice.generation = audio.getPCMGeneration();
+			voices[count++] = voice;
+		} finally {
+			lock.unlock();
+		}
+		// wake up the mixer thread
+		LockSupport.unpark(thread);
+		return voice.id;
+	}
+
+	/**
+	 * Schedule a voice; never blocks.
+	 *
+	 * @param voice    the voice.
+	 * @param delay    the delay of the start in nanoseconds.
+	 * @param priority the priority; a higher value preempts a lower one.
+	 * @return false if there are MAX_SCHEDULED voices scheduled already.
+	 */
+	boolean schedule(Voice voice, long delay, int priority) {
+		voice.start = System.nanoTime() + Math.max(0L, delay);
+		voice.priority = priority;
+		if (scheduled.incrementAndGet() > MAX_SCHEDULED) {
+			scheduled.decrementAndGet();
+			return false;
+		}
+		voice.seq = sequence.incrementAndGet();
+		voice.clearing = clearings.get();
+		if (!queue.offer(voice)) {
+			// cannot happen while the count is checked first
+			scheduled.decrementAndGet();
+			return false;
+		}
+		// wake up the mixer thread
+		LockSupport.unpark(thread);
+		return true;
+	}
+
+	/**
+	 * @return the number of scheduled voices that have not started yet.
+	 */
+	int getScheduledCount() {
+		return scheduled.get();
+	}
+
+	/**
+	 * Drop the scheduled voices that have not started yet; never blocks.
+	 */
+	void clearSchedule() {
+		clearings.incrementAndGet();
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Change the volume of a voice.
+	 *
+	 * @param id     the voice id.
+	 * @param volume the volume (0..100).
+	 */
+	void setVolume(int id, int volume) {
+		lock.lock();
+		try {
+			int i = find(id);
+			if (i >= 0) {
+				voices[i].setVolume(volume);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stop a voice.
+	 *
+	 * @param id the voice id.
+	 */
+	void stop(int id) {
+		lock.lock();
+		try {
+			int i = find(id);
+			if (i >= 0) {
+				remove(i);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stop all voices.
+	 */
+	void stopAll() {
+		lock.lock();
+		try {
+			while (count > 0) {
+				remove(count - 1);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param id the voice id.
+	 * @return true if the voice is playing.
+	 */
+	boolean isPlaying(int id) {
+		lock.lock();
+		try {
+			return find(id) >= 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of voices.
+	 */
+	int getVoiceCount() {
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wait until a voice has ended or was stopped.
+	 *
+	 * @param id the voice id.
+	 * @throws InterruptedException if the waiting thread was interrupted.
+	 */
+	void await(int id) throws InterruptedException {
+		lock.lock();
+		try {
+			while (find(id) >= 0) {
+				removed.await();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The mixer thread: mix the voices and write the blocks to the sound device.
+	 */
+	@Override
+	public void run() {
+		// the device stream; or -1 if there is none
+		int generation = -1;
+		int idle = 0;
+		for (;;) {
+			// start the scheduled voices that are due
+			long now = System.nanoTime();
+			startScheduled(now);
+			int n = 0;
+			if ((generation != -1) && (audio.getPCMGeneration() != generation)) {
+				// another playback started or the playback was ended: stop the
+				// voices that were playing then; the ones added after it start a
+				// new stream with their first block
+				stopStale(generation);
+				generation = -1;
+				idle = 0;
+				continue;
+			}
+			lock.lock();
+			try {
+				n = count;
+				System.arraycopy(voices, 0, active, 0, n);
+			} finally {
+				lock.unlock();
+			}
+			if ((n == 0) && (generation == -1)) {
+				// nothing to play: wait for a voice or the next scheduled one
+				if (pendingCount == 0) {
+					LockSupport.park(this);
+				} else {
+					LockSupport.parkNanos(this, pending[0].start - now);
+				}
+				continue;
+			}
+
+			// mix the voices
+			Arrays.fill(mix, 0);
+			int e = 0;
+			for (int i = 0; i < n; i++) {
+				Voice v = active[i];
+				if (!v.mix(mix, BLOCK_SIZE, v.getGain())) {
+					// the voice has ended
+					ended[e++] = v;
+				}
+			}
+			if (n == 0) {
+				if (++idle > IDLE_BLOCKS) {
+					// silent for a while: end the device stream
+					audio.endPCMStream(generation);
+					generation = -1;
+					idle = 0;
+					continue;
+				}
+			} else {
+				idle = 0;
+			}
+			// saturate the sum to the 16-bit range
+			int o = 1;
+			for (int i = 0; i < BLOCK_SIZE; i++) {
+				int s = mix[i];
+				if (s > Short.MAX_VALUE) {
+					s = Short.MAX_VALUE;
+				} else if (s < Short.MIN_VALUE) {
+					s = Short.MIN_VALUE;
+				}
+				out[o++] = (byte) s;
+				out[o++] = (byte) (s >> 8);
+			}
+			if (generation == -1) {
+				generation = audio.startPCMStream(SAMPLE_RATE);
+			}
+			if (audio.writePCMStream(out, BLOCK_SIZE * 2, generation) < 0) {
+				// the stream was ended while this block was mixed: stop the
+				// voices that were playing then; the ones added after it start a
+				// new stream
+				e = 0;
+				for (int i = 0; i < n; i++) {
+					if (active[i].generation - generation <= 0) {
+						ended[e++] = active[i];
+					}
+				}
+				generation = -1;
+				idle = 0;
+			}
+			// remove the ended voices after their last samples were written
+			if (e > 0) {
+				lock.lock();
+				try {
+					for (int i = 0; i < e; i++) {
+						int k = find(ended[i].id);
+						if ((k >= 0) && (voices[k] == ended[i])) {
+							remove(k);
+						}
+					}
+				} finally {
+					lock.unlock();
+				}
+			}
+			Arrays.fill(active, 0, n, null);
+			Arrays.fill(ended, null);
+		}
+	}
+
+	/**
+	 * stop the voices that were playing when the device stream ended.
+	 *
+	 * @param generation the playback generation of the ended stream.
+	 */
+	private void stopStale(int generation) {
+		lock.lock();
+		try {
+			for (int i = count - 1; i >= 0; i--) {
+				if (voices[i].generation - generation <= 0) {
+					remove(i);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * take the scheduled voices from the queue and start the ones that are due.
+	 *
+	 * @param now the current time (System.nanoTime()).
+	 */
+	private void startScheduled(long now) {
+		int clearing = clearings.get();
+		if (clearing != cleared) {
+			// drop the voices scheduled before
+			cleared = clearing;
+			scheduled.addAndGet(-pendingCount);
+			Arrays.fill(pending, 0, pendingCount, null);
+			pendingCount = 0;
+		}
+		Voice v;
+		while ((v = queue.poll()) != null) {
+			if (v.clearing != clearing) {
+				scheduled.decrementAndGet();
+			} else {
+				push(v);
+			}
+		}
+		while ((pendingCount > 0) && (pending[0].start - now <= 0L)) {
+			v = pop();
+			// a playing voice of a higher priority keeps it from starting; so
+			// does the sound playing in the background without the mix mode
+			if (startable(v.priority) && Sound.preempt(v.priority)) {
+				lock.lock();
+				try {
+					// stop the voices of a lower priority
+					for (int i = count - 1; i >= 0; i--) {
+						if (voices[i].priority < v.priority) {
+							remove(i);
+						}
+					}
+					if (count < MAX_VOICES) {
+						v.id = nextId++;
+						if (nextId <= 0) {
+							nextId = 1;
+						}
+						v.generation = audio.getPCMGeneration();
+						voices[count++] = v;
+					}
+				} finally {
+					lock.unlock();
+				}
+			}
+			scheduled.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @param priority the priority of a scheduled voice.
+	 * @return true if there is a free voice and no voice of a higher priority is
+	 *         playing.
+	 */
+	private boolean startable(int priority) {
+		lock.lock();
+		try {
+			if (count == MAX_VOICES) {
+				return false;
+			}
+			for (int i = 0; i < count; i++) {
+				if (voices[i].priority > priority) {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return true if voice a starts before voice b.
+	 */
+	private static boolean before(Voice a, Voice b) {
+		long d = a.start - b.start;
+		return (d < 0L) || ((d == 0L) && (a.seq < b.seq));
+	}
+
+	/**
+	 * add a voice to the pending heap.
+	 */
+	private void push(Voice v) {
+		int i = pendingCount++;
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (!before(v, pending[parent])) {
+				break;
+			}
+			pending[i] = pending[parent];
+			i = parent;
+		}
+		pending[i] = v;
+	}
+
+	/**
+	 * @return the first voice of the pending heap; removed from the heap.
+	 */
+	private Voice pop() {
+		Voice first = pending[0];
+		Voice last = pending[--pendingCount];
+		pending[pendingCount] = null;
+		if (pendingCount > 0) {
+			int i = 0;
+			for (;;) {
+				int child = i * 2 + 1;
+				if (child >= pendingCount) {
+					break;
+				}
+				if ((child + 1 < pendingCount) && before(pending[child + 1], pending[child])) {
+					child++;
+				}
+				if (!before(pending[child], last)) {
+					break;
+				}
+				pending[i] = pending[child];
+				i = child;
+			}
+			pending[i] = last;
+		}
+		return first;
+	}
+
+	/**
+	 * @return the index of the voice; or -1 if not found.
+	 */
+	private int find(int id) {
+		for (int i = 0; i < count; i++) {
+			if (voices[i].id == id) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * remove a voice; keeps the order of the others.
+	 */
+	private void remove(int i) {
+		System.arraycopy(voices, i + 1, voices, i, count - i - 1);
+		voices[--count] = null;
+		removed.signalAll();
+	}
+}
@@ -0,0 +1,352 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+import java.io.IOException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Read-ahead pipeline for the PCM data of a WAV stream.
+ * A background reader thread reads the PCM data into a ring of preallocated
+ * buffers (converting 8-bit samples to 16-bit in place) while the playing
+ * thread writes the filled buffers to the sound device, so a stalling storage
+ * device does not interrupt the playback as long as the ring has data. The
+ * data of a buffer starts at offset 1; the byte at offset 0 is reserved for
+ * the command code of the sound device.
+ *
+ * Usage by the playing thread (one stream at a time):
+ *
+ * <pre>
+ * stream.start(wav);
+ * int len;
+ * while ((len = stream.take()) > 0) {
+ * 	write(stream.buffer(), len);
+ * 	stream.release();
+ * }
+ * int result = stream.finish();
+ * </pre>
+ *
+ * @author Roland Blochberger
+ */
+class PCMStream implements Runnable {
+
+	private final int bufferSize;
+	// the ring of buffers and their data lengths
+	private final byte[][] buffers;
+	private final int[] lengths;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	private final Condition started = lock.newCondition();
+	private final Condition idle = lock.newCondition();
+	// the sequence numbers of the buffer being written and the one being filled
+	private long head = 0L;
+	private long tail = 0L;
+	// the stream of the reader thread; or null if there is none
+	private WavReader in = null;
+	private boolean done = true;
+	private boolean cancelled = false;
+	private int result = 0;
+	// the number of buffers taken from the current stream
+	private long taken = 0L;
+	// the counters
+	private long underruns = 0L;
+	private long underrunNanos = 0L;
+
+	/**
+	 * Constructor.
+	 * Starts the reader thread.
+	 *
+	 * @param bufferCount the number of buffers in the ring.
+	 * @param bufferSize  the number of data bytes per buffer.
+	 */
+	PCMStream(int bufferCount, int bufferSize) {
+		this.bufferSize = bufferSize;
+		buffers = new byte[bufferCount][bufferSize + 1];
+		lengths = new int[bufferCount];
+		Thread thread = new Thread(this, "EV3Audio-Reader");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Hand the stream to the reader thread; it reads the PCM data until the end
+	 * of the stream.
+	 *
+	 * @param in the stream; its header is parsed already.
+	 */
+	void start(WavReader in) {
+		lock.lock();
+		try {
+			head = 0L;
+			tail = 0L;
+			taken = 0L;
+			result = 0;
+			done = false;
+			cancelled = false;
+			this.in = in;
+			started.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wait for the next filled buffer.
+	 *
+	 * @return the number of data bytes in the buffer; or 0 at the end of the
+	 *         stream.
+	 */
+	int take() {
+		lock.lock();
+		try {
+			if (head == tail) {
+				if (!done && (taken > 0L)) {
+					// the reader is behind the playback
+					underruns++;
+				}
+				long start = System.nanoTime();
+				while ((head == tail) && !done) {
+					try {
+						notEmpty.await();
+					} catch (InterruptedException e) {
+						// keep the interrupted state and stop playing
+						Thread.currentThread().interrupt();
+						return 0;
+					}
+				}
+				if (taken > 0L) {
+					underrunNanos += System.nanoTime() - start;
+				}
+			}
+			if (head == tail) {
+				return 0;
+			}
+			taken++;
+			return lengths[index(head)];
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the buffer returned by take().
+	 */
+	byte[] buffer() {
+		return buffers[index(head)];
+	}
+
+	/**
+	 * Give the buffer returned by take() back to the reader thread.
+	 */
+	void release() {
+		lock.lock();
+		try {
+			head++;
+			notFull.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stop the reader thread if it has not reached the end of the stream yet and
+	 * wait until it does not use the stream any longer.
+	 *
+	 * @return 0 if the stream was read to its end or playing was stopped; or -1
+	 *         on read errors.
+	 */
+	int finish() {
+		lock.lock();
+		try {
+			cancelled = true;
+			notFull.signal();
+			while (in != null) {
+				idle.awaitUninterruptibly();
+			}
+			head = tail;
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of times the playing thread had to wait for the reader
+	 *         thread after the playback started.
+	 */
+	long getUnderrunCount() {
+		lock.lock();
+		try {
+			return underruns;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the total time the playing thread waited for the reader thread
+	 *         after the playback started in nanoseconds.
+	 */
+	long getUnderrunNanos() {
+		lock.lock();
+		try {
+			return underrunNanos;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The reader thread: read the chunks of the streams into the buffers.
+	 */
+	@Override
+	public void run() {
+		for (;;) {
+			WavReader wav;
+			lock.lock();
+			try {
+				while (in == null) {
+					started.awaitUninterruptibly();
+				}
+				wav = in;
+			} finally {
+				lock.unlock();
+			}
+
+			int r = 0;
+			try {
+				readData(wav);
+			} catch (IOException e) {
+				r = -1;
+			}
+
+			lock.lock();
+			try {
+				result = r;
+				done = true;
+				in = null;
+				notEmpty.signal();
+				idle.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * read the PCM data until the end of the stream.
+	 *
+	 * @throws IOException on read errors.
+	 */
+	private void readData(WavReader wav) throws IOException {
+		boolean eight = (wav.getSampleSize() == 8);
+		int want = eight ? (bufferSize / 2) : bufferSize;
+		while (!isCancelled()) {
+			int i = acquire();
+			if (i < 0) {
+				// cancelled
+				return;
+			}
+			byte[] buf = buffers[i];
+			int n;
+			if (eight) {
+				// read the samples into the upper half of the buffer and convert
+				// them from the start; a 16-bit sample never overwrites an 8-bit
+				// sample that is not converted yet
+				int src = 1 + want;
+				n = fill(wav, buf, src, want);
+				int out = 1;
+				for (int k = 0; k < n; k++) {
+					// 8 bit data is unsigned with a 128 offset, need to convert to 16 bit signed
+					int sample = ((buf[src + k] & 0xff) - 128) << 8;
+					buf[out++] = (byte) sample;
+					buf[out++] = (byte) (sample >> 8);
+				}
+				if (n > 0) {
+					publish(n * 2);
+				}
+			} else {
+				n = fill(wav, buf, 1, want);
+				if (n > 0) {
+					publish(n);
+				}
+			}
+			if (n < want) {
+				// the end of the stream
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the playing thread stopped the reader.
+	 */
+	private boolean isCancelled() {
+		lock.lock();
+		try {
+			return cancelled;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * wait for an empty buffer.
+	 *
+	 * @return the buffer index; or -1 if cancelled.
+	 */
+	private int acquire() {
+		lock.lock();
+		try {
+			while (!cancelled && ((tail - head) >= buffers.length)) {
+				notFull.awaitUninterruptibly();
+			}
+			return cancelled ? -1 : index(tail);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * hand the filled buffer to the playing thread.
+	 */
+	private void publish(int len) {
+		lock.lock();
+		try {
+			lengths[index(tail)] = len;
+			tail++;
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * read up to len bytes; less only at the end of the stream.
+	 *
+	 * @return the number of bytes read.
+	 */
+	private static int fill(WavReader wav, byte[] buf, int off, int len) throws IOException {
+		int n = 0;
+		while (n < len) {
+			int read = wav.read(buf, off + n, len - n);
+			if (read < 0) {
+				break;
+			}
+			n += read;
+		}
+		return n;
+	}
+
+	/**
+	 * @return the ring index of the sequence number.
+	 */
+	private int index(long seq) {
+		return (int) (seq % buffers.length);
+	}
+}
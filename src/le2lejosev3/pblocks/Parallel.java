@@ -3,13 +3,46 @@
  */
 package le2lejosev3.pblocks;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Helper to run several threads in parallel.
  * 
+ * The run() methods start the specified threads. The submit(), runAll() and
+ * callAll() methods run the tasks on a shared pool of reusable threads
+ * instead, so that a parallel block does not cost a new thread each time. More
+ * than MAX_THREADS tasks at the same time run on threads of their own; they
+ * are not queued, because a task may wait for another one or never end.
+ * Like the threads of the run() methods, the tasks keep the program running
+ * until they are done; an idle pool lets the program end after KEEP_ALIVE
+ * milliseconds at most.
+ * 
  * @author Roland Blochberger
  */
 public class Parallel {
 
+	/** the maximum number of pool threads */
+	public static final int MAX_THREADS = 16;
+	/** the time in milliseconds an idle pool thread is kept for reuse */
+	private static final long KEEP_ALIVE = 1000L;
+
+	// the thread pool
+	private static ExecutorService pool = null;
+
 	/**
 	 * Run 2 threads in parallel and wait until both are done.
 	 * 
@@ -48,4 +81,159 @@ public class Parallel {
 			// ignore
 		}
 	}
+
+	/**
+	 * Run a task on the thread pool. The program keeps running until the task is
+	 * done, even if the main thread ends before.
+	 * 
+	 * @param task the task.
+	 * @return the future to wait for or to cancel the task.
+	 */
+	public static Future<?> submit(Runnable task) {
+		return getPool().submit(task);
+	}
+
+	/**
+	 * Run a task with a result on the thread pool.
+	 * 
+	 * @param task the task.
+	 * @return the future to wait for the result or to cancel the task.
+	 */
+	public static <T> Future<T> submit(Callable<T> task) {
+		return getPool().submit(task);
+	}
+
+	/**
+	 * Run several tasks in parallel on the thread pool and wait until all are
+	 * done.
+	 * 
+	 * @param tasks the tasks.
+	 * @return true if all tasks are done; false if the waiting thread was
+	 *         interrupted (the tasks are cancelled then).
+	 * @see #callAll(long, List)
+	 */
+	public static boolean runAll(Runnable... tasks) {
+		return runAll(0L, tasks);
+	}
+
+	/**
+	 * Run several tasks in parallel on the thread pool and wait until all are
+	 * done or the timeout elapsed.
+	 * 
+	 * @param timeout the maximum time to wait in milliseconds; 0 to wait without
+	 *                timeout.
+	 * @param tasks   the tasks.
+	 * @return true if all tasks are done; false on timeout or if the waiting
+	 *         thread was interrupted (the tasks are cancelled then).
+	 * @see #callAll(long, List)
+	 */
+	public static boolean runAll(long timeout, Runnable... tasks) {
+		List<Callable<Object>> calls = new ArrayList<Callable<Object>>(tasks.length);
+		for (Runnable task : tasks) {
+			calls.add(Executors.callable(task));
+		}
+		return (callAll(timeout, calls) != null);
+	}
+
+	/**
+	 * Run several tasks with results in parallel on the thread pool and wait until
+	 * all are done or the timeout elapsed.
+	 * 
+	 * If a task fails, the other tasks are cancelled (i.e. interrupted) and the
+	 * exception of the first failed task is thrown; checked exceptions are
+	 * wrapped in a RuntimeException. The tasks are cancelled as well on timeout
+	 * or if the waiting thread is interrupted.
+	 * 
+	 * @param timeout the maximum time to wait in milliseconds; 0 to wait without
+	 *                timeout.
+	 * @param tasks   the tasks.
+	 * @return the results of the tasks in the order of the tasks; or null on
+	 *         timeout or if the waiting thread was interrupted.
+	 */
+	public static <T> List<T> callAll(long timeout, List<? extends Callable<T>> tasks) {
+		CompletionService<T> cs = new ExecutorCompletionService<T>(getPool());
+		List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+		boolean done = false;
+		try {
+			for (Callable<T> task : tasks) {
+				futures.add(cs.submit(task));
+			}
+			// wait for the tasks in the order they complete to see the first failure
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+			for (int i = 0; i < futures.size(); i++) {
+				Future<T> future = null;
+				if (timeout > 0L) {
+					future = cs.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (future == null) {
+						// timeout
+						return null;
+					}
+				} else {
+					future = cs.take();
+				}
+				future.get();
+			}
+			List<T> results = new ArrayList<T>(futures.size());
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+			done = true;
+			return results;
+
+		} catch (InterruptedException e) {
+			// keep the interrupt status for the caller
+			Thread.currentThread().interrupt();
+			return null;
+
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException("Parallel task failed", cause);
+
+		} finally {
+			if (!done) {
+				// cancel the other tasks
+				for (Future<T> future : futures) {
+					future.cancel(true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return the thread pool; the pool threads are created on demand up to
+	 * MAX_THREADS and end after being idle for KEEP_ALIVE milliseconds. A task
+	 * submitted while all of them are busy runs on a new thread that ends with
+	 * it. They are no daemon threads, so that the program does not end in the
+	 * middle of a task; the short KEEP_ALIVE lets the program end soon after the
+	 * last task.
+	 * 
+	 * @return the thread pool.
+	 */
+	private static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			pool = new ThreadPoolExecutor(0, MAX_THREADS, KEEP_ALIVE, TimeUnit.MILLISECONDS,
+					new SynchronousQueue<Runnable>(), new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger(0);
+
+						@Override
+						public Thread newThread(Runnable r) {
+							return new Thread(r, "Parallel-" + count.incrementAndGet());
+						}
+					}, new RejectedExecutionHandler() {
+						@Override
+						public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+							// all pool threads are busy: do not queue the task
+							// behind tasks that may never end
+							executor.getThreadFactory().newThread(r).start();
+						}
+					});
+		}
+		return pool;
+	}
 }
@@ -21,18 +21,18 @@ class RegulatedMotor implements IMotor {
 
 	// the motor port
 	protected Port motorPort;
-	// the regulated motor instance
-	protected lejos.hardware.motor.BaseRegulatedMotor motor = null;
+	// the regulated motor device
+	protected IRegulatedMotorDevice motor = null;
 
 	/**
 	 * Constructor.
 	 * handles the motor resources correctly before exiting
 	 * 
 	 * @param motorPort the motor port.
-	 * @param regMotor  an instance of either EV3LargeRegulatedMotor or
-	 *                  EV3MediumRegulatedMotor.
+	 * @param regMotor  a large or medium regulated motor device of the hardware
+	 *                  backend.
 	 */
-	protected RegulatedMotor(Port motorPort, lejos.hardware.motor.BaseRegulatedMotor regMotor) {
+	protected RegulatedMotor(Port motorPort, IRegulatedMotorDevice regMotor) {
 		// store motor port and motor instance
 		this.motorPort = motorPort;
 		motor = regMotor;
@@ -69,7 +69,7 @@ class RegulatedMotor implements IMotor {
 	/**
 	 * @return the motor
 	 */
-	lejos.hardware.motor.BaseRegulatedMotor getMotor() {
+	IRegulatedMotorDevice getMotor() {
 		return motor;
 	}
 
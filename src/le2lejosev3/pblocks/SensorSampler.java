@@ -0,0 +1,324 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import lejos.robotics.SampleProvider;
+
+/**
+ * Background sampler that polls the registered sensors at a fixed rate on its
+ * own thread and keeps the latest sample of each one in a SensorSnapshot.
+ *
+ * Sampling is opt-in: hand a sampler to the setSampler() method of a sensor
+ * block and its measure methods return the latest sample without touching the
+ * sensor port.
+ *
+ * Threads can wait with await() until a condition over the samples is met; the
+ * sampler wakes them up only if a sample or the state of the Escape button
+ * changed, so the waiting threads do not poll at all. The wait methods of the
+ * sensor blocks use the default sampler if no sampler is set.
+ *
+ * @author Roland Blochberger
+ */
+public class SensorSampler {
+
+	private static final Logger log = Logger.getLogger(SensorSampler.class.getName());
+
+	/** the default sample rate in samples per second */
+	public static final float DEFAULT_RATE = 100F;
+	/**
+	 * the sample rate of the default sampler used by the wait methods; the same
+	 * as the 2ms period of the former polling wait loops
+	 */
+	public static final float WAIT_RATE = 500F;
+
+	// the default sampler
+	private static SensorSampler defaultSampler = null;
+
+	/**
+	 * A registered sensor.
+	 */
+	private static class Entry {
+		final Object lock;
+		final SampleProvider sp;
+		final float[] sample;
+		final SensorSnapshot snapshot;
+		volatile boolean removed = false;
+
+		Entry(Object lock, SampleProvider sp) {
+			this.lock = lock;
+			this.sp = sp;
+			sample = new float[sp.sampleSize()];
+			snapshot = new SensorSnapshot(sample.length);
+		}
+
+		boolean fetch() {
+			synchronized (lock) {
+				if (removed) {
+					// do not switch the sensor back to the mode of a removed entry
+					return false;
+				}
+				sp.fetchSample(sample, 0);
+			}
+			return snapshot.publish(sample, System.nanoTime());
+		}
+	}
+
+	private final CopyOnWriteArrayList<Entry> entries = new CopyOnWriteArrayList<Entry>();
+	private volatile long periodNs;
+	private volatile boolean running = false;
+	private volatile Thread thread = null;
+	private boolean hooked = false;
+	// the waiting threads
+	private final IHardware hardware = Hardware.get();
+	private final Object signal = new Object();
+	private volatile int waiters = 0;
+	private boolean escapeDown = false;
+	// statistics
+	private volatile long cycles = 0L;
+	private volatile long overruns = 0L;
+
+	/**
+	 * Constructor using the default sample rate.
+	 */
+	public SensorSampler() {
+		this(DEFAULT_RATE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param rate the sample rate in samples per second (> 0).
+	 */
+	public SensorSampler(float rate) {
+		setRate(rate);
+	}
+
+	/**
+	 * Return the default sampler used by the wait methods of the sensor blocks;
+	 * it polls at WAIT_RATE and only while sensors are registered.
+	 *
+	 * @return the default sampler.
+	 */
+	public static synchronized SensorSampler getDefault() {
+		if (defaultSampler == null) {
+			defaultSampler = new SensorSampler(WAIT_RATE);
+		}
+		return defaultSampler;
+	}
+
+	/**
+	 * Set the sample rate.
+	 *
+	 * @param rate the sample rate in samples per second (> 0).
+	 */
+	public void setRate(float rate) {
+		if (rate > 0F) {
+			periodNs = (long) (1000000000.0 / rate);
+		} else {
+			throw new RuntimeException("Invalid sample rate: " + rate);
+		}
+	}
+
+	/**
+	 * @return the sample rate in samples per second.
+	 */
+	public float getRate() {
+		return (float) (1000000000.0 / periodNs);
+	}
+
+	/**
+	 * Register a sensor sample provider; the sample provider is fetched once
+	 * immediately, so that the returned snapshot always holds a valid sample. The
+	 * sampler thread is started if necessary.
+	 *
+	 * @param lock the object to synchronize on while fetching; sensor blocks that
+	 *             fetch other modes of the same sensor synchronize on it as well.
+	 * @param sp   the sample provider to poll.
+	 * @return the snapshot holding the latest sample.
+	 */
+	public SensorSnapshot register(Object lock, SampleProvider sp) {
+		Entry entry = new Entry(lock, sp);
+		entry.fetch();
+		entries.add(entry);
+		start();
+		return entry.snapshot;
+	}
+
+	/**
+	 * Stop polling the sensor of the specified snapshot. If the caller holds the
+	 * lock of the sensor, the sampler does not fetch it any more once this
+	 * method returns.
+	 *
+	 * @param snapshot the snapshot returned by register().
+	 */
+	public void unregister(SensorSnapshot snapshot) {
+		for (Entry entry : entries) {
+			if (entry.snapshot == snapshot) {
+				entry.removed = true;
+				entries.remove(entry);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Wait until the specified condition is met. The condition is checked
+	 * immediately and then each time a sample of a registered sensor or the state
+	 * of the Escape button changed; the waiting thread sleeps in between.
+	 *
+	 * @param condition the condition to wait for.
+	 * @return true if the condition is met; false otherwise (e.g. on Escape
+	 *         button pressed).
+	 */
+	public boolean await(ISensorCondition condition) {
+		synchronized (signal) {
+			waiters++;
+		}
+		try {
+			start();
+			synchronized (signal) {
+				while (!hardware.isEscapeDown()) {
+					if (condition.matches()) {
+						return true;
+					}
+					signal.wait();
+				}
+			}
+		} catch (InterruptedException e) {
+			// leave wait
+		} finally {
+			synchronized (signal) {
+				waiters--;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of threads currently waiting in await().
+	 */
+	public int getWaiterCount() {
+		return waiters;
+	}
+
+	/**
+	 * Start the sampler thread if not already running.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			// wake up an idle sampler thread
+			LockSupport.unpark(thread);
+		} else {
+			running = true;
+			thread = new Thread(new Runnable() {
+				public void run() {
+					sampleLoop();
+				}
+			}, "SensorSampler");
+			thread.setDaemon(true);
+			thread.start();
+			if (!hooked) {
+				// stop polling before the sensors get closed
+				Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+					public void run() {
+						running = false;
+					}
+				}));
+				hooked = true;
+			}
+		}
+	}
+
+	/**
+	 * Stop the sampler thread and wait until it terminated; the registered
+	 * snapshots keep their latest sample.
+	 */
+	public synchronized void stop() {
+		if (thread != null) {
+			running = false;
+			LockSupport.unpark(thread);
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				// ignore
+			}
+			thread = null;
+		}
+	}
+
+	/**
+	 * @return the number of sampling cycles done so far.
+	 */
+	public long getCycleCount() {
+		return cycles;
+	}
+
+	/**
+	 * @return the number of sampling cycles that took longer than the sample
+	 *         period.
+	 */
+	public long getOverrunCount() {
+		return overruns;
+	}
+
+	/**
+	 * The sampler thread: poll all registered sensors once per period.
+	 */
+	private void sampleLoop() {
+		long next = System.nanoTime();
+		while (running) {
+			if (entries.isEmpty() && (waiters == 0)) {
+				// nothing to do: sleep until a sensor is registered
+				LockSupport.park(this);
+				next = System.nanoTime();
+				continue;
+			}
+			boolean changed = false;
+			for (Entry entry : entries) {
+				try {
+					changed |= entry.fetch();
+				} catch (RuntimeException e) {
+					if (running) {
+						log.log(Level.WARNING, "fetching sample failed", e);
+					}
+				}
+			}
+			if (waiters > 0) {
+				// the Escape button is just another event source
+				boolean escape = hardware.isEscapeDown();
+				if (escape != escapeDown) {
+					escapeDown = escape;
+					changed = true;
+				}
+				if (changed) {
+					// wake up the waiting threads
+					synchronized (signal) {
+						signal.notifyAll();
+					}
+				}
+			}
+			cycles++;
+			// wait until the next period
+			next += periodNs;
+			long delay = next - System.nanoTime();
+			if (delay <= 0L) {
+				// too slow: do not try to catch up
+				overruns++;
+				next = System.nanoTime();
+			}
+			while (running && (delay > 0L)) {
+				LockSupport.parkNanos(delay);
+				delay = next - System.nanoTime();
+			}
+		}
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "sampler stopped after {0} cycles", cycles);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The latest sample of a sensor that is polled by a SensorSampler.
+ *
+ * The sample is published by the sampler thread with a sequence lock: the
+ * sequence number is odd while the values are being written and even
+ * otherwise, so that readers never block and never see a torn sample. Reading
+ * a single value is a plain volatile read. The snapshot also counts the
+ * samples whose first value fell to zero (e.g. the releases of a touch
+ * sensor), so that a press and release between two reads is not lost.
+ *
+ * @author Roland Blochberger
+ */
+public class SensorSnapshot {
+
+	// the sample values stored as float bits
+	private final AtomicIntegerArray values;
+	// the sequence number (odd while writing)
+	private volatile int seq = 0;
+	// the System.nanoTime() of the latest sample
+	private volatile long timestamp = 0L;
+	// the number of samples whose first value fell from non-zero to zero
+	private volatile int releases = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sampleSize the number of values in a sample.
+	 */
+	SensorSnapshot(int sampleSize) {
+		values = new AtomicIntegerArray(sampleSize);
+	}
+
+	/**
+	 * Publish a new sample; must only be called by a single writer thread.
+	 *
+	 * @param sample    the sample values.
+	 * @param timestamp the System.nanoTime() when the sample was fetched.
+	 * @return true if the sample differs from the previous one; false otherwise.
+	 */
+	boolean publish(float[] sample, long timestamp) {
+		boolean changed = false;
+		if ((Float.intBitsToFloat(values.get(0)) != 0F) && (sample[0] == 0F)) {
+			releases++;
+		}
+		seq++;
+		for (int i = 0; i < values.length(); i++) {
+			int bits = Float.floatToRawIntBits(sample[i]);
+			if (values.get(i) != bits) {
+				values.set(i, bits);
+				changed = true;
+			}
+		}
+		this.timestamp = timestamp;
+		seq++;
+		return changed;
+	}
+
+	/**
+	 * @return the number of values in a sample.
+	 */
+	public int sampleSize() {
+		return values.length();
+	}
+
+	/**
+	 * Return one value of the latest sample.
+	 *
+	 * @param index the index of the value in the sample.
+	 * @return the value.
+	 */
+	public float getValue(int index) {
+		return Float.intBitsToFloat(values.get(index));
+	}
+
+	/**
+	 * Copy a consistent latest sample into the specified array.
+	 *
+	 * @param sample the destination array (at least sampleSize() long).
+	 * @return the System.nanoTime() when the sample was fetched.
+	 */
+	public long getSample(float[] sample) {
+		while (true) {
+			int s = seq;
+			if ((s & 1) == 0) {
+				long ts = timestamp;
+				for (int i = 0; i < values.length(); i++) {
+					sample[i] = Float.intBitsToFloat(values.get(i));
+				}
+				if (s == seq) {
+					return ts;
+				}
+			}
+			// a sample is being written: try again
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * @return the System.nanoTime() when the latest sample was fetched.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return the number of samples whose first value fell from non-zero to zero
+	 *         so far.
+	 */
+	public int getReleaseCount() {
+		return releases;
+	}
+
+	/**
+	 * @return the number of samples published so far.
+	 */
+	public int getCount() {
+		return seq >>> 1;
+	}
+}
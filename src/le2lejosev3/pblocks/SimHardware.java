@@ -0,0 +1,1113 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import lejos.hardware.lcd.Font;
+import lejos.hardware.lcd.GraphicsLCD;
+import lejos.hardware.lcd.Image;
+import lejos.hardware.port.Port;
+import lejos.robotics.SampleProvider;
+
+/**
+ * Simulated hardware backend.
+ * Runs the programming blocks in-process without an EV3 brick, e.g. to profile
+ * or benchmark a program on an ordinary computer. The simulation is
+ * deterministic: the motors move only when the simulated clock is advanced by
+ * advance(), the sensors return scripted samples, the LCD draws into a
+ * framebuffer, and the sound device swallows (and counts) the PCM data.
+ * 
+ * Usage: call Hardware.set(new SimHardware()) at the very beginning of the
+ * program. The port arguments of the blocks are only passed through, so null
+ * can be used for them.
+ * 
+ * @author Roland Blochberger
+ */
+public class SimHardware implements IHardware {
+
+	/** the size of the EV3 LCD in pixels */
+	public static final int LCD_WIDTH = 178;
+	public static final int LCD_HEIGHT = 128;
+
+	// the simulated clock in milliseconds
+	private long timeMs = 0L;
+	// the simulated battery voltage
+	private volatile float batteryVoltage = 8F;
+	// the simulated Escape button
+	private volatile boolean escapeDown = false;
+	// the simulated brick buttons
+	private volatile int buttons = 0;
+	// the simulated brick status light
+	private volatile int ledPattern = 0;
+	// the simulated system settings
+	private final Map<String, Integer> settings = new HashMap<String, Integer>();
+
+	// all devices opened so far
+	private final List<SimRegulatedMotor> regulatedMotors = new ArrayList<SimRegulatedMotor>();
+	private final List<SimUnregulatedMotor> unregulatedMotors = new ArrayList<SimUnregulatedMotor>();
+	private final List<SimSensor> sensors = new ArrayList<SimSensor>();
+	private final SimLcd lcd = new SimLcd();
+	private final SimAudio audio = new SimAudio();
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#openLargeMotor(lejos.hardware.port.Port)
+	 */
+	@Override
+	public synchronized IRegulatedMotorDevice openLargeMotor(Port port) {
+		SimRegulatedMotor motor = new SimRegulatedMotor(port);
+		regulatedMotors.add(motor);
+		return motor;
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#openMediumMotor(lejos.hardware.port.Port)
+	 */
+	@Override
+	public synchronized IRegulatedMotorDevice openMediumMotor(Port port) {
+		SimRegulatedMotor motor = new SimRegulatedMotor(port);
+		regulatedMotors.add(motor);
+		return motor;
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#openUnregulatedMotor(lejos.hardware.port.Port)
+	 */
+	@Override
+	public synchronized IUnregulatedMotorDevice openUnregulatedMotor(Port port) {
+		SimUnregulatedMotor motor = new SimUnregulatedMotor(port);
+		unregulatedMotors.add(motor);
+		return motor;
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#openColorSensor(lejos.hardware.port.Port)
+	 */
+	@Override
+	public synchronized ISensorDevice openColorSensor(Port port) {
+		// the modes of the EV3ColorSensor: ColorID, Red, RGB, Ambient
+		SimSensor sensor = new SimSensor(port, new int[] { 1, 1, 3, 1 });
+		sensors.add(sensor);
+		return sensor;
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#openGyroSensor(lejos.hardware.port.Port)
+	 */
+	@Override
+	public synchronized ISensorDevice openGyroSensor(Port port) {
+		// the modes of the EV3GyroSensor: Rate, Angle, Angle and Rate
+		SimSensor sensor = new SimSensor(port, new int[] { 1, 1, 2 });
+		sensors.add(sensor);
+		return sensor;
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#openTouchSensor(lejos.hardware.port.Port)
+	 */
+	@Override
+	public synchronized ISensorDevice openTouchSensor(Port port) {
+		// the modes of the EV3TouchSensor: Touch
+		SimSensor sensor = new SimSensor(port, new int[] { 1 });
+		sensors.add(sensor);
+		return sensor;
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#openUltrasonicSensor(lejos.hardware.port.Port)
+	 */
+	@Override
+	public synchronized ISensorDevice openUltrasonicSensor(Port port) {
+		// the modes of the EV3UltrasonicSensor: Distance, Listen
+		SimSensor sensor = new SimSensor(port, new int[] { 1, 1 });
+		sensors.add(sensor);
+		return sensor;
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#openInfraredSensor(lejos.hardware.port.Port)
+	 */
+	@Override
+	public synchronized ISensorDevice openInfraredSensor(Port port) {
+		// the modes of the EV3IRSensor: Distance, Seek, Remote
+		SimSensor sensor = new SimSensor(port, new int[] { 1, 8, 4 });
+		sensors.add(sensor);
+		return sensor;
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#getGraphicsLCD()
+	 */
+	@Override
+	public SimLcd getGraphicsLCD() {
+		return lcd;
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#getAudioDevice()
+	 */
+	@Override
+	public SimAudio getAudioDevice() {
+		return audio;
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#getBatteryVoltage()
+	 */
+	@Override
+	public float getBatteryVoltage() {
+		return batteryVoltage;
+	}
+
+	/**
+	 * @param batteryVoltage the simulated battery voltage in volts.
+	 */
+	public void setBatteryVoltage(float batteryVoltage) {
+		this.batteryVoltage = batteryVoltage;
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#isEscapeDown()
+	 */
+	@Override
+	public boolean isEscapeDown() {
+		return escapeDown;
+	}
+
+	/**
+	 * @param escapeDown true to press the simulated Escape button; false to
+	 *                   release it.
+	 */
+	public void setEscapeDown(boolean escapeDown) {
+		this.escapeDown = escapeDown;
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#getButtons()
+	 */
+	@Override
+	public int getButtons() {
+		return buttons;
+	}
+
+	/**
+	 * @param buttons the simulated brick buttons pressed down as a bit mask of the
+	 *                lejos.hardware.Keys ids.
+	 */
+	public void setButtons(int buttons) {
+		this.buttons = buttons;
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#getIntSetting(java.lang.String, int)
+	 */
+	@Override
+	public int getIntSetting(String key, int defaultValue) {
+		synchronized (settings) {
+			Integer value = settings.get(key);
+			return (value != null) ? value.intValue() : defaultValue;
+		}
+	}
+
+	/**
+	 * @param key   the name of the simulated system setting.
+	 * @param value the value.
+	 */
+	public void setIntSetting(String key, int value) {
+		synchronized (settings) {
+			settings.put(key, Integer.valueOf(value));
+		}
+	}
+
+	/**
+	 * @see le2lejosev3.pblocks.IHardware#setLedPattern(int)
+	 */
+	@Override
+	public void setLedPattern(int pattern) {
+		ledPattern = pattern;
+	}
+
+	/**
+	 * @return the pattern of the simulated brick status light; 0 = off.
+	 */
+	public int getLedPattern() {
+		return ledPattern;
+	}
+
+	/**
+	 * advance the simulated clock and move all running motors accordingly.
+	 * 
+	 * @param ms the number of milliseconds to advance.
+	 */
+	public synchronized void advance(int ms) {
+		timeMs += ms;
+		for (SimRegulatedMotor motor : regulatedMotors) {
+			motor.advance(ms);
+		}
+		for (SimUnregulatedMotor motor : unregulatedMotors) {
+			motor.advance(ms);
+		}
+	}
+
+	/**
+	 * @return the simulated clock in milliseconds.
+	 */
+	public synchronized long getTimeMillis() {
+		return timeMs;
+	}
+
+	/**
+	 * @return the regulated motors in the order they were opened.
+	 */
+	public synchronized List<SimRegulatedMotor> getRegulatedMotors() {
+		return new ArrayList<SimRegulatedMotor>(regulatedMotors);
+	}
+
+	/**
+	 * @return the unregulated motors in the order they were opened.
+	 */
+	public synchronized List<SimUnregulatedMotor> getUnregulatedMotors() {
+		return new ArrayList<SimUnregulatedMotor>(unregulatedMotors);
+	}
+
+	/**
+	 * @return the sensors in the order they were opened.
+	 */
+	public synchronized List<SimSensor> getSensors() {
+		return new ArrayList<SimSensor>(sensors);
+	}
+
+	/**
+	 * Simulated regulated motor with a virtual tacho counter.
+	 * Rotations that wait for their end complete at once; all other movements
+	 * progress with the simulated clock at the set speed.
+	 */
+	public class SimRegulatedMotor implements IRegulatedMotorDevice {
+
+		private final Port port;
+		// the position in degrees
+		private double position = 0.0;
+		// the speed setting in degrees/second
+		private float speed = 360F;
+		// the running direction: +1 forward; -1 backward; 0 stopped
+		private int direction = 0;
+		// the rotation target; only valid if rotating is true
+		private double target = 0.0;
+		private boolean rotating = false;
+
+		SimRegulatedMotor(Port port) {
+			this.port = port;
+		}
+
+		/**
+		 * @return the motor port; may be null.
+		 */
+		public Port getPort() {
+			return port;
+		}
+
+		/**
+		 * @return the running direction: +1 forward; -1 backward; 0 stopped.
+		 */
+		public synchronized int getDirection() {
+			return direction;
+		}
+
+		synchronized void advance(int ms) {
+			if (direction != 0) {
+				double next = position + direction * speed * ms / 1000.0;
+				if (rotating && ((direction > 0) ? (next >= target) : (next <= target))) {
+					// rotation target reached
+					next = target;
+					rotating = false;
+					direction = 0;
+				}
+				position = next;
+			}
+		}
+
+		@Override
+		public void setAcceleration(int acceleration) {
+			// the simulated motor accelerates instantly
+		}
+
+		@Override
+		public synchronized void setSpeed(float speed) {
+			this.speed = Math.min(Math.abs(speed), getMaxSpeed());
+		}
+
+		@Override
+		public synchronized int getSpeed() {
+			return Math.round(speed);
+		}
+
+		@Override
+		public float getMaxSpeed() {
+			// same approximation as LeJOS: 100 degrees/second per volt
+			return getBatteryVoltage() * 100F;
+		}
+
+		@Override
+		public synchronized int getRotationSpeed() {
+			return Math.round(direction * speed);
+		}
+
+		@Override
+		public synchronized void forward() {
+			rotating = false;
+			direction = 1;
+		}
+
+		@Override
+		public synchronized void backward() {
+			rotating = false;
+			direction = -1;
+		}
+
+		@Override
+		public void stop() {
+			stop(false);
+		}
+
+		@Override
+		public synchronized void stop(boolean immediateReturn) {
+			rotating = false;
+			direction = 0;
+		}
+
+		@Override
+		public synchronized void flt(boolean immediateReturn) {
+			rotating = false;
+			direction = 0;
+		}
+
+		@Override
+		public void rotate(int angle) {
+			rotate(angle, false);
+		}
+
+		@Override
+		public synchronized void rotate(int angle, boolean immediateReturn) {
+			if (immediateReturn) {
+				// let the simulated clock move the motor
+				target = position + angle;
+				rotating = (angle != 0);
+				direction = Integer.signum(angle);
+			} else {
+				// complete the rotation at once
+				position += angle;
+				rotating = false;
+				direction = 0;
+			}
+		}
+
+		@Override
+		public synchronized int getTachoCount() {
+			return (int) Math.round(position);
+		}
+
+		@Override
+		public synchronized void resetTachoCount() {
+			target -= position;
+			position = 0.0;
+		}
+
+		@Override
+		public synchronized void close() {
+			rotating = false;
+			direction = 0;
+		}
+	}
+
+	/**
+	 * Simulated unregulated motor with a virtual tacho counter.
+	 * The motor speed is proportional to the power and the battery voltage.
+	 */
+	public class SimUnregulatedMotor implements IUnregulatedMotorDevice {
+
+		private final Port port;
+		// the position in degrees
+		private double position = 0.0;
+		// the power -100..100
+		private int power = 0;
+		// true if the motor is powered
+		private boolean running = false;
+
+		SimUnregulatedMotor(Port port) {
+			this.port = port;
+		}
+
+		/**
+		 * @return the motor port; may be null.
+		 */
+		public Port getPort() {
+			return port;
+		}
+
+		/**
+		 * @return true if the motor is powered; false otherwise.
+		 */
+		public synchronized boolean isRunning() {
+			return running;
+		}
+
+		synchronized void advance(int ms) {
+			if (running) {
+				position += power * getBatteryVoltage() * ms / 1000.0;
+			}
+		}
+
+		@Override
+		public synchronized void setPower(int power) {
+			this.power = Math.max(-100, Math.min(100, power));
+		}
+
+		@Override
+		public synchronized int getPower() {
+			return power;
+		}
+
+		@Override
+		public synchronized void forward() {
+			power = Math.abs(power);
+			running = true;
+		}
+
+		@Override
+		public synchronized void backward() {
+			power = -Math.abs(power);
+			running = true;
+		}
+
+		@Override
+		public synchronized void stop() {
+			running = false;
+		}
+
+		@Override
+		public synchronized void flt() {
+			running = false;
+		}
+
+		@Override
+		public synchronized int getTachoCount() {
+			return (int) Math.round(position);
+		}
+
+		@Override
+		public synchronized void resetTachoCount() {
+			position = 0.0;
+		}
+
+		@Override
+		public synchronized void close() {
+			running = false;
+		}
+	}
+
+	/**
+	 * Simulated sensor returning scripted sample streams.
+	 * Each mode returns its samples one after the other and starts over at the
+	 * end; a mode without samples returns zeros.
+	 */
+	public static class SimSensor implements ISensorDevice {
+
+		private final Port port;
+		private final ModeProvider[] modes;
+		private int currentMode = 0;
+		private long switchCount = 0L;
+		private int resetCount = 0;
+		private boolean closed = false;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param port        the sensor port; may be null.
+		 * @param sampleSizes the sample size of each mode.
+		 */
+		public SimSensor(Port port, int[] sampleSizes) {
+			this.port = port;
+			modes = new ModeProvider[sampleSizes.length];
+			for (int i = 0; i < modes.length; i++) {
+				modes[i] = new ModeProvider(i, sampleSizes[i]);
+			}
+		}
+
+		/**
+		 * @return the sensor port; may be null.
+		 */
+		public Port getPort() {
+			return port;
+		}
+
+		/**
+		 * set the sample stream of a mode.
+		 * 
+		 * @param mode    the mode number.
+		 * @param samples the samples to return one after the other; each one must
+		 *                have the sample size of the mode.
+		 */
+		public synchronized void setSamples(int mode, float[]... samples) {
+			for (float[] sample : samples) {
+				if (sample.length != modes[mode].size) {
+					throw new IllegalArgumentException("Invalid sample size: " + sample.length);
+				}
+			}
+			modes[mode].samples = samples;
+			modes[mode].next = 0;
+		}
+
+		/**
+		 * @param mode the mode number.
+		 * @return the number of samples fetched in the mode so far.
+		 */
+		public synchronized long getFetchCount(int mode) {
+			return modes[mode].fetchCount;
+		}
+
+		/**
+		 * @return the number of fetches that switched the sensor to another mode
+		 *         so far.
+		 */
+		public synchronized long getModeSwitchCount() {
+			return switchCount;
+		}
+
+		/**
+		 * @return the number of sensor resets so far.
+		 */
+		public synchronized int getResetCount() {
+			return resetCount;
+		}
+
+		/**
+		 * @return true if the sensor has been closed; false otherwise.
+		 */
+		public synchronized boolean isClosed() {
+			return closed;
+		}
+
+		@Override
+		public synchronized int getCurrentMode() {
+			return currentMode;
+		}
+
+		@Override
+		public SampleProvider getMode(int mode) {
+			return modes[mode];
+		}
+
+		@Override
+		public synchronized void reset() {
+			resetCount++;
+		}
+
+		@Override
+		public synchronized void close() {
+			closed = true;
+		}
+
+		/**
+		 * Sample provider of one mode.
+		 */
+		private class ModeProvider implements SampleProvider {
+
+			private final int mode;
+			private final int size;
+			private float[][] samples = null;
+			private int next = 0;
+			private long fetchCount = 0L;
+
+			ModeProvider(int mode, int size) {
+				this.mode = mode;
+				this.size = size;
+			}
+
+			@Override
+			public int sampleSize() {
+				return size;
+			}
+
+			@Override
+			public void fetchSample(float[] sample, int offset) {
+				synchronized (SimSensor.this) {
+					// fetching switches the mode
+					if (currentMode != mode) {
+						currentMode = mode;
+						switchCount++;
+					}
+					fetchCount++;
+					if ((samples == null) || (samples.length == 0)) {
+						for (int i = 0; i < size; i++) {
+							sample[offset + i] = 0F;
+						}
+					} else {
+						System.arraycopy(samples[next], 0, sample, offset, size);
+						next = (next + 1) % samples.length;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Simulated LCD drawing into a framebuffer.
+	 * Shapes are drawn pixel by pixel; arcs are always drawn as full ellipses
+	 * (the only ones the Display block uses). The characters of texts are drawn
+	 * as pseudo glyphs that only depend on the character; images are not
+	 * rasterized, but counted. The framebuffer (or regions of it) is copied to the
+	 * screen buffer by refresh().
+	 */
+	public static class SimLcd implements ILcdDevice {
+
+		// the framebuffer and the screen: 1 = black; 0 = white
+		private final byte[] buffer = new byte[LCD_WIDTH * LCD_HEIGHT];
+		private final byte[] screen = new byte[LCD_WIDTH * LCD_HEIGHT];
+		private byte pixel = 1;
+		private Font font = null;
+		private String lastText = null;
+		// the characters of the last drawChars; made a String on request
+		private char[] lastChars = new char[32];
+		private int lastLength = -1;
+		private long refreshCount = 0L;
+		private long refreshedPixels = 0L;
+		private long drawCount = 0L;
+
+		/**
+		 * @param x the x-coordinate.
+		 * @param y the y-coordinate.
+		 * @return the pixel on the screen (as of the last refresh); 1 for black, 0
+		 *         for white.
+		 */
+		public synchronized int getPixel(int x, int y) {
+			if ((x < 0) || (x >= LCD_WIDTH) || (y < 0) || (y >= LCD_HEIGHT)) {
+				return 0;
+			}
+			return screen[y * LCD_WIDTH + x];
+		}
+
+		/**
+		 * @return the number of refreshes so far.
+		 */
+		public synchronized long getRefreshCount() {
+			return refreshCount;
+		}
+
+		/**
+		 * @return the number of pixels copied to the screen so far.
+		 */
+		public synchronized long getRefreshedPixelCount() {
+			return refreshedPixels;
+		}
+
+		/**
+		 * @return the number of drawing operations so far.
+		 */
+		public synchronized long getDrawCount() {
+			return drawCount;
+		}
+
+		/**
+		 * @return the last text drawn; or null if none.
+		 */
+		public synchronized String getLastText() {
+			if ((lastText == null) && (lastLength >= 0)) {
+				lastText = new String(lastChars, 0, lastLength);
+			}
+			return lastText;
+		}
+
+		/**
+		 * @return the current font; or null if none was set.
+		 */
+		public synchronized Font getFont() {
+			return font;
+		}
+
+		/**
+		 * reset the refresh and drawing counters.
+		 */
+		public synchronized void resetCounters() {
+			refreshCount = 0L;
+			refreshedPixels = 0L;
+			drawCount = 0L;
+		}
+
+		@Override
+		public void setAutoRefresh(boolean on) {
+			// the simulated LCD refreshes explicitly only
+		}
+
+		@Override
+		public synchronized void refresh() {
+			refreshCount++;
+			refreshedPixels += buffer.length;
+			System.arraycopy(buffer, 0, screen, 0, buffer.length);
+		}
+
+		@Override
+		public synchronized void refresh(int[] regions, int count) {
+			refreshCount++;
+			for (int i = 0; i < count; i++) {
+				int x = regions[i * 4];
+				int w = regions[i * 4 + 2];
+				int y2 = regions[i * 4 + 1] + regions[i * 4 + 3];
+				for (int y = regions[i * 4 + 1]; y < y2; y++) {
+					System.arraycopy(buffer, y * LCD_WIDTH + x, screen, y * LCD_WIDTH + x, w);
+				}
+				refreshedPixels += (long) w * regions[i * 4 + 3];
+			}
+		}
+
+		@Override
+		public synchronized void clear() {
+			drawCount++;
+			for (int i = 0; i < buffer.length; i++) {
+				buffer[i] = 0;
+			}
+		}
+
+		@Override
+		public synchronized void setFont(Font font) {
+			this.font = font;
+		}
+
+		@Override
+		public synchronized void setColor(int color) {
+			pixel = (byte) ((color == GraphicsLCD.BLACK) ? 1 : 0);
+		}
+
+		@Override
+		public synchronized void setPixel(int x, int y, int color) {
+			drawCount++;
+			plot(x, y, (byte) ((color != 0) ? 1 : 0));
+		}
+
+		@Override
+		public synchronized void drawLine(int x1, int y1, int x2, int y2) {
+			drawCount++;
+			line(x1, y1, x2, y2);
+		}
+
+		@Override
+		public synchronized void drawRect(int x, int y, int width, int height) {
+			drawCount++;
+			line(x, y, x + width, y);
+			line(x + width, y, x + width, y + height);
+			line(x + width, y + height, x, y + height);
+			line(x, y + height, x, y);
+		}
+
+		@Override
+		public synchronized void fillRect(int x, int y, int width, int height) {
+			drawCount++;
+			fill(x, y, width, height);
+		}
+
+		@Override
+		public synchronized void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+			drawCount++;
+			ellipse(x, y, width, height, false);
+		}
+
+		@Override
+		public synchronized void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+			drawCount++;
+			ellipse(x, y, width, height, true);
+		}
+
+		@Override
+		public synchronized void drawString(String str, int x, int y, int anchor) {
+			drawCount++;
+			lastText = str;
+			lastLength = -1;
+			for (int i = 0; i < str.length(); i++) {
+				glyph(str.charAt(i), x + i * glyphWidth(), y);
+			}
+		}
+
+		@Override
+		public synchronized void drawChars(char[] data, int offset, int length, int x, int y, int anchor) {
+			drawCount++;
+			if (length > lastChars.length) {
+				lastChars = new char[length];
+			}
+			System.arraycopy(data, offset, lastChars, 0, length);
+			lastLength = length;
+			lastText = null;
+			for (int i = 0; i < length; i++) {
+				glyph(data[offset + i], x + i * glyphWidth(), y);
+			}
+		}
+
+		@Override
+		public synchronized void drawImage(Image img, int x, int y, int anchor) {
+			drawCount++;
+		}
+
+		/**
+		 * @return the width of a character in the current font.
+		 */
+		private int glyphWidth() {
+			return (font != null) ? font.width : 10;
+		}
+
+		/**
+		 * draw the pseudo glyph of a character in the current color.
+		 */
+		private void glyph(char c, int x, int y) {
+			int w = glyphWidth();
+			int h = (font != null) ? font.height : 16;
+			for (int yy = 0; yy < h; yy++) {
+				for (int xx = 0; xx < w; xx++) {
+					int hash = (c * 0x9E3779B1) ^ (xx * 0x85EBCA6B) ^ (yy * 0xC2B2AE35);
+					if (((hash ^ (hash >>> 15)) & 2) != 0) {
+						plot(x + xx, y + yy, pixel);
+					}
+				}
+			}
+		}
+
+		/**
+		 * set a pixel in the framebuffer, clipped to the LCD.
+		 */
+		private void plot(int x, int y, byte value) {
+			if ((x >= 0) && (x < LCD_WIDTH) && (y >= 0) && (y < LCD_HEIGHT)) {
+				buffer[y * LCD_WIDTH + x] = value;
+			}
+		}
+
+		/**
+		 * fill a rectangle in the framebuffer, clipped to the LCD.
+		 */
+		private void fill(int x, int y, int width, int height) {
+			int x1 = Math.max(x, 0);
+			int y1 = Math.max(y, 0);
+			int x2 = Math.min(x + width, LCD_WIDTH);
+			int y2 = Math.min(y + height, LCD_HEIGHT);
+			for (int yy = y1; yy < y2; yy++) {
+				int ix = yy * LCD_WIDTH;
+				for (int xx = x1; xx < x2; xx++) {
+					buffer[ix + xx] = pixel;
+				}
+			}
+		}
+
+		/**
+		 * draw a line with the Bresenham algorithm.
+		 */
+		private void line(int x1, int y1, int x2, int y2) {
+			int dx = Math.abs(x2 - x1);
+			int dy = -Math.abs(y2 - y1);
+			int sx = (x1 < x2) ? 1 : -1;
+			int sy = (y1 < y2) ? 1 : -1;
+			int err = dx + dy;
+			while (true) {
+				plot(x1, y1, pixel);
+				if ((x1 == x2) && (y1 == y2)) {
+					break;
+				}
+				int e2 = 2 * err;
+				if (e2 >= dy) {
+					err += dy;
+					x1 += sx;
+				}
+				if (e2 <= dx) {
+					err += dx;
+					y1 += sy;
+				}
+			}
+		}
+
+		/**
+		 * draw an ellipse inscribed in the specified rectangle.
+		 */
+		private void ellipse(int x, int y, int width, int height, boolean fill) {
+			if ((width <= 0) || (height <= 0)) {
+				return;
+			}
+			double rx = width / 2.0;
+			double ry = height / 2.0;
+			double cx = x + rx;
+			double cy = y + ry;
+			// scan the rows
+			for (int yy = y; yy <= y + height; yy++) {
+				double dy = (yy - cy) / ry;
+				double hw = rx * Math.sqrt(Math.max(0.0, 1.0 - dy * dy));
+				int xl = (int) Math.round(cx - hw);
+				int xr = (int) Math.round(cx + hw);
+				if (fill) {
+					fill(xl, yy, xr - xl + 1, 1);
+				} else {
+					plot(xl, yy, pixel);
+					plot(xr, yy, pixel);
+				}
+			}
+			if (!fill) {
+				// scan the columns to close the gaps of the outline
+				for (int xx = x; xx <= x + width; xx++) {
+					double dx = (xx - cx) / rx;
+					double hh = ry * Math.sqrt(Math.max(0.0, 1.0 - dx * dx));
+					plot(xx, (int) Math.round(cy - hh), pixel);
+					plot(xx, (int) Math.round(cy + hh), pixel);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Simulated sound device.
+	 * Accepts all packets at once and counts the commands and PCM bytes; the PCM
+	 * data can optionally be captured into a stream. Optionally it emulates the
+	 * FIFO of the EV3 sound device, which drains at the sample rate in real time,
+	 * and counts the underruns when the FIFO ran empty during a playback.
+	 */
+	public static class SimAudio implements IAudioDevice {
+
+		// the command codes of the sound device
+		private static final byte OP_BREAK = 0;
+		private static final byte OP_PLAY = 2;
+		private static final byte OP_SERVICE = 4;
+
+		private final long[] commandCounts = new long[8];
+		private long pcmBytes = 0L;
+		private OutputStream capture = null;
+		// the emulated FIFO; its size is 0 if there is none
+		private int fifoSize = 0;
+		private long fifoBytes = 0L;
+		private long fifoTime = 0L;
+		private long byteRate = 0L;
+		private boolean fifoPlaying = false;
+		private long underruns = 0L;
+
+		/**
+		 * @param capture the stream to receive the PCM data; or null to discard
+		 *                it.
+		 */
+		public synchronized void setCapture(OutputStream capture) {
+			this.capture = capture;
+		}
+
+		/**
+		 * Emulate the FIFO of the sound device: PCM packets are only accepted
+		 * while they fit into the FIFO, which drains at the sample rate in real
+		 * time.
+		 * 
+		 * @param bytes the FIFO size in bytes (at least one packet); or 0 to accept
+		 *              all packets at once.
+		 */
+		public synchronized void setFifoSize(int bytes) {
+			fifoSize = bytes;
+			fifoBytes = 0L;
+			fifoPlaying = false;
+		}
+
+		/**
+		 * @return the number of times the emulated FIFO ran empty during a
+		 *         playback so far.
+		 */
+		public synchronized long getUnderrunCount() {
+			return underruns;
+		}
+
+		/**
+		 * @param opCode the command code.
+		 * @return the number of packets with this command code so far.
+		 */
+		public synchronized long getCommandCount(int opCode) {
+			return commandCounts[opCode & 7];
+		}
+
+		/**
+		 * @return the number of PCM data bytes written so far.
+		 */
+		public synchronized long getPCMBytes() {
+			return pcmBytes;
+		}
+
+		/**
+		 * reset the counters.
+		 */
+		public synchronized void resetCounters() {
+			for (int i = 0; i < commandCounts.length; i++) {
+				commandCounts[i] = 0L;
+			}
+			pcmBytes = 0L;
+			underruns = 0L;
+		}
+
+		@Override
+		public int write(byte[] buf, int len) {
+			return write(buf, 0, len);
+		}
+
+		@Override
+		public synchronized int write(byte[] buf, int offset, int len) {
+			if (len <= 0) {
+				return 0;
+			}
+			byte op = buf[offset];
+			if (fifoSize > 0) {
+				if (op == OP_PLAY) {
+					// 16 bit samples at the sample rate
+					byteRate = 2L * ((buf[offset + 2] & 0xff) | ((buf[offset + 3] & 0xff) << 8)
+							| ((buf[offset + 4] & 0xff) << 16) | ((buf[offset + 5] & 0xff) << 24));
+					fifoBytes = 0L;
+					fifoPlaying = false;
+				} else if (op == OP_BREAK) {
+					fifoBytes = 0L;
+					fifoPlaying = false;
+				} else if ((op == OP_SERVICE) && !fillFifo(len - 1)) {
+					// no room
+					return 0;
+				}
+			}
+			commandCounts[op & 7]++;
+			if (op == OP_SERVICE) {
+				// the remaining bytes are PCM data
+				pcmBytes += len - 1;
+				if (capture != null) {
+					try {
+						capture.write(buf, offset + 1, len - 1);
+					} catch (IOException e) {
+						// stop capturing
+						capture = null;
+					}
+				}
+			}
+			return len;
+		}
+
+		/**
+		 * drain the emulated FIFO and put the PCM data into it if it fits.
+		 * 
+		 * @return true if the data fits.
+		 */
+		private boolean fillFifo(int len) {
+			long now = System.nanoTime();
+			if (fifoPlaying) {
+				long drained = (now - fifoTime) * byteRate / 1000000000L;
+				if (drained > fifoBytes) {
+					// ran empty before this packet
+					underruns++;
+					fifoBytes = 0L;
+				} else {
+					fifoBytes -= drained;
+				}
+			}
+			fifoTime = now;
+			if ((fifoBytes > 0L) && (fifoBytes + len > fifoSize)) {
+				return false;
+			}
+			fifoBytes += len;
+			fifoPlaying = true;
+			return true;
+		}
+	}
+}
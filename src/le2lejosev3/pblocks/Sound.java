@@ -4,12 +4,15 @@
 package le2lejosev3.pblocks;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import lejos.hardware.Button;
-
 /**
  * Sound Block.
  * 
@@ -17,6 +20,42 @@ import lejos.hardware.Button;
  * the original LeJOS EV3Audio class or the class lejos.hardware.Sound that uses
  * it in the same program as this class!
  * 
+ * By default a new sound stops the sound playing in the background. In the mix
+ * mode the sounds are mixed by software: a new sound plays together with the
+ * sounds already playing (up to 8 at a time), e.g. an alert beep over
+ * background music. stop() stops all of them.
+ * 
+ * <pre>
+ * Sound.setMixMode(true);
+ * Sound.playFile("Music", 50, Sound.REPEAT);
+ * ...
+ * Sound.playTone(1000, 0.2F, 100, Sound.ONCE);
+ * </pre>
+ * 
+ * The queue methods schedule sounds with a start delay and a priority without
+ * ever blocking the calling thread, e.g. from a control loop. The queued
+ * sounds are mixed by software like in the mix mode; they start in the order
+ * of their start times. A starting sound stops the sounds of a lower priority;
+ * it is dropped if a sound of a higher priority is playing. Sounds played
+ * otherwise have priority 0. Without the mix mode a starting queued sound of
+ * priority 0 or higher stops the sound playing in the background for good; one
+ * of a lower priority is dropped while it plays.
+ * 
+ * <pre>
+ * Sound.queueNote(Sound.PIANO, "C5", 0.2F, 0.0F, 0);
+ * Sound.queueNote(Sound.PIANO, "E5", 0.2F, 0.25F, 0);
+ * Sound.queueTone(2000, 0.1F, 100, 0.0F, 10); // alert
+ * </pre>
+ * 
+ * A song is compiled once into a NoteSequence and played by the software
+ * mixer; the notes start at their samples without a call per note.
+ * 
+ * <pre>
+ * NoteSequence song = Sound.compileSequence(Sound.PIANO, new String[] { "C5", "E5", "G5", Sound.REST, "C6" },
+ * 		new float[] { 0.25F, 0.25F, 0.25F, 0.25F, 1.0F });
+ * Sound.playSequence(song, 80, Sound.REPEAT);
+ * </pre>
+ * 
  * @author Roland Blochberger
  * @see https://ev3-help-online.api.education.lego.com/Education/en-us/page.html?Path=blocks%2FLEGO%2FSound.html
  */
@@ -34,12 +73,17 @@ public class Sound {
 	public static final int FLUTE = 1;
 	public static final int XYLOPHONE = 2;
 
+	/** the note name of a rest in a note sequence */
+	public static final String REST = "R";
+
 	/** the base directory for sound files on the EV3 brick. */
 	public static final String SOUND_DIR = "/home/lejos/lib/";
 	/** the default extension for sound files that LeJOS can play */
 	public static final String DEFAULT_EXT = "wav";
+	/** the default size of the sound clip cache in bytes */
+	public static final int DEFAULT_CLIP_CACHE_SIZE = 512 * 1024;
 
-	// array with allowed note names
+	// array with the note names of the octaves 4 to 6
 	public static final String[] noteNames = new String[] { "B6", "A#6", "A6", "G#6", "G6", "F#6", "F6", "E6", "D#6",
 			"D6", "C#6", "C6", "B5", "A#5", "A5", "G#5", "G5", "F#5", "F5", "E5", "D#5", "D5", "C#5", "C5", "B4", "A#4",
 			"A4", "G#4", "G4", "F#4", "F4", "E4", "D#4", "D4", "C#4", "C4" };
@@ -49,6 +93,18 @@ public class Sound {
 			1109, 1047, 988, 932, 880, 831, 784, 740, 698, 659, 622, 587, 554, 523, 494, 466, 440, 415, 392, 370, 349,
 			330, 311, 294, 277, 262 };
 
+	// the decoded sound clips by file name in the order of use; guards the clip
+	// cache state
+	private static final LinkedHashMap<String, SoundClip> clips = new LinkedHashMap<String, SoundClip>(16, 0.75F,
+			true);
+	private static int clipCacheSize = DEFAULT_CLIP_CACHE_SIZE;
+	private static int clipCacheBytes = 0;
+	private static long clipHits = 0L;
+	private static long clipMisses = 0L;
+
+	// mix the sounds instead of stopping the one playing
+	private static volatile boolean mixMode = false;
+
 	// create and start the background sound thread
 	private static SoundThread soundthread = new SoundThread();
 	static {
@@ -63,16 +119,51 @@ public class Sound {
 	 * project's classpath, please upload the sound file (by SCP) to the SOUND_DIR
 	 * directory before using this programming block.
 	 * The sound file must be mono, from 8kHz to 48kHz, and 8-bit or 16-bit PWM.
+	 * The decoded sound is kept in the sound clip cache, so playing or repeating
+	 * it again does not read the file again. In the mix mode a sound larger than
+	 * the sound clip cache is not played.
 	 * 
 	 * @param filename the file name only; you can omit the DEFAULT_EXT.
 	 * @param volume   the volume (0..100).
 	 * @param playType the play type, one of WAIT, ONCE, or REPEAT.
 	 */
 	public static void playFile(String filename, int volume, int playType) {
-		if (filename.lastIndexOf('.') <= 0) {
-			// no extension found: append the default sound file extension
-			filename = filename + '.' + DEFAULT_EXT;
+		filename = appendExt(filename);
+		SoundClip clip = getClip(filename);
+		if (mixMode) {
+			if (clip != null) {
+				mix(new PCMMixer.ClipVoice(clip, volume, playType == REPEAT), playType);
+			} else {
+				// the mixer plays decoded sounds only; do not decode a large one
+				log.warning("Cannot mix sound file " + filename + ": not readable or larger than the clip cache");
+			}
+			return;
 		}
+		if (clip != null) {
+			// decoded sound found:
+			// stop background sound immediately
+			soundthread.quiet();
+			switch (playType) {
+			case WAIT:
+				// Play sound and wait until done
+				if (log.isLoggable(Level.FINEST)) {
+					log.log(Level.FINEST, "clip {0}", filename);
+				}
+				((EV3Audio) EV3Audio.getAudio()).playPCM(clip.getData(), clip.getLength(), clip.getSampleRate(),
+						volume);
+				break;
+			case ONCE:
+				soundthread.setClip(clip, volume, false);
+				break;
+			case REPEAT:
+				soundthread.setClip(clip, volume, true);
+				break;
+			default:
+				throw new RuntimeException("Invalid play type value: " + playType);
+			}
+			return;
+		}
+		// the sound cannot be cached: stream it
 		InputStream in = Sound.class.getResourceAsStream("/resources/" + filename);
 		if (in != null) {
 			// resource found:
@@ -134,6 +225,83 @@ public class Sound {
 		}
 	}
 
+	/**
+	 * Decode sound files into the sound clip cache, e.g. all sounds of a program
+	 * at its start.
+	 * 
+	 * @param filenames the file names only; you can omit the DEFAULT_EXT.
+	 * @return true if all sounds were loaded.
+	 */
+	public static boolean preload(String... filenames) {
+		boolean ok = true;
+		for (String filename : filenames) {
+			filename = appendExt(filename);
+			SoundClip clip = null;
+			synchronized (clips) {
+				clip = clips.get(filename);
+			}
+			if (clip == null) {
+				int limit = 0;
+				synchronized (clips) {
+					limit = clipCacheSize;
+				}
+				clip = loadClip(filename, limit);
+				if (clip == null) {
+					ok = false;
+				} else {
+					cacheClip(filename, clip);
+				}
+			}
+		}
+		return ok;
+	}
+
+	/**
+	 * Set the size of the sound clip cache; the least recently played sounds are
+	 * removed from the cache when the decoded sounds need more memory. A sound
+	 * larger than the cache is streamed from its file.
+	 * 
+	 * @param bytes the maximum memory of the decoded sounds in bytes; or 0 to
+	 *              disable the cache. The default is DEFAULT_CLIP_CACHE_SIZE.
+	 */
+	public static void setClipCacheSize(int bytes) {
+		if (bytes < 0) {
+			throw new RuntimeException("Invalid clip cache size: " + bytes);
+		}
+		synchronized (clips) {
+			clipCacheSize = bytes;
+			evictClips();
+		}
+	}
+
+	/**
+	 * Remove all sounds from the sound clip cache.
+	 */
+	public static void clearClipCache() {
+		synchronized (clips) {
+			clips.clear();
+			clipCacheBytes = 0;
+		}
+	}
+
+	/**
+	 * @return the number of sounds played from the sound clip cache.
+	 */
+	public static long getClipCacheHitCount() {
+		synchronized (clips) {
+			return clipHits;
+		}
+	}
+
+	/**
+	 * @return the number of sounds read from a file to play them.
+	 */
+	public static long getClipCacheMissCount() {
+		synchronized (clips) {
+			return clipMisses;
+		}
+	}
+
 	/**
 	 * Play a tone with the specified frequency and duration.
 	 * 
@@ -145,6 +313,10 @@ public class Sound {
 	 */
 	public static void playTone(int frequency, float duration, int volume, int playType) {
 		int durMs = Math.round(duration * 1000);
+		if (mixMode) {
+			mix(new Synth.ToneVoice(frequency, durMs, volume, playType == REPEAT), playType);
+			return;
+		}
 		// stop background sound immediately
 		soundthread.quiet();
 		switch (playType) {
@@ -168,8 +340,8 @@ public class Sound {
 	 * Play a musical note.
 	 * 
 	 * @param note     the note name; Allowed is "C" through "B", followed
-	 *                 optionally by "#", followed by "4" through "6"; A-G is a
-	 *                 musical note name; 4-6 is an octave number; "#" means "sharp"
+	 *                 optionally by "#", followed by "0" through "8"; A-G is a
+	 *                 musical note name; 0-8 is an octave number; "#" means "sharp"
 	 *                 (one half step higher than the note without "#").
 	 * @param duration tone duration in seconds.
 	 * @param volume   the volume (0..100).
@@ -184,72 +356,414 @@ public class Sound {
 	 * Play a note with attack, decay, sustain and release shape, which is known as
 	 * a ADSR envelope. This function plays a more musical sounding note compared to
 	 * playTone(). It uses a set of supplied "instrument" parameters to define the
-	 * shape of the note's envelope. (sounds strange)
+	 * shape of the note's envelope; the note is synthesized from the wavetable of
+	 * the instrument.
 	 * 
 	 * @param instrument the 'LeJOS instrument'; one of PIANO, FLUTE, XYLOPHONE.
 	 * @param note       the note name; Allowed is "C" through "B", followed
-	 *                   optionally by "#", followed by "4" through "6"; A-G is a
-	 *                   musical note name; 4-6 is an octave number; "#" means
+	 *                   optionally by "#", followed by "0" through "8"; A-G is a
+	 *                   musical note name; 0-8 is an octave number; "#" means
 	 *                   "sharp" (one half step higher than the note without "#").
 	 * @param duration   tone duration in seconds.
 	 */
 	public static void playNote(int instrument, String note, float duration) {
-		int[] instr = null;
-		switch (instrument) {
-		case PIANO:
-			instr = lejos.hardware.Sounds.PIANO;
-			break;
-		case FLUTE:
-			instr = lejos.hardware.Sounds.FLUTE;
-			break;
-		case XYLOPHONE:
-			instr = lejos.hardware.Sounds.XYLOPHONE;
-			break;
-		default:
-			throw new RuntimeException("Invalid instrument value: " + instrument);
-		}
+		int[] instr = getInstrument(instrument);
 		int frequency = calcFreq(note);
 		int durMs = Math.round(duration * 1000);
-		// stop background sound immediately
-		soundthread.quiet();
-		// Play tone and wait until done
+		if (!mixMode) {
+			// stop background sound immediately
+			soundthread.quiet();
+		}
+		// Play note and wait until done
 		// lejos.hardware.Sound.playNote(instr, frequency, durMs);
 		EV3Audio.getAudio().playNote(instr, frequency, durMs);
 	}
 
 	/**
-	 * Stop any sounds playing in the background.
+	 * Queue a sound file; returns immediately.
+	 * Only a sound in the sound clip cache is queued, so this call never reads
+	 * the file; preload() the sound first.
+	 * 
+	 * @param filename the file name only; you can omit the DEFAULT_EXT.
+	 * @param volume   the volume (0..100).
+	 * @param delay    the start delay in seconds.
+	 * @param priority the priority; a higher value preempts a lower one.
+	 * @return false if the sound is not in the sound clip cache or the queue is
+	 *         full.
+	 */
+	public static boolean queueFile(String filename, int volume, float delay, int priority) {
+		filename = appendExt(filename);
+		SoundClip clip = null;
+		synchronized (clips) {
+			clip = clips.get(filename);
+			if (clip != null) {
+				clipHits++;
+			}
+		}
+		if (clip == null) {
+			log.warning("Sound file not preloaded: " + filename);
+			return false;
+		}
+		return queue(new PCMMixer.ClipVoice(clip, volume, false), delay, priority);
+	}
+
+	/**
+	 * Queue a tone; returns immediately.
+	 * 
+	 * @param frequency the frequency of the tone in Hz (cycles per second);
+	 *                  recommended: 250 to 10000.
+	 * @param duration  tone duration in seconds.
+	 * @param volume    the volume (0..100).
+	 * @param delay     the start delay in seconds.
+	 * @param priority  the priority; a higher value preempts a lower one.
+	 * @return false if the queue is full.
+	 */
+	public static boolean queueTone(int frequency, float duration, int volume, float delay, int priority) {
+		return queue(new Synth.ToneVoice(frequency, Math.round(duration * 1000), volume, false), delay, priority);
+	}
+
+	/**
+	 * Queue a musical note; returns immediately.
+	 * 
+	 * @param note     the note name; see playNote().
+	 * @param duration tone duration in seconds.
+	 * @param volume   the volume (0..100).
+	 * @param delay    the start delay in seconds.
+	 * @param priority the priority; a higher value preempts a lower one.
+	 * @return false if the queue is full.
+	 */
+	public static boolean queueNote(String note, float duration, int volume, float delay, int priority) {
+		return queueTone(calcFreq(note), duration, volume, delay, priority);
+	}
+
+	/**
+	 * Queue a musical note on a 'LeJOS instrument'; returns immediately.
+	 * 
+	 * @param instrument the 'LeJOS instrument'; one of PIANO, FLUTE, XYLOPHONE.
+	 * @param note       the note name; see playNote().
+	 * @param duration   tone duration in seconds.
+	 * @param delay      the start delay in seconds.
+	 * @param priority   the priority; a higher value preempts a lower one.
+	 * @return false if the queue is full.
+	 */
+	public static boolean queueNote(int instrument, String note, float duration, float delay, int priority) {
+		int[] instr = getInstrument(instrument);
+		return queue(new Synth.NoteVoice(instr, calcFreq(note), Math.round(duration * 1000), 100), delay,
+				priority);
+	}
+
+	/**
+	 * Compile a note sequence on one 'LeJOS instrument'.
+	 * 
+	 * @param instrument the 'LeJOS instrument'; one of PIANO, FLUTE, XYLOPHONE.
+	 * @param notes      the note names (see playNote()) or REST.
+	 * @param durations  the duration of each note in seconds.
+	 * @return the compiled sequence.
+	 */
+	public static NoteSequence compileSequence(int instrument, String[] notes, float[] durations) {
+		int[] instruments = new int[notes.length];
+		Arrays.fill(instruments, instrument);
+		return new NoteSequence(instruments, notes, durations);
+	}
+
+	/**
+	 * Compile a note sequence; each note has its own 'LeJOS instrument'.
+	 * 
+	 * @param instruments the 'LeJOS instrument' of each note; one of PIANO,
+	 *                    FLUTE, XYLOPHONE.
+	 * @param notes       the note names (see playNote()) or REST.
+	 * @param durations   the duration of each note in seconds.
+	 * @return the compiled sequence.
+	 */
+	public static NoteSequence compileSequence(int[] instruments, String[] notes, float[] durations) {
+		return new NoteSequence(instruments, notes, durations);
+	}
+
+	/**
+	 * Play a compiled note sequence.
+	 * 
+	 * @param sequence the note sequence.
+	 * @param volume   the volume (0..100).
+	 * @param playType the play type, one of WAIT, ONCE, or REPEAT.
+	 */
+	public static void playSequence(NoteSequence sequence, int volume, int playType) {
+		if (!mixMode) {
+			// stop background sound immediately
+			soundthread.quiet();
+		}
+		mix(new Synth.SequenceVoice(sequence, volume, playType == REPEAT), playType);
+	}
+
+	/**
+	 * Queue a compiled note sequence; returns immediately.
+	 * 
+	 * @param sequence the note sequence.
+	 * @param volume   the volume (0..100).
+	 * @param delay    the start delay in seconds.
+	 * @param priority the priority; a higher value preempts a lower one.
+	 * @return false if the queue is full.
+	 */
+	public static boolean queueSequence(NoteSequence sequence, int volume, float delay, int priority) {
+		return queue(new Synth.SequenceVoice(sequence, volume, false), delay, priority);
+	}
+
+	/**
+	 * @return the number of queued sounds that have not started yet.
+	 */
+	public static int getQueueDepth() {
+		return ((EV3Audio) EV3Audio.getAudio()).getMixer().getScheduledCount();
+	}
+
+	/**
+	 * Drop the queued sounds that have not started yet; returns immediately.
+	 */
+	public static void clearQueue() {
+		((EV3Audio) EV3Audio.getAudio()).getMixer().clearSchedule();
+	}
+
+	/**
+	 * Stop any sounds playing in the background and drop the queued sounds.
 	 */
 	public static void stop() {
+		PCMMixer mixer = ((EV3Audio) EV3Audio.getAudio()).getMixer();
+		mixer.clearSchedule();
+		mixer.stopAll();
+		soundthread.quiet();
+	}
+
+	/**
+	 * Switch the mix mode on or off; stops the sounds playing in the background.
+	 * 
+	 * @param mix set true to play new sounds together with the sounds already
+	 *            playing; false to stop the sound playing for a new one
+	 *            (default).
+	 */
+	public static void setMixMode(boolean mix) {
+		if (mix != mixMode) {
+			stop();
+			mixMode = mix;
+		}
+	}
+
+	/**
+	 * @return true if the sounds are mixed.
+	 */
+	public static boolean isMixMode() {
+		return mixMode;
+	}
+
+	/**
+	 * append the default sound file extension if the file name has none.
+	 */
+	private static String appendExt(String filename) {
+		if (filename.lastIndexOf('.') <= 0) {
+			// no extension found: append the default sound file extension
+			filename = filename + '.' + DEFAULT_EXT;
+		}
+		return filename;
+	}
+
+	/**
+	 * get a sound from the sound clip cache; load it if necessary.
+	 * 
+	 * @param filename the file name with extension.
+	 * @return the sound; or null if it cannot be loaded or is too large for the
+	 *         cache.
+	 */
+	private static SoundClip getClip(String filename) {
+		int limit = 0;
+		synchronized (clips) {
+			SoundClip clip = clips.get(filename);
+			if (clip != null) {
+				clipHits++;
+				return clip;
+			}
+			if (clipCacheSize == 0) {
+				return null;
+			}
+			clipMisses++;
+			limit = clipCacheSize;
+		}
+		SoundClip clip = loadClip(filename, limit);
+		if (clip != null) {
+			cacheClip(filename, clip);
+		}
+		return clip;
+	}
+
+	/**
+	 * put a sound into the sound clip cache and remove the least recently played
+	 * sounds if necessary.
+	 */
+	private static void cacheClip(String filename, SoundClip clip) {
+		synchronized (clips) {
+			if (clip.getSize() <= clipCacheSize) {
+				SoundClip old = clips.put(filename, clip);
+				if (old != null) {
+					clipCacheBytes -= old.getSize();
+				}
+				clipCacheBytes += clip.getSize();
+				evictClips();
+			}
+		}
+	}
+
+	/**
+	 * remove the least recently played sounds until the cache fits its size.
+	 */
+	private static void evictClips() {
+		Iterator<SoundClip> it = clips.values().iterator();
+		while ((clipCacheBytes > clipCacheSize) && it.hasNext()) {
+			clipCacheBytes -= it.next().getSize();
+			it.remove();
+		}
+	}
+
+	/**
+	 * decode a sound from the resources or the SOUND_DIR.
+	 * 
+	 * @param filename the file name with extension.
+	 * @param limit    the maximum size of the decoded sound in bytes.
+	 * @return the sound; or null if it cannot be loaded or is larger than the
+	 *         limit.
+	 */
+	private static SoundClip loadClip(String filename, int limit) {
+		WavReader wav = new WavReader();
+		try {
+			int r = 0;
+			InputStream in = Sound.class.getResourceAsStream("/resources/" + filename);
+			if (in != null) {
+				r = wav.open(in);
+			} else {
+				File soundFile = new File(SOUND_DIR, filename);
+				if (!soundFile.canRead()) {
+					return null;
+				}
+				r = wav.open(soundFile);
+			}
+			if (r < 0) {
+				return null;
+			}
+			return SoundClip.decode(wav, limit);
+
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Cannot decode sound file " + filename, e);
+			return null;
+		} finally {
+			try {
+				wav.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * play a voice by the software mixer.
+	 * 
+	 * @param voice    the voice.
+	 * @param playType the play type, one of WAIT, ONCE, or REPEAT.
+	 */
+	private static void mix(PCMMixer.Voice voice, int playType) {
+		if ((playType != WAIT) && (playType != ONCE) && (playType != REPEAT)) {
+			throw new RuntimeException("Invalid play type value: " + playType);
+		}
+		PCMMixer mixer = ((EV3Audio) EV3Audio.getAudio()).getMixer();
+		int id = mixer.add(voice);
+		if (id < 0) {
+			log.warning("Too many sounds playing");
+		} else if (playType == WAIT) {
+			// Play sound and wait until done
+			try {
+				mixer.await(id);
+			} catch (InterruptedException e) {
+				mixer.stop(id);
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * queue a voice for the software mixer.
+	 * 
+	 * @param voice    the voice.
+	 * @param delay    the start delay in seconds.
+	 * @param priority the priority.
+	 * @return false if the queue is full.
+	 */
+	private static boolean queue(PCMMixer.Voice voice, float delay, int priority) {
+		if (((EV3Audio) EV3Audio.getAudio()).getMixer().schedule(voice, (long) (delay * 1000000000.0),
+				priority)) {
+			return true;
+		}
+		log.warning("Sound queue full");
+		return false;
+	}
+
+	/**
+	 * arbitrate a queued sound against the sound playing in the background;
+	 * called by the mixer thread before it starts the queued sound.
+	 * Without the mix mode the background sound (priority 0) is stopped for a
+	 * queued sound of priority 0 or higher, so that it does not start its
+	 * playback over the one of the mixer again.
+	 * 
+	 * @param priority the priority of the queued sound.
+	 * @return false if the queued sound must be dropped.
+	 */
+	static boolean preempt(int priority) {
+		if (mixMode || !soundthread.isBusy()) {
+			return true;
+		}
+		if (priority < 0) {
+			return false;
+		}
 		soundthread.quiet();
+		return true;
+	}
+
+	/**
+	 * @param instrument the 'LeJOS instrument'; one of PIANO, FLUTE, XYLOPHONE.
+	 * @return the instrument definition.
+	 */
+	private static int[] getInstrument(int instrument) {
+		switch (instrument) {
+		case PIANO:
+			return lejos.hardware.Sounds.PIANO;
+		case FLUTE:
+			return lejos.hardware.Sounds.FLUTE;
+		case XYLOPHONE:
+			return lejos.hardware.Sounds.XYLOPHONE;
+		default:
+			throw new RuntimeException("Invalid instrument value: " + instrument);
+		}
 	}
 
 	/**
 	 * convert a note name to its frequency.
 	 * 
-	 * @param note the note name
+	 * @param note the note name; "C0" through "B8".
 	 * @return the note frequency; or 0 if invalid note name.
 	 */
 	public static int calcFreq(String note) {
-		note = note.toUpperCase();
-		// scan table of allowed note names
-		for (int ix = 0; ix < noteNames.length; ix++) {
-			if (noteNames[ix] == note) {
-				// found note, return its frequency
-				return noteFreqs[ix];
-			}
+		// the note number indexes the table of frequencies
+		int n = Synth.noteNumber(note);
+		if (n < 0) {
+			log.warning("Invalid note: " + note);
+			return 0;
 		}
-		log.warning("Invalid note: " + note);
-		return 0;
+		return Synth.NOTE_FREQS[n];
 	}
 
 	/**
 	 * Thread to play sounds in the background.
+	 * The thread is parked while there is nothing to play; setting a sound to
+	 * play wakes it up.
 	 */
 	static class SoundThread extends Thread {
 
 		private String resname = null;
 		private File soundFile = null;
+		private SoundClip clip = null;
 		private int frequency = 0;
 		private int durMs = 0;
 		private int volume = 0;
@@ -274,11 +788,14 @@ public class Sound {
 			synchronized (this) {
 				this.resname = resname;
 				this.soundFile = null;
+				this.clip = null;
 				this.frequency = 0;
 				this.durMs = 0;
 				this.volume = volume;
 				this.repeat = repeat;
 			}
+			// wake up the sound thread
+			LockSupport.unpark(this);
 		}
 
 		/**
@@ -292,11 +809,35 @@ public class Sound {
 			synchronized (this) {
 				this.resname = null;
 				this.soundFile = soundFile;
+				this.clip = null;
+				this.frequency = 0;
+				this.durMs = 0;
+				this.volume = volume;
+				this.repeat = repeat;
+			}
+			// wake up the sound thread
+			LockSupport.unpark(this);
+		}
+
+		/**
+		 * Set the parameters to play a decoded sound.
+		 * 
+		 * @param clip
+		 * @param volume
+		 * @param repeat
+		 */
+		void setClip(SoundClip clip, int volume, boolean repeat) {
+			synchronized (this) {
+				this.resname = null;
+				this.soundFile = null;
+				this.clip = clip;
 				this.frequency = 0;
 				this.durMs = 0;
 				this.volume = volume;
 				this.repeat = repeat;
 			}
+			// wake up the sound thread
+			LockSupport.unpark(this);
 		}
 
 		/**
@@ -311,11 +852,21 @@ public class Sound {
 			synchronized (this) {
 				this.resname = null;
 				this.soundFile = null;
+				this.clip = null;
 				this.frequency = frequency;
 				this.durMs = durMs;
 				this.volume = volume;
 				this.repeat = repeat;
 			}
+			// wake up the sound thread
+			LockSupport.unpark(this);
+		}
+
+		/**
+		 * @return true if a sound is set to play in the background.
+		 */
+		synchronized boolean isBusy() {
+			return (resname != null) || (soundFile != null) || (clip != null) || (frequency != 0);
 		}
 
 		/**
@@ -326,6 +877,7 @@ public class Sound {
 			synchronized (this) {
 				this.resname = null;
 				this.soundFile = null;
+				this.clip = null;
 				this.frequency = 0;
 				this.durMs = 0;
 				this.volume = 0;
@@ -345,23 +897,29 @@ public class Sound {
 		public void run() {
 			String resname = null;
 			File soundFile = null;
+			SoundClip clip = null;
 			int frequency = 0;
 			int durMs = 0;
 			int volume = 0;
 			int r = 0;
 			boolean repeat = false;
-			while (Button.ESCAPE.isUp()) {
-				Thread.yield();
-
+			IHardware hardware = Hardware.get();
+			while (!hardware.isEscapeDown()) {
 				// copy class variables to local ones
 				synchronized (this) {
 					resname = this.resname;
 					soundFile = this.soundFile;
+					clip = this.clip;
 					frequency = this.frequency;
 					durMs = this.durMs;
 					volume = this.volume;
 					repeat = this.repeat;
 				}
+				if ((resname == null) && (soundFile == null) && (clip == null) && (frequency == 0)) {
+					// nothing to play: wait for the next sound
+					LockSupport.park(this);
+					continue;
+				}
 				if (resname != null) {
 					// play sound resource and wait until done
 					InputStream in = Sound.class.getResourceAsStream("/resources/" + resname);
@@ -395,6 +953,17 @@ public class Sound {
 							this.soundFile = null;
 						}
 					}
+				} else if (clip != null) {
+					// play the decoded sound from memory and wait until done
+					((EV3Audio) EV3Audio.getAudio()).playPCM(clip.getData(), clip.getLength(), clip.getSampleRate(),
+							volume);
+					if (!repeat) {
+						synchronized (this) {
+							if (this.clip == clip) {
+								this.clip = null;
+							}
+						}
+					}
 				} else if (frequency != 0) {
 					// play tone and wait until done
 					// lejos.hardware.Sound.playTone(frequency, durMs, volume);
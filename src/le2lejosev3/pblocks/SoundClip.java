@@ -0,0 +1,121 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+import java.io.IOException;
+
+/**
+ * A sound decoded into memory.
+ * Holds the PCM data of a WAV file in the native format of the sound device
+ * (16-bit signed little-endian samples), so that it can be played again and
+ * again without reading and converting the file.
+ *
+ * @author Roland Blochberger
+ */
+class SoundClip {
+
+	private final byte[] data;
+	private final int length;
+	private final int sampleRate;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param data       the 16-bit PCM data.
+	 * @param length     the number of bytes of the PCM data.
+	 * @param sampleRate the sample rate in samples per second.
+	 */
+	SoundClip(byte[] data, int length, int sampleRate) {
+		this.data = data;
+		this.length = length;
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * Decode the PCM data of a WAV file; converts 8-bit samples to 16-bit.
+	 *
+	 * @param wav   the WAV file; its header is parsed already.
+	 * @param limit the maximum size of the decoded data in bytes.
+	 * @return the clip; or null if the decoded data would be larger than the
+	 *         limit.
+	 * @throws IOException on read errors.
+	 */
+	static SoundClip decode(WavReader wav, int limit) throws IOException {
+		boolean eight = (wav.getSampleSize() == 8);
+		int size = wav.available();
+		if (size < 0) {
+			// no PCM data
+			return new SoundClip(new byte[0], 0, wav.getSampleRate());
+		}
+		if ((long) size * (eight ? 2 : 1) > limit) {
+			return null;
+		}
+		byte[] data = new byte[eight ? (size * 2) : size];
+		int length = 0;
+		for (;;) {
+			int want = eight ? ((data.length - length) / 2) : (data.length - length);
+			if (want == 0) {
+				// more data chunks follow: grow up to the limit
+				int more = wav.available();
+				if (more < 0) {
+					break;
+				}
+				long grown = (long) length + (long) more * (eight ? 2 : 1);
+				if (grown > limit) {
+					return null;
+				}
+				byte[] bigger = new byte[(int) grown];
+				System.arraycopy(data, 0, bigger, 0, length);
+				data = bigger;
+				continue;
+			}
+			// read 8-bit samples into the upper half of the free space and
+			// convert them from its start
+			int off = eight ? (length + want) : length;
+			int n = wav.read(data, off, want);
+			if (n < 0) {
+				break;
+			}
+			if (eight) {
+				for (int k = 0; k < n; k++) {
+					// 8 bit data is unsigned with a 128 offset, need to convert to 16 bit signed
+					int sample = ((data[off + k] & 0xff) - 128) << 8;
+					data[length++] = (byte) sample;
+					data[length++] = (byte) (sample >> 8);
+				}
+			} else {
+				length += n;
+			}
+		}
+		return new SoundClip(data, length, wav.getSampleRate());
+	}
+
+	/**
+	 * @return the 16-bit PCM data; the array may be larger than the data.
+	 */
+	byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * @return the number of bytes of the PCM data.
+	 */
+	int getLength() {
+		return length;
+	}
+
+	/**
+	 * @return the sample rate in samples per second.
+	 */
+	int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * @return the memory used by the PCM data in bytes.
+	 */
+	int getSize() {
+		return data.length;
+	}
+}
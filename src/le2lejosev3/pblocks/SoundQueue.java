@@ -0,0 +1,102 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue of the scheduled voices of the software mixer.
+ * Any thread can offer voices without blocking; the mixer thread polls them.
+ * Each slot of the ring carries a sequence number that tells whether it is
+ * free for the next offer or filled for the next poll, so that the threads
+ * only need compare-and-set operations on the positions.
+ *
+ * @author Roland Blochberger
+ */
+class SoundQueue {
+
+	private final int mask;
+	private final AtomicReferenceArray<PCMMixer.Voice> slots;
+	private final AtomicLongArray sequences;
+	// the positions of the next offer and the next poll
+	private final AtomicLong tail = new AtomicLong(0L);
+	private final AtomicLong head = new AtomicLong(0L);
+
+	/**
+	 * Constructor.
+	 *
+	 * @param capacity the capacity; a power of 2.
+	 */
+	SoundQueue(int capacity) {
+		if ((capacity <= 0) || ((capacity & (capacity - 1)) != 0)) {
+			throw new RuntimeException("Invalid capacity: " + capacity);
+		}
+		mask = capacity - 1;
+		slots = new AtomicReferenceArray<PCMMixer.Voice>(capacity);
+		sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Put a voice into the queue; never blocks.
+	 *
+	 * @param voice the voice.
+	 * @return false if the queue is full.
+	 */
+	boolean offer(PCMMixer.Voice voice) {
+		long pos = tail.get();
+		for (;;) {
+			int i = (int) (pos & mask);
+			long dif = sequences.get(i) - pos;
+			if (dif == 0L) {
+				// the slot is free: claim it
+				if (tail.compareAndSet(pos, pos + 1L)) {
+					slots.set(i, voice);
+					sequences.set(i, pos + 1L);
+					return true;
+				}
+				pos = tail.get();
+			} else if (dif < 0L) {
+				// the slot still holds the voice of the previous round
+				return false;
+			} else {
+				// another thread claimed the slot
+				pos = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Take the next voice from the queue; never blocks.
+	 *
+	 * @return the voice; or null if the queue is empty.
+	 */
+	PCMMixer.Voice poll() {
+		long pos = head.get();
+		for (;;) {
+			int i = (int) (pos & mask);
+			long dif = sequences.get(i) - (pos + 1L);
+			if (dif == 0L) {
+				// the slot is filled: take it
+				if (head.compareAndSet(pos, pos + 1L)) {
+					PCMMixer.Voice voice = slots.get(i);
+					slots.set(i, null);
+					sequences.set(i, pos + mask + 1L);
+					return voice;
+				}
+				pos = head.get();
+			} else if (dif < 0L) {
+				// empty or the offer is not complete yet
+				return null;
+			} else {
+				// another thread took the slot
+				pos = head.get();
+			}
+		}
+	}
+}
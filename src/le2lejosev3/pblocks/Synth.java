@@ -0,0 +1,392 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+import lejos.hardware.Sounds;
+
+/**
+ * Wavetable synthesizer for the software mixer.
+ * Renders tones and the notes of the 'LeJOS instruments' (PIANO, FLUTE,
+ * XYLOPHONE) from precomputed wavetables into the PCM stream of the mixer. A
+ * note follows the attack, decay, sustain and release (ADSR) envelope of its
+ * instrument definition in the same 2ms segments as the former note generation
+ * by tone commands, but the level changes smoothly within a segment.
+ * The frequencies and phase steps of the notes C0 to B8 are precomputed in
+ * tables indexed by the MIDI note number; a NoteSequence is played note after
+ * note with sample-accurate timing.
+ *
+ * @author Roland Blochberger
+ */
+class Synth {
+
+	// the wavetable size
+	static final int TABLE_BITS = 10;
+	// the number of samples per envelope segment (2ms)
+	static final int SEGMENT = PCMMixer.SAMPLE_RATE / 500;
+
+	/** the sine wave */
+	static final short[] SINE = wavetable(new double[] { 1.0 });
+	// the harmonics of the instruments; the highest one stays below the Nyquist
+	// frequency up to the note B6
+	private static final double[] PIANO_HARMONICS = new double[] { 1.0, 0.5, 0.3, 0.15 };
+	private static final double[] FLUTE_HARMONICS = new double[] { 1.0, 0.2, 0.05 };
+	private static final double[] XYLOPHONE_HARMONICS = new double[] { 1.0, 0.0, 0.2, 0.4 };
+	private static final short[] PIANO = wavetable(PIANO_HARMONICS);
+	private static final short[] FLUTE = wavetable(FLUTE_HARMONICS);
+	private static final short[] XYLOPHONE = wavetable(XYLOPHONE_HARMONICS);
+
+	/** the instrument definitions indexed by Sound.PIANO, FLUTE, XYLOPHONE */
+	static final int[][] INSTRUMENTS = new int[][] { Sounds.PIANO, Sounds.FLUTE, Sounds.XYLOPHONE };
+
+	/** the lowest and the highest note number (MIDI): C0 and B8 */
+	static final int LOWEST_NOTE = 12;
+	static final int HIGHEST_NOTE = 119;
+	/** the frequency in Hz of each note number (MIDI; A4 = 69 = 440Hz) */
+	static final int[] NOTE_FREQS = new int[128];
+	/** the phase step per sample of each note number (2^32 = one period) */
+	static final int[] NOTE_STEPS = new int[128];
+	// the semitones of the note names A to G above C
+	private static final int[] SEMITONES = new int[] { 9, 11, 0, 2, 4, 5, 7 };
+
+	static {
+		for (int n = 0; n < NOTE_FREQS.length; n++) {
+			double freq = 440.0 * Math.pow(2.0, (n - 69) / 12.0);
+			NOTE_FREQS[n] = (int) Math.round(freq);
+			// wraps around above the sample rate like phaseStep()
+			NOTE_STEPS[n] = (int) Math.round(freq * 4294967296.0 / PCMMixer.SAMPLE_RATE);
+		}
+	}
+
+	/**
+	 * @param harmonics the amplitudes of the harmonics; the first one is the
+	 *                  fundamental.
+	 * @return one period of the wave; its peak is full scale.
+	 */
+	private static short[] wavetable(double[] harmonics) {
+		double[] wave = new double[1 << TABLE_BITS];
+		double peak = 0.0;
+		for (int i = 0; i < wave.length; i++) {
+			double x = 2.0 * Math.PI * i / wave.length;
+			for (int h = 0; h < harmonics.length; h++) {
+				wave[i] += harmonics[h] * Math.sin(x * (h + 1));
+			}
+			peak = Math.max(peak, Math.abs(wave[i]));
+		}
+		short[] table = new short[wave.length];
+		for (int i = 0; i < wave.length; i++) {
+			table[i] = (short) Math.round(wave[i] * 32767.0 / peak);
+		}
+		return table;
+	}
+
+	/**
+	 * @param inst      the instrument definition; one of lejos.hardware.Sounds
+	 *                  PIANO, FLUTE, XYLOPHONE, or another envelope.
+	 * @param frequency the frequency in Hz.
+	 * @return the wavetable of the instrument; the sine wave for other
+	 *         instruments or if the harmonics of the instrument would exceed the
+	 *         Nyquist frequency.
+	 */
+	static short[] getWavetable(int[] inst, int frequency) {
+		short[] table = SINE;
+		int harmonics = 1;
+		if (inst == Sounds.PIANO) {
+			table = PIANO;
+			harmonics = PIANO_HARMONICS.length;
+		} else if (inst == Sounds.FLUTE) {
+			table = FLUTE;
+			harmonics = FLUTE_HARMONICS.length;
+		} else if (inst == Sounds.XYLOPHONE) {
+			table = XYLOPHONE;
+			harmonics = XYLOPHONE_HARMONICS.length;
+		}
+		if ((long) frequency * harmonics >= PCMMixer.SAMPLE_RATE / 2) {
+			return SINE;
+		}
+		return table;
+	}
+
+	/**
+	 * @param frequency the frequency in Hz.
+	 * @return the phase step per sample (2^32 = one period).
+	 */
+	static int phaseStep(int frequency) {
+		return (int) (((long) frequency << 32) / PCMMixer.SAMPLE_RATE);
+	}
+
+	/**
+	 * @param note the note name; "C" through "B" (or "c" through "b"), followed
+	 *             optionally by "#", followed by the octave "0" through "8".
+	 * @return the note number (MIDI); or -1 if invalid note name.
+	 */
+	static int noteNumber(String note) {
+		int len = note.length();
+		if ((len < 2) || (len > 3)) {
+			return -1;
+		}
+		int c = Character.toUpperCase(note.charAt(0)) - 'A';
+		if ((c < 0) || (c >= SEMITONES.length)) {
+			return -1;
+		}
+		int n = SEMITONES[c];
+		if (len == 3) {
+			if (note.charAt(1) != '#') {
+				return -1;
+			}
+			n++;
+		}
+		int octave = note.charAt(len - 1) - '0';
+		if ((octave < 0) || (octave > 8)) {
+			return -1;
+		}
+		return (octave + 1) * 12 + n;
+	}
+
+	/**
+	 * Compute the envelope of a note in 2ms segments like the former note
+	 * generation by tone commands.
+	 *
+	 * @param inst the instrument definition: the attack segments, the decay
+	 *             segments, the decay level, the sustain level drop, and the
+	 *             release segments; the levels are scaled by 100.
+	 * @param len  the duration of the note in milliseconds.
+	 * @return the level of each segment; 10000 = 100%.
+	 */
+	static int[] envelope(int[] inst, int len) {
+		len /= 2;
+		int attack = Math.max(1, inst[0]);
+		int decay = Math.max(0, inst[1]);
+		int release = Math.max(0, inst[4]);
+		int sustain = len - attack - decay - release;
+		if (sustain < 0) {
+			// shorten the release
+			release = Math.max(0, release + sustain);
+			sustain = 0;
+		}
+		int[] levels = new int[attack + decay + sustain + release];
+		int n = 0;
+		// the attack from 1% to about 91%
+		int vol = 100;
+		int step = 9000 / attack;
+		for (int i = 0; i < attack; i++) {
+			vol += step;
+			levels[n++] = vol;
+		}
+		// the decay
+		if (decay > 0) {
+			step = inst[2] / decay;
+			for (int i = 0; i < decay; i++) {
+				vol -= step;
+				levels[n++] = vol;
+			}
+		}
+		// the sustain fills the requested note length
+		if (sustain > 0) {
+			step = inst[3] / sustain;
+			for (int i = 0; i < sustain; i++) {
+				vol -= step;
+				levels[n++] = vol;
+			}
+		}
+		// the release down to 1%
+		if (release > 0) {
+			step = (vol - 100) / release;
+			for (int i = 0; i < release; i++) {
+				vol -= step;
+				levels[n++] = vol;
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			levels[i] = Math.max(0, Math.min(10000, levels[i]));
+		}
+		return levels;
+	}
+
+	/**
+	 * A sine tone; faded in and out to avoid clicks.
+	 */
+	static class ToneVoice extends PCMMixer.Voice {
+		private final int samples;
+		private final boolean repeat;
+		// the phase of the tone and its step per sample (2^32 = one period)
+		private int phase = 0;
+		private final int phaseStep;
+		private int done = 0;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param frequency the frequency in Hz.
+		 * @param durMs     the duration in milliseconds.
+		 * @param volume    the volume (0..100).
+		 * @param repeat    set true to play the tone again and again.
+		 */
+		ToneVoice(int frequency, int durMs, int volume, boolean repeat) {
+			super(volume);
+			this.samples = (int) (((long) durMs * PCMMixer.SAMPLE_RATE) / 1000L);
+			this.repeat = repeat;
+			this.phaseStep = phaseStep(frequency);
+		}
+
+		@Override
+		boolean mix(int[] mix, int len, int gain) {
+			for (int i = 0; i < len; i++) {
+				if (done >= samples) {
+					if (!repeat || (samples == 0)) {
+						return false;
+					}
+					done = 0;
+				}
+				int s = SINE[phase >>> (32 - TABLE_BITS)];
+				// fade in and out within one segment
+				int edge = Math.min(done, samples - 1 - done);
+				if (edge < SEGMENT) {
+					s = (s * edge) / SEGMENT;
+				}
+				mix[i] += (s * gain) >> 8;
+				phase += phaseStep;
+				done++;
+			}
+			return repeat || (done < samples);
+		}
+	}
+
+	/**
+	 * A note of an instrument with its envelope.
+	 */
+	static class NoteVoice extends PCMMixer.Voice {
+		private final short[] table;
+		private final int[] levels;
+		// the phase of the note and its step per sample (2^32 = one period)
+		private int phase = 0;
+		private final int phaseStep;
+		// the current segment and the sample in it
+		private int segment = 0;
+		private int sample = 0;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param inst      the instrument definition.
+		 * @param frequency the frequency in Hz.
+		 * @param durMs     the duration in milliseconds.
+		 * @param volume    the volume (0..100).
+		 */
+		NoteVoice(int[] inst, int frequency, int durMs, int volume) {
+			super(volume);
+			this.table = getWavetable(inst, frequency);
+			this.levels = envelope(inst, durMs);
+			this.phaseStep = phaseStep(frequency);
+		}
+
+		@Override
+		boolean mix(int[] mix, int len, int gain) {
+			for (int i = 0; i < len; i++) {
+				if (segment >= levels.length) {
+					return false;
+				}
+				// ramp from the level of the previous segment
+				int from = (segment > 0) ? levels[segment - 1] : 0;
+				int env = from + ((levels[segment] - from) * sample) / SEGMENT;
+				int s = (table[phase >>> (32 - TABLE_BITS)] * env) / 10000;
+				mix[i] += (s * gain) >> 8;
+				phase += phaseStep;
+				if (++sample == SEGMENT) {
+					sample = 0;
+					segment++;
+				}
+			}
+			return segment < levels.length;
+		}
+	}
+
+	/**
+	 * A compiled note sequence; each note starts at its sample.
+	 */
+	static class SequenceVoice extends PCMMixer.Voice {
+		private final NoteSequence sequence;
+		private final boolean repeat;
+		// the next note and the samples left of the current one
+		private int index = 0;
+		private int left = 0;
+		// the current note; the levels are null for a rest
+		private short[] table = null;
+		private int[] levels = null;
+		private int phase = 0;
+		private int phaseStep = 0;
+		private int segment = 0;
+		private int sample = 0;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param sequence the note sequence.
+		 * @param volume   the volume (0..100).
+		 * @param repeat   set true to play the sequence again and again.
+		 */
+		SequenceVoice(NoteSequence sequence, int volume, boolean repeat) {
+			super(volume);
+			this.sequence = sequence;
+			this.repeat = repeat;
+		}
+
+		@Override
+		boolean mix(int[] mix, int len, int gain) {
+			int[] codes = sequence.codes;
+			int i = 0;
+			while (i < len) {
+				if (left == 0) {
+					if (index == codes.length) {
+						if (!repeat || (sequence.getSamples() == 0)) {
+							return false;
+						}
+						index = 0;
+					}
+					start(index++);
+				}
+				int end = i + Math.min(len - i, left);
+				left -= end - i;
+				for (; (i < end) && (levels != null); i++) {
+					if (segment >= levels.length) {
+						// the note has faded out
+						levels = null;
+						break;
+					}
+					// ramp from the level of the previous segment
+					int from = (segment > 0) ? levels[segment - 1] : 0;
+					int env = from + ((levels[segment] - from) * sample) / SEGMENT;
+					int s = (table[phase >>> (32 - TABLE_BITS)] * env) / 10000;
+					mix[i] += (s * gain) >> 8;
+					phase += phaseStep;
+					if (++sample == SEGMENT) {
+						sample = 0;
+						segment++;
+					}
+				}
+				i = end;
+			}
+			return repeat || (index < codes.length) || (left > 0);
+		}
+
+		/**
+		 * start a note of the sequence.
+		 */
+		private void start(int k) {
+			int code = sequence.codes[k];
+			left = code >>> NoteSequence.LENGTH_SHIFT;
+			int inst = (code >> NoteSequence.INSTRUMENT_SHIFT) & NoteSequence.INSTRUMENT_MASK;
+			if (inst == NoteSequence.REST) {
+				levels = null;
+				return;
+			}
+			int note = code & NoteSequence.NOTE_MASK;
+			table = getWavetable(INSTRUMENTS[inst], NOTE_FREQS[note]);
+			levels = sequence.envelopes[k];
+			phase = 0;
+			phaseStep = NOTE_STEPS[note];
+			segment = 0;
+			sample = 0;
+		}
+	}
+}
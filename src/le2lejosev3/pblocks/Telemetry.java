@@ -0,0 +1,42 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+/**
+ * Binary telemetry file format codes.
+ * 
+ * A telemetry file starts with a header describing the schema: the magic
+ * number, the number of columns, and for each column its type and name. It
+ * continues with fixed-width records of the typed column values (big endian).
+ * 
+ * <pre>
+ * int    MAGIC
+ * short  column count
+ * per column:
+ *   byte   column type (TYPE_TIMESTAMP, TYPE_INT, or TYPE_FLOAT)
+ *   byte   length of the name
+ *   byte[] name (UTF-8)
+ * records: per column a long (TYPE_TIMESTAMP), int (TYPE_INT), or float (TYPE_FLOAT)
+ * </pre>
+ * 
+ * @author Roland Blochberger
+ * @see TelemetryWriter
+ * @see TelemetryReader
+ */
+public interface Telemetry {
+
+	/** the default extension for the telemetry files */
+	public static final String TELEMETRY_EXT = "tlm";
+
+	/** the magic number at the beginning of a telemetry file ("TLM1") */
+	public static final int MAGIC = 0x544C4D31;
+
+	/**
+	 * column type codes.
+	 */
+	public static final int TYPE_TIMESTAMP = 0;
+	public static final int TYPE_INT = 1;
+	public static final int TYPE_FLOAT = 2;
+
+}
@@ -0,0 +1,354 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads a binary telemetry file record by record.
+ * next() moves to the next record, whose values are then read by column;
+ * nothing is allocated per record or value.
+ * 
+ * Usage:
+ * 
+ * <pre>
+ * TelemetryReader tr = TelemetryReader.open("balance");
+ * while (tr.next()) {
+ * 	long time = tr.getTimestamp(0);
+ * 	float angle = tr.getFloat(1);
+ * 	int power = tr.getInt(2);
+ * }
+ * tr.close();
+ * </pre>
+ * 
+ * @author Roland Blochberger
+ * @see Telemetry
+ */
+public class TelemetryReader implements Telemetry {
+
+	private static final Logger log = Logger.getLogger(TelemetryReader.class.getName());
+
+	// the size of the read buffer
+	private static final int BUFFER_SIZE = 8192;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final String[] names;
+	private final int[] types;
+	private final int[] offsets;
+	private final int recordSize;
+	private final long recordCount;
+	private final ByteBuffer buf;
+	// the position of the current record in the buffer; -1 before the first
+	private int recordPos = -1;
+	private boolean eof = false;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param file the telemetry file.
+	 * @throws IOException if the file cannot be read or is no telemetry file.
+	 */
+	public TelemetryReader(File file) throws IOException {
+		this.file = file;
+		raf = new RandomAccessFile(file, "r");
+		try {
+			channel = raf.getChannel();
+			// read the header
+			ByteBuffer header = ByteBuffer.allocate(6);
+			readFully(header);
+			if (header.getInt(0) != MAGIC) {
+				throw new IOException("No telemetry file: " + file.getAbsolutePath());
+			}
+			int columns = header.getShort(4);
+			if (columns <= 0) {
+				throw new IOException("Invalid number of columns: " + columns);
+			}
+			names = new String[columns];
+			types = new int[columns];
+			offsets = new int[columns];
+			Charset utf8 = Charset.forName("UTF-8");
+			ByteBuffer column = ByteBuffer.allocate(257);
+			int size = 0;
+			for (int i = 0; i < columns; i++) {
+				column.clear().limit(2);
+				readFully(column);
+				types[i] = column.get(0);
+				offsets[i] = size;
+				try {
+					size += TelemetryWriter.columnSize(types[i]);
+				} catch (RuntimeException ex) {
+					throw new IOException(ex.getMessage());
+				}
+				column.clear().limit(column.get(1) & 0xFF);
+				readFully(column);
+				names[i] = new String(column.array(), 0, column.limit(), utf8);
+			}
+			recordSize = size;
+			recordCount = (channel.size() - channel.position()) / recordSize;
+			// a multiple of the record size
+			buf = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE / recordSize, 1) * recordSize);
+			buf.flip();
+
+		} catch (IOException ex) {
+			raf.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Open a telemetry file in the FileAccess directory.
+	 * 
+	 * @param filename the file name only; you can omit the TELEMETRY_EXT.
+	 * @return the reader; or null if the file cannot be read.
+	 */
+	public static TelemetryReader open(String filename) {
+		File file = new File(FileAccess.getFilesDir(), FileAccess.appendExt(filename, TELEMETRY_EXT));
+		try {
+			return new TelemetryReader(file);
+		} catch (IOException ex) {
+			log.log(Level.WARNING, "Cannot read file: " + file.getAbsolutePath() + ": " + ex.toString(), ex);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the telemetry file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the number of columns.
+	 */
+	public int getColumnCount() {
+		return types.length;
+	}
+
+	/**
+	 * @param column the column index.
+	 * @return the column name.
+	 */
+	public String getColumnName(int column) {
+		return names[column];
+	}
+
+	/**
+	 * @param column the column index.
+	 * @return the column type; TYPE_TIMESTAMP, TYPE_INT, or TYPE_FLOAT.
+	 */
+	public int getColumnType(int column) {
+		return types[column];
+	}
+
+	/**
+	 * @param name the column name.
+	 * @return the column index; or -1 if there is no such column.
+	 */
+	public int getColumn(String name) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of complete records in the file.
+	 */
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Move to the next record.
+	 * 
+	 * @return true if there is a next record; false at the end of the file.
+	 */
+	public boolean next() {
+		if (recordPos >= 0) {
+			buf.position(recordPos + recordSize);
+		}
+		if (buf.remaining() < recordSize) {
+			if (eof) {
+				recordPos = -1;
+				return false;
+			}
+			try {
+				buf.compact();
+				while (buf.hasRemaining() && (channel.read(buf) >= 0)) {
+					// read until the buffer is full
+				}
+				eof = buf.hasRemaining();
+				buf.flip();
+
+			} catch (IOException ex) {
+				log.log(Level.WARNING, "Cannot read file: " + file.getAbsolutePath() + ": " + ex.toString(), ex);
+				eof = true;
+				buf.limit(0);
+			}
+			if (buf.remaining() < recordSize) {
+				// an incomplete last record is ignored
+				recordPos = -1;
+				return false;
+			}
+		}
+		recordPos = buf.position();
+		return true;
+	}
+
+	/**
+	 * @param column the column index of a TYPE_TIMESTAMP column.
+	 * @return the timestamp of the current record.
+	 */
+	public long getTimestamp(int column) {
+		checkType(column, TYPE_TIMESTAMP);
+		return buf.getLong(recordPos + offsets[column]);
+	}
+
+	/**
+	 * @param column the column index of a TYPE_INT column.
+	 * @return the value of the current record.
+	 */
+	public int getInt(int column) {
+		checkType(column, TYPE_INT);
+		return buf.getInt(recordPos + offsets[column]);
+	}
+
+	/**
+	 * @param column the column index of a TYPE_FLOAT column.
+	 * @return the value of the current record.
+	 */
+	public float getFloat(int column) {
+		checkType(column, TYPE_FLOAT);
+		return buf.getFloat(recordPos + offsets[column]);
+	}
+
+	/**
+	 * Close the file.
+	 */
+	public void close() {
+		try {
+			raf.close();
+		} catch (IOException ex) {
+			log.log(Level.WARNING, "Cannot close file: " + file.getAbsolutePath() + ": " + ex.toString(), ex);
+		}
+	}
+
+	/**
+	 * Export a telemetry file to a text file in the FileAccess directory with
+	 * one value per line, record by record; the text file can then be read with
+	 * FileAccess.read(), readNumeric(), or readInt().
+	 * An existing text file is replaced.
+	 * 
+	 * @param filename     the telemetry file name only; you can omit the
+	 *                     TELEMETRY_EXT.
+	 * @param textFilename the text file name only; you can omit the ".txt".
+	 * @return the number of exported records; or -1 on errors.
+	 */
+	public static long exportText(String filename, String textFilename) {
+		return exportText(filename, textFilename, -1);
+	}
+
+	/**
+	 * Export one column of a telemetry file to a text file in the FileAccess
+	 * directory with one value per line; the text file can then be read with
+	 * FileAccess.read(), readNumeric(), or readInt().
+	 * An existing text file is replaced.
+	 * 
+	 * @param filename     the telemetry file name only; you can omit the
+	 *                     TELEMETRY_EXT.
+	 * @param textFilename the text file name only; you can omit the ".txt".
+	 * @param column       the column index; or -1 for all columns.
+	 * @return the number of exported records; or -1 on errors.
+	 */
+	public static long exportText(String filename, String textFilename, int column) {
+		TelemetryReader tr = open(filename);
+		if (tr == null) {
+			return -1L;
+		}
+		try {
+			if (column >= tr.getColumnCount()) {
+				throw new RuntimeException("Invalid column: " + column);
+			}
+			// the text file must be closed in FileAccess before it is replaced
+			FileAccess.delete(textFilename);
+			File textFile = new File(FileAccess.getFilesDir(), FileAccess.appendExt(textFilename));
+			FileAppender out = new FileAppender(textFile, FileAccess.MODE_CHANNEL, FileAccess.FLUSH_BUFFER, 0L);
+			long count = 0L;
+			try {
+				while (tr.next()) {
+					if (column >= 0) {
+						tr.exportValue(out, column);
+					} else {
+						for (int i = 0; i < tr.getColumnCount(); i++) {
+							tr.exportValue(out, i);
+						}
+					}
+					count++;
+				}
+			} finally {
+				out.close();
+			}
+			return count;
+
+		} catch (IOException ex) {
+			log.log(Level.WARNING, "Cannot export file: " + tr.getFile().getAbsolutePath() + ": " + ex.toString(), ex);
+			return -1L;
+
+		} finally {
+			tr.close();
+		}
+	}
+
+	/**
+	 * write a value of the current record as a line.
+	 */
+	private void exportValue(FileAppender out, int column) throws IOException {
+		switch (types[column]) {
+		case TYPE_TIMESTAMP:
+			out.writeLine(getTimestamp(column));
+			break;
+		case TYPE_INT:
+			out.writeLine(getInt(column));
+			break;
+		default:
+			out.writeLine(getFloat(column));
+			break;
+		}
+	}
+
+	/**
+	 * check the column type and the current record.
+	 */
+	private void checkType(int column, int type) {
+		if (types[column] != type) {
+			throw new RuntimeException("Invalid type of column " + column + ": " + types[column]);
+		}
+		if (recordPos < 0) {
+			throw new RuntimeException("No current record");
+		}
+	}
+
+	/**
+	 * read until the buffer is full.
+	 */
+	private void readFully(ByteBuffer bb) throws IOException {
+		while (bb.hasRemaining()) {
+			if (channel.read(bb) < 0) {
+				throw new IOException("Unexpected end of file: " + file.getAbsolutePath());
+			}
+		}
+	}
+}
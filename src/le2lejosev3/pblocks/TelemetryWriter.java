@@ -0,0 +1,290 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes a binary telemetry file.
+ * The values of a record are set by column and stay set until they are
+ * changed, then writeRecord() appends the record. Nothing is allocated per
+ * record. The methods are synchronized, so that several tasks can set the
+ * columns of a record; a record written by one task may then contain the
+ * values set by another one meanwhile. The file is created in the FileAccess directory with the
+ * TELEMETRY_EXT; an existing file is replaced.
+ * 
+ * Usage:
+ * 
+ * <pre>
+ * TelemetryWriter tw = new TelemetryWriter("balance", new String[] { "time", "angle", "power" },
+ * 		new int[] { Telemetry.TYPE_TIMESTAMP, Telemetry.TYPE_FLOAT, Telemetry.TYPE_INT });
+ * while (...) {
+ * 	tw.setTimestamp(0);
+ * 	tw.setFloat(1, angle);
+ * 	tw.setInt(2, power);
+ * 	tw.writeRecord();
+ * }
+ * tw.close();
+ * </pre>
+ * 
+ * @author Roland Blochberger
+ * @see Telemetry
+ */
+public class TelemetryWriter implements Telemetry {
+
+	private static final Logger log = Logger.getLogger(TelemetryWriter.class.getName());
+
+	// the size of the write buffer
+	private static final int BUFFER_SIZE = 8192;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final int[] types;
+	private final int[] offsets;
+	// the current record and the write buffer
+	private final ByteBuffer record;
+	private final ByteBuffer buf;
+	// the System.nanoTime() when the file was created
+	private final long start;
+	private long count = 0L;
+	private boolean closed = false;
+	// closes the file at program end; removed when the file is closed before
+	private final Thread hook;
+
+	/**
+	 * Constructor.
+	 * Creates the telemetry file and writes the header.
+	 * 
+	 * @param filename the file name only; you can omit the TELEMETRY_EXT.
+	 * @param names    the column names.
+	 * @param types    the column types; TYPE_TIMESTAMP, TYPE_INT, or TYPE_FLOAT.
+	 */
+	public TelemetryWriter(String filename, String[] names, int[] types) {
+		if ((names.length != types.length) || (names.length == 0) || (names.length > Short.MAX_VALUE)) {
+			throw new RuntimeException("Invalid number of columns: " + names.length + " names, " + types.length
+					+ " types");
+		}
+		this.types = types.clone();
+		// the column offsets in the record
+		offsets = new int[types.length];
+		int size = 0;
+		for (int i = 0; i < types.length; i++) {
+			offsets[i] = size;
+			size += columnSize(types[i]);
+		}
+		record = ByteBuffer.allocate(size);
+		buf = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, size));
+
+		// the header
+		Charset utf8 = Charset.forName("UTF-8");
+		ByteBuffer header = ByteBuffer.allocate(6 + (names.length * 257));
+		header.putInt(MAGIC);
+		header.putShort((short) names.length);
+		for (int i = 0; i < names.length; i++) {
+			byte[] name = names[i].getBytes(utf8);
+			if (name.length > 255) {
+				throw new RuntimeException("Column name too long: " + names[i]);
+			}
+			header.put((byte) types[i]);
+			header.put((byte) name.length);
+			header.put(name);
+		}
+		header.flip();
+
+		file = new File(FileAccess.getFilesDir(), FileAccess.appendExt(filename, TELEMETRY_EXT));
+		RandomAccessFile f = null;
+		FileChannel fc = null;
+		try {
+			f = new RandomAccessFile(file, "rw");
+			f.setLength(0L);
+			fc = f.getChannel();
+			while (header.hasRemaining()) {
+				fc.write(header);
+			}
+		} catch (IOException ex) {
+			log.log(Level.WARNING, "Cannot open file: " + file.getAbsolutePath() + ": " + ex.toString(), ex);
+			closed = true;
+			if (f != null) {
+				try {
+					f.close();
+				} catch (IOException e) {
+					// ignore
+				}
+				f = null;
+				fc = null;
+			}
+		}
+		raf = f;
+		channel = fc;
+		start = System.nanoTime();
+		// handle resources correctly before exiting
+		hook = new Thread(new Runnable() {
+			public void run() {
+				// write the buffered records at program end
+				close();
+			}
+		});
+		if (!closed) {
+			Runtime.getRuntime().addShutdownHook(hook);
+		}
+	}
+
+	/**
+	 * @return the telemetry file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the number of records written so far.
+	 */
+	public long getRecordCount() {
+		return count;
+	}
+
+	/**
+	 * Set a timestamp column of the current record to the nanoseconds since the
+	 * file was created.
+	 * 
+	 * @param column the column index.
+	 */
+	public void setTimestamp(int column) {
+		setTimestamp(column, System.nanoTime() - start);
+	}
+
+	/**
+	 * Set a timestamp column of the current record.
+	 * 
+	 * @param column the column index.
+	 * @param value  the timestamp.
+	 */
+	public synchronized void setTimestamp(int column, long value) {
+		checkType(column, TYPE_TIMESTAMP);
+		record.putLong(offsets[column], value);
+	}
+
+	/**
+	 * Set an int column of the current record.
+	 * 
+	 * @param column the column index.
+	 * @param value  the value.
+	 */
+	public synchronized void setInt(int column, int value) {
+		checkType(column, TYPE_INT);
+		record.putInt(offsets[column], value);
+	}
+
+	/**
+	 * Set a float column of the current record.
+	 * 
+	 * @param column the column index.
+	 * @param value  the value.
+	 */
+	public synchronized void setFloat(int column, float value) {
+		checkType(column, TYPE_FLOAT);
+		record.putFloat(offsets[column], value);
+	}
+
+	/**
+	 * Append the current record to the file.
+	 */
+	public synchronized void writeRecord() {
+		if (!closed) {
+			try {
+				if (buf.remaining() < record.capacity()) {
+					drain();
+				}
+				record.clear();
+				buf.put(record);
+				count++;
+
+			} catch (IOException ex) {
+				log.log(Level.WARNING, "Cannot write file: " + file.getAbsolutePath() + ": " + ex.toString(), ex);
+			}
+		}
+	}
+
+	/**
+	 * Write the buffered records to the file.
+	 */
+	public synchronized void flush() {
+		if (!closed) {
+			try {
+				drain();
+
+			} catch (IOException ex) {
+				log.log(Level.WARNING, "Cannot write file: " + file.getAbsolutePath() + ": " + ex.toString(), ex);
+			}
+		}
+	}
+
+	/**
+	 * Write the buffered records and close the file.
+	 */
+	public synchronized void close() {
+		if (!closed) {
+			flush();
+			closed = true;
+			try {
+				raf.close();
+
+			} catch (IOException ex) {
+				// this logging will probably not be written in the shutdown hook
+				log.log(Level.WARNING, "Cannot close file: " + file.getAbsolutePath() + ": " + ex.toString(), ex);
+			}
+			if (Thread.currentThread() != hook) {
+				try {
+					Runtime.getRuntime().removeShutdownHook(hook);
+				} catch (IllegalStateException ex) {
+					// the program is ending: the hook runs anyway
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param type the column type.
+	 * @return the number of bytes of a column value.
+	 */
+	static int columnSize(int type) {
+		switch (type) {
+		case TYPE_TIMESTAMP:
+			return 8;
+		case TYPE_INT:
+		case TYPE_FLOAT:
+			return 4;
+		default:
+			throw new RuntimeException("Invalid column type: " + type);
+		}
+	}
+
+	/**
+	 * check the column type.
+	 */
+	private void checkType(int column, int type) {
+		if (types[column] != type) {
+			throw new RuntimeException("Invalid type of column " + column + ": " + types[column]);
+		}
+	}
+
+	/**
+	 * write the buffer to the channel.
+	 */
+	private void drain() throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+		buf.clear();
+	}
+}
@@ -0,0 +1,194 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+import lejos.hardware.lcd.Font;
+
+/**
+ * The texts drawn at the pixel locations of the LCD.
+ * Remembers the characters, font, and color of up to MAX_FIELDS texts, so that
+ * a new text at the same location only needs to redraw the characters that
+ * differ. A text field must be forgotten when anything else is drawn over it;
+ * when there are more than MAX_FIELDS texts the least recently drawn one is
+ * forgotten.
+ *
+ * @author Roland Blochberger
+ */
+class TextCache {
+
+	/** the maximum number of text fields */
+	static final int MAX_FIELDS = 16;
+	/** the maximum number of characters of a text field */
+	static final int MAX_LENGTH = 32;
+
+	// x, y, width, height per field
+	private final int[] rects = new int[MAX_FIELDS * 4];
+	private final Font[] fonts = new Font[MAX_FIELDS];
+	private final boolean[] colors = new boolean[MAX_FIELDS];
+	private final char[][] texts = new char[MAX_FIELDS][MAX_LENGTH];
+	private final int[] lengths = new int[MAX_FIELDS];
+	// the drawing clock of the last use per field
+	private final long[] used = new long[MAX_FIELDS];
+	private long clock = 0L;
+	private int count = 0;
+
+	/**
+	 * @param x the x-coordinate of the upper left corner.
+	 * @param y the y-coordinate of the upper left corner.
+	 * @return the text field at the location; or -1 if none.
+	 */
+	int find(int x, int y) {
+		for (int i = 0; i < count; i++) {
+			if ((rects[i * 4] == x) && (rects[i * 4 + 1] == y)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the font of the text field.
+	 */
+	Font getFont(int field) {
+		return fonts[field];
+	}
+
+	/**
+	 * @return the color of the text field.
+	 */
+	boolean getColor(int field) {
+		return colors[field];
+	}
+
+	/**
+	 * @return the characters of the text field.
+	 */
+	char[] getChars(int field) {
+		return texts[field];
+	}
+
+	/**
+	 * @return the number of characters of the text field.
+	 */
+	int getLength(int field) {
+		return lengths[field];
+	}
+
+	/**
+	 * @return the width of the text field in pixels.
+	 */
+	int getWidth(int field) {
+		return rects[field * 4 + 2];
+	}
+
+	/**
+	 * @return the height of the text field in pixels.
+	 */
+	int getHeight(int field) {
+		return rects[field * 4 + 3];
+	}
+
+	/**
+	 * Remember a drawn text; replaces the text field at the same location. A
+	 * text longer than MAX_LENGTH characters is not remembered.
+	 *
+	 * @param x      the x-coordinate of the upper left corner.
+	 * @param y      the y-coordinate of the upper left corner.
+	 * @param font   the font.
+	 * @param color  the text color.
+	 * @param text   the characters.
+	 * @param length the number of characters.
+	 */
+	void put(int x, int y, Font font, boolean color, char[] text, int length) {
+		int field = find(x, y);
+		if (length > MAX_LENGTH) {
+			if (field >= 0) {
+				remove(field);
+			}
+			return;
+		}
+		if (field < 0) {
+			if (count == MAX_FIELDS) {
+				// forget the least recently drawn text
+				field = 0;
+				for (int i = 1; i < count; i++) {
+					if (used[i] < used[field]) {
+						field = i;
+					}
+				}
+			} else {
+				field = count++;
+			}
+		}
+		int i = field * 4;
+		rects[i] = x;
+		rects[i + 1] = y;
+		rects[i + 2] = length * font.width;
+		rects[i + 3] = font.height;
+		fonts[field] = font;
+		colors[field] = color;
+		System.arraycopy(text, 0, texts[field], 0, length);
+		lengths[field] = length;
+		used[field] = ++clock;
+	}
+
+	/**
+	 * Forget the text fields that overlap a rectangle.
+	 *
+	 * @param x          the x-coordinate of the upper left corner.
+	 * @param y          the y-coordinate of the upper left corner.
+	 * @param w          the width.
+	 * @param h          the height.
+	 * @param keepOrigin set true to keep the text field at the upper left corner
+	 *                   of the rectangle.
+	 */
+	void invalidate(int x, int y, int w, int h, boolean keepOrigin) {
+		for (int i = count - 1; i >= 0; i--) {
+			int j = i * 4;
+			if (keepOrigin && (rects[j] == x) && (rects[j + 1] == y)) {
+				continue;
+			}
+			if ((rects[j] < x + w) && (x < rects[j] + rects[j + 2]) && (rects[j + 1] < y + h)
+					&& (y < rects[j + 1] + rects[j + 3])) {
+				remove(i);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of text fields.
+	 */
+	int getCount() {
+		return count;
+	}
+
+	/**
+	 * Forget all text fields.
+	 */
+	void clear() {
+		for (int i = 0; i < count; i++) {
+			fonts[i] = null;
+		}
+		count = 0;
+	}
+
+	/**
+	 * remove a text field; the last one takes its place.
+	 */
+	private void remove(int field) {
+		int last = count - 1;
+		if (field != last) {
+			System.arraycopy(rects, last * 4, rects, field * 4, 4);
+			fonts[field] = fonts[last];
+			colors[field] = colors[last];
+			char[] chars = texts[field];
+			texts[field] = texts[last];
+			texts[last] = chars;
+			lengths[field] = lengths[last];
+			used[field] = used[last];
+		}
+		fonts[last] = null;
+		count = last;
+	}
+}
@@ -3,11 +3,19 @@
  */
 package le2lejosev3.pblocks;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
 /**
  * Timer Block
- * 
+ *
+ * The timers are based on System.nanoTime(), i.e. they are monotonic (not
+ * affected by changes of the wall clock) and measure with sub-millisecond
+ * precision. Besides the numbered timers of the EV3 there are any number of
+ * numbered and named timers. The state of a timer is a single volatile value,
+ * so parallel tasks can share timers without locking.
+ *
  * @author Roland Blochberger
  * @see https://ev3-help-online.api.education.lego.com/Education/en-us/page.html?Path=blocks%2FLEGO%2FTimer.html
  */
@@ -15,46 +23,157 @@ public class Timer {
 
 	private static final Logger log = Logger.getLogger(Timer.class.getName());
 
-	// the number of timers available (the EV3 supports 8 timers)
+	// the number of preallocated timers (the EV3 supports 8 timers)
 	private static final int count = 8;
-	// the timer start values
-	private static long[] startValues = new long[count];
+	// the beginning of the program
+	private static final long programStart = System.nanoTime();
+	// the preallocated timers 1..8
+	private static final Timer[] timers = new Timer[count];
 	static {
-		// initialize the start values
-		long start = System.currentTimeMillis();
 		for (int i = 0; i < count; i++) {
-			startValues[i] = start;
+			timers[i] = new Timer(programStart);
 		}
 	}
+	// the timers with higher numbers and the named timers; created on first use
+	private static final ConcurrentMap<Integer, Timer> numbered = new ConcurrentHashMap<Integer, Timer>();
+	private static final ConcurrentMap<String, Timer> named = new ConcurrentHashMap<String, Timer>();
+
+	// the System.nanoTime() of the last reset
+	private volatile long start;
+
+	/**
+	 * Constructor.
+	 * Creates a timer that starts timing immediately.
+	 */
+	public Timer() {
+		this(System.nanoTime());
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param start the System.nanoTime() to measure from.
+	 */
+	private Timer(long start) {
+		this.start = start;
+	}
 
 	/**
 	 * measure the elapsed time.
-	 * 
-	 * @param timerID the timer to use; 1..8.
-	 * @return the time since the last reset (or the beginning of the program) in seconds.
+	 *
+	 * @return the time since the last reset (or the creation of the timer) in
+	 *         seconds.
 	 */
-	public static float measure(int timerID) {
-		long stop = System.currentTimeMillis();
+	public float measure() {
+		return (System.nanoTime() - start) / 1000000000F;
+	}
+
+	/**
+	 * measure the elapsed time in nanoseconds.
+	 *
+	 * @return the time since the last reset (or the creation of the timer) in
+	 *         nanoseconds.
+	 */
+	public long measureNanos() {
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Reset the timer. The timer starts timing again immediately.
+	 */
+	public void reset() {
+		start = System.nanoTime();
+	}
+
+	/**
+	 * Return the timer specified by the Timer ID; timers that have never been
+	 * reset measure from the beginning of the program.
+	 *
+	 * @param timerID the timer to use; 1 or higher.
+	 * @return the timer; or null if the timer ID is invalid.
+	 */
+	public static Timer get(int timerID) {
 		if (timerID > 0 && timerID <= count) {
-			return (stop - startValues[timerID - 1]) / 1000F;
+			return timers[timerID - 1];
+
+		} else if (timerID > count) {
+			Integer key = Integer.valueOf(timerID);
+			Timer timer = numbered.get(key);
+			if (timer == null) {
+				timer = new Timer(programStart);
+				Timer other = numbered.putIfAbsent(key, timer);
+				if (other != null) {
+					timer = other;
+				}
+			}
+			return timer;
+
 		} else {
 			log.warning("invalid timerID " + timerID);
-			return 0F;
+			return null;
+		}
+	}
+
+	/**
+	 * Return the timer specified by the name; timers that have never been reset
+	 * measure from the beginning of the program.
+	 *
+	 * @param name the timer name.
+	 * @return the timer.
+	 */
+	public static Timer get(String name) {
+		Timer timer = named.get(name);
+		if (timer == null) {
+			timer = new Timer(programStart);
+			Timer other = named.putIfAbsent(name, timer);
+			if (other != null) {
+				timer = other;
+			}
 		}
+		return timer;
+	}
+
+	/**
+	 * measure the elapsed time.
+	 *
+	 * @param timerID the timer to use; 1..8 for the EV3 timers, or higher.
+	 * @return the time since the last reset (or the beginning of the program) in seconds.
+	 */
+	public static float measure(int timerID) {
+		Timer timer = get(timerID);
+		return (timer != null) ? timer.measure() : 0F;
+	}
+
+	/**
+	 * measure the elapsed time.
+	 *
+	 * @param name the timer name.
+	 * @return the time since the last reset (or the beginning of the program) in seconds.
+	 */
+	public static float measure(String name) {
+		return get(name).measure();
 	}
 
 	/**
 	 * Reset the timer specified by the Timer ID. The timer starts timing again
 	 * immediately.
-	 * 
-	 * @param timerID the timer to use; 1..8.
+	 *
+	 * @param timerID the timer to use; 1..8 for the EV3 timers, or higher.
 	 */
 	public static void reset(int timerID) {
-		if (timerID > 0 && timerID <= count) {
-			startValues[timerID - 1] = System.currentTimeMillis();
-
-		} else {
-			log.warning("invalid timerID " + timerID);
+		Timer timer = get(timerID);
+		if (timer != null) {
+			timer.reset();
 		}
 	}
+
+	/**
+	 * Reset the timer specified by the name. The timer starts timing again
+	 * immediately.
+	 *
+	 * @param name the timer name.
+	 */
+	public static void reset(String name) {
+		get(name).reset();
+	}
 }
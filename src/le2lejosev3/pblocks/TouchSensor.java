@@ -3,9 +3,7 @@
  */
 package le2lejosev3.pblocks;
 
-import lejos.hardware.Button;
 import lejos.hardware.port.Port;
-import lejos.hardware.sensor.EV3TouchSensor;
 import lejos.robotics.SampleProvider;
 
 /**
@@ -24,13 +22,20 @@ public class TouchSensor {
 	public static final int BUMPED = 2;
 
 	private Port sensorPort = null;
-	private EV3TouchSensor sensor = null;
+	private ISensorDevice sensor = null;
 	private SampleProvider sp = null;
 	private float[] sample = null;
+	private SensorSampler sampler = null;
+	private SensorSnapshot snapshot = null;
 
 	// bumped status detection
 	private boolean ostate = false;
 	private boolean bumped = false;
+	// the release count of the sampler snapshot at the last BUMPED comparison
+	private int releases = 0;
+
+	/** the mode of the EV3TouchSensor */
+	private static final int TOUCH_MODE = 0;
 
 	/**
 	 * Constructor.
@@ -39,7 +44,7 @@ public class TouchSensor {
 	 */
 	public TouchSensor(Port sensorPort) {
 		this.sensorPort = sensorPort;
-		sensor = new EV3TouchSensor(this.sensorPort);
+		sensor = Hardware.get().openTouchSensor(this.sensorPort);
 		if (sensor != null) {
 			// handle resources correctly before exiting
 			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
@@ -49,17 +54,38 @@ public class TouchSensor {
 				}
 			}));
 			// setup touch mode and prepare sample array
-			sp = sensor.getTouchMode();
+			sp = sensor.getMode(TOUCH_MODE);
 			sample = new float[sp.sampleSize()];
 		}
 	}
 
+	/**
+	 * Let the specified background sampler poll the sensor; measureState() then
+	 * returns the latest polled state.
+	 * 
+	 * @param sampler the sampler, or null to fetch each sample again.
+	 */
+	public void setSampler(SensorSampler sampler) {
+		if (snapshot != null) {
+			this.sampler.unregister(snapshot);
+			snapshot = null;
+		}
+		this.sampler = sampler;
+		if (sampler != null) {
+			snapshot = sampler.register(sensor, sp);
+			releases = snapshot.getReleaseCount();
+		}
+	}
+
 	/**
 	 * Fetch and return a sample from the sensor.
 	 * 
 	 * @return true if the Touch sensor is currently pressed in; or false if not.
 	 */
 	public boolean measureState() {
+		if (snapshot != null) {
+			return (snapshot.getValue(0) != 0F);
+		}
 		sp.fetchSample(sample, 0);
 		return (sample[0] != 0F);
 	}
@@ -75,9 +101,43 @@ public class TouchSensor {
 	 *         otherwise.
 	 */
 	public boolean compareState(int state) {
-		boolean result = false;
+		if ((state == BUMPED) && (snapshot != null)) {
+			return compareBumped(snapshot);
+		}
 		// get current state of sensor
-		boolean currstate = measureState();
+		return compareState(state, measureState());
+	}
+
+	/**
+	 * Compare the sensor state to BUMPED with the releases counted by the
+	 * sampler, so that a press and release between two comparisons is not
+	 * lost.
+	 * 
+	 * @param snap the sampler snapshot of the sensor.
+	 * @return true if the button has been pressed and released since the last
+	 *         comparison; false otherwise.
+	 */
+	private boolean compareBumped(SensorSnapshot snap) {
+		int n = snap.getReleaseCount();
+		boolean released = (n != releases);
+		releases = n;
+		// update the old state in any case
+		boolean result = compareState(BUMPED, (snap.getValue(0) != 0F));
+		bumped = result || released;
+		return bumped;
+	}
+
+	/**
+	 * Compare the sensor state.
+	 * 
+	 * @param state     the sensor state to compare to; one of RELEASED, PRESSED, or
+	 *                  BUMPED.
+	 * @param currstate the current state of the sensor.
+	 * @return true if the the sensor state matches the specified one; false
+	 *         otherwise.
+	 */
+	private boolean compareState(int state, boolean currstate) {
+		boolean result = false;
 		// check result
 		switch (state) {
 		case RELEASED:
@@ -103,30 +163,37 @@ public class TouchSensor {
 
 	/**
 	 * Wait and compare sensor state.
+	 * The waiting thread sleeps until the sampler (the one set with setSampler()
+	 * or the default one) reports a change of the sensor state or of the Escape
+	 * button.
 	 * 
 	 * @param state the sensor state to compare to; one of RELEASED, PRESSED, or
 	 *              BUMPED.
 	 * @return true if compare successful; false otherwise (e.g. on Escape button
 	 *         pressed).
 	 */
-	public boolean waitCompareState(int state) {
-		boolean result = false;
-		while (Button.ESCAPE.isUp()) {
-			result = false;
-			// short delay util next sample
-			try {
-				Thread.sleep(2L);
-			} catch (InterruptedException e) {
-				// leave loop
-				break;
-			}
-			// get current state of sensor
-			result = compareState(state);
-			// leave wait loop if compare is successful
-			if (result) {
-				break;
+	public boolean waitCompareState(final int state) {
+		// use the own sampler or register with the default one while waiting
+		SensorSampler waitSampler = (snapshot != null) ? sampler : SensorSampler.getDefault();
+		final SensorSnapshot waitSnapshot = (snapshot != null) ? snapshot : waitSampler.register(sensor, sp);
+		if (waitSnapshot != snapshot) {
+			// count the releases from now on
+			releases = waitSnapshot.getReleaseCount();
+		}
+		try {
+			return waitSampler.await(new ISensorCondition() {
+				@Override
+				public boolean matches() {
+					if (state == BUMPED) {
+						return compareBumped(waitSnapshot);
+					}
+					return compareState(state, (waitSnapshot.getValue(0) != 0F));
+				}
+			});
+		} finally {
+			if (waitSnapshot != snapshot) {
+				waitSampler.unregister(waitSnapshot);
 			}
 		}
-		return result;
 	}
 }
@@ -6,7 +6,6 @@ package le2lejosev3.pblocks;
 //import java.util.logging.Logger;
 
 import lejos.hardware.port.Port;
-import lejos.hardware.sensor.EV3UltrasonicSensor;
 import lejos.robotics.SampleProvider;
 
 /**
@@ -20,48 +19,98 @@ public class UltrasonicSensor {
 	//private static final Logger log = Logger.getLogger(UltrasonicSensor.class.getName());
 
 	private Port sensorPort = null;
-	private EV3UltrasonicSensor sensor = null;
+	private ISensorDevice sensor = null;
 	private SampleProvider sp = null;
+	private int spMode = -1;
 	private float[] sample = null;
+	private SensorSampler sampler = null;
+	private SensorSnapshot snapshot = null;
+	private int snapshotMode = -1;
 
 	/** the modes of the EV3UltrasonicSensor */
 	private static final int DISTANCE_MODE = 0;
-	private static final int LISTEN_MODE = 2;
+	private static final int LISTEN_MODE = 1;
 
 	/**
 	 * @param sensorPort
 	 */
 	public UltrasonicSensor(Port sensorPort) {
 		this.sensorPort = sensorPort;
-		sensor = new EV3UltrasonicSensor(this.sensorPort);
+		sensor = Hardware.get().openUltrasonicSensor(this.sensorPort);
 		if (sensor != null) {
 			// handle resources correctly before exiting
 			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
 				public void run() {
-					// switch off the indicator led
-					sensor.disable();
-					// close resources
+					// close resources (switches off the indicator led)
 					sensor.close();
 				}
 			}));
 		}
 	}
 
+	/**
+	 * Let the specified background sampler poll the sensor; the measure methods
+	 * then return the latest polled value. The sampler polls the mode of the
+	 * latest measurement (initially the distance), so that the sensor only
+	 * switches its mode when the program measures another mode.
+	 * 
+	 * @param sampler the sampler, or null to fetch each sample again.
+	 */
+	public void setSampler(SensorSampler sampler) {
+		synchronized (sensor) {
+			if (snapshot != null) {
+				this.sampler.unregister(snapshot);
+				snapshot = null;
+				snapshotMode = -1;
+			}
+			// the sampler may have switched the mode
+			spMode = -1;
+			this.sampler = sampler;
+			if (sampler != null) {
+				sampled(DISTANCE_MODE);
+			}
+		}
+	}
+
+	/**
+	 * Return the snapshot of the sampler for the specified mode; if the sampler
+	 * polls another mode it is moved to the specified one.
+	 * 
+	 * @param mode the sensor mode.
+	 * @return the snapshot holding the latest sample of the mode.
+	 */
+	private SensorSnapshot sampled(int mode) {
+		if (snapshotMode != mode) {
+			if (snapshot != null) {
+				sampler.unregister(snapshot);
+			}
+			snapshot = sampler.register(sensor, sensor.getMode(mode));
+			snapshotMode = mode;
+		}
+		return snapshot;
+	}
+
 	/**
 	 * Measure the distance from the sensor in centimeters.
 	 * 
 	 * @return the distance in centimeters (0..255).
 	 */
 	public float measureDistanceCentimeters() {
-		if ((sensor.getCurrentMode() != DISTANCE_MODE) || (sp == null)) {
-			// switch to distance mode
-			sensor.enable();
-			sp = sensor.getDistanceMode();
-			sample = new float[sp.sampleSize()];
-			// wait a little bit
-			// Thread.sleep(SWITCHDELAY);
+		synchronized (sensor) {
+			if (sampler != null) {
+				// convert meters to centimeters
+				return sampled(DISTANCE_MODE).getValue(0) * 100F;
+			}
+			if ((spMode != DISTANCE_MODE) || (sp == null)) {
+				// switch to distance mode
+				sp = sensor.getMode(DISTANCE_MODE);
+				spMode = DISTANCE_MODE;
+				sample = new float[sp.sampleSize()];
+				// wait a little bit
+				// Thread.sleep(SWITCHDELAY);
+			}
+			sp.fetchSample(sample, 0);
 		}
-		sp.fetchSample(sample, 0);
 		// convert meters to centimeters
 		sample[0] *= 100F;
 		return sample[0];
@@ -82,15 +131,20 @@ public class UltrasonicSensor {
 	 * @return true if presence detected; false otherwise.
 	 */
 	public boolean measurePresence() {
-		if ((sensor.getCurrentMode() != LISTEN_MODE) || (sp == null)) {
-			// switch to presence/listen mode
-			sensor.enable();
-			sp = sensor.getListenMode();
-			sample = new float[sp.sampleSize()];
-			// wait a little bit
-			// Thread.sleep(SWITCHDELAY);
+		synchronized (sensor) {
+			if (sampler != null) {
+				return (sampled(LISTEN_MODE).getValue(0) != 0);
+			}
+			if ((spMode != LISTEN_MODE) || (sp == null)) {
+				// switch to presence/listen mode
+				sp = sensor.getMode(LISTEN_MODE);
+				spMode = LISTEN_MODE;
+				sample = new float[sp.sampleSize()];
+				// wait a little bit
+				// Thread.sleep(SWITCHDELAY);
+			}
+			sp.fetchSample(sample, 0);
 		}
-		sp.fetchSample(sample, 0);
 		return (sample[0] != 0);
 	}
 }
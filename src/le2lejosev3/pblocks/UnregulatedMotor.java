@@ -6,8 +6,6 @@ package le2lejosev3.pblocks;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import lejos.hardware.Button;
-import lejos.hardware.ev3.LocalEV3;
 import lejos.hardware.port.Port;
 import lejos.utility.Delay;
 
@@ -24,8 +22,8 @@ public class UnregulatedMotor implements IMotor {
 
 	// the motor port
 	protected Port motorPort;
-	// the unregulated motor instance
-	protected lejos.hardware.motor.UnregulatedMotor motor = null;
+	// the unregulated motor device
+	protected IUnregulatedMotorDevice motor = null;
 
 	// motor blocking timeout in degrees or rotations mode
 	protected static final int BLOCK_TIMEOUT = 500;
@@ -48,7 +46,7 @@ public class UnregulatedMotor implements IMotor {
 		// store motor port
 		this.motorPort = motorPort;
 		// instantiate the motor object
-		motor = new lejos.hardware.motor.UnregulatedMotor(this.motorPort);
+		motor = Hardware.get().openUnregulatedMotor(this.motorPort);
 		if (motor != null) {
 			// handle resources correctly before exiting
 			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
@@ -80,7 +78,7 @@ public class UnregulatedMotor implements IMotor {
 	/**
 	 * @return the motor
 	 */
-	lejos.hardware.motor.UnregulatedMotor getMotor() {
+	IUnregulatedMotorDevice getMotor() {
 		return motor;
 	}
 
@@ -358,7 +356,8 @@ public class UnregulatedMotor implements IMotor {
 			long motct = mstct; // old timestamp
 			int pdg = degrs; // pending degrees
 
-			while (Button.ESCAPE.isUp()) {
+			IHardware hardware = Hardware.get();
+			while (!hardware.isEscapeDown()) {
 				// get current degrees
 				mtc = motor.getTachoCount();
 				// and the current timestamp
@@ -506,7 +505,7 @@ public class UnregulatedMotor implements IMotor {
 		// 100 degree/second * Voltage. We generalise this to other LEGO motors by
 		// returning a value
 		// that is based on 90% of the maximum free running speed of the motor.
-		return LocalEV3.ev3.getPower().getVoltage() * MAX_SPEED_AT_9V / 9.0f * 0.9f;
+		return Hardware.get().getBatteryVoltage() * MAX_SPEED_AT_9V / 9.0f * 0.9f;
 	}
 
 	/**
@@ -0,0 +1,305 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the numbers parsed from the lines of text files.
+ * The entries are kept in primitive arrays: a hash table with chained
+ * buckets and a doubly linked list in the order of use, so that the least
+ * recently used entry is evicted when the cache is full. Nothing is allocated
+ * per lookup or entry.
+ * 
+ * The entries of a file are keyed by a file id that changes when the file is
+ * invalidated, i.e. when FileAccess writes or deletes it, or when its
+ * modification time or size changes; the old entries are then never found
+ * again and get evicted. The modification time and size are checked at most
+ * once per check period, as checking them costs about as much as reading the
+ * line.
+ * 
+ * @author Roland Blochberger
+ */
+class ValueCache {
+
+	/** the kinds of the values */
+	static final int KIND_INT = 0;
+	static final int KIND_FLOAT = 1;
+
+	/** the result of get() if the value is not cached */
+	static final long MISS = Long.MIN_VALUE;
+
+	// the end of a list
+	private static final int NONE = -1;
+
+	/**
+	 * The state of a file.
+	 */
+	private static class Stamp {
+		final File dir;
+		final File file;
+		int id;
+		long modified;
+		long length;
+		// the System.nanoTime() of the last check
+		long checked;
+
+		Stamp(File dir, File file) {
+			this.dir = dir;
+			this.file = file;
+		}
+	}
+
+	private final int capacity;
+	private final long checkPeriodNs;
+	// the entries
+	private final long[] keys;
+	private final int[] values;
+	// the next entry in the same bucket
+	private final int[] chain;
+	// the list in the order of use; head is the most recently used entry
+	private final int[] prev;
+	private final int[] next;
+	private int head = NONE;
+	private int tail = NONE;
+	private int size = 0;
+	// the first entry of each bucket
+	private final int[] buckets;
+	private final int mask;
+
+	// the state of the files by file name
+	private final Map<String, Stamp> stamps = new HashMap<String, Stamp>();
+	private int nextId = 0;
+
+	// the counters
+	private long hits = 0L;
+	private long misses = 0L;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param capacity    the maximum number of cached values.
+	 * @param checkPeriod the check period of the file modification time and
+	 *                    size in milliseconds; or 0 to check them on every
+	 *                    lookup.
+	 */
+	ValueCache(int capacity, long checkPeriod) {
+		this.capacity = capacity;
+		this.checkPeriodNs = checkPeriod * 1000000L;
+		keys = new long[capacity];
+		values = new int[capacity];
+		chain = new int[capacity];
+		prev = new int[capacity];
+		next = new int[capacity];
+		int n = Integer.highestOneBit(Math.max(capacity, 8) - 1) << 2;
+		buckets = new int[n];
+		mask = n - 1;
+		clear();
+	}
+
+	/**
+	 * Check the modification time and size of the file and invalidate its
+	 * values if they changed.
+	 * 
+	 * @param filename the file name only; you can omit the DEFAULT_EXT.
+	 * @param dir      the directory of the file.
+	 * @return the current id of the file.
+	 */
+	synchronized int check(String filename, File dir) {
+		long now = System.nanoTime();
+		Stamp stamp = stamps.get(filename);
+		if ((stamp != null) && (now - stamp.checked < checkPeriodNs) && (stamp.dir == dir)) {
+			// checked recently
+			return stamp.id;
+		}
+		if ((stamp == null) || !stamp.dir.equals(dir)) {
+			stamp = new Stamp(dir, new File(dir, FileAccess.appendExt(filename)));
+			stamp.id = nextId++;
+			stamp.modified = stamp.file.lastModified();
+			stamp.length = stamp.file.length();
+			stamps.put(filename, stamp);
+
+		} else {
+			long modified = stamp.file.lastModified();
+			long length = stamp.file.length();
+			if ((modified != stamp.modified) || (length != stamp.length)) {
+				stamp.id = nextId++;
+				stamp.modified = modified;
+				stamp.length = length;
+			}
+		}
+		stamp.checked = now;
+		return stamp.id;
+	}
+
+	/**
+	 * Invalidate the values of the file.
+	 * 
+	 * @param filename the file name only; you can omit the DEFAULT_EXT.
+	 */
+	synchronized void invalidate(String filename) {
+		Stamp stamp = stamps.get(filename);
+		if (stamp != null) {
+			// check the modification time and size again next time
+			stamp.id = nextId++;
+			stamp.modified = -1L;
+			stamp.checked = stamp.checked - checkPeriodNs;
+		}
+	}
+
+	/**
+	 * Get a cached value.
+	 * 
+	 * @param fileId the file id from check().
+	 * @param line   the line number.
+	 * @param kind   the kind of the value; KIND_INT or KIND_FLOAT.
+	 * @return the int value or the float bits; or MISS.
+	 */
+	synchronized long get(int fileId, int line, int kind) {
+		long key = key(fileId, line, kind);
+		for (int e = buckets[hash(key)]; e != NONE; e = chain[e]) {
+			if (keys[e] == key) {
+				hits++;
+				if (e != head) {
+					unlink(e);
+					linkFirst(e);
+				}
+				return values[e];
+			}
+		}
+		misses++;
+		return MISS;
+	}
+
+	/**
+	 * Cache a value; evict the least recently used one if the cache is full.
+	 * 
+	 * @param fileId the file id from check().
+	 * @param line   the line number.
+	 * @param kind   the kind of the value; KIND_INT or KIND_FLOAT.
+	 * @param value  the int value or the float bits.
+	 */
+	synchronized void put(int fileId, int line, int kind, int value) {
+		long key = key(fileId, line, kind);
+		int b = hash(key);
+		for (int e = buckets[b]; e != NONE; e = chain[e]) {
+			if (keys[e] == key) {
+				values[e] = value;
+				return;
+			}
+		}
+		int e;
+		if (size < capacity) {
+			e = size++;
+		} else {
+			// evict the least recently used entry
+			e = tail;
+			unlink(e);
+			removeFromBucket(e);
+		}
+		keys[e] = key;
+		values[e] = value;
+		chain[e] = buckets[b];
+		buckets[b] = e;
+		linkFirst(e);
+	}
+
+	/**
+	 * Remove all values and file states.
+	 */
+	synchronized void clear() {
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = NONE;
+		}
+		head = NONE;
+		tail = NONE;
+		size = 0;
+		stamps.clear();
+	}
+
+	/**
+	 * @return the number of values found in the cache.
+	 */
+	synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of values not found in the cache.
+	 */
+	synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of cached values.
+	 */
+	synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return the key of a value.
+	 */
+	private static long key(int fileId, int line, int kind) {
+		return ((long) fileId << 33) | ((long) line << 1) | kind;
+	}
+
+	/**
+	 * @return the bucket of a key.
+	 */
+	private int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 32) & mask;
+	}
+
+	/**
+	 * remove the entry from its bucket.
+	 */
+	private void removeFromBucket(int e) {
+		int b = hash(keys[e]);
+		if (buckets[b] == e) {
+			buckets[b] = chain[e];
+		} else {
+			int p = buckets[b];
+			while (chain[p] != e) {
+				p = chain[p];
+			}
+			chain[p] = chain[e];
+		}
+	}
+
+	/**
+	 * remove the entry from the list of use.
+	 */
+	private void unlink(int e) {
+		if (prev[e] != NONE) {
+			next[prev[e]] = next[e];
+		} else {
+			head = next[e];
+		}
+		if (next[e] != NONE) {
+			prev[next[e]] = prev[e];
+		} else {
+			tail = prev[e];
+		}
+	}
+
+	/**
+	 * insert the entry at the head of the list of use.
+	 */
+	private void linkFirst(int e) {
+		prev[e] = NONE;
+		next[e] = head;
+		if (head != NONE) {
+			prev[head] = e;
+		}
+		head = e;
+		if (tail == NONE) {
+			tail = e;
+		}
+	}
+}
@@ -3,6 +3,8 @@
  */
 package le2lejosev3.pblocks;
 
+import java.util.concurrent.locks.LockSupport;
+
 import lejos.utility.Delay;
 
 /**
@@ -45,4 +47,184 @@ public class Wait {
 		return System.currentTimeMillis() - ts;
 	}
 
+	/**
+	 * Fixed rate loop helper.
+	 * Waits until absolute System.nanoTime() deadlines that are one period apart,
+	 * so that the loop does not drift no matter how long the loop body takes
+	 * (as long as it is shorter than a period). The thread sleeps until shortly
+	 * before the deadline and spins only for the final part. Not thread safe;
+	 * each loop uses its own Rate.
+	 * 
+	 * Usage:
+	 * 
+	 * <pre>
+	 * Wait.Rate rate = new Wait.Rate(100F);
+	 * while (rate.waitNext()) {
+	 * 	// loop body
+	 * }
+	 * </pre>
+	 */
+	public static class Rate {
+
+		/** the default time in nanoseconds to spin before a deadline */
+		public static final long DEFAULT_SPIN_NANOS = 500000L;
+
+		private final long periodNs;
+		private long spinNs = DEFAULT_SPIN_NANOS;
+		// the next deadline
+		private long deadline;
+		// statistics
+		private long cycles = 0L;
+		private long overruns = 0L;
+		private long skipped = 0L;
+		private long maxJitter = 0L;
+		private double sumJitter = 0.0;
+		private double sumJitterSq = 0.0;
+
+		/**
+		 * Constructor.
+		 * The first deadline is one period from now.
+		 * 
+		 * @param frequency the loop rate in cycles per second (> 0).
+		 */
+		public Rate(float frequency) {
+			if (frequency > 0F) {
+				periodNs = (long) (1000000000.0 / frequency);
+				restart();
+			} else {
+				throw new RuntimeException("Invalid frequency: " + frequency);
+			}
+		}
+
+		/**
+		 * Set the time to spin before a deadline instead of sleeping.
+		 * 
+		 * @param spinNanos the spin time in nanoseconds (0 to never spin).
+		 */
+		public void setSpinNanos(long spinNanos) {
+			spinNs = Math.max(0L, spinNanos);
+		}
+
+		/**
+		 * Restart the loop; the next deadline is one period from now.
+		 */
+		public void restart() {
+			deadline = System.nanoTime() + periodNs;
+		}
+
+		/**
+		 * Wait until the next deadline. If the deadline has already passed (an
+		 * overrun), return immediately and skip the missed periods, so that the
+		 * following deadlines stay in phase.
+		 * 
+		 * @return true if the deadline has been reached; false if the waiting
+		 *         thread was interrupted (the interrupt status is kept).
+		 */
+		public boolean waitNext() {
+			long now = System.nanoTime();
+			if (now > deadline) {
+				// overrun: skip the missed periods
+				long missed = (now - deadline) / periodNs;
+				overruns++;
+				skipped += missed;
+				deadline += (missed + 1) * periodNs;
+				cycles++;
+				return true;
+			}
+			// sleep until shortly before the deadline
+			// (Thread.sleep() would round the nanoseconds to milliseconds)
+			long sleepNs = deadline - now - spinNs;
+			while (sleepNs > 0L) {
+				LockSupport.parkNanos(sleepNs);
+				if (Thread.currentThread().isInterrupted()) {
+					return false;
+				}
+				sleepNs = deadline - System.nanoTime() - spinNs;
+			}
+			// spin for the rest
+			while ((now = System.nanoTime()) < deadline) {
+				// spin
+			}
+			// statistics
+			long jitter = now - deadline;
+			if (jitter > maxJitter) {
+				maxJitter = jitter;
+			}
+			sumJitter += jitter;
+			sumJitterSq += (double) jitter * jitter;
+			cycles++;
+			deadline += periodNs;
+			return true;
+		}
+
+		/**
+		 * @return the period in nanoseconds.
+		 */
+		public long getPeriodNanos() {
+			return periodNs;
+		}
+
+		/**
+		 * @return the number of waitNext() calls so far.
+		 */
+		public long getCycleCount() {
+			return cycles;
+		}
+
+		/**
+		 * @return the number of waitNext() calls that came after their deadline.
+		 */
+		public long getOverrunCount() {
+			return overruns;
+		}
+
+		/**
+		 * @return the number of periods skipped due to overruns.
+		 */
+		public long getSkippedCount() {
+			return skipped;
+		}
+
+		/**
+		 * @return the maximum lateness of a wake-up in nanoseconds (overruns not
+		 *         included).
+		 */
+		public long getMaxJitterNanos() {
+			return maxJitter;
+		}
+
+		/**
+		 * @return the mean lateness of a wake-up in nanoseconds (overruns not
+		 *         included).
+		 */
+		public double getMeanJitterNanos() {
+			long n = cycles - overruns;
+			return (n > 0L) ? (sumJitter / n) : 0.0;
+		}
+
+		/**
+		 * @return the standard deviation of the lateness of a wake-up in
+		 *         nanoseconds (overruns not included).
+		 */
+		public double getJitterDeviationNanos() {
+			long n = cycles - overruns;
+			if (n > 0L) {
+				double mean = sumJitter / n;
+				return Math.sqrt(Math.max(0.0, (sumJitterSq / n) - (mean * mean)));
+			}
+			return 0.0;
+		}
+
+		/**
+		 * Reset the statistics.
+		 */
+		public void resetStatistics() {
+			cycles = 0L;
+			overruns = 0L;
+			skipped = 0L;
+			maxJitter = 0L;
+			sumJitter = 0.0;
+			sumJitterSq = 0.0;
+		}
+	}
 }
@@ -0,0 +1,303 @@
+/**
+ * Java Implementation of LEGO Mindstorms Programming Blocks
+ */
+package le2lejosev3.pblocks;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reader of the PCM data of a mono 8-bit or 16-bit WAV (RIFF) file or stream.
+ * Parses the header, then returns the bytes of the data chunks; the other
+ * chunks are skipped at once. A file is mapped into memory, so the header and
+ * the chunks are read without copying through stream buffers.
+ *
+ * @author Roland Blochberger
+ */
+class WavReader {
+
+	/** the size of the RIFF header of a PCM WAV file */
+	static final int RIFF_HDR_SIZE = 44;
+
+	private static final int RIFF_RIFF_SIG = 0x52494646;
+	private static final int RIFF_WAVE_SIG = 0x57415645;
+	private static final int RIFF_FMT_SIG = 0x666d7420;
+	private static final int RIFF_DATA_SIG = 0x64617461;
+	private static final int RIFF_FMT_PCM = 1;
+	private static final int RIFF_FMT_1CHAN = 1;
+
+	// the file input
+	private RandomAccessFile raf = null;
+	private MappedByteBuffer map = null;
+	// the stream input
+	private InputStream in = null;
+	// the header fields
+	private final byte[] hdr = new byte[16];
+	private int sampleRate = 0;
+	private int sampleSize = 0;
+	// the bytes left in the current data chunk
+	private int remaining = 0;
+
+	/**
+	 * Open a WAV file and parse its header.
+	 *
+	 * @param file the file.
+	 * @return 0 if the file can be played; or the error code of
+	 *         EV3Audio.playSample() (-9 if the file is too short).
+	 * @throws EOFException if the header is incomplete.
+	 * @throws IOException  on read errors.
+	 */
+	int open(File file) throws IOException {
+		// File must be at least 44 bytes in size to contain a RIFF header.
+		if (file.length() < RIFF_HDR_SIZE) {
+			return -9;
+		}
+		raf = new RandomAccessFile(file, "r");
+		FileChannel channel = raf.getChannel();
+		map = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+		return parseHeader();
+	}
+
+	/**
+	 * Open a WAV stream and parse its header.
+	 *
+	 * @param in the stream; closed by close().
+	 * @return 0 if the stream can be played; or the error code of
+	 *         EV3Audio.playSample().
+	 * @throws EOFException if the header is incomplete.
+	 * @throws IOException  on read errors.
+	 */
+	int open(InputStream in) throws IOException {
+		this.in = in;
+		return parseHeader();
+	}
+
+	/**
+	 * @return the sample rate in samples per second.
+	 */
+	int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * @return the sample size in bits; 8 or 16.
+	 */
+	int getSampleSize() {
+		return sampleSize;
+	}
+
+	/**
+	 * Skip to the next data chunk unless the current one has data left.
+	 *
+	 * @return the number of bytes left in the data chunk; or -1 at the end of the
+	 *         file.
+	 * @throws IOException on read errors.
+	 */
+	int available() throws IOException {
+		return nextData() ? remaining : -1;
+	}
+
+	/**
+	 * Read PCM data; skips the chunks that do not contain PCM data.
+	 *
+	 * @param buf the buffer.
+	 * @param off the offset in the buffer.
+	 * @param len the maximum number of bytes to read.
+	 * @return the number of bytes read; or -1 at the end of the file.
+	 * @throws IOException on read errors.
+	 */
+	int read(byte[] buf, int off, int len) throws IOException {
+		if (!nextData()) {
+			return -1;
+		}
+		int n;
+		if (map != null) {
+			n = Math.min(Math.min(len, remaining), map.remaining());
+			if (n <= 0) {
+				return -1;
+			}
+			map.get(buf, off, n);
+		} else {
+			n = in.read(buf, off, Math.min(len, remaining));
+			if (n < 0) {
+				return -1;
+			}
+		}
+		remaining -= n;
+		return n;
+	}
+
+	/**
+	 * Close the file or stream.
+	 *
+	 * @throws IOException on errors.
+	 */
+	void close() throws IOException {
+		map = null;
+		try {
+			if (raf != null) {
+				raf.close();
+			}
+		} finally {
+			raf = null;
+			if (in != null) {
+				InputStream s = in;
+				in = null;
+				s.close();
+			}
+		}
+	}
+
+	/**
+	 * skip the chunks that do not contain PCM data.
+	 *
+	 * @return true if there is PCM data left; false at the end of the file.
+	 */
+	private boolean nextData() throws IOException {
+		while (remaining <= 0) {
+			// the next chunk
+			if (!readHeader(8, true)) {
+				return false;
+			}
+			int size = getLSBInt(4);
+			if (getInt(0) == RIFF_DATA_SIG) {
+				remaining = size;
+			} else if (!skip(size)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * parse the RIFF header and the format chunk.
+	 *
+	 * @return 0 or the error code.
+	 */
+	private int parseHeader() throws IOException {
+		readHeader(16, false);
+		if (getInt(0) != RIFF_RIFF_SIG) {
+			return -1;
+		}
+		// Check we have a wave file
+		if (getInt(8) != RIFF_WAVE_SIG) {
+			return -2;
+		}
+		if (getInt(12) != RIFF_FMT_SIG) {
+			return -3;
+		}
+		readHeader(8, false);
+		int size = getLSBInt(0);
+		// Now check that the format is PCM, Mono 8 or 16 bits.
+		if (getLSBShort(4) != RIFF_FMT_PCM) {
+			return -4;
+		}
+		if (getLSBShort(6) != RIFF_FMT_1CHAN) {
+			return -5;
+		}
+		// sample rate, byte rate, block align, bits per sample
+		readHeader(12, false);
+		sampleRate = getLSBInt(0);
+		if (sampleRate > 48000) {
+			return -7;
+		}
+		sampleSize = getLSBShort(10);
+		if ((sampleSize != 16) && (sampleSize != 8)) {
+			return -6;
+		}
+		// Skip any data in this chunk after the 16 bytes above
+		skip(size - 16);
+		return 0;
+	}
+
+	/**
+	 * read the next bytes into the header array.
+	 *
+	 * @param len      the number of bytes.
+	 * @param allowEnd set true to return false at the end of the file.
+	 * @return true if the bytes were read; false at the end of the file.
+	 * @throws EOFException at the end of the file unless allowed.
+	 */
+	private boolean readHeader(int len, boolean allowEnd) throws IOException {
+		int n = 0;
+		if (map != null) {
+			n = Math.min(len, map.remaining());
+			map.get(hdr, 0, n);
+		} else {
+			while (n < len) {
+				int read = in.read(hdr, n, len - n);
+				if (read < 0) {
+					break;
+				}
+				n += read;
+			}
+		}
+		if (n < len) {
+			if (allowEnd) {
+				return false;
+			}
+			throw new EOFException();
+		}
+		return true;
+	}
+
+	/**
+	 * skip bytes.
+	 *
+	 * @return false at the end of the file.
+	 */
+	private boolean skip(int len) throws IOException {
+		if (len <= 0) {
+			return true;
+		}
+		if (map != null) {
+			if (len > map.remaining()) {
+				map.position(map.limit());
+				return false;
+			}
+			map.position(map.position() + len);
+			return true;
+		}
+		while (len > 0) {
+			long n = in.skip(len);
+			if (n <= 0L) {
+				// skip() may not detect the end of the stream
+				if (in.read() < 0) {
+					return false;
+				}
+				n = 1L;
+			}
+			len -= (int) n;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the big-endian int at the offset in the header array.
+	 */
+	private int getInt(int off) {
+		return ((hdr[off] & 0xff) << 24) | ((hdr[off + 1] & 0xff) << 16) | ((hdr[off + 2] & 0xff) << 8)
+				| (hdr[off + 3] & 0xff);
+	}
+
+	/**
+	 * @return the little-endian int at the offset in the header array.
+	 */
+	private int getLSBInt(int off) {
+		return (hdr[off] & 0xff) | ((hdr[off + 1] & 0xff) << 8) | ((hdr[off + 2] & 0xff) << 16)
+				| ((hdr[off + 3] & 0xff) << 24);
+	}
+
+	/**
+	 * @return the little-endian unsigned short at the offset in the header
+	 *         array.
+	 */
+	private int getLSBShort(int off) {
+		return (hdr[off] & 0xff) | ((hdr[off + 1] & 0xff) << 8);
+	}
+}
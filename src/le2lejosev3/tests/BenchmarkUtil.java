@@ -0,0 +1,176 @@
+/**
+ * 
+ */
+package le2lejosev3.tests;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Reusable micro benchmark harness.
+ * Runs an operation in warmup and measurement rounds and reports the median
+ * and minimum time per operation and the allocated bytes per operation (if the
+ * JVM can measure them). The results of the operations go into a volatile sink
+ * so that the JIT compiler cannot eliminate them as dead code.
+ * 
+ * @author Roland Blochberger
+ */
+class BenchmarkUtil {
+
+	private static final Logger log = Logger.getLogger(BenchmarkUtil.class.getName());
+
+	/** the default number of warmup and measurement rounds */
+	static final int WARMUP_ROUNDS = 5;
+	static final int MEASURE_ROUNDS = 10;
+
+	/** sink for the operation results */
+	static volatile long sink = 0L;
+
+	// the thread allocation counter (HotSpot only); or null if not available
+	private static Object threadBean = null;
+	private static Method allocatedBytes = null;
+	// the bytes allocated by reading the allocation counter itself
+	private static long allocOverhead = 0L;
+	static {
+		try {
+			Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+			Object bean = ManagementFactory.getThreadMXBean();
+			if (beanClass.isInstance(bean)) {
+				beanClass.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(bean, true);
+				threadBean = bean;
+				allocatedBytes = beanClass.getMethod("getThreadAllocatedBytes", long.class);
+				// calibrate the overhead of reading the counter
+				long overhead = Long.MAX_VALUE;
+				for (int i = 0; i < 100; i++) {
+					long a0 = allocatedBytes();
+					long a1 = allocatedBytes();
+					overhead = Math.min(overhead, a1 - a0);
+				}
+				allocOverhead = overhead;
+			}
+		} catch (Throwable t) {
+			// allocation measurement not available (e.g. on the EV3 brick)
+			threadBean = null;
+			allocatedBytes = null;
+		}
+	}
+
+	/**
+	 * A benchmarked operation.
+	 */
+	interface Op {
+		/**
+		 * run the operation repeatedly.
+		 * 
+		 * @param count the number of operations to run.
+		 * @return a value depending on the operation results.
+		 */
+		long run(int count);
+	}
+
+	/**
+	 * The result of a benchmark.
+	 */
+	static class Result {
+		final String name;
+		// median and minimum nanoseconds per operation
+		final double nsPerOp;
+		final double minNsPerOp;
+		// median allocated bytes per operation; or < 0 if not available
+		final double bytesPerOp;
+
+		Result(String name, double nsPerOp, double minNsPerOp, double bytesPerOp) {
+			this.name = name;
+			this.nsPerOp = nsPerOp;
+			this.minNsPerOp = minNsPerOp;
+			this.bytesPerOp = bytesPerOp;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-44s %12.1f ns/op (min %12.1f) %10s B/op", name, nsPerOp, minNsPerOp,
+					(bytesPerOp < 0) ? "n/a" : String.format("%.1f", bytesPerOp));
+		}
+	}
+
+	/**
+	 * run a benchmark with the default number of rounds and log its result.
+	 * 
+	 * @param name  the benchmark name.
+	 * @param count the number of operations per round.
+	 * @param op    the operation.
+	 * @return the result.
+	 */
+	static Result measure(String name, int count, Op op) {
+		return measure(name, count, WARMUP_ROUNDS, MEASURE_ROUNDS, op);
+	}
+
+	/**
+	 * run a benchmark and log its result.
+	 * 
+	 * @param name          the benchmark name.
+	 * @param count         the number of operations per round.
+	 * @param warmupRounds  the number of warmup rounds (not measured).
+	 * @param measureRounds the number of measured rounds.
+	 * @param op            the operation.
+	 * @return the result.
+	 */
+	static Result measure(String name, int count, int warmupRounds, int measureRounds, Op op) {
+		// warmup: let the JIT compiler do its work
+		for (int i = 0; i < warmupRounds; i++) {
+			sink += op.run(count);
+		}
+		// measure
+		double[] nsPerOp = new double[measureRounds];
+		double[] bytesPerOp = new double[measureRounds];
+		for (int i = 0; i < measureRounds; i++) {
+			long a0 = allocatedBytes();
+			long t0 = System.nanoTime();
+			long v = op.run(count);
+			long t1 = System.nanoTime();
+			long a1 = allocatedBytes();
+			sink += v;
+			nsPerOp[i] = (double) (t1 - t0) / count;
+			bytesPerOp[i] = (a0 < 0) ? -1.0 : (double) Math.max(0L, a1 - a0 - allocOverhead) / count;
+		}
+		Arrays.sort(nsPerOp);
+		Arrays.sort(bytesPerOp);
+		Result result = new Result(name, nsPerOp[measureRounds / 2], nsPerOp[0], bytesPerOp[measureRounds / 2]);
+		log.info(result.toString());
+		return result;
+	}
+
+	/**
+	 * @return the number of bytes allocated by the current thread so far; or -1
+	 *         if not available.
+	 */
+	static long allocatedBytes() {
+		if (allocatedBytes != null) {
+			try {
+				return ((Long) allocatedBytes.invoke(threadBean, Thread.currentThread().getId())).longValue();
+			} catch (Exception e) {
+				// fall through
+			}
+		}
+		return -1L;
+	}
+
+	/**
+	 * @return the CPU time used by the whole process so far in nanoseconds; or -1
+	 *         if not available.
+	 */
+	static long processCpuTime() {
+		try {
+			Class<?> beanClass = Class.forName("com.sun.management.OperatingSystemMXBean");
+			Object bean = ManagementFactory.getOperatingSystemMXBean();
+			if (beanClass.isInstance(bean)) {
+				return ((Long) beanClass.getMethod("getProcessCpuTime").invoke(bean)).longValue();
+			}
+		} catch (Throwable t) {
+			// fall through
+		}
+		return -1L;
+	}
+}
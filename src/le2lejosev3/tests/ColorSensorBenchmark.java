@@ -0,0 +1,110 @@
+/**
+ * 
+ */
+package le2lejosev3.tests;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.ColorSensor;
+import le2lejosev3.pblocks.Hardware;
+import le2lejosev3.pblocks.SimHardware;
+
+/**
+ * Allocation benchmark of the color sensor measurements.
+ * Checks that the measurements do not allocate any memory in steady state.
+ * (runs against the simulated hardware on an ordinary computer; does not need
+ * an EV3 brick)
+ * 
+ * @author Roland Blochberger
+ */
+public class ColorSensorBenchmark {
+
+	private static Class<?> clazz = ColorSensorBenchmark.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	// number of samples per benchmark round
+	private static final int samplesCount = 100000;
+
+	/**
+	 * Main program entry point.
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for INFO level
+		Setup.log2File(clazz, Level.INFO);
+		log.info("Starting ...");
+
+		// use the simulated hardware before any block is used
+		SimHardware sim = new SimHardware();
+		Hardware.set(sim);
+		final ColorSensor colorSensor = new ColorSensor(null);
+		SimHardware.SimSensor sensor = sim.getSensors().get(0);
+		sensor.setSamples(1, new float[] { 0.1F }, new float[] { 0.5F }, new float[] { 0.9F });
+		sensor.setSamples(3, new float[] { 0.2F }, new float[] { 0.4F });
+
+		BenchmarkUtil.Result[] results = new BenchmarkUtil.Result[] {
+				BenchmarkUtil.measure("measureReflectedLightIntensity", samplesCount, new BenchmarkUtil.Op() {
+					@Override
+					public long run(int count) {
+						long v = 0L;
+						for (int i = 0; i < count; i++) {
+							v += colorSensor.measureReflectedLightIntensity();
+						}
+						return v;
+					}
+				}), BenchmarkUtil.measure("measureReflectedLightIntensityF", samplesCount, new BenchmarkUtil.Op() {
+					@Override
+					public long run(int count) {
+						long v = 0L;
+						for (int i = 0; i < count; i++) {
+							v += Float.floatToIntBits(colorSensor.measureReflectedLightIntensityF());
+						}
+						return v;
+					}
+				}), BenchmarkUtil.measure("measureAmbientLightIntensity", samplesCount, new BenchmarkUtil.Op() {
+					@Override
+					public long run(int count) {
+						long v = 0L;
+						for (int i = 0; i < count; i++) {
+							v += colorSensor.measureAmbientLightIntensity();
+						}
+						return v;
+					}
+				}), BenchmarkUtil.measure("measureAmbientLightIntensityF", samplesCount, new BenchmarkUtil.Op() {
+					@Override
+					public long run(int count) {
+						long v = 0L;
+						for (int i = 0; i < count; i++) {
+							v += Float.floatToIntBits(colorSensor.measureAmbientLightIntensityF());
+						}
+						return v;
+					}
+				}), BenchmarkUtil.measure("alternating modes", samplesCount, new BenchmarkUtil.Op() {
+					@Override
+					public long run(int count) {
+						long v = 0L;
+						for (int i = 0; i < count; i++) {
+							v += ((i & 0x1) == 0) ? colorSensor.measureReflectedLightIntensity()
+									: colorSensor.measureAmbientLightIntensity();
+						}
+						return v;
+					}
+				}) };
+
+		// check the allocation
+		for (BenchmarkUtil.Result result : results) {
+			if (result.bytesPerOp < 0) {
+				log.info(result.name + ": allocation not measurable on this JVM");
+			} else if (result.bytesPerOp > 0.01) {
+				log.warning(result.name + ": FAILED, " + result.bytesPerOp + " bytes per sample");
+			} else {
+				log.info(result.name + ": OK, no allocation per sample");
+			}
+		}
+
+		log.info("The End");
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ * 
+ */
+package le2lejosev3.tests;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.Display;
+import le2lejosev3.pblocks.Hardware;
+import le2lejosev3.pblocks.SimHardware;
+
+/**
+ * Benchmark of the Display immediate and batch modes.
+ * Draws a dashboard of 24 elements per frame and counts the refreshes and the
+ * pixels copied to the screen per frame and the render time per frame; checks
+ * that the batch mode shows the same screen as the immediate mode and all of
+ * the merged changed rectangles.
+ * (runs against the simulated hardware on an ordinary computer; does not need
+ * an EV3 brick)
+ * 
+ * @author Roland Blochberger
+ */
+public class DisplayBenchmark {
+
+	private static Class<?> clazz = DisplayBenchmark.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	// number of frames per measurement
+	private static final int frameCount = 500;
+
+	private static SimHardware.SimLcd lcd = null;
+
+	/**
+	 * Main program entry point.
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for INFO level
+		Setup.log2File(clazz, Level.INFO);
+		log.info("Starting ...");
+
+		// use the simulated hardware before any block is used
+		SimHardware sim = new SimHardware();
+		Hardware.set(sim);
+		lcd = sim.getGraphicsLCD();
+
+		// the same screen in both modes
+		Display.resetScreen();
+		drawFrame(7);
+		int[] immediate = screen();
+		Display.resetScreen();
+		Display.setBatchMode(true);
+		drawFrame(7);
+		boolean hidden = lcd.getPixel(10, 120) == 0;
+		Display.commit();
+		int[] batch = screen();
+		check("not shown before commit", hidden);
+		check("same screen", Arrays.equals(immediate, batch));
+		Display.shapesPoint(false, 5, 5, Display.COLOR_BLACK);
+		Display.setBatchMode(false);
+		check("shown when switched off", lcd.getPixel(5, 5) == 1);
+
+		// a rectangle that touches two others is merged with both of them
+		Display.resetScreen();
+		Display.setBatchMode(true);
+		Display.shapesRectangle(false, 0, 0, 10, 10, true, Display.COLOR_BLACK);
+		Display.shapesRectangle(false, 50, 0, 10, 10, true, Display.COLOR_BLACK);
+		Display.shapesRectangle(false, 5, 0, 50, 5, true, Display.COLOR_BLACK);
+		boolean committed = Display.commit();
+		check("merged rectangles shown", committed && (lcd.getPixel(2, 8) == 1) && (lcd.getPixel(30, 2) == 1)
+				&& (lcd.getPixel(57, 8) == 1));
+		Display.setBatchMode(false);
+
+		// the render time and refreshes per frame
+		measure("immediate", false, 0F, 0L);
+		measure("batch", true, 0F, 0L);
+		// a fast loop with a frame rate limit
+		measure("batch 20fps, frame every 5ms", true, 20F, 5L);
+		measure("immediate, frame every 5ms", false, 0F, 5L);
+		Display.setMaxFrameRate(0F);
+
+		log.info("The End");
+	}
+
+	/**
+	 * draw a dashboard with 24 elements.
+	 */
+	private static void drawFrame(int frame) {
+		// 8 values
+		for (int i = 0; i < 8; i++) {
+			Display.textGrid(frame * (i + 1), false, (i % 2) * 9, i / 2, Display.COLOR_BLACK, Display.FONT_NORMAL);
+		}
+		// 6 bars
+		for (int i = 0; i < 6; i++) {
+			int len = (frame * (i + 3)) % 60;
+			Display.shapesRectangle(false, 0, 80 + i * 7, 60, 5, true, Display.COLOR_WHITE);
+			Display.shapesRectangle(false, 0, 80 + i * 7, len, 5, true, Display.COLOR_BLACK);
+		}
+		// a needle and a point
+		Display.shapesCircle(false, 140, 100, 20, true, Display.COLOR_WHITE);
+		Display.shapesCircle(false, 140, 100, 20, false, Display.COLOR_BLACK);
+		Display.shapesLine(false, 140, 100, 140 + (frame % 20) - 10, 85, Display.COLOR_BLACK);
+		Display.shapesPoint(false, 140, 100, Display.COLOR_BLACK);
+	}
+
+	/**
+	 * measure the frames.
+	 */
+	private static void measure(String name, boolean batch, float fps, long framePeriod) {
+		Display.setBatchMode(batch);
+		Display.setMaxFrameRate(fps);
+		// warm up
+		for (int i = 0; i < frameCount; i++) {
+			drawFrame(i);
+			Display.commit();
+		}
+		lcd.resetCounters();
+		long commits = Display.getCommitCount();
+		long render = 0L;
+		long t0 = System.nanoTime();
+		for (int i = 0; i < frameCount; i++) {
+			long t = System.nanoTime();
+			drawFrame(i);
+			Display.commit();
+			render += System.nanoTime() - t;
+			if (framePeriod > 0L) {
+				sleep(framePeriod);
+			}
+		}
+		long elapsed = System.nanoTime() - t0;
+		Display.setBatchMode(false);
+		log.info(String.format("%-30s %7.2f refreshes/frame, %8.0f pixels/frame, %8.1fus render/frame, %5.1f refreshes/s",
+				name, (double) lcd.getRefreshCount() / frameCount, (double) lcd.getRefreshedPixelCount() / frameCount,
+				render / 1000.0 / frameCount, lcd.getRefreshCount() * 1e9 / elapsed));
+		if (batch) {
+			log.info(name + ": " + (Display.getCommitCount() - commits) + " commits for " + frameCount + " frames");
+		}
+	}
+
+	/**
+	 * @return a copy of the screen.
+	 */
+	private static int[] screen() {
+		int[] pixels = new int[Display.LCD_WIDTH * Display.LCD_HEIGHT];
+		for (int y = 0; y < Display.LCD_HEIGHT; y++) {
+			for (int x = 0; x < Display.LCD_WIDTH; x++) {
+				pixels[y * Display.LCD_WIDTH + x] = lcd.getPixel(x, y);
+			}
+		}
+		return pixels;
+	}
+
+	/**
+	 * log a check result.
+	 */
+	private static void check(String name, boolean ok) {
+		if (ok) {
+			log.info(name + ": OK");
+		} else {
+			log.warning(name + ": FAILED");
+		}
+	}
+
+	/**
+	 * sleep without interruption handling.
+	 */
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			// ignore
+		}
+	}
+}
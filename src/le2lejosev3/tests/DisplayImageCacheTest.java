@@ -0,0 +1,108 @@
+/**
+ * 
+ */
+package le2lejosev3.tests;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.Display;
+import le2lejosev3.pblocks.Hardware;
+import le2lejosev3.pblocks.SimHardware;
+
+/**
+ * Test of the Display image cache.
+ * Preloads the image resources, checks the hits, misses, and the eviction of
+ * the least recently drawn images, and compares drawing cached and uncached
+ * images.
+ * (runs against the simulated hardware on an ordinary computer; needs the
+ * test resources in the class path)
+ * 
+ * @author Roland Blochberger
+ */
+public class DisplayImageCacheTest {
+
+	private static Class<?> clazz = DisplayImageCacheTest.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	// the list of image files available as resources
+	private static final String[] imageFiles = new String[] { "Backward", "EV3", "Right" };
+
+	/**
+	 * Main program entry point.
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for INFO level
+		Setup.log2File(clazz, Level.INFO);
+		log.info("Starting ...");
+
+		// use the simulated hardware before any block is used
+		SimHardware sim = new SimHardware();
+		Hardware.set(sim);
+
+		// preload the frames; drawing them does not read the files
+		check("preload", Display.preloadImages(imageFiles) ? 1 : 0, 1);
+		check("preload misses", Display.getImageCacheMissCount(), 0);
+		for (int i = 0; i < 30; i++) {
+			Display.image(imageFiles[i % imageFiles.length], true, 0, 0);
+		}
+		check("hits", Display.getImageCacheHitCount(), 30);
+		check("misses", Display.getImageCacheMissCount(), 0);
+		check("drawn", sim.getGraphicsLCD().getDrawCount() >= 30 ? 1 : 0, 1);
+		check("missing file", Display.preloadImages("NoSuchImage") ? 1 : 0, 0);
+
+		// room for two full screen images (23 bytes per row); keeps the two most
+		// recently drawn images EV3 and Right
+		Display.setImageCacheSize(2 * 23 * 128);
+		long misses = Display.getImageCacheMissCount();
+		Display.image("EV3", false, 0, 0);
+		Display.image("Right", false, 0, 0);
+		check("kept", Display.getImageCacheMissCount() - misses, 0);
+		// EV3 is the least recently drawn
+		Display.image("Backward", false, 0, 0);
+		check("evicted", Display.getImageCacheMissCount() - misses, 1);
+		Display.image("Right", false, 0, 0);
+		check("most recent kept", Display.getImageCacheMissCount() - misses, 1);
+		Display.image("EV3", false, 0, 0);
+		check("least recent evicted", Display.getImageCacheMissCount() - misses, 2);
+
+		// drawing cached and uncached images
+		Display.setImageCacheSize(Display.DEFAULT_IMAGE_CACHE_SIZE);
+		BenchmarkUtil.measure("image cached", 300, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				for (int i = 0; i < count; i++) {
+					Display.image(imageFiles[i % imageFiles.length], false, 0, 0);
+				}
+				return count;
+			}
+		});
+		Display.setImageCacheSize(0);
+		BenchmarkUtil.measure("image uncached", 300, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				for (int i = 0; i < count; i++) {
+					Display.image(imageFiles[i % imageFiles.length], false, 0, 0);
+				}
+				return count;
+			}
+		});
+		Display.setImageCacheSize(Display.DEFAULT_IMAGE_CACHE_SIZE);
+
+		log.info("The End");
+	}
+
+	/**
+	 * check a value.
+	 */
+	private static void check(String name, long value, long expected) {
+		if (value == expected) {
+			log.info(name + ": OK");
+		} else {
+			log.warning(name + ": FAILED, " + value + " instead of " + expected);
+		}
+	}
+}
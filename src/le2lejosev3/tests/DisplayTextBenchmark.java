@@ -0,0 +1,275 @@
+/**
+ *
+ */
+package le2lejosev3.tests;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.Display;
+import le2lejosev3.pblocks.Hardware;
+import le2lejosev3.pblocks.SimHardware;
+import lejos.hardware.lcd.Font;
+import lejos.hardware.lcd.GraphicsLCD;
+
+/**
+ * Benchmark of the Display text blocks.
+ * Checks that redrawing only the changed characters of a text shows the same
+ * pixels as drawing the text on a cleared screen, and compares the former text
+ * drawing (font lookup, String per number, whole text redrawn) with the text
+ * cache.
+ * (runs against the simulated hardware on an ordinary computer; does not need
+ * an EV3 brick)
+ *
+ * @author Roland Blochberger
+ */
+public class DisplayTextBenchmark {
+
+	private static Class<?> clazz = DisplayTextBenchmark.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	// number of texts per benchmark round
+	private static final int textCount = 2000;
+
+	private static SimHardware.SimLcd lcd = null;
+
+	/**
+	 * Main program entry point.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for INFO level
+		Setup.log2File(clazz, Level.INFO);
+		log.info("Starting ...");
+
+		// use the simulated hardware before any block is used
+		SimHardware sim = new SimHardware();
+		Hardware.set(sim);
+		lcd = sim.getGraphicsLCD();
+
+		// a changed text shows the same pixels as the text on a cleared screen
+		checkText("shorter number", "1000", "5");
+		checkText("middle digit", "123", "193");
+		checkText("same text", "42", "42");
+		checkText("longer text", "9.5", "10.25");
+		checkText("sign", "-1", "1");
+		checkNumbers();
+		checkFontChange();
+		checkColorChange();
+		checkOverdraw();
+		checkBatch();
+
+		// the rendering without the refreshes: the former text drawing
+		BenchmarkUtil.measure("former textPixels(int)", textCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				for (int i = 0; i < count; i++) {
+					formerText(String.valueOf(i), 0, 20, false);
+				}
+				return count;
+			}
+		});
+		BenchmarkUtil.measure("former textPixels(float)", textCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				for (int i = 0; i < count; i++) {
+					formerText(String.valueOf(i * 0.37F), 0, 40, false);
+				}
+				return count;
+			}
+		});
+		// the cached text drawing in the batch mode
+		Display.setBatchMode(true);
+		BenchmarkUtil.measure("cached textPixels(int)", textCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				for (int i = 0; i < count; i++) {
+					Display.textPixels(i, false, 0, 20, Display.COLOR_BLACK, Display.FONT_NORMAL);
+				}
+				return count;
+			}
+		});
+		BenchmarkUtil.measure("cached textPixels(float)", textCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				for (int i = 0; i < count; i++) {
+					Display.textPixels(i * 0.37F, false, 0, 40, Display.COLOR_BLACK, Display.FONT_NORMAL);
+				}
+				return count;
+			}
+		});
+
+		Display.commit();
+		Display.setBatchMode(false);
+
+		// drawing operations and refreshed pixels per counter update
+		lcd.resetCounters();
+		for (int i = 0; i < 1000; i++) {
+			formerText(String.valueOf(i), 0, 60, true);
+		}
+		log.info("former drawing operations per counter update: " + (lcd.getDrawCount() / 1000.0));
+		Display.setBatchMode(true);
+		lcd.resetCounters();
+		for (int i = 0; i < 1000; i++) {
+			Display.textPixels(i, false, 0, 80, Display.COLOR_BLACK, Display.FONT_NORMAL);
+			Display.commit();
+		}
+		log.info("cached drawing operations per counter update: " + (lcd.getDrawCount() / 1000.0)
+				+ ", refreshed pixels per counter update: " + (lcd.getRefreshedPixelCount() / 1000.0));
+		Display.setBatchMode(false);
+
+		log.info("The End");
+	}
+
+	/**
+	 * the former Display.textPixels; optionally without the refresh.
+	 */
+	private static void formerText(String text, int x, int y, boolean refresh) {
+		Font fnt = Font.getDefaultFont();
+		lcd.setFont(fnt);
+		lcd.setColor(GraphicsLCD.WHITE);
+		lcd.fillRect(x, y, text.length() * fnt.width, fnt.height);
+		lcd.setColor(GraphicsLCD.BLACK);
+		lcd.drawString(text, x, y, GraphicsLCD.LEFT | GraphicsLCD.TOP);
+		if (refresh) {
+			lcd.refresh();
+		}
+	}
+
+	/**
+	 * check that the text drawn over the former one looks like the text drawn
+	 * on a cleared screen.
+	 */
+	private static void checkText(String name, String former, String text) {
+		Display.textPixels(former, true, 5, 30, Display.COLOR_BLACK, Display.FONT_NORMAL);
+		Display.textPixels(text, false, 5, 30, Display.COLOR_BLACK, Display.FONT_NORMAL);
+		int[] drawn = screen();
+		Display.textPixels(text, true, 5, 30, Display.COLOR_BLACK, Display.FONT_NORMAL);
+		check(name, drawn, screen());
+	}
+
+	/**
+	 * check a counter and a float value.
+	 */
+	private static void checkNumbers() {
+		Display.textPixels("", true, 0, 0, Display.COLOR_BLACK, Display.FONT_NORMAL);
+		for (int i = 995; i <= 1010; i++) {
+			Display.textPixels(i, false, 0, 0, Display.COLOR_BLACK, Display.FONT_NORMAL);
+		}
+		for (int i = 15; i >= -3; i--) {
+			Display.textPixels(i * 0.25F, false, 0, 50, Display.COLOR_BLACK, Display.FONT_NORMAL);
+		}
+		int[] drawn = screen();
+		Display.textPixels(1010, true, 0, 0, Display.COLOR_BLACK, Display.FONT_NORMAL);
+		Display.textPixels(-0.75F, false, 0, 50, Display.COLOR_BLACK, Display.FONT_NORMAL);
+		check("numbers", drawn, screen());
+	}
+
+	/**
+	 * check a text in another font at the same location.
+	 */
+	private static void checkFontChange() {
+		Display.textPixels("888", true, 0, 0, Display.COLOR_BLACK, Display.FONT_LARGE);
+		Display.textPixels("1", false, 0, 0, Display.COLOR_BLACK, Display.FONT_SMALL);
+		int[] drawn = screen();
+		Display.textPixels("1", true, 0, 0, Display.COLOR_BLACK, Display.FONT_SMALL);
+		check("font change", drawn, screen());
+	}
+
+	/**
+	 * check a text in the other color at the same location.
+	 */
+	private static void checkColorChange() {
+		Display.textPixels("12", true, 0, 0, Display.COLOR_WHITE, Display.FONT_NORMAL);
+		Display.textPixels("12", false, 0, 0, Display.COLOR_BLACK, Display.FONT_NORMAL);
+		int[] drawn = screen();
+		Display.textPixels("12", true, 0, 0, Display.COLOR_BLACK, Display.FONT_NORMAL);
+		check("color change", drawn, screen());
+	}
+
+	/**
+	 * check a text drawn again after a shape was drawn over it.
+	 */
+	private static void checkOverdraw() {
+		Display.textPixels("88", true, 0, 0, Display.COLOR_BLACK, Display.FONT_NORMAL);
+		Display.shapesRectangle(false, 5, 5, 30, 5, true, Display.COLOR_BLACK);
+		Display.textPixels("88", false, 0, 0, Display.COLOR_BLACK, Display.FONT_NORMAL);
+		int[] drawn = screen();
+		Display.shapesRectangle(true, 5, 5, 30, 5, true, Display.COLOR_BLACK);
+		Display.textPixels("88", false, 0, 0, Display.COLOR_BLACK, Display.FONT_NORMAL);
+		check("drawn over", drawn, screen());
+		// a text drawn over another one
+		Display.textPixels("1234", true, 0, 0, Display.COLOR_BLACK, Display.FONT_NORMAL);
+		Display.textPixels("ab", false, 15, 0, Display.COLOR_BLACK, Display.FONT_NORMAL);
+		Display.textPixels("1234", false, 0, 0, Display.COLOR_BLACK, Display.FONT_NORMAL);
+		drawn = screen();
+		Display.textPixels("1234", true, 0, 0, Display.COLOR_BLACK, Display.FONT_NORMAL);
+		check("text over text", drawn, screen());
+	}
+
+	/**
+	 * check the refreshed pixels of a counter in the batch mode.
+	 */
+	private static void checkBatch() {
+		Display.setBatchMode(true);
+		Display.textPixels(10, true, 0, 0, Display.COLOR_BLACK, Display.FONT_NORMAL);
+		Display.commit();
+		lcd.resetCounters();
+		for (int i = 11; i < 20; i++) {
+			Display.textPixels(i, false, 0, 0, Display.COLOR_BLACK, Display.FONT_NORMAL);
+			Display.commit();
+		}
+		Font fnt = Font.getDefaultFont();
+		checkValue("batch refreshed pixels", lcd.getRefreshedPixelCount(), 9L * fnt.width * fnt.height);
+		// the same value is not redrawn
+		Display.textPixels(19, false, 0, 0, Display.COLOR_BLACK, Display.FONT_NORMAL);
+		Display.commit();
+		checkValue("batch same value", lcd.getRefreshCount(), 9L);
+		Display.setBatchMode(false);
+	}
+
+	/**
+	 * @return the pixels of the screen.
+	 */
+	private static int[] screen() {
+		int[] pixels = new int[Display.LCD_WIDTH * Display.LCD_HEIGHT];
+		for (int y = 0; y < Display.LCD_HEIGHT; y++) {
+			for (int x = 0; x < Display.LCD_WIDTH; x++) {
+				pixels[y * Display.LCD_WIDTH + x] = lcd.getPixel(x, y);
+			}
+		}
+		return pixels;
+	}
+
+	/**
+	 * check that the screens are equal.
+	 */
+	private static void check(String name, int[] drawn, int[] expected) {
+		int diff = 0;
+		int black = 0;
+		for (int i = 0; i < expected.length; i++) {
+			if (drawn[i] != expected[i]) {
+				diff++;
+			}
+			black += expected[i];
+		}
+		if (diff == 0) {
+			log.info(name + ": OK (" + black + " black pixels)");
+		} else {
+			log.warning(name + ": FAILED, " + diff + " pixels differ");
+		}
+	}
+
+	/**
+	 * check a value.
+	 */
+	private static void checkValue(String name, long value, long expected) {
+		if (value == expected) {
+			log.info(name + ": OK");
+		} else {
+			log.warning(name + ": FAILED, " + value + " instead of " + expected);
+		}
+	}
+}
@@ -0,0 +1,237 @@
+/**
+ * 
+ */
+package le2lejosev3.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.FileAccess;
+
+/**
+ * Test of the FileAccess async mode.
+ * Checks that no lines are lost or mixed up with backpressure QUEUE_BLOCK,
+ * that the dropping modes keep the lines in order, that closing and reading
+ * see all queued lines, and compares the time the caller spends in
+ * FileAccess.write with the synchronous mode.
+ * (runs on an ordinary computer as well as on the EV3 brick)
+ * 
+ * @author Roland Blochberger
+ */
+public class FileAccessAsyncTest {
+
+	private static Class<?> clazz = FileAccessAsyncTest.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	// number of parallel tasks
+	private static final int threadCount = 4;
+	// number of lines per task
+	private static final int linesCount = 10000;
+
+	private static File tmpDir = null;
+
+	/**
+	 * Main program entry point.
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for INFO level
+		Setup.log2File(clazz, Level.INFO);
+		log.info("Starting ...");
+
+		// write the text files into a temporary directory
+		try {
+			tmpDir = Files.createTempDirectory("pblocks").toFile();
+		} catch (IOException e) {
+			log.log(Level.SEVERE, "Cannot create temporary directory", e);
+			return;
+		}
+		FileAccess.setFilesDir(tmpDir);
+
+		// no line lost with QUEUE_BLOCK
+		FileAccess.setAsyncMode(64, FileAccess.QUEUE_BLOCK);
+		Thread[] threads = new Thread[threadCount];
+		for (int t = 0; t < threadCount; t++) {
+			final int id = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < linesCount; i++) {
+						FileAccess.write("block", id + ":" + i);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			join(thread);
+		}
+		FileAccess.close("block");
+		check("block queued", FileAccess.getQueuedCount(), threadCount * linesCount);
+		check("block dropped", FileAccess.getDroppedCount(), 0);
+		check("block pending", FileAccess.getPendingCount(), 0);
+		checkBlock("block");
+
+		// closing and reading wait for the queued lines
+		for (int i = 0; i < linesCount; i++) {
+			FileAccess.write("drain", i);
+		}
+		FileAccess.close("drain");
+		check("drain on close", readLines("drain").size(), linesCount);
+		FileAccess.write("drain", -1);
+		int errors = 0;
+		for (int i = 0; i < linesCount; i++) {
+			if (FileAccess.readInt("drain") != i) {
+				errors++;
+			}
+		}
+		check("drain on read", FileAccess.readInt("drain"), -1);
+		check("drain on read errors", errors, 0);
+		FileAccess.delete("drain");
+
+		// the dropping modes with a slow writer
+		FileAccess.setFlushPolicy(FileAccess.FLUSH_LINE, 0L);
+		checkDrop("drop oldest", FileAccess.QUEUE_DROP_OLDEST);
+		checkDrop("drop newest", FileAccess.QUEUE_DROP_NEWEST);
+
+		// the time the caller spends in write, synchronous and async
+		measureLatency("sync flush every line", 0);
+		measureLatency("async flush every line", 4096);
+		FileAccess.setFlushPolicy(FileAccess.FLUSH_BUFFER, 0L);
+		measureLatency("sync", 0);
+		measureLatency("async", 4096);
+		FileAccess.setAsyncMode(0, FileAccess.QUEUE_BLOCK);
+
+		// clean up
+		for (File file : tmpDir.listFiles()) {
+			file.delete();
+		}
+		tmpDir.delete();
+
+		log.info("The End");
+	}
+
+	/**
+	 * check that all lines are written and in order per task.
+	 */
+	private static void checkBlock(String filename) {
+		int errors = 0;
+		int[] next = new int[threadCount];
+		for (String line : readLines(filename)) {
+			int colon = line.indexOf(':');
+			int id = Integer.parseInt(line.substring(0, colon));
+			int seq = Integer.parseInt(line.substring(colon + 1));
+			if (seq != next[id]) {
+				errors++;
+			}
+			next[id] = seq + 1;
+		}
+		for (int i = 0; i < threadCount; i++) {
+			if (next[i] != linesCount) {
+				errors++;
+			}
+		}
+		check(filename + " lines errors", errors, 0);
+		FileAccess.delete(filename);
+	}
+
+	/**
+	 * check a dropping mode: the written and dropped lines add up, and the
+	 * written lines are in order.
+	 */
+	private static void checkDrop(String name, int backpressure) {
+		FileAccess.setAsyncMode(16, backpressure);
+		String filename = "drop" + backpressure;
+		for (int i = 0; i < linesCount; i++) {
+			FileAccess.write(filename, i);
+		}
+		FileAccess.close(filename);
+		List<String> lines = readLines(filename);
+		int errors = 0;
+		int last = -1;
+		for (String line : lines) {
+			int value = Integer.parseInt(line);
+			if (value <= last) {
+				errors++;
+			}
+			last = value;
+		}
+		log.info(name + ": " + lines.size() + " lines written, " + FileAccess.getDroppedCount() + " dropped");
+		check(name + " count", lines.size() + FileAccess.getDroppedCount(), linesCount);
+		check(name + " order errors", errors, 0);
+		if (backpressure == FileAccess.QUEUE_DROP_OLDEST) {
+			// the newest line is never dropped
+			check(name + " last line", last, linesCount - 1);
+		} else {
+			// the first line finds an empty queue
+			check(name + " first line", lines.isEmpty() ? -1 : Integer.parseInt(lines.get(0)), 0);
+		}
+		FileAccess.delete(filename);
+	}
+
+	/**
+	 * measure the time the caller spends in FileAccess.write.
+	 */
+	private static void measureLatency(String name, int capacity) {
+		FileAccess.setAsyncMode(capacity, FileAccess.QUEUE_BLOCK);
+		String filename = "latency" + capacity;
+		int count = 2000;
+		long[] ns = new long[count];
+		long t0 = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			long t = System.nanoTime();
+			FileAccess.write(filename, i * 0.37F);
+			ns[i] = System.nanoTime() - t;
+		}
+		long caller = System.nanoTime() - t0;
+		FileAccess.close(filename);
+		long total = System.nanoTime() - t0;
+		Arrays.sort(ns);
+		log.info(String.format("%-24s write median %7.1fus, 99%% %7.1fus, max %8.1fus; caller %6.1fms, total %6.1fms",
+				name, ns[count / 2] / 1000.0, ns[count * 99 / 100] / 1000.0, ns[count - 1] / 1000.0,
+				caller / 1000000.0, total / 1000000.0));
+		FileAccess.delete(filename);
+	}
+
+	/**
+	 * @return the lines of the text file.
+	 */
+	private static List<String> readLines(String filename) {
+		try {
+			return Files.readAllLines(new File(tmpDir, filename + ".txt").toPath(), Charset.defaultCharset());
+		} catch (IOException e) {
+			log.log(Level.WARNING, "read failed", e);
+			return Arrays.asList(new String[0]);
+		}
+	}
+
+	/**
+	 * check a value.
+	 */
+	private static void check(String name, long value, long expected) {
+		if (value == expected) {
+			log.info(name + ": OK");
+		} else {
+			log.warning(name + ": FAILED, " + value + " instead of " + expected);
+		}
+	}
+
+	/**
+	 * join without interruption handling.
+	 */
+	private static void join(Thread thread) {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			// ignore
+		}
+	}
+}
@@ -0,0 +1,228 @@
+/**
+ *
+ */
+package le2lejosev3.tests;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.FileAccess;
+
+/**
+ * Throughput benchmark of the FileAccess write methods.
+ * Compares the former writer path (Hashtable lookup, BufferedWriter and a
+ * String per number) with the FileChannel and memory-mapped append modes and
+ * the flush policies, and checks that the files read back correctly.
+ * (runs on an ordinary computer as well as on the EV3 brick)
+ *
+ * @author Roland Blochberger
+ */
+public class FileAccessBenchmark {
+
+	private static Class<?> clazz = FileAccessBenchmark.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	// number of lines per benchmark round
+	private static final int linesCount = 20000;
+
+	/**
+	 * The former FileAccess write path.
+	 */
+	private static class LegacyWriter {
+		private final Hashtable<String, BufferedWriter> openfiles = new Hashtable<String, BufferedWriter>();
+		private final File dir;
+
+		LegacyWriter(File dir) {
+			this.dir = dir;
+		}
+
+		void write(String filename, String text) throws IOException {
+			BufferedWriter bw = openfiles.get(filename);
+			if (bw == null) {
+				bw = new BufferedWriter(new FileWriter(new File(dir, filename + ".txt"), true));
+				openfiles.put(filename, bw);
+			}
+			bw.append(text);
+			bw.newLine();
+		}
+
+		void close(String filename) throws IOException {
+			BufferedWriter bw = openfiles.remove(filename);
+			if (bw != null) {
+				bw.close();
+			}
+		}
+	}
+
+	/**
+	 * Main program entry point.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for INFO level
+		Setup.log2File(clazz, Level.INFO);
+		log.info("Starting ...");
+
+		// write the text files into a temporary directory
+		File tmpDir = null;
+		try {
+			tmpDir = Files.createTempDirectory("pblocks").toFile();
+		} catch (IOException e) {
+			log.log(Level.SEVERE, "Cannot create temporary directory", e);
+			return;
+		}
+		FileAccess.setFilesDir(tmpDir);
+
+		// the former path
+		final LegacyWriter legacy = new LegacyWriter(tmpDir);
+		BenchmarkUtil.measure("legacy write(int)", linesCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				try {
+					for (int i = 0; i < count; i++) {
+						legacy.write("legacy", String.valueOf(i));
+					}
+				} catch (IOException e) {
+					log.log(Level.WARNING, "write failed", e);
+				}
+				return count;
+			}
+		});
+		BenchmarkUtil.measure("legacy write(float)", linesCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				try {
+					for (int i = 0; i < count; i++) {
+						legacy.write("legacy", String.valueOf(i * 0.37F));
+					}
+				} catch (IOException e) {
+					log.log(Level.WARNING, "write failed", e);
+				}
+				return count;
+			}
+		});
+		try {
+			legacy.close("legacy");
+		} catch (IOException e) {
+			log.log(Level.WARNING, "close failed", e);
+		}
+
+		// the append modes and flush policies
+		benchMode("channel", FileAccess.MODE_CHANNEL, FileAccess.FLUSH_BUFFER, 0L);
+		benchMode("mapped", FileAccess.MODE_MAPPED, FileAccess.FLUSH_BUFFER, 0L);
+		benchMode("channel periodic 100ms", FileAccess.MODE_CHANNEL, FileAccess.FLUSH_PERIODIC, 100L);
+		benchMode("channel every line", FileAccess.MODE_CHANNEL, FileAccess.FLUSH_LINE, 0L);
+		FileAccess.setAppendMode(FileAccess.MODE_CHANNEL);
+		FileAccess.setFlushPolicy(FileAccess.FLUSH_BUFFER, 0L);
+
+		// check the file contents
+		check(tmpDir, FileAccess.MODE_CHANNEL);
+		check(tmpDir, FileAccess.MODE_MAPPED);
+
+		// clean up
+		for (File file : tmpDir.listFiles()) {
+			file.delete();
+		}
+		tmpDir.delete();
+
+		log.info("The End");
+	}
+
+	/**
+	 * benchmark an append mode and flush policy.
+	 */
+	private static void benchMode(String name, int mode, int policy, long period) {
+		final String filename = "bench" + mode + policy;
+		FileAccess.delete(filename);
+		FileAccess.setAppendMode(mode);
+		FileAccess.setFlushPolicy(policy, period);
+		BenchmarkUtil.measure(name + " write(int)", linesCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				for (int i = 0; i < count; i++) {
+					FileAccess.write(filename, i);
+				}
+				return count;
+			}
+		});
+		BenchmarkUtil.measure(name + " write(float)", linesCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				for (int i = 0; i < count; i++) {
+					FileAccess.write(filename, i * 0.37F);
+				}
+				return count;
+			}
+		});
+		FileAccess.close(filename);
+	}
+
+	/**
+	 * check that the written lines read back as the same values and look like
+	 * the former ones.
+	 */
+	private static void check(File dir, int mode) {
+		String filename = "check" + mode;
+		FileAccess.delete(filename);
+		FileAccess.setAppendMode(mode);
+		float[] values = new float[] { 0F, -0F, 0.1F, 1F, -2.5F, 123.456F, 1e-4F, 3.4028235E38F, 1.4E-45F, 1e7F,
+				9999999F, Float.NaN, Float.NEGATIVE_INFINITY };
+		int[] ints = new int[] { 0, -1, 42, Integer.MAX_VALUE, Integer.MIN_VALUE };
+		for (float value : values) {
+			FileAccess.write(filename, value);
+		}
+		for (int value : ints) {
+			FileAccess.write(filename, value);
+		}
+		FileAccess.write(filename, "text äöü");
+		FileAccess.close(filename);
+		FileAccess.setAppendMode(FileAccess.MODE_CHANNEL);
+
+		int errors = 0;
+		try {
+			List<String> lines = Files.readAllLines(new File(dir, filename + ".txt").toPath(),
+					Charset.defaultCharset());
+			int n = 0;
+			for (float value : values) {
+				String line = lines.get(n++);
+				if (Float.floatToIntBits(Float.parseFloat(line)) != Float.floatToIntBits(value)) {
+					log.warning("float " + value + " written as " + line);
+					errors++;
+				} else if (!line.equals(String.valueOf(value))) {
+					log.info("float " + value + " written with fewer digits as " + line);
+				}
+			}
+			for (int value : ints) {
+				String line = lines.get(n++);
+				if (!line.equals(String.valueOf(value))) {
+					log.warning("int " + value + " written as " + line);
+					errors++;
+				}
+			}
+			// the text goes through the default charset
+			if (!lines.get(n++).equals(new String("text äöü".getBytes())) || (lines.size() != n)) {
+				log.warning("text or file length wrong: " + lines);
+				errors++;
+			}
+		} catch (IOException e) {
+			log.log(Level.WARNING, "read failed", e);
+			errors++;
+		}
+		if (errors == 0) {
+			log.info("file contents mode " + mode + ": OK");
+		} else {
+			log.warning("file contents mode " + mode + ": FAILED");
+		}
+		FileAccess.delete(filename);
+	}
+}
@@ -0,0 +1,167 @@
+/**
+ * 
+ */
+package le2lejosev3.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.FileAccess;
+
+/**
+ * Test of the cache of the numbers read by the indexed FileAccess.readInt()
+ * and readNumeric().
+ * Checks the hits and misses, the LRU eviction, the invalidation by writing,
+ * deleting, and changing the file, and compares the time with the cache
+ * disabled.
+ * (runs on an ordinary computer as well as on the EV3 brick)
+ * 
+ * @author Roland Blochberger
+ */
+public class FileAccessCacheTest {
+
+	private static Class<?> clazz = FileAccessCacheTest.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	/**
+	 * Main program entry point.
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for INFO level
+		Setup.log2File(clazz, Level.INFO);
+		log.info("Starting ...");
+
+		// write the text files into a temporary directory
+		File tmpDir = null;
+		try {
+			tmpDir = Files.createTempDirectory("pblocks").toFile();
+		} catch (IOException e) {
+			log.log(Level.SEVERE, "Cannot create temporary directory", e);
+			return;
+		}
+		FileAccess.setFilesDir(tmpDir);
+
+		// the PID gains
+		FileAccess.write("gains", 1.5F);
+		FileAccess.write("gains", 0.25F);
+		FileAccess.write("gains", 3);
+		FileAccess.close("gains");
+		FileAccess.write("other", 5);
+		FileAccess.close("other");
+
+		FileAccess.setValueCache(4, 0L);
+		for (int lap = 0; lap < 10; lap++) {
+			FileAccess.readNumeric("gains", 0);
+			FileAccess.readNumeric("gains", 1);
+			FileAccess.readInt("gains", 2);
+		}
+		check("misses", FileAccess.getCacheMissCount(), 3);
+		check("hits", FileAccess.getCacheHitCount(), 27);
+		check("cached float", FileAccess.readNumeric("gains", 1) == 0.25F ? 1 : 0, 1);
+		check("cached int", FileAccess.readInt("gains", 2), 3);
+
+		// the least recently used number is evicted
+		FileAccess.readNumeric("gains", 2);
+		FileAccess.readInt("other", 0);
+		long misses = FileAccess.getCacheMissCount();
+		FileAccess.readNumeric("gains", 0);
+		check("evicted", FileAccess.getCacheMissCount() - misses, 1);
+		misses = FileAccess.getCacheMissCount();
+		FileAccess.readNumeric("gains", 0);
+		check("cached again", FileAccess.getCacheMissCount() - misses, 0);
+
+		// writing invalidates the numbers
+		FileAccess.write("gains", 7);
+		misses = FileAccess.getCacheMissCount();
+		check("after write", FileAccess.readInt("gains", 3), 7);
+		check("after write line 0", FileAccess.readNumeric("gains", 0) == 1.5F ? 1 : 0, 1);
+		check("after write misses", FileAccess.getCacheMissCount() - misses, 2);
+		FileAccess.close("gains");
+
+		// changing the file outside FileAccess invalidates the numbers
+		FileAccess.readInt("gains", 2);
+		try {
+			File file = new File(tmpDir, "gains.txt");
+			Files.write(file.toPath(), "2.5\n0.5\n4\n".getBytes());
+			file.setLastModified(file.lastModified() + 2000L);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "write failed", e);
+		}
+		check("changed file", FileAccess.readInt("gains", 2), 4);
+		check("changed file line 0", FileAccess.readNumeric("gains", 0) == 2.5F ? 1 : 0, 1);
+
+		// deleting invalidates the numbers
+		FileAccess.delete("gains");
+		FileAccess.write("gains", 9);
+		check("deleted", FileAccess.readInt("gains", 0), 9);
+		FileAccess.delete("gains");
+
+		// many lines through a small cache
+		for (int i = 0; i < 1000; i++) {
+			FileAccess.write("table", i);
+		}
+		FileAccess.close("table");
+		FileAccess.setValueCache(100, 0L);
+		Random random = new Random(7);
+		int errors = 0;
+		for (int i = 0; i < 20000; i++) {
+			int n = (random.nextInt(4) == 0) ? random.nextInt(1000) : random.nextInt(50);
+			if (FileAccess.readInt("table", n) != n) {
+				errors++;
+			}
+		}
+		check("eviction errors", errors, 0);
+		log.info("table hits " + FileAccess.getCacheHitCount() + ", misses " + FileAccess.getCacheMissCount());
+
+		// cached and uncached reads
+		FileAccess.setValueCache(100);
+		BenchmarkUtil.measure("cached readInt(n)", 50, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				long sum = 0L;
+				for (int i = 0; i < count; i++) {
+					sum += FileAccess.readInt("table", i);
+				}
+				return sum;
+			}
+		});
+		FileAccess.setValueCache(0);
+		BenchmarkUtil.measure("uncached readInt(n)", 50, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				long sum = 0L;
+				for (int i = 0; i < count; i++) {
+					sum += FileAccess.readInt("table", i);
+				}
+				return sum;
+			}
+		});
+		FileAccess.delete("table");
+
+		// clean up
+		for (File file : tmpDir.listFiles()) {
+			file.delete();
+		}
+		tmpDir.delete();
+
+		log.info("The End");
+	}
+
+	/**
+	 * check a value.
+	 */
+	private static void check(String name, long value, long expected) {
+		if (value == expected) {
+			log.info(name + ": OK");
+		} else {
+			log.warning(name + ": FAILED, " + value + " instead of " + expected);
+		}
+	}
+}
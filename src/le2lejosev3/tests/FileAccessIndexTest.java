@@ -0,0 +1,212 @@
+/**
+ * 
+ */
+package le2lejosev3.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.FileAccess;
+
+/**
+ * Test of the indexed FileAccess read methods.
+ * Reads random lines of a lookup table, checks that lines appended through
+ * FileAccess.write are found, and compares the time with reading the table
+ * from the start up to the line.
+ * (runs on an ordinary computer as well as on the EV3 brick)
+ * 
+ * @author Roland Blochberger
+ */
+public class FileAccessIndexTest {
+
+	private static Class<?> clazz = FileAccessIndexTest.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	// number of lines of the lookup table
+	private static final int linesCount = 5000;
+
+	/**
+	 * Main program entry point.
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for INFO level
+		Setup.log2File(clazz, Level.INFO);
+		log.info("Starting ...");
+
+		// write the text files into a temporary directory
+		File tmpDir = null;
+		try {
+			tmpDir = Files.createTempDirectory("pblocks").toFile();
+		} catch (IOException e) {
+			log.log(Level.SEVERE, "Cannot create temporary directory", e);
+			return;
+		}
+		FileAccess.setFilesDir(tmpDir);
+
+		// the lookup table
+		for (int i = 0; i < linesCount; i++) {
+			FileAccess.write("table", i * 0.25F);
+		}
+		FileAccess.close("table");
+
+		check("line count", FileAccess.getLineCount("table"), linesCount);
+		int errors = 0;
+		Random random = new Random(42);
+		for (int i = 0; i < 1000; i++) {
+			int n = random.nextInt(linesCount);
+			if (FileAccess.readNumeric("table", n) != n * 0.25F) {
+				errors++;
+			}
+		}
+		check("random lines errors", errors, 0);
+		check("first line", FileAccess.readLine("table", 0).equals("0.0") ? 1 : 0, 1);
+		check("line behind the end", (FileAccess.readLine("table", linesCount) == null) ? 1 : 0, 1);
+		check("negative line", (FileAccess.readLine("table", -1) == null) ? 1 : 0, 1);
+		// the indexed reads do not affect the sequential read
+		check("sequential read", FileAccess.readNumeric("table") == 0F ? 1 : 0, 1);
+		check("sequential read next", FileAccess.readNumeric("table") == 0.25F ? 1 : 0, 1);
+
+		// the lines appended through write are indexed
+		FileAccess.write("table", 12345);
+		check("appended line", FileAccess.readInt("table", linesCount), 12345);
+		FileAccess.write("table", "text");
+		check("appended text", FileAccess.readLine("table", linesCount + 1).equals("text") ? 1 : 0, 1);
+		check("line count after write", FileAccess.getLineCount("table"), linesCount + 2);
+		FileAccess.close("table");
+		check("line count after close", FileAccess.getLineCount("table"), linesCount + 2);
+		FileAccess.close("table");
+
+		// the lines written in the mapped mode
+		FileAccess.setAppendMode(FileAccess.MODE_MAPPED);
+		FileAccess.write("mapped", 1);
+		FileAccess.write("mapped", 2);
+		check("mapped line count", FileAccess.getLineCount("mapped"), 2);
+		check("mapped line", FileAccess.readInt("mapped", 1), 2);
+		FileAccess.delete("mapped");
+		FileAccess.setAppendMode(FileAccess.MODE_CHANNEL);
+
+		// the lines written after the end was read are read next in both modes
+		check("read after write", readAfterWrite(FileAccess.MODE_CHANNEL), "1,2,null,3");
+		check("mapped read after write", readAfterWrite(FileAccess.MODE_MAPPED), "1,2,null,3");
+		FileAccess.setAppendMode(FileAccess.MODE_CHANNEL);
+
+		// a mapped file left with the NUL bytes of its region by a crash
+		try {
+			byte[] crashed = new byte[1000];
+			System.arraycopy("1\n2\n".getBytes(), 0, crashed, 0, 4);
+			Files.write(new File(tmpDir, "crashed.txt").toPath(), crashed);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "write failed", e);
+		}
+		check("crashed line count", FileAccess.getLineCount("crashed"), 2);
+		check("crashed lines", FileAccess.readInt("crashed") + FileAccess.readInt("crashed"), 3);
+		check("crashed end", (FileAccess.read("crashed") == null) ? 1 : 0, 1);
+		FileAccess.close("crashed");
+		FileAccess.setAppendMode(FileAccess.MODE_MAPPED);
+		FileAccess.write("crashed", 3);
+		FileAccess.close("crashed");
+		FileAccess.setAppendMode(FileAccess.MODE_CHANNEL);
+		check("crashed file repaired", new File(tmpDir, "crashed.txt").length(), 6);
+		check("crashed continued", FileAccess.readInt("crashed", 2), 3);
+		FileAccess.delete("crashed");
+
+		// a file without line separator at the end
+		try {
+			Files.write(new File(tmpDir, "partial.txt").toPath(), "1\r\n2\r\n3".getBytes());
+		} catch (IOException e) {
+			log.log(Level.WARNING, "write failed", e);
+		}
+		check("partial line count", FileAccess.getLineCount("partial"), 3);
+		check("partial CRLF line", FileAccess.readInt("partial", 1), 2);
+		check("partial last line", FileAccess.readInt("partial", 2), 3);
+		FileAccess.write("partial", 4);
+		check("partial continued", FileAccess.readInt("partial", 2), 34);
+		FileAccess.delete("partial");
+
+		// indexed read and read from the start
+		final int[] lines = new int[64];
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = random.nextInt(linesCount);
+		}
+		BenchmarkUtil.measure("indexed readNumeric(n)", lines.length, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				long sum = 0L;
+				for (int i = 0; i < count; i++) {
+					sum += Float.floatToRawIntBits(FileAccess.readNumeric("table", lines[i]));
+				}
+				return sum;
+			}
+		});
+		FileAccess.close("table");
+		BenchmarkUtil.measure("readNumeric from the start", lines.length, 1, 3, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				long sum = 0L;
+				for (int i = 0; i < count; i++) {
+					FileAccess.close("table");
+					for (int n = 0; n < lines[i]; n++) {
+						FileAccess.read("table");
+					}
+					sum += Float.floatToRawIntBits(FileAccess.readNumeric("table"));
+				}
+				return sum;
+			}
+		});
+		FileAccess.close("table");
+
+		// clean up
+		for (File file : tmpDir.listFiles()) {
+			file.delete();
+		}
+		tmpDir.delete();
+
+		log.info("The End");
+	}
+
+	/**
+	 * write 2 lines, read 3 lines, write a line and read it in the append mode.
+	 * 
+	 * @return the lines read.
+	 */
+	private static String readAfterWrite(int mode) {
+		FileAccess.setAppendMode(mode);
+		FileAccess.write("interleaved", 1);
+		FileAccess.write("interleaved", 2);
+		String lines = FileAccess.read("interleaved") + "," + FileAccess.read("interleaved") + ","
+				+ FileAccess.read("interleaved");
+		FileAccess.write("interleaved", 3);
+		lines += "," + FileAccess.read("interleaved");
+		FileAccess.delete("interleaved");
+		return lines;
+	}
+
+	/**
+	 * check a value.
+	 */
+	private static void check(String name, long value, long expected) {
+		if (value == expected) {
+			log.info(name + ": OK");
+		} else {
+			log.warning(name + ": FAILED, " + value + " instead of " + expected);
+		}
+	}
+
+	/**
+	 * check a text.
+	 */
+	private static void check(String name, String value, String expected) {
+		if (value.equals(expected)) {
+			log.info(name + ": OK");
+		} else {
+			log.warning(name + ": FAILED, " + value + " instead of " + expected);
+		}
+	}
+}
@@ -0,0 +1,243 @@
+/**
+ * 
+ */
+package le2lejosev3.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.FileAccess;
+
+/**
+ * Multi-threaded stress test of the FileAccess block.
+ * Parallel tasks append lines to the same file (also while another task keeps
+ * closing it), and read and write their own files; afterwards every line must
+ * be complete and in order per task.
+ * (runs on an ordinary computer as well as on the EV3 brick)
+ * 
+ * @author Roland Blochberger
+ */
+public class FileAccessStressTest {
+
+	private static Class<?> clazz = FileAccessStressTest.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	// number of parallel tasks
+	private static final int threadCount = 8;
+	// number of lines per task
+	private static final int linesCount = 5000;
+	// padding to make the lines cross the buffer boundaries
+	private static final String padding = "-abcdefghijklmnopqrstuvwxyz0123456789-abcdefghijklmnopqrstuvwxyz0123456789";
+
+	private static File tmpDir = null;
+
+	/**
+	 * A task of the stress test.
+	 */
+	private interface Task {
+		/**
+		 * run the task.
+		 * 
+		 * @param id the task number.
+		 */
+		void run(int id);
+	}
+
+	/**
+	 * Main program entry point.
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for INFO level
+		Setup.log2File(clazz, Level.INFO);
+		log.info("Starting ...");
+
+		// write the text files into a temporary directory
+		try {
+			tmpDir = Files.createTempDirectory("pblocks").toFile();
+		} catch (IOException e) {
+			log.log(Level.SEVERE, "Cannot create temporary directory", e);
+			return;
+		}
+		FileAccess.setFilesDir(tmpDir);
+
+		// all tasks append to the same file
+		long ns = runTasks(new Task() {
+			@Override
+			public void run(int id) {
+				for (int i = 0; i < linesCount; i++) {
+					FileAccess.write("shared", id + ":" + i + padding);
+				}
+			}
+		});
+		FileAccess.close("shared");
+		log.info(String.format("shared file: %d lines in %.1fms", threadCount * linesCount, ns / 1000000.0));
+		checkShared("shared");
+
+		// the same while another task keeps closing the file
+		final AtomicInteger closes = new AtomicInteger();
+		final AtomicBoolean done = new AtomicBoolean();
+		Thread closer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (!done.get()) {
+					FileAccess.close("reopened");
+					closes.incrementAndGet();
+					Thread.yield();
+				}
+			}
+		});
+		closer.start();
+		runTasks(new Task() {
+			@Override
+			public void run(int id) {
+				for (int i = 0; i < linesCount; i++) {
+					FileAccess.write("reopened", id + ":" + i + padding);
+				}
+			}
+		});
+		done.set(true);
+		join(closer);
+		FileAccess.close("reopened");
+		log.info("closed " + closes.get() + " times while writing");
+		checkShared("reopened");
+
+		// each task writes and reads its own file
+		final AtomicInteger errors = new AtomicInteger();
+		ns = runTasks(new Task() {
+			@Override
+			public void run(int id) {
+				String filename = "own" + id;
+				for (int i = 0; i < linesCount; i++) {
+					FileAccess.write(filename, i);
+				}
+				FileAccess.close(filename);
+				for (int i = 0; i < linesCount; i++) {
+					if (FileAccess.readInt(filename) != i) {
+						errors.incrementAndGet();
+					}
+				}
+				if (FileAccess.read(filename) != null) {
+					errors.incrementAndGet();
+				}
+				FileAccess.delete(filename);
+			}
+		});
+		log.info(String.format("own files: %d lines written and read in %.1fms", threadCount * linesCount,
+				ns / 1000000.0));
+		if (errors.get() == 0) {
+			log.info("own files: OK");
+		} else {
+			log.warning("own files: FAILED, " + errors.get() + " errors");
+		}
+
+		// reading a file that is open for writing sees the lines written so far
+		FileAccess.write("mixed", 1);
+		FileAccess.write("mixed", 2);
+		int first = FileAccess.readInt("mixed");
+		FileAccess.write("mixed", 3);
+		int second = FileAccess.readInt("mixed");
+		int third = FileAccess.readInt("mixed");
+		FileAccess.delete("mixed");
+		if ((first == 1) && (second == 2) && (third == 3)) {
+			log.info("read while writing: OK");
+		} else {
+			log.warning("read while writing: FAILED, " + first + ", " + second + ", " + third);
+		}
+
+		// clean up
+		for (File file : tmpDir.listFiles()) {
+			file.delete();
+		}
+		tmpDir.delete();
+
+		log.info("The End");
+	}
+
+	/**
+	 * run the task in parallel threads.
+	 * 
+	 * @return the elapsed time in nanoseconds.
+	 */
+	private static long runTasks(final Task task) {
+		Thread[] threads = new Thread[threadCount];
+		for (int i = 0; i < threadCount; i++) {
+			final int id = i;
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					task.run(id);
+				}
+			});
+		}
+		long t0 = System.nanoTime();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			join(thread);
+		}
+		return System.nanoTime() - t0;
+	}
+
+	/**
+	 * check that the shared file contains all lines complete and in order per
+	 * task.
+	 */
+	private static void checkShared(String filename) {
+		int errors = 0;
+		int[] next = new int[threadCount];
+		try {
+			List<String> lines = Files.readAllLines(new File(tmpDir, filename + ".txt").toPath(),
+					Charset.defaultCharset());
+			for (String line : lines) {
+				int colon = line.indexOf(':');
+				int dash = line.indexOf('-');
+				if ((colon <= 0) || (dash <= colon) || !line.substring(dash).equals(padding)) {
+					errors++;
+					continue;
+				}
+				int id = Integer.parseInt(line.substring(0, colon));
+				int seq = Integer.parseInt(line.substring(colon + 1, dash));
+				if (seq != next[id]) {
+					errors++;
+				}
+				next[id] = seq + 1;
+			}
+			for (int i = 0; i < threadCount; i++) {
+				if (next[i] != linesCount) {
+					errors++;
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			log.log(Level.WARNING, "read failed", e);
+			errors++;
+		}
+		if (errors == 0) {
+			log.info(filename + " lines: OK");
+		} else {
+			log.warning(filename + " lines: FAILED, " + errors + " errors");
+		}
+		FileAccess.delete(filename);
+	}
+
+	/**
+	 * join without interruption handling.
+	 */
+	private static void join(Thread thread) {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			// ignore
+		}
+	}
+}
@@ -0,0 +1,306 @@
+/**
+ * 
+ */
+package le2lejosev3.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.ColorSensor;
+import le2lejosev3.pblocks.Display;
+import le2lejosev3.pblocks.EV3Audio;
+import le2lejosev3.pblocks.FileAccess;
+import le2lejosev3.pblocks.Hardware;
+import le2lejosev3.pblocks.MoveSteering;
+import le2lejosev3.pblocks.Random;
+import le2lejosev3.pblocks.SimHardware;
+
+/**
+ * Micro benchmarks of the programming blocks' hot paths.
+ * (runs against the simulated hardware on an ordinary computer; does not need
+ * an EV3 brick)
+ * 
+ * @author Roland Blochberger
+ */
+public class PBlocksBenchmark {
+
+	private static Class<?> clazz = PBlocksBenchmark.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	// number of operations per benchmark round
+	private static final int opsCount = 10000;
+
+	/**
+	 * Main program entry point.
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for INFO level (the blocks' FINEST logging would
+		// distort the results)
+		Setup.log2File(clazz, Level.INFO);
+		log.info("Starting ...");
+
+		// use the simulated hardware before any block is used
+		SimHardware sim = new SimHardware();
+		Hardware.set(sim);
+		// write the text files into a temporary directory
+		File tmpDir = null;
+		try {
+			tmpDir = Files.createTempDirectory("pblocks").toFile();
+		} catch (IOException e) {
+			log.log(Level.SEVERE, "Cannot create temporary directory", e);
+			return;
+		}
+		FileAccess.setFilesDir(tmpDir);
+
+		benchMoveSteering();
+		benchColorSensor(sim);
+		benchDisplay();
+		benchFileAccess();
+		benchRandom();
+		benchEV3Audio();
+
+		// clean up
+		FileAccess.delete("bench");
+		tmpDir.delete();
+
+		log.info("The End");
+	}
+
+	/**
+	 * MoveSteering.calcPower
+	 */
+	private static void benchMoveSteering() {
+		final SteeringBench steering = new SteeringBench();
+		BenchmarkUtil.measure("MoveSteering.calcPower", opsCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				long v = 0L;
+				for (int i = 0; i < count; i++) {
+					float[] pwr = steering.power((i % 201) - 100, 75F);
+					v += Float.floatToIntBits(pwr[0]) + Float.floatToIntBits(pwr[1]);
+				}
+				return v;
+			}
+		});
+		steering.close();
+	}
+
+	/**
+	 * ColorSensor measure* methods
+	 */
+	private static void benchColorSensor(SimHardware sim) {
+		final ColorSensor colorSensor = new ColorSensor(null);
+		SimHardware.SimSensor sensor = sim.getSensors().get(sim.getSensors().size() - 1);
+		sensor.setSamples(0, new float[] { 0F }, new float[] { 2F }, new float[] { 6F });
+		sensor.setSamples(1, new float[] { 0.1F }, new float[] { 0.5F }, new float[] { 0.9F });
+		sensor.setSamples(3, new float[] { 0.2F }, new float[] { 0.4F });
+		BenchmarkUtil.measure("ColorSensor.measureColor", opsCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				long v = 0L;
+				for (int i = 0; i < count; i++) {
+					v += colorSensor.measureColor();
+				}
+				return v;
+			}
+		});
+		BenchmarkUtil.measure("ColorSensor.measureReflectedLightIntensity", opsCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				long v = 0L;
+				for (int i = 0; i < count; i++) {
+					v += colorSensor.measureReflectedLightIntensity();
+				}
+				return v;
+			}
+		});
+		BenchmarkUtil.measure("ColorSensor.measureReflectedLightIntensityF", opsCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				long v = 0L;
+				for (int i = 0; i < count; i++) {
+					v += Float.floatToIntBits(colorSensor.measureReflectedLightIntensityF());
+				}
+				return v;
+			}
+		});
+		BenchmarkUtil.measure("ColorSensor.measureAmbientLightIntensity", opsCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				long v = 0L;
+				for (int i = 0; i < count; i++) {
+					v += colorSensor.measureAmbientLightIntensity();
+				}
+				return v;
+			}
+		});
+		BenchmarkUtil.measure("ColorSensor.measureAmbientLightIntensityF", opsCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				long v = 0L;
+				for (int i = 0; i < count; i++) {
+					v += Float.floatToIntBits(colorSensor.measureAmbientLightIntensityF());
+				}
+				return v;
+			}
+		});
+	}
+
+	/**
+	 * Display.textPixels
+	 */
+	private static void benchDisplay() {
+		BenchmarkUtil.measure("Display.textPixels(int)", opsCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				for (int i = 0; i < count; i++) {
+					Display.textPixels(i, false, 0, 0, Display.COLOR_BLACK, Display.FONT_NORMAL);
+				}
+				return count;
+			}
+		});
+		BenchmarkUtil.measure("Display.textPixels(String)", opsCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				for (int i = 0; i < count; i++) {
+					Display.textPixels("Speed", false, 0, 20, Display.COLOR_BLACK, Display.FONT_SMALL);
+				}
+				return count;
+			}
+		});
+	}
+
+	/**
+	 * FileAccess.write and FileAccess.read
+	 */
+	private static void benchFileAccess() {
+		final String filename = "bench";
+		FileAccess.delete(filename);
+		BenchmarkUtil.measure("FileAccess.write(int)", opsCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				for (int i = 0; i < count; i++) {
+					FileAccess.write(filename, i);
+				}
+				return count;
+			}
+		});
+		BenchmarkUtil.measure("FileAccess.write(float)", opsCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				for (int i = 0; i < count; i++) {
+					FileAccess.write(filename, i * 0.5F);
+				}
+				return count;
+			}
+		});
+		FileAccess.close(filename);
+		// each round (re)opens the file and reads the first lines
+		BenchmarkUtil.measure("FileAccess.read", opsCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				long v = 0L;
+				for (int i = 0; i < count; i++) {
+					v += FileAccess.read(filename).length();
+				}
+				FileAccess.close(filename);
+				return v;
+			}
+		});
+		BenchmarkUtil.measure("FileAccess.readInt", opsCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				long v = 0L;
+				for (int i = 0; i < count; i++) {
+					v += FileAccess.readInt(filename);
+				}
+				FileAccess.close(filename);
+				return v;
+			}
+		});
+	}
+
+	/**
+	 * Random.numeric
+	 */
+	private static void benchRandom() {
+		BenchmarkUtil.measure("Random.numeric(float)", opsCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				long v = 0L;
+				for (int i = 0; i < count; i++) {
+					v += Float.floatToIntBits(Random.numeric(-10F, 10F));
+				}
+				return v;
+			}
+		});
+		BenchmarkUtil.measure("Random.numeric(int)", opsCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				long v = 0L;
+				for (int i = 0; i < count; i++) {
+					v += Random.numeric(1, 6);
+				}
+				return v;
+			}
+		});
+	}
+
+	/**
+	 * EV3Audio.writePCMSamples
+	 */
+	private static void benchEV3Audio() {
+		final EV3Audio audio = (EV3Audio) EV3Audio.getAudio();
+		final byte[] data = new byte[1024];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 7);
+		}
+		audio.startPCMPlayback(16, 8000, 100);
+		BenchmarkUtil.measure("EV3Audio.writePCMSamples(16bit, 1KiB)", opsCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				for (int i = 0; i < count; i++) {
+					audio.writePCMSamples(data, 0, data.length);
+				}
+				return count;
+			}
+		});
+		audio.endPCMPlayback();
+		audio.startPCMPlayback(8, 8000, 100);
+		BenchmarkUtil.measure("EV3Audio.writePCMSamples(8bit, 1KiB)", opsCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				for (int i = 0; i < count; i++) {
+					audio.writePCMSamples(data, 0, data.length);
+				}
+				return count;
+			}
+		});
+		audio.endPCMPlayback();
+	}
+
+	/**
+	 * MoveSteering exposing the power calculation.
+	 */
+	static class SteeringBench extends MoveSteering {
+		/**
+		 * Constructor.
+		 */
+		SteeringBench() {
+			super((lejos.hardware.port.Port) null, (lejos.hardware.port.Port) null);
+		}
+
+		/**
+		 * @see MoveSteering#calcPower(float, float)
+		 */
+		float[] power(float steering, float power) {
+			return calcPower(steering, power);
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/**
+ * 
+ */
+package le2lejosev3.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.Parallel;
+
+/**
+ * Benchmark and test of the thread pool of the Parallel helper.
+ * Compares the cost of starting and joining new threads with the dispatch of
+ * the same work to the pool and checks the timeout, cancellation and exception
+ * handling of the pool methods, more branches than pool threads, and a task
+ * that outlives the main thread.
+ * (runs on an ordinary computer as well as on the EV3 brick)
+ * 
+ * @author Roland Blochberger
+ */
+public class ParallelBenchmark {
+
+	private static Class<?> clazz = ParallelBenchmark.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	// number of parallel blocks per benchmark round
+	private static final int blockCount = 1000;
+
+	// a short task
+	private static final AtomicInteger counter = new AtomicInteger(0);
+	private static final Runnable task = new Runnable() {
+		@Override
+		public void run() {
+			counter.incrementAndGet();
+		}
+	};
+
+	/**
+	 * Main program entry point.
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for INFO level
+		Setup.log2File(clazz, Level.INFO);
+		log.info("Starting ...");
+
+		BenchmarkUtil.Result spawn = BenchmarkUtil.measure("Parallel.run(new Thread, new Thread)", blockCount,
+				new BenchmarkUtil.Op() {
+					@Override
+					public long run(int count) {
+						for (int i = 0; i < count; i++) {
+							Parallel.run(new Thread(task), new Thread(task));
+						}
+						return counter.get();
+					}
+				});
+		BenchmarkUtil.Result pooled = BenchmarkUtil.measure("Parallel.runAll(task, task)", blockCount,
+				new BenchmarkUtil.Op() {
+					@Override
+					public long run(int count) {
+						for (int i = 0; i < count; i++) {
+							Parallel.runAll(task, task);
+						}
+						return counter.get();
+					}
+				});
+		BenchmarkUtil.measure("Parallel.submit(task).get()", blockCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				try {
+					for (int i = 0; i < count; i++) {
+						Parallel.submit(task).get();
+					}
+				} catch (InterruptedException e) {
+					// ignore
+				} catch (ExecutionException e) {
+					log.log(Level.WARNING, "task failed", e);
+				}
+				return counter.get();
+			}
+		});
+		log.info("speedup of the pool: " + (spawn.nsPerOp / pooled.nsPerOp));
+
+		// results in task order
+		List<Callable<Integer>> calls = new ArrayList<Callable<Integer>>();
+		for (int i = 0; i < 4; i++) {
+			final int n = i;
+			calls.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					Thread.sleep(40L - (n * 10L));
+					return n;
+				}
+			});
+		}
+		List<Integer> results = Parallel.callAll(0L, calls);
+		check("results in order", results.toString(), "[0, 1, 2, 3]");
+
+		// timeout cancels the tasks
+		final AtomicInteger cancelled = new AtomicInteger(0);
+		Runnable sleeper = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(10000L);
+				} catch (InterruptedException e) {
+					cancelled.incrementAndGet();
+				}
+			}
+		};
+		long ts = System.currentTimeMillis();
+		boolean done = Parallel.runAll(100L, sleeper, sleeper);
+		long td = System.currentTimeMillis() - ts;
+		sleep(50L);
+		check("timeout", done + " after >= 100ms: " + (td >= 100L) + ", cancelled: " + cancelled.get(),
+				"false after >= 100ms: true, cancelled: 2");
+
+		// the first exception is thrown and the other tasks are cancelled
+		cancelled.set(0);
+		String message = null;
+		try {
+			Parallel.runAll(sleeper, new Runnable() {
+				@Override
+				public void run() {
+					// let the other tasks start
+					ParallelBenchmark.sleep(20L);
+					throw new IllegalStateException("branch failed");
+				}
+			}, sleeper);
+		} catch (IllegalStateException e) {
+			message = e.getMessage();
+		}
+		sleep(50L);
+		check("first exception", message + ", cancelled: " + cancelled.get(), "branch failed, cancelled: 2");
+
+		// a single task can be cancelled
+		cancelled.set(0);
+		Future<?> future = Parallel.submit(sleeper);
+		sleep(20L);
+		future.cancel(true);
+		sleep(50L);
+		check("cancel", future.isCancelled() + ", cancelled: " + cancelled.get(), "true, cancelled: 1");
+
+		// more branches than pool threads run at the same time: each one waits
+		// for all the others
+		final int branches = Parallel.MAX_THREADS + 4;
+		final CountDownLatch started = new CountDownLatch(branches);
+		final AtomicInteger met = new AtomicInteger(0);
+		Runnable[] waiters = new Runnable[branches];
+		for (int i = 0; i < branches; i++) {
+			waiters[i] = new Runnable() {
+				@Override
+				public void run() {
+					started.countDown();
+					try {
+						if (started.await(2L, TimeUnit.SECONDS)) {
+							met.incrementAndGet();
+						}
+					} catch (InterruptedException e) {
+						// cancelled
+					}
+				}
+			};
+		}
+		String result = null;
+		try {
+			result = Parallel.runAll(waiters) + ", met: " + met.get();
+		} catch (RuntimeException e) {
+			result = e.toString();
+		}
+		check("more branches than threads", result, "true, met: " + branches);
+
+		// a submitted task keeps the program running after the main thread ended;
+		// the check is logged after "The End"
+		Parallel.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(500L);
+					log.info("task after main: OK");
+				} catch (InterruptedException e) {
+					log.warning("task after main: FAILED, interrupted");
+				}
+			}
+		});
+
+		log.info("The End");
+	}
+
+	/**
+	 * log the check result.
+	 */
+	private static void check(String name, String value, String expected) {
+		if (value.equals(expected)) {
+			log.info(name + ": OK");
+		} else {
+			log.warning(name + ": FAILED, " + value + " instead of " + expected);
+		}
+	}
+
+	/**
+	 * sleep without interruption handling.
+	 */
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			// ignore
+		}
+	}
+}
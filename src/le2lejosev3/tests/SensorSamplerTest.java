@@ -0,0 +1,243 @@
+/**
+ *
+ */
+package le2lejosev3.tests;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.ColorSensor;
+import le2lejosev3.pblocks.Hardware;
+import le2lejosev3.pblocks.InfraredSensor;
+import le2lejosev3.pblocks.SensorSampler;
+import le2lejosev3.pblocks.SensorSnapshot;
+import le2lejosev3.pblocks.SimHardware;
+import le2lejosev3.pblocks.TouchSensor;
+import le2lejosev3.pblocks.UltrasonicSensor;
+import lejos.robotics.SampleProvider;
+
+/**
+ * Test for the background sensor sampler.
+ * (runs against the simulated hardware on an ordinary computer; does not need
+ * an EV3 brick)
+ *
+ * @author Roland Blochberger
+ */
+public class SensorSamplerTest {
+
+	private static Class<?> clazz = SensorSamplerTest.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	// number of samples per benchmark round
+	private static final int samplesCount = 100000;
+
+	/**
+	 * Main program entry point.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for INFO level
+		Setup.log2File(clazz, Level.INFO);
+		log.info("Starting ...");
+
+		// use the simulated hardware before any block is used
+		SimHardware sim = new SimHardware();
+		Hardware.set(sim);
+		final ColorSensor colorSensor = new ColorSensor(null);
+		SimHardware.SimSensor sensor = sim.getSensors().get(0);
+		sensor.setSamples(1, new float[] { 0.2F });
+		sensor.setSamples(3, new float[] { 0.4F });
+
+		// direct measurement
+		BenchmarkUtil.Result direct = BenchmarkUtil.measure("direct measureReflectedLightIntensityF", samplesCount,
+				new BenchmarkUtil.Op() {
+					@Override
+					public long run(int count) {
+						long v = 0L;
+						for (int i = 0; i < count; i++) {
+							v += Float.floatToIntBits(colorSensor.measureReflectedLightIntensityF());
+						}
+						return v;
+					}
+				});
+
+		// sampled measurement
+		SensorSampler sampler = new SensorSampler(200F);
+		colorSensor.setSampler(sampler);
+		check("initial sample", colorSensor.measureReflectedLightIntensity(), 20);
+		long fetches = sensor.getFetchCount(1);
+		BenchmarkUtil.Result sampled = BenchmarkUtil.measure("sampled measureReflectedLightIntensityF", samplesCount,
+				new BenchmarkUtil.Op() {
+					@Override
+					public long run(int count) {
+						long v = 0L;
+						for (int i = 0; i < count; i++) {
+							v += Float.floatToIntBits(colorSensor.measureReflectedLightIntensityF());
+						}
+						return v;
+					}
+				});
+		log.info("speedup: " + (direct.nsPerOp / sampled.nsPerOp));
+		log.info("fetches by the sampler during the benchmark: " + (sensor.getFetchCount(1) - fetches));
+
+		// the sampler follows changes of the sensor
+		sensor.setSamples(1, new float[] { 0.6F });
+		sleep(50L);
+		check("changed sample", colorSensor.measureReflectedLightIntensity(), 60);
+		// other modes still work while sampling
+		check("ambient while sampling", colorSensor.measureAmbientLightIntensity(), 40);
+
+		// the sample rate
+		long cycles = sampler.getCycleCount();
+		sleep(1000L);
+		cycles = sampler.getCycleCount() - cycles;
+		log.info("cycles in 1s at 200/s: " + cycles + ", overruns: " + sampler.getOverrunCount());
+		if ((cycles < 150) || (cycles > 210)) {
+			log.warning("sample rate: FAILED");
+		}
+
+		// multi value samples are never torn
+		final SensorSnapshot snapshot = sampler.register(new Object(), new SampleProvider() {
+			private float n = 0F;
+
+			@Override
+			public int sampleSize() {
+				return 3;
+			}
+
+			@Override
+			public void fetchSample(float[] sample, int offset) {
+				n += 1F;
+				sample[offset] = n;
+				sample[offset + 1] = -n;
+				sample[offset + 2] = 2F * n;
+			}
+		});
+		sampler.setRate(10000F);
+		float[] sample = new float[snapshot.sampleSize()];
+		int torn = 0;
+		long end = System.currentTimeMillis() + 500L;
+		int reads = 0;
+		while (System.currentTimeMillis() < end) {
+			snapshot.getSample(sample);
+			if ((sample[1] != -sample[0]) || (sample[2] != (2F * sample[0]))) {
+				torn++;
+			}
+			reads++;
+		}
+		log.info(reads + " reads of " + snapshot.getCount() + " samples, torn: " + torn);
+		if (torn > 0) {
+			log.warning("torn samples: FAILED");
+		}
+
+		// the releases between two reads are counted
+		SensorSnapshot touch = sampler.register(new Object(), new SampleProvider() {
+			private int n = 0;
+
+			@Override
+			public int sampleSize() {
+				return 1;
+			}
+
+			@Override
+			public void fetchSample(float[] sample, int offset) {
+				// pressed and released by turns
+				sample[offset] = ((n++ & 1) == 0) ? 1F : 0F;
+			}
+		});
+		sleep(100L);
+		sampler.unregister(touch);
+		log.info(touch.getCount() + " samples, " + touch.getReleaseCount() + " releases");
+		check("releases", touch.getReleaseCount(), touch.getCount() / 2);
+
+		// back to direct measurement
+		sampler.unregister(snapshot);
+		colorSensor.setSampler(null);
+		sampler.stop();
+		sensor.setSamples(1, new float[] { 0.8F });
+		check("direct after sampling", colorSensor.measureReflectedLightIntensity(), 80);
+
+		// the sampler polls the mode the sensor blocks measure
+		sampler = new SensorSampler(200F);
+		colorSensor.setSampler(sampler);
+		check("color ambient sampled", colorSensor.measureAmbientLightIntensity(), 40);
+		checkNoSwitches("color ambient", sensor);
+		check("color reflected sampled", colorSensor.measureReflectedLightIntensity(), 80);
+		checkNoSwitches("color reflected", sensor);
+		colorSensor.setSampler(null);
+
+		UltrasonicSensor usSensor = new UltrasonicSensor(null);
+		SimHardware.SimSensor usSim = sim.getSensors().get(1);
+		usSim.setSamples(0, new float[] { 0.42F });
+		usSim.setSamples(1, new float[] { 1F });
+		usSensor.setSampler(sampler);
+		check("ultrasonic distance sampled", Math.round(usSensor.measureDistanceCentimeters()), 42);
+		checkNoSwitches("ultrasonic distance", usSim);
+		check("ultrasonic presence sampled", usSensor.measurePresence() ? 1 : 0, 1);
+		checkNoSwitches("ultrasonic presence", usSim);
+		usSensor.setSampler(null);
+
+		InfraredSensor irSensor = new InfraredSensor(null);
+		SimHardware.SimSensor irSim = sim.getSensors().get(2);
+		irSim.setSamples(0, new float[] { 33F });
+		irSim.setSamples(1, new float[] { 0F, 0F, -5F, 20F, 0F, 0F, 0F, 0F });
+		irSim.setSamples(2, new float[] { 0F, 0F, InfraredSensor.BOTTOM_BOTH, 0F });
+		irSensor.setSampler(sampler);
+		check("ir proximity sampled", Math.round(irSensor.measureProximity()), 33);
+		checkNoSwitches("ir proximity", irSim);
+		int[] seek = irSensor.measureBeacon(2);
+		check("ir beacon sampled", seek[0] * 1000 + seek[1] * 10 + seek[2], -5000 + 200 + 1);
+		checkNoSwitches("ir beacon", irSim);
+		check("ir remote sampled", irSensor.measureRemote(3), InfraredSensor.BOTTOM_BOTH);
+		checkNoSwitches("ir remote", irSim);
+		check("ir proximity again", Math.round(irSensor.measureProximity()), 33);
+		irSensor.setSampler(null);
+
+		TouchSensor touchSensor = new TouchSensor(null);
+		SimHardware.SimSensor touchSim = sim.getSensors().get(3);
+		touchSim.setSamples(0, new float[] { 1F });
+		touchSensor.setSampler(sampler);
+		check("touch pressed sampled", touchSensor.compareState(TouchSensor.PRESSED) ? 1 : 0, 1);
+		touchSim.setSamples(0, new float[] { 0F });
+		sleep(50L);
+		check("touch bumped sampled", touchSensor.compareState(TouchSensor.BUMPED) ? 1 : 0, 1);
+		check("touch bumped only once", touchSensor.compareState(TouchSensor.BUMPED) ? 1 : 0, 0);
+		touchSensor.setSampler(null);
+		sampler.stop();
+
+		log.info("The End");
+	}
+
+	/**
+	 * log the check result.
+	 */
+	private static void check(String name, int value, int expected) {
+		if (value == expected) {
+			log.info(name + ": OK");
+		} else {
+			log.warning(name + ": FAILED, " + value + " instead of " + expected);
+		}
+	}
+
+	/**
+	 * check that the sampler does not switch the mode of the sensor.
+	 */
+	private static void checkNoSwitches(String name, SimHardware.SimSensor sensor) {
+		long switches = sensor.getModeSwitchCount();
+		sleep(100L);
+		check(name + " without mode switches", (int) (sensor.getModeSwitchCount() - switches), 0);
+	}
+
+	/**
+	 * sleep without interruption handling.
+	 */
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			// ignore
+		}
+	}
+}
@@ -0,0 +1,311 @@
+/**
+ *
+ */
+package le2lejosev3.tests;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.Change;
+import le2lejosev3.pblocks.Hardware;
+import le2lejosev3.pblocks.InfraredSensor;
+import le2lejosev3.pblocks.SensorSampler;
+import le2lejosev3.pblocks.SimHardware;
+import le2lejosev3.pblocks.TouchSensor;
+
+/**
+ * Benchmark of the sensor wait methods.
+ * Compares the former sleep-polling wait loops with the event-driven wait
+ * methods TouchSensor.waitCompareState() and
+ * InfraredSensor.waitChangeProximity(): the wake-up latency after a sensor
+ * change, the wake-up latency after pressing Escape, and the CPU time used
+ * while threads wait.
+ * (runs against the simulated hardware on an ordinary computer; does not need
+ * an EV3 brick)
+ *
+ * @author Roland Blochberger
+ */
+public class SensorWaitBenchmark {
+
+	private static Class<?> clazz = SensorWaitBenchmark.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	// number of measured wake-ups
+	private static final int wakeCount = 50;
+	// idle time for the CPU measurement
+	private static final long idleMillis = 2000L;
+
+	private static SimHardware sim = null;
+
+	/**
+	 * The scripted value of a simulated sensor mode that is switched by the
+	 * benchmark.
+	 */
+	private static class Flip {
+		private final SimHardware.SimSensor sensor;
+		private final int mode;
+		private volatile float value = 0F;
+		private volatile long flipTime = 0L;
+
+		Flip(SimHardware.SimSensor sensor, int mode) {
+			this.sensor = sensor;
+			this.mode = mode;
+			sensor.setSamples(mode, new float[] { value });
+		}
+
+		void flip(float value) {
+			flipTime = System.nanoTime();
+			this.value = value;
+			sensor.setSamples(mode, new float[] { value });
+		}
+	}
+
+	/**
+	 * A wait method.
+	 */
+	private interface Waiter {
+		/**
+		 * wait until the sensor changes to the next value of the benchmark.
+		 *
+		 * @return true if the change was reported; false on Escape.
+		 */
+		boolean waitFor();
+
+		/**
+		 * @param value the current sensor value.
+		 * @return the value the sensor changes to when the waiter shall wake up.
+		 */
+		float next(float value);
+	}
+
+	/**
+	 * Main program entry point.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for INFO level
+		Setup.log2File(clazz, Level.INFO);
+		log.info("Starting ...");
+
+		// use the simulated hardware before any block is used
+		sim = new SimHardware();
+		Hardware.set(sim);
+		log.info("default sampler rate: " + SensorSampler.getDefault().getRate() + "/s");
+
+		final TouchSensor touchSensor = new TouchSensor(null);
+		Flip touch = new Flip(sim.getSensors().get(0), 0);
+		final InfraredSensor irSensor = new InfraredSensor(null);
+		Flip ir = new Flip(sim.getSensors().get(1), 0);
+
+		// the former touch sensor wait loop: sleep 2ms, fetch, compare, check Escape
+		Waiter touchPolling = new Waiter() {
+			@Override
+			public boolean waitFor() {
+				while (!sim.isEscapeDown()) {
+					try {
+						Thread.sleep(2L);
+					} catch (InterruptedException e) {
+						break;
+					}
+					if (touchSensor.compareState(TouchSensor.PRESSED)) {
+						return true;
+					}
+				}
+				return false;
+			}
+
+			@Override
+			public float next(float value) {
+				return (value == 0F) ? 1F : 0F;
+			}
+		};
+		// the event-driven touch sensor wait
+		Waiter touchEvent = new Waiter() {
+			@Override
+			public boolean waitFor() {
+				return touchSensor.waitCompareState(TouchSensor.PRESSED);
+			}
+
+			@Override
+			public float next(float value) {
+				return (value == 0F) ? 1F : 0F;
+			}
+		};
+
+		// the former infrared sensor wait loop: sleep 1ms, fetch, compare, check Escape
+		Waiter irPolling = new Waiter() {
+			@Override
+			public boolean waitFor() {
+				float iniVal = irSensor.measureProximity();
+				while (!sim.isEscapeDown()) {
+					try {
+						Thread.sleep(1L);
+					} catch (InterruptedException e) {
+						break;
+					}
+					if (irSensor.measureProximity() >= (iniVal + 5F)) {
+						return true;
+					}
+				}
+				return false;
+			}
+
+			@Override
+			public float next(float value) {
+				return (value < 90F) ? value + 10F : 0F;
+			}
+		};
+		// the event-driven infrared sensor wait
+		Waiter irEvent = new Waiter() {
+			@Override
+			public boolean waitFor() {
+				float iniVal = irSensor.measureProximity();
+				return (irSensor.waitChangeProximity(Change.CHANGE_INCREASE, 5F) >= (iniVal + 5F));
+			}
+
+			@Override
+			public float next(float value) {
+				return (value < 90F) ? value + 10F : 0F;
+			}
+		};
+
+		measureLatency("touch polling", touchPolling, touch);
+		measureLatency("touch event", touchEvent, touch);
+		measureLatency("ir polling", irPolling, ir);
+		measureLatency("ir event", irEvent, ir);
+		measureEscape("touch polling", touchPolling, touch);
+		measureEscape("touch event", touchEvent, touch);
+		measureEscape("ir polling", irPolling, ir);
+		measureEscape("ir event", irEvent, ir);
+
+		measureIdle("idle process", null, 0, touch);
+		measureIdle("touch polling", touchPolling, 1, touch);
+		measureIdle("touch event", touchEvent, 1, touch);
+		measureIdle("ir polling", irPolling, 1, ir);
+		measureIdle("ir event", irEvent, 1, ir);
+
+		log.info("The End");
+	}
+
+	/**
+	 * measure the wake-up latency after a sensor change.
+	 */
+	private static void measureLatency(String name, final Waiter waiter, Flip flip) {
+		long[] latency = new long[wakeCount];
+		int missed = 0;
+		for (int i = 0; i < wakeCount; i++) {
+			// reset the sensor if the next change would not wake up the waiter
+			if (waiter.next(flip.value) < flip.value) {
+				flip.flip(waiter.next(flip.value));
+			}
+			final long[] woken = new long[1];
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					if (waiter.waitFor()) {
+						woken[0] = System.nanoTime();
+					}
+				}
+			});
+			thread.start();
+			sleep(5L + (i % 10));
+			flip.flip(waiter.next(flip.value));
+			join(thread);
+			if (woken[0] == 0L) {
+				missed++;
+			}
+			latency[i] = woken[0] - flip.flipTime;
+		}
+		Arrays.sort(latency);
+		log.info(String.format("%-14s wake-up latency: median %8.3fms, max %8.3fms", name,
+				latency[wakeCount / 2] / 1000000.0, latency[wakeCount - 1] / 1000000.0));
+		if (missed > 0) {
+			log.warning(name + " wake-ups: FAILED, " + missed + " missed");
+		}
+	}
+
+	/**
+	 * measure the wake-up latency after pressing Escape.
+	 */
+	private static void measureEscape(String name, final Waiter waiter, Flip flip) {
+		// reset the sensor if the next change would not wake up the waiter;
+		// the change does not come
+		if (waiter.next(flip.value) < flip.value) {
+			flip.flip(waiter.next(flip.value));
+		}
+		final long[] woken = new long[1];
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				if (!waiter.waitFor()) {
+					woken[0] = System.nanoTime();
+				}
+			}
+		});
+		thread.start();
+		sleep(20L);
+		long pressed = System.nanoTime();
+		sim.setEscapeDown(true);
+		join(thread);
+		sim.setEscapeDown(false);
+		log.info(String.format("%-14s Escape latency: %8.3fms", name, (woken[0] - pressed) / 1000000.0));
+	}
+
+	/**
+	 * measure the process CPU time while threads wait for a sensor change that
+	 * does not come.
+	 */
+	private static void measureIdle(String name, final Waiter waiter, int count, Flip flip) {
+		if ((waiter != null) && (waiter.next(flip.value) < flip.value)) {
+			flip.flip(waiter.next(flip.value));
+		}
+		Thread[] threads = new Thread[count];
+		for (int i = 0; i < count; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					waiter.waitFor();
+				}
+			});
+			threads[i].start();
+		}
+		sleep(100L);
+		long cpu = BenchmarkUtil.processCpuTime();
+		sleep(idleMillis);
+		cpu = BenchmarkUtil.processCpuTime() - cpu;
+		// release the waiters
+		if (waiter != null) {
+			flip.flip(waiter.next(flip.value));
+		}
+		for (Thread thread : threads) {
+			join(thread);
+		}
+		log.info(String.format("%-14s %d waiter(s): CPU %6.2f%% of one core", name, count,
+				(cpu * 100.0) / (idleMillis * 1000000.0)));
+	}
+
+	/**
+	 * sleep without interruption handling.
+	 */
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			// ignore
+		}
+	}
+
+	/**
+	 * join without interruption handling.
+	 */
+	private static void join(Thread thread) {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			// ignore
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * 
+ */
+package le2lejosev3.tests;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.BrickButtons;
+import le2lejosev3.pblocks.BrickStatusLight;
+import le2lejosev3.pblocks.ColorSensor;
+import le2lejosev3.pblocks.Display;
+import le2lejosev3.pblocks.Hardware;
+import le2lejosev3.pblocks.InfraredSensor;
+import le2lejosev3.pblocks.LargeMotor;
+import le2lejosev3.pblocks.SimHardware;
+import le2lejosev3.pblocks.TouchSensor;
+import le2lejosev3.pblocks.UltrasonicSensor;
+import lejos.hardware.Keys;
+
+/**
+ * Test for the simulated hardware backend.
+ * (runs on an ordinary computer; does not need an EV3 brick)
+ * 
+ * @author Roland Blochberger
+ */
+public class SimHardwareTest {
+
+	private static Class<?> clazz = SimHardwareTest.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	// number of control loop iterations
+	private static final int loopCount = 100000;
+
+	/**
+	 * Main program entry point.
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for all levels
+		Setup.log2File(clazz, Level.ALL);
+		log.fine("Starting ...");
+
+		// use the simulated hardware before any block is used
+		SimHardware sim = new SimHardware();
+		Hardware.set(sim);
+
+		// the motor ports are not needed by the simulation
+		LargeMotor motor = new LargeMotor(null);
+		ColorSensor colorSensor = new ColorSensor(null);
+		// script a line edge for the reflected light intensity
+		SimHardware.SimSensor sensor = sim.getSensors().get(0);
+		sensor.setSamples(1, new float[] { 0.1F }, new float[] { 0.3F }, new float[] { 0.5F }, new float[] { 0.7F });
+
+		// rotate the motor by 2 rotations
+		motor.motorOnForRotations(50, 2, true);
+		log.info("tacho after 2 rotations: " + motor.measureDegrees());
+		// let the motor run for 1 simulated second
+		motor.rotationReset();
+		motor.motorOn(50);
+		sim.advance(1000);
+		motor.motorOff(true);
+		log.info("tacho after 1s at 50%: " + motor.measureDegrees());
+
+		// run a simple line follower loop as fast as possible
+		int light = 0;
+		long ts = System.nanoTime();
+		for (int i = 0; i < loopCount; i++) {
+			light = colorSensor.measureReflectedLightIntensity();
+			motor.motorOn(light - 40);
+			sim.advance(1);
+		}
+		long td = System.nanoTime() - ts;
+		log.info("line follower: " + loopCount + " loops in " + (td / 1000000L) + "ms ("
+				+ (td / loopCount) + "ns/loop), simulated " + sim.getTimeMillis() + "ms");
+
+		// draw on the simulated LCD
+		Display.shapesRectangle(true, 10, 10, 20, 10, true, Display.COLOR_BLACK);
+		Display.shapesCircle(false, 100, 60, 20, false, Display.COLOR_BLACK);
+		Display.textPixels(light, false, 0, 100, Display.COLOR_BLACK, Display.FONT_NORMAL);
+		SimHardware.SimLcd lcd = sim.getGraphicsLCD();
+		log.info("LCD refreshes: " + lcd.getRefreshCount() + ", pixel(15,15): " + lcd.getPixel(15, 15)
+				+ ", pixel(120,60): " + lcd.getPixel(120, 60) + ", text: " + lcd.getLastText());
+
+		// the status light and the system settings of the simulated brick
+		BrickStatusLight.on(BrickStatusLight.COLOR_ORANGE, BrickStatusLight.PULSE);
+		int pattern = sim.getLedPattern();
+		BrickStatusLight.off();
+		sim.setIntSetting("lejos.volume", 40);
+		log.info("LED pattern: " + pattern + ", after off: " + sim.getLedPattern() + ", volume setting: "
+				+ sim.getIntSetting("lejos.volume", 80));
+
+		// the other sensors and the brick buttons
+		TouchSensor touchSensor = new TouchSensor(null);
+		sim.getSensors().get(1).setSamples(0, new float[] { 1F });
+		UltrasonicSensor usSensor = new UltrasonicSensor(null);
+		sim.getSensors().get(2).setSamples(0, new float[] { 0.42F });
+		InfraredSensor irSensor = new InfraredSensor(null);
+		sim.getSensors().get(3).setSamples(2, new float[] { 0F, InfraredSensor.TOP_RIGHT, 0F, 0F });
+		sim.setButtons(Keys.ID_ENTER);
+		log.info("touch pressed: " + touchSensor.measureState() + ", distance: "
+				+ usSensor.measureDistanceCentimeters() + "cm, remote channel 2: " + irSensor.measureRemote(2)
+				+ ", brick button: " + BrickButtons.measure());
+
+		log.fine("The End");
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ *
+ */
+package le2lejosev3.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.EV3Audio;
+import le2lejosev3.pblocks.Hardware;
+import le2lejosev3.pblocks.SimHardware;
+import le2lejosev3.pblocks.Sound;
+
+/**
+ * Test of the sound clip cache of the Sound block.
+ * Checks that a decoded sound reaches the device with the same PCM data as the
+ * streamed sound file, the cache hits and misses, the preloading, and the
+ * eviction of the least recently played sounds; then compares the time to play
+ * a sound resource from the cache and by streaming.
+ * (runs against the simulated hardware on an ordinary computer; does not need
+ * an EV3 brick; the sound resources must be in the classpath)
+ *
+ * @author Roland Blochberger
+ */
+public class SoundClipCacheTest {
+
+	private static Class<?> clazz = SoundClipCacheTest.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	// number of plays per benchmark round
+	private static final int playCount = 20;
+
+	private static SimHardware.SimAudio audio = null;
+
+	/**
+	 * Main program entry point.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for INFO level
+		Setup.log2File(clazz, Level.INFO);
+		log.info("Starting ...");
+
+		// use the simulated hardware before any block is used
+		SimHardware sim = new SimHardware();
+		Hardware.set(sim);
+		audio = sim.getAudioDevice();
+
+		// the streamed sound is the reference
+		Sound.setClipCacheSize(0);
+		byte[] streamed = capture("Blue");
+		check("streamed data", streamed.length > 0 ? 1 : 0, 1);
+		check("streamed misses", Sound.getClipCacheMissCount(), 0);
+
+		// the decoded sound
+		Sound.setClipCacheSize(Sound.DEFAULT_CLIP_CACHE_SIZE);
+		byte[] decoded = capture("Blue");
+		check("decoded data", Arrays.equals(decoded, streamed) ? 1 : 0, 1);
+		check("first play misses", Sound.getClipCacheMissCount(), 1);
+		decoded = capture("Blue.wav");
+		check("cached data", Arrays.equals(decoded, streamed) ? 1 : 0, 1);
+		check("second play hits", Sound.getClipCacheHitCount(), 1);
+
+		// preloading
+		check("preload", Sound.preload("Green", "Ready", "Red") ? 1 : 0, 1);
+		long misses = Sound.getClipCacheMissCount();
+		capture("Green");
+		capture("Ready");
+		check("preloaded misses", Sound.getClipCacheMissCount(), misses);
+		check("preload missing", Sound.preload("Yellow", "NoSuchSound") ? 1 : 0, 0);
+
+		// the least recently played sound is evicted
+		Sound.clearClipCache();
+		Sound.preload("Blue", "Green", "Ready");
+		capture("Blue");
+		// room for two of the sounds only
+		Sound.setClipCacheSize(12000);
+		misses = Sound.getClipCacheMissCount();
+		capture("Blue");
+		check("kept recently played", Sound.getClipCacheMissCount(), misses);
+		capture("Green");
+		check("evicted least recently played", Sound.getClipCacheMissCount(), misses + 1);
+		// a sound larger than the cache is streamed
+		Sound.setClipCacheSize(1000);
+		decoded = capture("Blue");
+		check("too large streamed", Arrays.equals(decoded, streamed) ? 1 : 0, 1);
+		Sound.setClipCacheSize(Sound.DEFAULT_CLIP_CACHE_SIZE);
+
+		// the time to play a sound without waiting for the device
+		Sound.setClipCacheSize(0);
+		measure("streamed playFile");
+		Sound.setClipCacheSize(Sound.DEFAULT_CLIP_CACHE_SIZE);
+		Sound.preload("Blue");
+		measure("cached playFile");
+
+		log.info("The End");
+	}
+
+	/**
+	 * measure the time to play the sound.
+	 */
+	private static void measure(String name) {
+		BenchmarkUtil.measure(name, playCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				for (int i = 0; i < count; i++) {
+					Sound.playFile("Blue", 100, Sound.WAIT);
+				}
+				return count;
+			}
+		});
+	}
+
+	/**
+	 * play the sound and wait until done.
+	 *
+	 * @return the PCM data the device received.
+	 */
+	private static byte[] capture(String filename) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		audio.setCapture(out);
+		Sound.playFile(filename, 100, Sound.WAIT);
+		audio.setCapture(null);
+		return out.toByteArray();
+	}
+
+	/**
+	 * check a value.
+	 */
+	private static void check(String name, long value, long expected) {
+		if (value == expected) {
+			log.info(name + ": OK");
+		} else {
+			log.warning(name + ": FAILED, " + value + " instead of " + expected);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ *
+ */
+package le2lejosev3.tests;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.Hardware;
+import le2lejosev3.pblocks.SimHardware;
+import le2lejosev3.pblocks.Sound;
+
+/**
+ * Benchmark of the idle background sound thread of the Sound block.
+ * Compares the CPU time of the former background thread (a Thread.yield() spin
+ * loop) with the parked sound thread while nothing plays, and measures the
+ * time from playTone() with ONCE until the tone command reaches the device.
+ * (runs against the simulated hardware on an ordinary computer; does not need
+ * an EV3 brick)
+ *
+ * @author Roland Blochberger
+ */
+public class SoundIdleBenchmark {
+
+	private static Class<?> clazz = SoundIdleBenchmark.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	// the idle time to measure
+	private static final long idleMillis = 2000L;
+	// the number of tones to measure the latency
+	private static final int toneCount = 50;
+	// the command codes of the sound device
+	private static final int OP_TONE = 1;
+
+	// the command of the former thread
+	private static int frequency = 0;
+	private static volatile boolean running = true;
+
+	/**
+	 * Main program entry point.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for INFO level
+		Setup.log2File(clazz, Level.INFO);
+		log.info("Starting ...");
+
+		// use the simulated hardware before any block is used
+		SimHardware sim = new SimHardware();
+		Hardware.set(sim);
+		SimHardware.SimAudio audio = sim.getAudioDevice();
+
+		// the former background thread
+		Thread former = new Thread() {
+			@Override
+			public void run() {
+				int freq = 0;
+				while (running) {
+					Thread.yield();
+					synchronized (clazz) {
+						freq = frequency;
+					}
+					if (freq != 0) {
+						synchronized (clazz) {
+							frequency = 0;
+						}
+					}
+				}
+			}
+		};
+		former.setDaemon(true);
+		former.setPriority(Thread.MIN_PRIORITY);
+		former.start();
+		long formerCpu = idleCpu();
+		running = false;
+		try {
+			former.join();
+		} catch (InterruptedException e) {
+			// ignore
+		}
+
+		// the sound thread starts with the Sound class
+		Sound.stop();
+		sleep(100L);
+		long cpu = idleCpu();
+		log.info(String.format("idle CPU time in %dms: former %dms, parked %dms", idleMillis, formerCpu / 1000000L,
+				cpu / 1000000L));
+		check("idle CPU time below 5%", cpu < idleMillis * 50000L ? 1 : 0, 1);
+
+		// the latency of a background tone
+		long[] nanos = new long[toneCount];
+		for (int i = 0; i < toneCount; i++) {
+			long count = audio.getCommandCount(OP_TONE);
+			long ts = System.nanoTime();
+			Sound.playTone(1000, 0.005F, 50, Sound.ONCE);
+			while ((audio.getCommandCount(OP_TONE) == count) && (System.nanoTime() - ts < 1000000000L)) {
+				Thread.yield();
+			}
+			nanos[i] = System.nanoTime() - ts;
+			sleep(20L);
+		}
+		Arrays.sort(nanos);
+		log.info(String.format("tone command latency: median %.1fus, max %.1fus", nanos[toneCount / 2] / 1000.0,
+				nanos[toneCount - 1] / 1000.0));
+		check("tone latency below 100ms", nanos[toneCount - 1] < 100000000L ? 1 : 0, 1);
+
+		log.info("The End");
+	}
+
+	/**
+	 * @return the CPU time of the process while the main thread sleeps.
+	 */
+	private static long idleCpu() {
+		long cpu = BenchmarkUtil.processCpuTime();
+		sleep(idleMillis);
+		return BenchmarkUtil.processCpuTime() - cpu;
+	}
+
+	/**
+	 * sleep without interruption handling.
+	 */
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			// ignore
+		}
+	}
+
+	/**
+	 * check a value.
+	 */
+	private static void check(String name, long value, long expected) {
+		if (value == expected) {
+			log.info(name + ": OK");
+		} else {
+			log.warning(name + ": FAILED, " + value + " instead of " + expected);
+		}
+	}
+}
@@ -0,0 +1,348 @@
+/**
+ *
+ */
+package le2lejosev3.tests;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.EV3Audio;
+import le2lejosev3.pblocks.Hardware;
+import le2lejosev3.pblocks.SimHardware;
+
+/**
+ * Benchmark of the WAV loading of the EV3Audio class.
+ * Measures the time from the start of a playback until the first PCM data
+ * reaches the simulated sound device for WAV files with a large chunk before
+ * the data chunk: the former parser (skips byte by byte through a
+ * DataInputStream) against the WAV reader with a mapped file and with a
+ * stream. Checks the PCM data of 8 bit and 16 bit files.
+ * (runs against the simulated hardware on an ordinary computer; does not need
+ * an EV3 brick)
+ *
+ * @author Roland Blochberger
+ */
+public class SoundLoadBenchmark {
+
+	private static Class<?> clazz = SoundLoadBenchmark.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	// the sample rate of the generated files
+	private static final int sampleRate = 8000;
+	// the size of the chunk before the data chunk
+	private static final int listSize = 64 * 1024;
+	// number of playbacks per benchmark round
+	private static final int playCount = 20;
+	private static final int rounds = 5;
+
+	private static SimHardware.SimAudio audio = null;
+
+	/**
+	 * Captures the PCM data and the time the first data arrived.
+	 */
+	private static class FirstSample extends OutputStream {
+		private long first = 0L;
+		private ByteArrayOutputStream data = null;
+
+		void reset(boolean keepData) {
+			first = 0L;
+			data = keepData ? new ByteArrayOutputStream() : null;
+		}
+
+		@Override
+		public void write(int b) {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			if (first == 0L) {
+				first = System.nanoTime();
+			}
+			if (data != null) {
+				data.write(b, off, len);
+			}
+		}
+	}
+
+	/**
+	 * Main program entry point.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for INFO level
+		Setup.log2File(clazz, Level.INFO);
+		log.info("Starting ...");
+
+		// use the simulated hardware before any block is used
+		SimHardware sim = new SimHardware();
+		Hardware.set(sim);
+		audio = sim.getAudioDevice();
+		EV3Audio ev3Audio = (EV3Audio) EV3Audio.getAudio();
+		FirstSample capture = new FirstSample();
+		audio.setCapture(capture);
+
+		File file16 = null;
+		File file8 = null;
+		try {
+			byte[] pcm16 = samples16(sampleRate / 10);
+			byte[] pcm8 = samples8(sampleRate / 10);
+			file16 = writeFile(wav(pcm16, 16));
+			file8 = writeFile(wav(pcm8, 8));
+
+			// the PCM data that reaches the device
+			checkPlay("16 bit file", ev3Audio, capture, file16, false, pcm16);
+			checkPlay("16 bit stream", ev3Audio, capture, file16, true, pcm16);
+			checkPlay("8 bit file", ev3Audio, capture, file8, false, to16(pcm8));
+			checkPlay("8 bit stream", ev3Audio, capture, file8, true, to16(pcm8));
+			check("former 16 bit", formerPlay(file16, capture), 0);
+
+			// load-to-first-sample latency
+			for (int round = 0; round < rounds; round++) {
+				measure("former parser", ev3Audio, capture, file16, 0, round == rounds - 1);
+				measure("mapped file", ev3Audio, capture, file16, 1, round == rounds - 1);
+				measure("stream", ev3Audio, capture, file16, 2, round == rounds - 1);
+			}
+
+		} catch (IOException e) {
+			log.log(Level.SEVERE, "cannot write the WAV files", e);
+		} finally {
+			audio.setCapture(null);
+			if (file16 != null) {
+				file16.delete();
+			}
+			if (file8 != null) {
+				file8.delete();
+			}
+		}
+
+		log.info("The End");
+	}
+
+	/**
+	 * measure the median time from the start of the playback to the first PCM
+	 * data; logs the result of the last round only (the other rounds warm up).
+	 *
+	 * @param mode 0 former parser, 1 playSample(File), 2 playSample(InputStream).
+	 */
+	private static void measure(String name, EV3Audio ev3Audio, FirstSample capture, File file, int mode,
+			boolean report) throws IOException {
+		long[] nanos = new long[playCount];
+		for (int i = 0; i < playCount; i++) {
+			capture.reset(false);
+			long start = System.nanoTime();
+			if (mode == 0) {
+				formerPlay(file, capture);
+			} else if (mode == 1) {
+				ev3Audio.playSample(file, 100);
+			} else {
+				ev3Audio.playSample(new FileInputStream(file), 100);
+			}
+			nanos[i] = capture.first - start;
+		}
+		if (report) {
+			Arrays.sort(nanos);
+			log.info(String.format("%s: %.1fus to the first sample (median of %d)", name,
+					nanos[playCount / 2] / 1000.0, playCount));
+		}
+	}
+
+	/**
+	 * play the WAV file and check the PCM data the device received.
+	 */
+	private static void checkPlay(String name, EV3Audio ev3Audio, FirstSample capture, File file, boolean stream,
+			byte[] expected) throws IOException {
+		capture.reset(true);
+		int r = stream ? ev3Audio.playSample(new FileInputStream(file), 100) : ev3Audio.playSample(file, 100);
+		check(name + " result", r, 0);
+		byte[] data = capture.data.toByteArray();
+		if (Arrays.equals(data, expected)) {
+			log.info(name + " data: OK");
+		} else {
+			log.warning(name + " data: FAILED, " + data.length + " bytes instead of " + expected.length);
+		}
+	}
+
+	/**
+	 * the former EV3Audio parser: check the header through a DataInputStream,
+	 * skip the other chunks byte by byte, then write the first data buffer to
+	 * the device.
+	 *
+	 * @return 0 if the first data was written; or < 0 on errors.
+	 */
+	private static int formerPlay(File file, FirstSample capture) throws IOException {
+		DataInputStream d = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (d.readInt() != 0x52494646) {
+				return -1;
+			}
+			d.readInt();
+			if (d.readInt() != 0x57415645) {
+				return -2;
+			}
+			if (d.readInt() != 0x666d7420) {
+				return -3;
+			}
+			int sz = readLSBInt(d);
+			d.readShort();
+			d.readShort();
+			int rate = readLSBInt(d);
+			d.readInt();
+			d.readShort();
+			d.readShort();
+			sz -= 16;
+			while (sz-- > 0) {
+				d.readByte();
+			}
+			byte[] cmd = new byte[] { 2, 100, (byte) rate, (byte) (rate >> 8), 0, 0 };
+			audio.write(cmd, cmd.length);
+			byte[] buf = new byte[8 * 1024 + 1];
+			for (;;) {
+				int tag = d.readInt();
+				sz = readLSBInt(d);
+				if (tag != 0x64617461) {
+					while (sz-- > 0) {
+						d.readByte();
+					}
+					continue;
+				}
+				int read = d.read(buf, 1, Math.min(sz, buf.length - 1));
+				buf[0] = 4;
+				audio.write(buf, 0, read + 1);
+				cmd[0] = 0;
+				audio.write(cmd, 1);
+				return 0;
+			}
+		} catch (EOFException e) {
+			return -1;
+		} finally {
+			d.close();
+		}
+	}
+
+	private static int readLSBInt(DataInputStream d) throws IOException {
+		int val = d.readByte() & 0xff;
+		val |= (d.readByte() & 0xff) << 8;
+		val |= (d.readByte() & 0xff) << 16;
+		val |= (d.readByte() & 0xff) << 24;
+		return val;
+	}
+
+	/**
+	 * @return a temporary file with the data.
+	 */
+	private static File writeFile(byte[] data) throws IOException {
+		File file = File.createTempFile("load", ".wav");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	/**
+	 * @return a WAV file with the PCM data; with a large chunk to skip before
+	 *         the data chunk.
+	 */
+	private static byte[] wav(byte[] pcm, int bits) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeTag(out, "RIFF");
+		writeInt(out, 4 + 24 + 8 + listSize + 8 + pcm.length);
+		writeTag(out, "WAVE");
+		writeTag(out, "fmt ");
+		writeInt(out, 16);
+		writeShort(out, 1);
+		writeShort(out, 1);
+		writeInt(out, sampleRate);
+		writeInt(out, sampleRate * bits / 8);
+		writeShort(out, bits / 8);
+		writeShort(out, bits);
+		writeTag(out, "LIST");
+		writeInt(out, listSize);
+		byte[] list = new byte[listSize];
+		out.write(list, 0, list.length);
+		writeTag(out, "data");
+		writeInt(out, pcm.length);
+		out.write(pcm, 0, pcm.length);
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return a 16 bit sine wave.
+	 */
+	private static byte[] samples16(int count) {
+		byte[] pcm = new byte[count * 2];
+		for (int i = 0; i < count; i++) {
+			int sample = (int) (Math.sin(i * 0.1) * 20000);
+			pcm[i * 2] = (byte) sample;
+			pcm[i * 2 + 1] = (byte) (sample >> 8);
+		}
+		return pcm;
+	}
+
+	/**
+	 * @return an 8 bit sine wave.
+	 */
+	private static byte[] samples8(int count) {
+		byte[] pcm = new byte[count];
+		for (int i = 0; i < count; i++) {
+			pcm[i] = (byte) (128 + (int) (Math.sin(i * 0.1) * 100));
+		}
+		return pcm;
+	}
+
+	/**
+	 * @return the 8 bit samples converted to 16 bit.
+	 */
+	private static byte[] to16(byte[] pcm8) {
+		byte[] pcm = new byte[pcm8.length * 2];
+		for (int i = 0; i < pcm8.length; i++) {
+			int sample = ((pcm8[i] & 0xff) - 128) << 8;
+			pcm[i * 2] = (byte) sample;
+			pcm[i * 2 + 1] = (byte) (sample >> 8);
+		}
+		return pcm;
+	}
+
+	private static void writeTag(ByteArrayOutputStream out, String tag) {
+		for (int i = 0; i < 4; i++) {
+			out.write(tag.charAt(i));
+		}
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int value) {
+		writeShort(out, value);
+		writeShort(out, value >> 16);
+	}
+
+	private static void writeShort(ByteArrayOutputStream out, int value) {
+		out.write(value);
+		out.write(value >> 8);
+	}
+
+	/**
+	 * check a value.
+	 */
+	private static void check(String name, long value, long expected) {
+		if (value == expected) {
+			log.info(name + ": OK");
+		} else {
+			log.warning(name + ": FAILED, " + value + " instead of " + expected);
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/**
+ *
+ */
+package le2lejosev3.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.Hardware;
+import le2lejosev3.pblocks.SimHardware;
+import le2lejosev3.pblocks.Sound;
+
+/**
+ * Test of the mix mode of the Sound block.
+ * Checks that a mixed sound reaches the device with the samples of the sound
+ * file, that background music and beeps play together in one device stream
+ * without underruns, that the sum of loud voices is saturated instead of
+ * wrapping around, and that stop() silences all voices; then measures how
+ * much faster than real time the mixer runs.
+ * (runs against the simulated hardware on an ordinary computer; does not need
+ * an EV3 brick; the sound resources must be in the classpath)
+ *
+ * @author Roland Blochberger
+ */
+public class SoundMixerTest {
+
+	private static Class<?> clazz = SoundMixerTest.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	// the emulated FIFO of the sound device (128ms at 16kHz)
+	private static final int fifoSize = 4096;
+	// the command codes of the sound device
+	private static final int OP_PLAY = 2;
+
+	private static SimHardware.SimAudio audio = null;
+
+	/**
+	 * Main program entry point.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for INFO level
+		Setup.log2File(clazz, Level.INFO);
+		log.info("Starting ...");
+
+		// use the simulated hardware before any block is used
+		SimHardware sim = new SimHardware();
+		Hardware.set(sim);
+		audio = sim.getAudioDevice();
+
+		// the 8kHz samples of the sound file are the even 16kHz samples
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		audio.setCapture(out);
+		Sound.playFile("Blue", 100, Sound.WAIT);
+		audio.setCapture(null);
+		short[] file = samples(out.toByteArray());
+		Sound.setMixMode(true);
+		check("mix mode", Sound.isMixMode() ? 1 : 0, 1);
+		out = new ByteArrayOutputStream();
+		audio.setCapture(out);
+		Sound.playFile("Blue", 100, Sound.WAIT);
+		audio.setCapture(null);
+		short[] mixed = samples(out.toByteArray());
+		int diff = 0;
+		for (int i = 0; i < file.length; i++) {
+			if ((i * 2 >= mixed.length) || (mixed[i * 2] != file[i])) {
+				diff++;
+			}
+		}
+		check("mixed samples", diff, 0);
+		sleep(100L);
+
+		// background music with beeps in one device stream
+		audio.setFifoSize(fifoSize);
+		audio.resetCounters();
+		out = new ByteArrayOutputStream();
+		audio.setCapture(out);
+		Sound.playFile("Green", 30, Sound.REPEAT);
+		sleep(300L);
+		Sound.playTone(1000, 0.2F, 100, Sound.ONCE);
+		sleep(100L);
+		Sound.playNote("A5", 0.2F, 100, Sound.WAIT);
+		sleep(200L);
+		check("device streams", audio.getCommandCount(OP_PLAY), 1);
+		check("device underruns", audio.getUnderrunCount(), 0);
+
+		// loud voices are saturated
+		Sound.playTone(440, 0.5F, 100, Sound.ONCE);
+		Sound.playFile("Blue", 100, Sound.WAIT);
+		// all voices stop
+		Sound.stop();
+		int stopped = out.size();
+		sleep(300L);
+		audio.setCapture(null);
+		mixed = samples(out.toByteArray());
+		int saturated = 0;
+		int jumps = 0;
+		for (int i = 1; i < mixed.length; i++) {
+			if ((mixed[i] == Short.MAX_VALUE) || (mixed[i] == Short.MIN_VALUE)) {
+				saturated++;
+			}
+			if (Math.abs(mixed[i] - mixed[i - 1]) > 50000) {
+				jumps++;
+			}
+		}
+		log.info("saturated samples: " + saturated);
+		check("saturated", saturated > 0 ? 1 : 0, 1);
+		check("wrapped around", jumps, 0);
+		// one more block may have been mixed before the stop
+		int loud = 0;
+		for (int i = stopped / 2 + 256; i < mixed.length; i++) {
+			if (mixed[i] != 0) {
+				loud++;
+			}
+		}
+		check("silent after stop", loud, 0);
+		audio.setFifoSize(0);
+		sleep(600L);
+
+		// a sound file larger than the sound clip cache is not mixed
+		Sound.setClipCacheSize(1024);
+		out = new ByteArrayOutputStream();
+		audio.setCapture(out);
+		Sound.playFile("Blue", 100, Sound.WAIT);
+		audio.setCapture(null);
+		check("too large to mix", out.size(), 0);
+		Sound.setClipCacheSize(Sound.DEFAULT_CLIP_CACHE_SIZE);
+
+		// the mixer speed without the device FIFO: 3 tones and a sound file; the
+		// last of 5 rounds (the others warm up)
+		// the sound file has 8kHz samples
+		double seconds = file.length / 8000.0;
+		for (int round = 0; round < 5; round++) {
+			long ts = System.nanoTime();
+			Sound.playTone(440, 10.0F, 30, Sound.ONCE);
+			Sound.playTone(660, 10.0F, 30, Sound.ONCE);
+			Sound.playTone(880, 10.0F, 30, Sound.ONCE);
+			Sound.playFile("Blue", 100, Sound.WAIT);
+			long nanos = System.nanoTime() - ts;
+			Sound.stop();
+			if (round == 4) {
+				log.info(String.format("4 voices: %.2fms for %.2fs of sound (%.0f times real time)", nanos / 1000000.0,
+						seconds, seconds * 1000000000.0 / nanos));
+			}
+			sleep(100L);
+		}
+		Sound.setMixMode(false);
+
+		log.info("The End");
+	}
+
+	/**
+	 * @return the 16 bit samples.
+	 */
+	private static short[] samples(byte[] pcm) {
+		short[] samples = new short[pcm.length / 2];
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = (short) ((pcm[i * 2] & 0xff) | (pcm[i * 2 + 1] << 8));
+		}
+		return samples;
+	}
+
+	/**
+	 * sleep without interruption handling.
+	 */
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			// ignore
+		}
+	}
+
+	/**
+	 * check a value.
+	 */
+	private static void check(String name, long value, long expected) {
+		if (value == expected) {
+			log.info(name + ": OK");
+		} else {
+			log.warning(name + ": FAILED, " + value + " instead of " + expected);
+		}
+	}
+}
@@ -0,0 +1,280 @@
+/**
+ *
+ */
+package le2lejosev3.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.Hardware;
+import le2lejosev3.pblocks.SimHardware;
+import le2lejosev3.pblocks.Sound;
+
+/**
+ * Test of the sound queue of the Sound block.
+ * Checks that queued sounds start in the order and at the offsets of their
+ * start times, that a sound of a higher priority stops the ones of a lower
+ * priority and keeps them from starting, that the queue depth is counted and a
+ * full queue refuses sounds, also with several producer threads; then measures
+ * the time to queue a sound.
+ * (runs against the simulated hardware on an ordinary computer; does not need
+ * an EV3 brick)
+ *
+ * @author Roland Blochberger
+ */
+public class SoundQueueTest {
+
+	private static Class<?> clazz = SoundQueueTest.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	// the sample rate of the mixer
+	private static final int sampleRate = 16000;
+	// the number of samples per mixed block
+	private static final int blockSize = 256;
+	// the emulated FIFO of the sound device (128ms at 16kHz)
+	private static final int fifoSize = 4096;
+	// the capacity of the queue
+	private static final int queueSize = 64;
+	// the number of producer threads
+	private static final int producers = 4;
+	// the opcode of the sound device to start a PCM playback
+	private static final int OP_PLAY = 2;
+
+	private static SimHardware.SimAudio audio = null;
+
+	/**
+	 * Main program entry point.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for INFO level
+		Setup.log2File(clazz, Level.INFO);
+		log.info("Starting ...");
+
+		// use the simulated hardware before any block is used
+		SimHardware sim = new SimHardware();
+		Hardware.set(sim);
+		audio = sim.getAudioDevice();
+		audio.setFifoSize(fifoSize);
+
+		// 3 tones queued in reverse order; 200ms apart
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		audio.setCapture(out);
+		Sound.queueTone(1500, 0.1F, 50, 0.4F, 0);
+		Sound.queueTone(1000, 0.1F, 50, 0.2F, 0);
+		Sound.queueTone(500, 0.1F, 50, 0.0F, 0);
+		check("queue depth", Sound.getQueueDepth() >= 2 ? 1 : 0, 1);
+		sleep(800L);
+		check("queue empty", Sound.getQueueDepth(), 0);
+		audio.setCapture(null);
+		short[] pcm = samples(out.toByteArray());
+		int[] onsets = onsets(pcm);
+		check("queued tones", onsets.length, 3);
+		if (onsets.length == 3) {
+			// the zero crossings per 100ms tone
+			check("tone order", crossings(pcm, onsets[0]) < crossings(pcm, onsets[1])
+					&& crossings(pcm, onsets[1]) < crossings(pcm, onsets[2]) ? 1 : 0, 1);
+			int offset = onsets[2] - onsets[1];
+			log.info("start offset: " + offset + " samples");
+			check("start offset", Math.abs(offset - sampleRate / 5) <= blockSize ? 1 : 0, 1);
+		}
+		sleep(700L);
+
+		// an alert stops the music and keeps a tone of a lower priority from
+		// starting
+		out = new ByteArrayOutputStream();
+		audio.setCapture(out);
+		Sound.queueTone(440, 2.0F, 30, 0.0F, 0);
+		Sound.queueTone(2000, 0.5F, 30, 0.3F, 10);
+		Sound.queueTone(880, 0.1F, 30, 0.5F, 5);
+		sleep(1200L);
+		audio.setCapture(null);
+		pcm = samples(out.toByteArray());
+		int peak = 0;
+		int end = pcm.length - 1;
+		while ((end > 0) && (pcm[end] == 0)) {
+			end--;
+		}
+		for (int i = 0; i < pcm.length; i++) {
+			peak = Math.max(peak, Math.abs(pcm[i]));
+		}
+		log.info(String.format("alert: %d samples of sound, peak %d", end + 1, peak));
+		// the alert ends 0.8s after the music started instead of 2s
+		check("music stopped", end + 1 < sampleRate ? 1 : 0, 1);
+		check("lower priority dropped", peak < 11000 ? 1 : 0, 1);
+		sleep(700L);
+
+		// without the mix mode an alert stops the music playing in the background
+		// and the music does not start again
+		Sound.playFile("Blue", 100, Sound.REPEAT);
+		sleep(300L);
+		out = new ByteArrayOutputStream();
+		audio.setCapture(out);
+		Sound.queueTone(2000, 1.0F, 100, 0.0F, 10);
+		sleep(100L);
+		audio.resetCounters();
+		sleep(1200L);
+		audio.setCapture(null);
+		long restarts = audio.getCommandCount(OP_PLAY);
+		pcm = samples(out.toByteArray());
+		// the blocks with the periods of the alert (32 per block at 2kHz)
+		int blocks = 0;
+		for (int from = 0; from + blockSize <= pcm.length; from += blockSize) {
+			int periods = 0;
+			for (int i = from + 1; i < from + blockSize; i++) {
+				if ((pcm[i - 1] < 0) && (pcm[i] >= 0)) {
+					periods++;
+				}
+			}
+			if (Math.abs(periods - 32) <= 1) {
+				blocks++;
+			}
+		}
+		log.info(String.format("alert over music: %d blocks of the alert, %d playbacks started", blocks, restarts));
+		check("alert played", blocks >= sampleRate / blockSize - 4 ? 1 : 0, 1);
+		check("music not restarted", restarts, 0);
+		Sound.stop();
+		sleep(700L);
+
+		// a sound file is queued from the sound clip cache only
+		Sound.clearClipCache();
+		check("queue uncached file", Sound.queueFile("Blue", 50, 0.0F, 0) ? 1 : 0, 0);
+		Sound.preload("Blue");
+		check("queue preloaded file", Sound.queueFile("Blue", 50, 0.0F, 0) ? 1 : 0, 1);
+		sleep(1000L);
+
+		// a full queue
+		int queued = 0;
+		for (int i = 0; i < queueSize + 1; i++) {
+			if (Sound.queueTone(1000, 0.1F, 50, 10.0F, 0)) {
+				queued++;
+			}
+		}
+		check("full queue", queued, queueSize);
+		check("full queue depth", Sound.getQueueDepth(), queueSize);
+		Sound.clearQueue();
+		sleep(100L);
+		check("cleared queue", Sound.getQueueDepth(), 0);
+
+		// several producers
+		final AtomicInteger accepted = new AtomicInteger(0);
+		Thread[] threads = new Thread[producers];
+		for (int t = 0; t < producers; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < queueSize / producers; i++) {
+						if (Sound.queueNote(Sound.PIANO, "C5", 0.1F, 10.0F, 0)) {
+							accepted.incrementAndGet();
+						}
+					}
+				}
+			};
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				// ignore
+			}
+		}
+		check("producers", accepted.get(), queueSize);
+		check("producers depth", Sound.getQueueDepth(), queueSize);
+		Sound.stop();
+		sleep(100L);
+		check("stopped queue", Sound.getQueueDepth(), 0);
+
+		// the time to queue a sound; the last of 10 rounds (the others warm up)
+		long[] nanos = new long[queueSize];
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < queueSize; i++) {
+				long ts = System.nanoTime();
+				Sound.queueTone(1000, 0.1F, 50, 10.0F, 0);
+				nanos[i] = System.nanoTime() - ts;
+			}
+			Sound.clearQueue();
+			sleep(50L);
+		}
+		Arrays.sort(nanos);
+		log.info(String.format("queue a tone: median %.1fus, max %.1fus", nanos[queueSize / 2] / 1000.0,
+				nanos[queueSize - 1] / 1000.0));
+		audio.setFifoSize(0);
+
+		log.info("The End");
+	}
+
+	/**
+	 * @return the start of each sound after at least one block of silence.
+	 */
+	private static int[] onsets(short[] pcm) {
+		int[] onsets = new int[16];
+		int n = 0;
+		int silent = blockSize;
+		for (int i = 0; i < pcm.length; i++) {
+			if (pcm[i] == 0) {
+				silent++;
+			} else {
+				if ((silent >= blockSize) && (n < onsets.length)) {
+					// the tone faded in from zero
+					onsets[n++] = Math.max(0, i - 1);
+				}
+				silent = 0;
+			}
+		}
+		return Arrays.copyOf(onsets, n);
+	}
+
+	/**
+	 * @return the number of zero crossings in the 100ms from the start.
+	 */
+	private static int crossings(short[] pcm, int from) {
+		int crossings = 0;
+		for (int i = from + 1; i < Math.min(pcm.length, from + sampleRate / 10); i++) {
+			if ((pcm[i - 1] < 0) && (pcm[i] >= 0)) {
+				crossings++;
+			}
+		}
+		return crossings;
+	}
+
+	/**
+	 * @return the 16 bit samples.
+	 */
+	private static short[] samples(byte[] pcm) {
+		short[] samples = new short[pcm.length / 2];
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = (short) ((pcm[i * 2] & 0xff) | (pcm[i * 2 + 1] << 8));
+		}
+		return samples;
+	}
+
+	/**
+	 * sleep without interruption handling.
+	 */
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			// ignore
+		}
+	}
+
+	/**
+	 * check a value.
+	 */
+	private static void check(String name, long value, long expected) {
+		if (value == expected) {
+			log.info(name + ": OK");
+		} else {
+			log.warning(name + ": FAILED, " + value + " instead of " + expected);
+		}
+	}
+}
@@ -0,0 +1,255 @@
+/**
+ *
+ */
+package le2lejosev3.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.Hardware;
+import le2lejosev3.pblocks.NoteSequence;
+import le2lejosev3.pblocks.SimHardware;
+import le2lejosev3.pblocks.Sound;
+
+/**
+ * Test of the note sequences of the Sound block.
+ * Checks the note frequencies of the former and the wider range, the pitch of
+ * each note of a compiled sequence, and that the notes start at their exact
+ * samples; then compares the note lookup of the former linear search with the
+ * table, and the length of a song played note by note with the sequence.
+ * (runs against the simulated hardware on an ordinary computer; does not need
+ * an EV3 brick)
+ *
+ * @author Roland Blochberger
+ */
+public class SoundSequenceTest {
+
+	private static Class<?> clazz = SoundSequenceTest.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	// the sample rate of the mixer
+	private static final int sampleRate = 16000;
+	// the number of samples per mixed block
+	private static final int blockSize = 256;
+	// the emulated FIFO of the sound device (128ms at 16kHz)
+	private static final int fifoSize = 4096;
+
+	// the former table of the note frequencies
+	private static final int[] formerFreqs = new int[] { 1976, 1865, 1760, 1661, 1568, 1480, 1397, 1319, 1245, 1175,
+			1109, 1047, 988, 932, 880, 831, 784, 740, 698, 659, 622, 587, 554, 523, 494, 466, 440, 415, 392, 370, 349,
+			330, 311, 294, 277, 262 };
+
+	// a song
+	private static final String[] song = new String[] { "E5", "D5", "C5", "D5", "E5", "E5", "E5", Sound.REST, "D5",
+			"D5", "D5", Sound.REST, "E5", "G5", "G5", Sound.REST };
+
+	private static SimHardware.SimAudio audio = null;
+
+	/**
+	 * Main program entry point.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for INFO level
+		Setup.log2File(clazz, Level.INFO);
+		log.info("Starting ...");
+
+		// use the simulated hardware before any block is used
+		SimHardware sim = new SimHardware();
+		Hardware.set(sim);
+		audio = sim.getAudioDevice();
+
+		// the note frequencies
+		int diff = 0;
+		for (int i = 0; i < Sound.noteNames.length; i++) {
+			if (Sound.calcFreq(Sound.noteNames[i]) != formerFreqs[i]) {
+				diff++;
+			}
+		}
+		check("former notes", diff, 0);
+		check("C0", Sound.calcFreq("C0"), 16);
+		check("c3", Sound.calcFreq("c3"), 131);
+		check("A7", Sound.calcFreq("A7"), 3520);
+		check("B8", Sound.calcFreq("B8"), 7902);
+		check("invalid note", Sound.calcFreq("H4"), 0);
+
+		// the pitch of each note
+		String[] notes = new String[] { "C3", "A4", "C7", Sound.REST, "E5" };
+		int[] freqs = new int[] { 131, 440, 2093, 0, 659 };
+		float[] durations = new float[notes.length];
+		for (int i = 0; i < notes.length; i++) {
+			durations[i] = 0.125F;
+		}
+		NoteSequence sequence = Sound.compileSequence(Sound.FLUTE, notes, durations);
+		check("size", sequence.size(), notes.length);
+		short[] pcm = capture(sequence);
+		int len = sampleRate / 8;
+		int wrong = 0;
+		for (int i = 0; i < notes.length; i++) {
+			int crossings = 0;
+			for (int k = i * len + 1; k < Math.min(pcm.length, (i + 1) * len); k++) {
+				if ((pcm[k - 1] < 0) && (pcm[k] >= 0)) {
+					crossings++;
+				}
+			}
+			if (Math.abs(crossings - freqs[i] / 8) > 2) {
+				log.info(notes[i] + ": " + crossings + " periods");
+				wrong++;
+			}
+		}
+		check("pitch", wrong, 0);
+
+		// the notes start at their samples: 3 notes with rests between of 1/3s
+		sequence = Sound.compileSequence(Sound.PIANO, new String[] { "A4", Sound.REST, "A4", Sound.REST, "A4" },
+				new float[] { 1.0F / 3, 1.0F / 3, 1.0F / 3, 1.0F / 3, 1.0F / 3 });
+		check("duration", Math.round(sequence.getDuration() * sampleRate), Math.round(sampleRate * 5.0F / 3));
+		pcm = capture(sequence);
+		int[] starts = new int[3];
+		int n = 0;
+		int silent = blockSize;
+		for (int i = 0; i < pcm.length; i++) {
+			if (pcm[i] == 0) {
+				silent++;
+			} else {
+				if ((silent >= blockSize) && (n < starts.length)) {
+					// the note faded in from zero
+					starts[n++] = i - 1;
+				}
+				silent = 0;
+			}
+		}
+		check("notes", n, 3);
+		check("2nd note start", starts[1] - starts[0], Math.round(sampleRate * 2.0F / 3));
+		check("3rd note start", starts[2] - starts[0], Math.round(sampleRate * 4.0F / 3));
+
+		// the note lookup
+		BenchmarkUtil.measure("former calcFreq (linear search)", 100000, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				long sum = 0L;
+				for (int i = 0; i < count; i++) {
+					sum += formerCalcFreq(song[i % 7]);
+				}
+				return sum;
+			}
+		});
+		BenchmarkUtil.measure("calcFreq (table)", 100000, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				long sum = 0L;
+				for (int i = 0; i < count; i++) {
+					sum += Sound.calcFreq(song[i % 7]);
+				}
+				return sum;
+			}
+		});
+
+		// the song note by note and as a sequence in real time
+		audio.setFifoSize(fifoSize);
+		sleep(700L);
+		float beat = 0.125F;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		audio.setCapture(out);
+		for (String note : song) {
+			if (Sound.REST.equals(note)) {
+				sleep((long) (beat * 1000));
+			} else {
+				Sound.playNote(Sound.PIANO, note, beat);
+			}
+		}
+		audio.setCapture(null);
+		int former = soundLength(samples(out.toByteArray()));
+		sleep(700L);
+		durations = new float[song.length];
+		for (int i = 0; i < song.length; i++) {
+			durations[i] = beat;
+		}
+		sequence = Sound.compileSequence(Sound.PIANO, song, durations);
+		pcm = capture(sequence);
+		int length = soundLength(pcm);
+		int nominal = Math.round(sampleRate * beat * (song.length - 1));
+		log.info(String.format("song of %d samples: note by note %d samples, sequence %d samples", nominal, former,
+				length));
+		check("song length", Math.abs(length - nominal) <= 32 ? 1 : 0, 1);
+		audio.setFifoSize(0);
+
+		log.info("The End");
+	}
+
+	/**
+	 * play a sequence and wait until done.
+	 *
+	 * @return the samples the device received.
+	 */
+	private static short[] capture(NoteSequence sequence) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		audio.setCapture(out);
+		Sound.playSequence(sequence, 100, Sound.WAIT);
+		audio.setCapture(null);
+		return samples(out.toByteArray());
+	}
+
+	/**
+	 * @return the number of samples from the first to the last sound.
+	 */
+	private static int soundLength(short[] pcm) {
+		int first = 0;
+		while ((first < pcm.length) && (pcm[first] == 0)) {
+			first++;
+		}
+		int last = pcm.length - 1;
+		while ((last > first) && (pcm[last] == 0)) {
+			last--;
+		}
+		return Math.max(0, last - first + 2);
+	}
+
+	/**
+	 * the former Sound.calcFreq(): a linear search of the note names.
+	 */
+	private static int formerCalcFreq(String note) {
+		note = note.toUpperCase();
+		for (int ix = 0; ix < Sound.noteNames.length; ix++) {
+			if (Sound.noteNames[ix] == note) {
+				return formerFreqs[ix];
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the 16 bit samples.
+	 */
+	private static short[] samples(byte[] pcm) {
+		short[] samples = new short[pcm.length / 2];
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = (short) ((pcm[i * 2] & 0xff) | (pcm[i * 2 + 1] << 8));
+		}
+		return samples;
+	}
+
+	/**
+	 * sleep without interruption handling.
+	 */
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			// ignore
+		}
+	}
+
+	/**
+	 * check a value.
+	 */
+	private static void check(String name, long value, long expected) {
+		if (value == expected) {
+			log.info(name + ": OK");
+		} else {
+			log.warning(name + ": FAILED, " + value + " instead of " + expected);
+		}
+	}
+}
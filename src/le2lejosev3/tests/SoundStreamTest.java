@@ -0,0 +1,299 @@
+/**
+ *
+ */
+package le2lejosev3.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.EV3Audio;
+import le2lejosev3.pblocks.Hardware;
+import le2lejosev3.pblocks.SimHardware;
+
+/**
+ * Test of the WAV streaming of the EV3Audio class.
+ * Plays generated WAV streams to the simulated sound device: checks the PCM
+ * data that reaches the device, compares the underruns of the former
+ * synchronous read-and-write loop with the read-ahead streaming when the
+ * storage device stalls, and stops a playback.
+ * (runs against the simulated hardware on an ordinary computer; does not need
+ * an EV3 brick)
+ *
+ * @author Roland Blochberger
+ */
+public class SoundStreamTest {
+
+	private static Class<?> clazz = SoundStreamTest.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	// the sample rate of the generated streams
+	private static final int sampleRate = 16000;
+	// the emulated FIFO of the sound device
+	private static final int fifoSize = 12 * 1024;
+	// the storage stall
+	private static final int stallEvery = 32 * 1024;
+	private static final long stallMillis = 500L;
+
+	private static SimHardware.SimAudio audio = null;
+
+	/**
+	 * A stream that stalls periodically like a slow SD card.
+	 */
+	private static class StallingInputStream extends FilterInputStream {
+		private final int every;
+		private final long millis;
+		private int count = 0;
+
+		StallingInputStream(InputStream in, int every, long millis) {
+			super(in);
+			this.every = every;
+			this.millis = millis;
+		}
+
+		@Override
+		public int read() throws IOException {
+			stall(1);
+			return super.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			// stop at the next stall position
+			len = Math.min(len, every - (count % every));
+			stall(len);
+			return super.read(b, off, len);
+		}
+
+		private void stall(int len) {
+			if ((count > 0) && ((count % every) == 0)) {
+				try {
+					Thread.sleep(millis);
+				} catch (InterruptedException e) {
+					// ignore
+				}
+			}
+			count += len;
+		}
+	}
+
+	/**
+	 * Main program entry point.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for INFO level
+		Setup.log2File(clazz, Level.INFO);
+		log.info("Starting ...");
+
+		// use the simulated hardware before any block is used
+		SimHardware sim = new SimHardware();
+		Hardware.set(sim);
+		audio = sim.getAudioDevice();
+		EV3Audio ev3Audio = (EV3Audio) EV3Audio.getAudio();
+
+		// the PCM data that reaches the device
+		byte[] pcm16 = samples16(sampleRate / 2);
+		byte[] pcm8 = samples8(sampleRate / 2);
+		checkPlay("16 bit", ev3Audio, wav(pcm16, 16), pcm16);
+		checkPlay("8 bit", ev3Audio, wav(pcm8, 8), to16(pcm8));
+
+		// a stalling storage device
+		byte[] pcm = samples16(sampleRate * 3);
+		byte[] wav = wav(pcm, 16);
+		audio.setFifoSize(fifoSize);
+		audio.resetCounters();
+		long ts = System.nanoTime();
+		formerPlay(new StallingInputStream(new ByteArrayInputStream(wav), stallEvery, stallMillis));
+		log.info(String.format("former loop: %d device underruns, %dms for %.1fs of sound", audio.getUnderrunCount(),
+				(System.nanoTime() - ts) / 1000000L, pcm.length / (2.0 * sampleRate)));
+		audio.resetCounters();
+		long underruns = ev3Audio.getUnderrunCount();
+		long underrunTime = ev3Audio.getUnderrunTime();
+		ts = System.nanoTime();
+		int r = ev3Audio
+				.playSample(new StallingInputStream(new ByteArrayInputStream(wav), stallEvery, stallMillis), 100);
+		log.info(String.format("streaming: %d device underruns, %dms for %.1fs of sound, %d read underruns (%dms)",
+				audio.getUnderrunCount(), (System.nanoTime() - ts) / 1000000L, pcm.length / (2.0 * sampleRate),
+				ev3Audio.getUnderrunCount() - underruns, ev3Audio.getUnderrunTime() - underrunTime));
+		check("streaming result", r, 0);
+		check("streaming device underruns", audio.getUnderrunCount(), 0);
+		check("streaming PCM bytes", audio.getPCMBytes(), pcm.length);
+
+		// stop a playback
+		final EV3Audio player = ev3Audio;
+		final byte[] longWav = wav(samples16(sampleRate * 10), 16);
+		final int[] result = new int[] { 1 };
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				result[0] = player.playSample(new ByteArrayInputStream(longWav), 100);
+			}
+		});
+		thread.start();
+		sleep(300L);
+		ts = System.nanoTime();
+		ev3Audio.endPCMPlayback();
+		try {
+			thread.join(5000L);
+		} catch (InterruptedException e) {
+			// ignore
+		}
+		log.info(String.format("stopped after %.1fms", (System.nanoTime() - ts) / 1000000.0));
+		check("stopped", thread.isAlive() ? 1 : 0, 0);
+		check("stopped result", result[0], 0);
+		audio.setFifoSize(0);
+
+		log.info("The End");
+	}
+
+	/**
+	 * play the WAV stream and check the PCM data the device received.
+	 */
+	private static void checkPlay(String name, EV3Audio ev3Audio, byte[] wav, byte[] expected) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		audio.setCapture(out);
+		int r = ev3Audio.playSample(new ByteArrayInputStream(wav), 100);
+		audio.setCapture(null);
+		check(name + " result", r, 0);
+		if (Arrays.equals(out.toByteArray(), expected)) {
+			log.info(name + " data: OK");
+		} else {
+			log.warning(name + " data: FAILED, " + out.size() + " bytes instead of " + expected.length);
+		}
+	}
+
+	/**
+	 * the former EV3Audio loop: read a buffer, write it to the device, retry
+	 * every 5ms while the device is full.
+	 */
+	private static void formerPlay(InputStream in) {
+		byte[] buf = new byte[8 * 1024 + 1];
+		byte[] cmd = new byte[] { 2, 100, (byte) sampleRate, (byte) (sampleRate >> 8), 0, 0 };
+		audio.write(cmd, cmd.length);
+		try {
+			// skip the header
+			in.skip(44L + 12L);
+			int read;
+			while ((read = in.read(buf, 1, buf.length - 1)) > 0) {
+				buf[0] = 4;
+				while (audio.write(buf, 0, read + 1) == 0) {
+					sleep(5L);
+				}
+			}
+			in.close();
+		} catch (IOException e) {
+			log.log(Level.WARNING, "read failed", e);
+		}
+		cmd[0] = 0;
+		audio.write(cmd, 1);
+	}
+
+	/**
+	 * @return a WAV stream with the PCM data; with a chunk to skip before the
+	 *         data chunk.
+	 */
+	private static byte[] wav(byte[] pcm, int bits) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeTag(out, "RIFF");
+		writeInt(out, 4 + 24 + 12 + 8 + pcm.length);
+		writeTag(out, "WAVE");
+		writeTag(out, "fmt ");
+		writeInt(out, 16);
+		writeShort(out, 1);
+		writeShort(out, 1);
+		writeInt(out, sampleRate);
+		writeInt(out, sampleRate * bits / 8);
+		writeShort(out, bits / 8);
+		writeShort(out, bits);
+		writeTag(out, "LIST");
+		writeInt(out, 4);
+		writeTag(out, "INFO");
+		writeTag(out, "data");
+		writeInt(out, pcm.length);
+		out.write(pcm, 0, pcm.length);
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return a 16 bit sine wave.
+	 */
+	private static byte[] samples16(int count) {
+		byte[] pcm = new byte[count * 2];
+		for (int i = 0; i < count; i++) {
+			int sample = (int) (Math.sin(i * 0.1) * 20000);
+			pcm[i * 2] = (byte) sample;
+			pcm[i * 2 + 1] = (byte) (sample >> 8);
+		}
+		return pcm;
+	}
+
+	/**
+	 * @return an 8 bit sine wave.
+	 */
+	private static byte[] samples8(int count) {
+		byte[] pcm = new byte[count];
+		for (int i = 0; i < count; i++) {
+			pcm[i] = (byte) (128 + (int) (Math.sin(i * 0.1) * 100));
+		}
+		return pcm;
+	}
+
+	/**
+	 * @return the 8 bit samples converted to 16 bit.
+	 */
+	private static byte[] to16(byte[] pcm8) {
+		byte[] pcm = new byte[pcm8.length * 2];
+		for (int i = 0; i < pcm8.length; i++) {
+			int sample = ((pcm8[i] & 0xff) - 128) << 8;
+			pcm[i * 2] = (byte) sample;
+			pcm[i * 2 + 1] = (byte) (sample >> 8);
+		}
+		return pcm;
+	}
+
+	private static void writeTag(ByteArrayOutputStream out, String tag) {
+		for (int i = 0; i < 4; i++) {
+			out.write(tag.charAt(i));
+		}
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int value) {
+		writeShort(out, value);
+		writeShort(out, value >> 16);
+	}
+
+	private static void writeShort(ByteArrayOutputStream out, int value) {
+		out.write(value);
+		out.write(value >> 8);
+	}
+
+	/**
+	 * sleep without interruption handling.
+	 */
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			// ignore
+		}
+	}
+
+	/**
+	 * check a value.
+	 */
+	private static void check(String name, long value, long expected) {
+		if (value == expected) {
+			log.info(name + ": OK");
+		} else {
+			log.warning(name + ": FAILED, " + value + " instead of " + expected);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+/**
+ *
+ */
+package le2lejosev3.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.Hardware;
+import le2lejosev3.pblocks.SimHardware;
+import le2lejosev3.pblocks.Sound;
+
+/**
+ * Test of the synthesized notes of the Sound block.
+ * Checks the length, envelope, and pitch of notes rendered into the PCM
+ * stream, then compares the device commands and the CPU time of the former
+ * note generation (a tone command every 2ms while busy-waiting) with the
+ * synthesizer.
+ * (runs against the simulated hardware on an ordinary computer; does not need
+ * an EV3 brick)
+ *
+ * @author Roland Blochberger
+ */
+public class SoundSynthTest {
+
+	private static Class<?> clazz = SoundSynthTest.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	// the sample rate of the mixer
+	private static final int sampleRate = 16000;
+	// the emulated FIFO of the sound device (128ms at 16kHz)
+	private static final int fifoSize = 4096;
+	// the command codes of the sound device
+	private static final int OP_TONE = 1;
+	private static final int OP_SERVICE = 4;
+
+	private static SimHardware.SimAudio audio = null;
+
+	/**
+	 * Main program entry point.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for INFO level
+		Setup.log2File(clazz, Level.INFO);
+		log.info("Starting ...");
+
+		// use the simulated hardware before any block is used
+		SimHardware sim = new SimHardware();
+		Hardware.set(sim);
+		audio = sim.getAudioDevice();
+
+		// a 0.5s piano note: attack, decay, sustain, release in 2ms segments
+		short[] pcm = capture(Sound.PIANO, "A4", 0.5F);
+		int last = pcm.length - 1;
+		while ((last > 0) && (pcm[last] == 0)) {
+			last--;
+		}
+		check("note length", Math.abs(last + 1 - sampleRate / 2) <= 32 ? 1 : 0, 1);
+		int attack = peak(pcm, 0, 32);
+		int top = peak(pcm, 4 * 32, 32);
+		int end = peak(pcm, last - 32, 32);
+		log.info("note peaks: attack " + attack + ", top " + top + ", release " + end);
+		check("fade in", attack < top / 4 ? 1 : 0, 1);
+		check("top level", Math.abs(top - 29800) < 1500 ? 1 : 0, 1);
+		check("fade out", end < top / 20 ? 1 : 0, 1);
+
+		// the pitch of a flute note
+		pcm = capture(Sound.FLUTE, "A5", 1.0F);
+		int crossings = 0;
+		for (int i = 1; i < pcm.length; i++) {
+			if ((pcm[i - 1] < 0) && (pcm[i] >= 0)) {
+				crossings++;
+			}
+		}
+		check("pitch", Math.abs(crossings - 880) <= 2 ? 1 : 0, 1);
+
+		// the device commands and CPU time per note
+		audio.setFifoSize(fifoSize);
+		audio.resetCounters();
+		long ts = System.nanoTime();
+		long cpu = BenchmarkUtil.processCpuTime();
+		formerPlayNote(new int[] { 4, 25, 500, 7000, 5 }, 440, 1000);
+		cpu = BenchmarkUtil.processCpuTime() - cpu;
+		ts = System.nanoTime() - ts;
+		log.info(String.format("former note: %d tone commands, %dms CPU in %dms", audio.getCommandCount(OP_TONE),
+				cpu / 1000000L, ts / 1000000L));
+		audio.resetCounters();
+		ts = System.nanoTime();
+		cpu = BenchmarkUtil.processCpuTime();
+		Sound.playNote(Sound.PIANO, "A4", 1.0F);
+		cpu = BenchmarkUtil.processCpuTime() - cpu;
+		ts = System.nanoTime() - ts;
+		log.info(String.format("synthesized note: %d PCM writes, %dms CPU in %dms",
+				audio.getCommandCount(OP_SERVICE), cpu / 1000000L, ts / 1000000L));
+		check("no tone commands", audio.getCommandCount(OP_TONE), 0);
+		audio.setFifoSize(0);
+
+		log.info("The End");
+	}
+
+	/**
+	 * play a note and wait until done.
+	 *
+	 * @return the samples the device received.
+	 */
+	private static short[] capture(int instrument, String note, float duration) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		audio.setCapture(out);
+		Sound.playNote(instrument, note, duration);
+		audio.setCapture(null);
+		byte[] data = out.toByteArray();
+		short[] samples = new short[data.length / 2];
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = (short) ((data[i * 2] & 0xff) | (data[i * 2 + 1] << 8));
+		}
+		return samples;
+	}
+
+	/**
+	 * @return the peak amplitude of the samples.
+	 */
+	private static int peak(short[] pcm, int from, int len) {
+		int peak = 0;
+		for (int i = Math.max(0, from); i < Math.min(pcm.length, from + len); i++) {
+			peak = Math.max(peak, Math.abs(pcm[i]));
+		}
+		return peak;
+	}
+
+	/**
+	 * the former EV3Audio.playNote: a tone command with a new volume every 2ms
+	 * while busy-waiting.
+	 */
+	private static void formerPlayNote(int[] inst, int freq, int len) {
+		int segLen = inst[0];
+		int step = 9000 / segLen;
+		int vol = 100;
+		int oldVol = 0;
+		int t = waitUntil((int) System.currentTimeMillis() + 1);
+		tone(freq, len + 2000, vol / 100);
+		len /= 2;
+		for (int i = 0; i < segLen; i++) {
+			vol += step;
+			if (oldVol != vol / 100) {
+				tone(freq, 100, vol / 100);
+				oldVol = vol / 100;
+			}
+			t = waitUntil(t + 2);
+		}
+		len -= segLen;
+		segLen = inst[1];
+		step = inst[2] / segLen;
+		for (int i = 0; i < segLen; i++) {
+			vol -= step;
+			if (oldVol != vol / 100) {
+				tone(freq, 100, vol / 100);
+				oldVol = vol / 100;
+			}
+			t = waitUntil(t + 2);
+		}
+		len -= segLen;
+		segLen = inst[4];
+		len -= segLen;
+		step = inst[3] / len;
+		for (int i = 0; i < len; i++) {
+			vol -= step;
+			if (oldVol != vol / 100) {
+				tone(freq, 100, vol / 100);
+				oldVol = vol / 100;
+			}
+			t = waitUntil(t + 2);
+		}
+		step = (vol - 100) / segLen;
+		for (int i = 0; i < segLen; i++) {
+			vol -= step;
+			if (oldVol != vol / 100) {
+				tone(freq, 100, vol / 100);
+				oldVol = vol / 100;
+			}
+			t = waitUntil(t + 2);
+		}
+		audio.write(new byte[] { 0 }, 1);
+	}
+
+	private static void tone(int freq, int durMs, int vol) {
+		audio.write(new byte[] { OP_TONE, (byte) vol, (byte) freq, (byte) (freq >> 8), (byte) durMs,
+				(byte) (durMs >> 8) }, 6);
+	}
+
+	private static int waitUntil(int t) {
+		int t2;
+		while ((t2 = (int) System.currentTimeMillis()) < t) {
+			Thread.yield();
+		}
+		return t2;
+	}
+
+	/**
+	 * check a value.
+	 */
+	private static void check(String name, long value, long expected) {
+		if (value == expected) {
+			log.info(name + ": OK");
+		} else {
+			log.warning(name + ": FAILED, " + value + " instead of " + expected);
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/**
+ * 
+ */
+package le2lejosev3.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.FileAccess;
+import le2lejosev3.pblocks.Telemetry;
+import le2lejosev3.pblocks.TelemetryReader;
+import le2lejosev3.pblocks.TelemetryWriter;
+
+/**
+ * Test of the binary telemetry files.
+ * Writes a telemetry file, reads it back, compares reading it with reading
+ * the same values from a text file, and checks the export to a text file.
+ * (runs on an ordinary computer as well as on the EV3 brick)
+ * 
+ * @author Roland Blochberger
+ */
+public class TelemetryTest {
+
+	private static Class<?> clazz = TelemetryTest.class;
+	private static final Logger log = Logger.getLogger(clazz.getName());
+
+	// number of records
+	private static final int recordCount = 10000;
+
+	/**
+	 * Main program entry point.
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// setup logging to file for INFO level
+		Setup.log2File(clazz, Level.INFO);
+		log.info("Starting ...");
+
+		// write the files into a temporary directory
+		File tmpDir = null;
+		try {
+			tmpDir = Files.createTempDirectory("pblocks").toFile();
+		} catch (IOException e) {
+			log.log(Level.SEVERE, "Cannot create temporary directory", e);
+			return;
+		}
+		FileAccess.setFilesDir(tmpDir);
+
+		// write the telemetry file
+		TelemetryWriter tw = new TelemetryWriter("telemetry", new String[] { "time", "angle", "power" },
+				new int[] { Telemetry.TYPE_TIMESTAMP, Telemetry.TYPE_FLOAT, Telemetry.TYPE_INT });
+		for (int i = 0; i < recordCount; i++) {
+			tw.setTimestamp(0, i * 1000L);
+			tw.setFloat(1, i * 0.37F);
+			if ((i % 2) == 0) {
+				// the power stays set in the odd records
+				tw.setInt(2, -i);
+			}
+			tw.writeRecord();
+		}
+		tw.close();
+		check("file size", tw.getFile().length(), 6 + 3 * 2 + 4 + 5 + 5 + recordCount * 16L);
+
+		// read it back
+		TelemetryReader tr = TelemetryReader.open("telemetry");
+		check("column count", tr.getColumnCount(), 3);
+		check("column name", tr.getColumn("power"), 2);
+		check("column type", tr.getColumnType(1), Telemetry.TYPE_FLOAT);
+		check("record count", tr.getRecordCount(), recordCount);
+		int errors = 0;
+		int n = 0;
+		while (tr.next()) {
+			if ((tr.getTimestamp(0) != n * 1000L) || (tr.getFloat(1) != n * 0.37F)
+					|| (tr.getInt(2) != -(n - (n % 2)))) {
+				errors++;
+			}
+			n++;
+		}
+		tr.close();
+		check("records read", n, recordCount);
+		check("record values errors", errors, 0);
+
+		// the same values in a text file
+		for (int i = 0; i < recordCount; i++) {
+			FileAccess.write("angles", i * 0.37F);
+		}
+		FileAccess.close("angles");
+
+		// read speed: binary records and parsed text lines
+		BenchmarkUtil.Result binary = BenchmarkUtil.measure("telemetry read float", recordCount,
+				new BenchmarkUtil.Op() {
+					@Override
+					public long run(int count) {
+						TelemetryReader tr = TelemetryReader.open("telemetry");
+						long sum = 0L;
+						while (tr.next()) {
+							sum += Float.floatToRawIntBits(tr.getFloat(1));
+						}
+						tr.close();
+						return sum;
+					}
+				});
+		BenchmarkUtil.measure("text readNumeric", recordCount, new BenchmarkUtil.Op() {
+			@Override
+			public long run(int count) {
+				long sum = 0L;
+				for (int i = 0; i < count; i++) {
+					sum += Float.floatToRawIntBits(FileAccess.readNumeric("angles"));
+				}
+				FileAccess.close("angles");
+				return sum;
+			}
+		});
+		// opening the reader allocates its buffers once per round
+		if ((binary.bytesPerOp >= 0) && (binary.bytesPerOp < 2.0)) {
+			log.info("telemetry read allocation: OK");
+		} else {
+			log.warning("telemetry read allocation: FAILED, " + binary.bytesPerOp + " B/op");
+		}
+
+		// export to text and read back with FileAccess
+		check("export records", TelemetryReader.exportText("telemetry", "export"), recordCount);
+		errors = 0;
+		for (int i = 0; i < recordCount; i++) {
+			if ((FileAccess.readInt("export") != i * 1000) || (FileAccess.readNumeric("export") != i * 0.37F)
+					|| (FileAccess.readInt("export") != -(i - (i % 2)))) {
+				errors++;
+			}
+		}
+		if (FileAccess.read("export") != null) {
+			errors++;
+		}
+		FileAccess.close("export");
+		check("export values errors", errors, 0);
+		check("export column", TelemetryReader.exportText("telemetry", "export", 1), recordCount);
+		errors = 0;
+		for (int i = 0; i < recordCount; i++) {
+			if (FileAccess.readNumeric("export") != i * 0.37F) {
+				errors++;
+			}
+		}
+		FileAccess.close("export");
+		check("export column errors", errors, 0);
+
+		// clean up
+		for (File file : tmpDir.listFiles()) {
+			file.delete();
+		}
+		tmpDir.delete();
+
+		log.info("The End");
+	}
+
+	/**
+	 * check a value.
+	 */
+	private static void check(String name, long value, long expected) {
+		if (value == expected) {
+			log.info(name + ": OK");
+		} else {
+			log.warning(name + ": FAILED, " + value + " instead of " + expected);
+		}
+	}
+}
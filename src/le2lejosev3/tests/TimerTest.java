@@ -7,6 +7,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import le2lejosev3.logging.Setup;
+import le2lejosev3.pblocks.Parallel;
 import le2lejosev3.pblocks.Timer;
 import le2lejosev3.pblocks.Wait;
 
@@ -52,6 +53,46 @@ public class TimerTest {
 		}
 		log.fine("Values: " + vals);
 
+		// named and higher numbered timers shared by parallel tasks
+		Timer.reset("loop");
+		Timer.reset(12);
+		Parallel.runAll(new Runnable() {
+			@Override
+			public void run() {
+				Wait.time(0.2F);
+				log.fine("loop: " + Timer.measure("loop") + ", timer 12 (reset after 0.1s): " + Timer.measure(12));
+			}
+		}, new Runnable() {
+			@Override
+			public void run() {
+				Wait.time(0.1F);
+				Timer.reset(12);
+			}
+		});
+
+		// 100 Hz loop: waiting 0.01s per cycle drifts, the fixed rate does not
+		int cycles = 200;
+		Timer.reset(1);
+		for (int i = 0; i < cycles; i++) {
+			Wait.time(0.01F);
+		}
+		log.fine("Wait.time(0.01) x " + cycles + ": " + Timer.measure(1) + "s");
+		Wait.Rate rate = new Wait.Rate(100F);
+		Timer.reset(1);
+		for (int i = 0; i < cycles; i++) {
+			rate.waitNext();
+		}
+		log.fine("Wait.Rate(100) x " + cycles + ": " + Timer.measure(1) + "s, overruns: " + rate.getOverrunCount()
+				+ ", jitter mean: " + (rate.getMeanJitterNanos() / 1000.0) + "us, max: "
+				+ (rate.getMaxJitterNanos() / 1000.0) + "us, deviation: "
+				+ (rate.getJitterDeviationNanos() / 1000.0) + "us");
+
+		// sub-millisecond precision
+		Timer timer = new Timer();
+		long t1 = timer.measureNanos();
+		long t2 = timer.measureNanos();
+		log.fine("measure resolution: " + (t2 - t1) + "ns, elapsed: " + timer.measure() + "s");
+
 		log.fine("The End");
 	}
 